@@ -0,0 +1,123 @@
+package com.denzo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Переходы при перегрузке хранилища без AdmissionController и с ним: хранилище обслуживает не больше двух
+// обращений одновременно, каждое около 1 мс, а потоков намного больше. Печатает p99 переходов по живым ссылкам
+// и доли отклонённых переходов по живым и неизвестным кодам. С допуском p99 должен быть в разы ниже, а переходы
+// по неизвестным кодам - отклоняться чаще.
+//
+// Запуск: java -cp target/benchmarks.jar com.denzo.AdmissionOverload [потоков] [секунд]
+public class AdmissionOverload {
+    public static void main(String[] args) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Notifier notifier = (userUuid, message) -> { };
+        Semaphore disk = new Semaphore(2, true);
+        InMemoryLinkStore slowStore = new InMemoryLinkStore() {
+            @Override
+            public ShortLink get(long code) {
+                disk.acquireUninterruptibly();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    disk.release();
+                }
+                return super.get(code);
+            }
+        };
+        UrlShorter urlShorter = new UrlShorter(slowStore, notifier, new FeistelCodeGenerator());
+        UUID owner = UUID.randomUUID();
+        List<String> live = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            live.add(urlShorter.buildShortUrl("https://www.example.com/live/" + i, owner, Integer.MAX_VALUE, 24));
+        }
+        report("без допуска", runOverload(urlShorter, null, live, threads, seconds));
+        AdmissionController admission = new AdmissionController(urlShorter, 1000, 1000);
+        // Живые ссылки становятся известными: по ним недавно был успешный переход
+        for (String shortUrl : live) {
+            admission.resolve(shortUrl, null);
+        }
+        report("с допуском", runOverload(urlShorter, admission, live, threads, seconds));
+        System.out.println("предел одновременных операций: " + admission.getConcurrencyLimit());
+    }
+
+    private static void report(String label, long[] result) {
+        System.out.printf(Locale.ROOT, "%-12s p99 живых %.2f мс, отклонено живых %.1f%%, неизвестных %.1f%%%n",
+                label, result[0] / 1e6, 100.0 * result[2] / Math.max(1, result[1] + result[2]),
+                100.0 * result[4] / Math.max(1, result[3] + result[4]));
+    }
+
+    // threads потоков полсекунды разгоняют нагрузку и seconds секунд замеряют: 80% переходов по живым ссылкам, 20% -
+    // по неизвестным кодам; отклонённый клиент ждёт 1 мс. Возвращает [p99 живых, живые допущены, живые отклонены,
+    // неизвестные допущены, неизвестные отклонены]
+    private static long[] runOverload(UrlShorter urlShorter, AdmissionController admission, List<String> live,
+                                      int threadCount, int seconds) {
+        LatencyHistogram knownLatency = new LatencyHistogram();
+        LongAdder[] counts = {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()};
+        long measureFrom = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            Thread thread = new Thread(() -> {
+                Random random = new Random();
+                char[] code = new char[ShortCodes.LENGTH];
+                while (true) {
+                    long start = System.nanoTime();
+                    if (start - end >= 0) {
+                        return;
+                    }
+                    boolean known = random.nextInt(10) < 8;
+                    String shortUrl;
+                    if (known) {
+                        shortUrl = live.get(random.nextInt(live.size()));
+                    } else {
+                        for (int i = 0; i < code.length; i++) {
+                            code[i] = ShortCodes.ALPHABET.charAt(random.nextInt(ShortCodes.BASE));
+                        }
+                        shortUrl = new String(code);
+                    }
+                    ResolveStatus status = admission == null ? urlShorter.resolve(shortUrl).getStatus()
+                            : admission.resolve(shortUrl, null).getStatus();
+                    long elapsed = System.nanoTime() - start;
+                    boolean measured = start - measureFrom >= 0;
+                    if (status == ResolveStatus.REJECTED) {
+                        if (measured) {
+                            counts[known ? 1 : 3].increment();
+                        }
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    } else if (measured) {
+                        counts[known ? 0 : 2].increment();
+                        if (known) {
+                            knownLatency.record(elapsed);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return new long[]{knownLatency.snapshot().getValueAtPercentile(99), counts[0].sum(), counts[1].sum(),
+                counts[2].sum(), counts[3].sum()};
+    }
+}
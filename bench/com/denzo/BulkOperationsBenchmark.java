@@ -0,0 +1,91 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Пакетные операции против вызовов по одной: создание пачки ссылок (buildShortUrls против цикла buildShortUrl)
+// и переход по пачке кодов (restoreLongUrls против цикла resolve). Время - на всю пачку.
+// Для создания хранилище пересоздаётся перед каждым вызовом, чтобы замер не зависел от накопленных ссылок.
+//
+// Запуск: java -jar target/benchmarks.jar BulkOperationsBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkOperationsBenchmark {
+    private static final String LONG_URL = "https://www.example.com/campaign/landing?utm_source=bench&id=";
+
+    @State(Scope.Benchmark)
+    public static class Requests {
+        @Param({"10000", "100000"})
+        public int batchSize;
+
+        List<LinkRequest> requests;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            UUID owner = UUID.randomUUID();
+            requests = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                requests.add(new LinkRequest(LONG_URL + i, owner, Integer.MAX_VALUE, 24 * 30));
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FreshStore {
+        UrlShorter urlShorter;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            urlShorter = new UrlShorter((userUuid, message) -> { });
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Filled {
+        UrlShorter urlShorter;
+        List<String> shortUrls;
+
+        @Setup(Level.Trial)
+        public void setUp(Requests requests) {
+            urlShorter = new UrlShorter((userUuid, message) -> { });
+            shortUrls = urlShorter.buildShortUrls(requests.requests);
+        }
+    }
+
+    @Benchmark
+    public String[] createOneByOne(Requests requests, FreshStore store) {
+        String[] shortUrls = new String[requests.batchSize];
+        for (int i = 0; i < shortUrls.length; i++) {
+            LinkRequest request = requests.requests.get(i);
+            shortUrls[i] = store.urlShorter.buildShortUrl(request.getLongUrl(), request.getOwnerUuid(),
+                    request.getLimit(), request.getLifetimeHours());
+        }
+        return shortUrls;
+    }
+
+    @Benchmark
+    public List<String> createBulk(Requests requests, FreshStore store) {
+        return store.urlShorter.buildShortUrls(requests.requests);
+    }
+
+    @Benchmark
+    public String[] resolveOneByOne(Filled filled) {
+        String[] longUrls = new String[filled.shortUrls.size()];
+        for (int i = 0; i < longUrls.length; i++) {
+            longUrls[i] = filled.urlShorter.resolve(filled.shortUrls.get(i)).getLongUrl();
+        }
+        return longUrls;
+    }
+
+    @Benchmark
+    public List<String> resolveBulk(Filled filled) {
+        return filled.urlShorter.restoreLongUrls(filled.shortUrls);
+    }
+}
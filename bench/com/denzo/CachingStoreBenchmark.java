@@ -0,0 +1,71 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Переход по ссылке в MappedLinkStore без кэша и с CachingLinkStore при перекошенной нагрузке:
+// 90% переходов приходятся на 1% кодов, остальные - равномерно по всем ссылкам.
+//
+// Запуск: java -jar target/benchmarks.jar CachingStoreBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CachingStoreBenchmark {
+    private static final int LINKS = 200_000;
+    private static final int HOT_LINKS = LINKS / 100;
+    // Типичная ссылка кампании: длинный путь и метки UTM
+    private static final String LONG_URL = "https://www.example.com/catalog/seasonal-sale/outdoor-equipment/tents"
+            + "?utm_source=newsletter&utm_medium=email&utm_campaign=autumn_sale_2024&utm_content=hero_banner&id=";
+
+    // Размер кэша в ссылках; 0 - без кэша
+    @Param({"0", "4096"})
+    public int cacheSize;
+
+    private LinkStore store;
+    private UrlShorter urlShorter;
+    private String[] codes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        store = MappedLinkStore.open(Files.createTempDirectory("bench-cache"), 2L * LINKS);
+        if (cacheSize > 0) {
+            store = new CachingLinkStore(store, cacheSize);
+        }
+        urlShorter = new UrlShorter(store, (userUuid, message) -> { }, new FeistelCodeGenerator());
+        urlShorter.setMetricsEnabled(false);
+        UUID owner = UUID.randomUUID();
+        codes = new String[LINKS];
+        for (int i = 0; i < LINKS; i++) {
+            codes[i] = urlShorter.buildShortUrl(LONG_URL + i, owner, Integer.MAX_VALUE, 24);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+    }
+
+    private String nextCode() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return random.nextInt(10) < 9 ? codes[random.nextInt(HOT_LINKS)] : codes[random.nextInt(LINKS)];
+    }
+
+    @Benchmark
+    public Resolution resolveSkewed() {
+        return urlShorter.resolve(nextCode());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Resolution resolveSkewedConcurrent() {
+        return urlShorter.resolve(nextCode());
+    }
+}
@@ -0,0 +1,56 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Цена записи события перехода для статистики (UrlShorter.setClickAnalytics): переход по случайной из 10 000
+// ссылок с выключенной и включённой статистикой, в одном потоке и на всех ядрах.
+//
+// Запуск: java -jar target/benchmarks.jar ClickAnalyticsBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClickAnalyticsBenchmark {
+    private static final int LINKS = 10_000;
+    private static final String REFERRER = "https://news.example.com/articles/2024/viral-post";
+
+    @Param({"false", "true"})
+    public boolean analytics;
+
+    private UrlShorter urlShorter;
+    private String[] codes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        urlShorter = new UrlShorter((userUuid, message) -> { });
+        urlShorter.setMetricsEnabled(false);
+        urlShorter.setClickAnalytics(analytics);
+        UUID owner = UUID.randomUUID();
+        codes = new String[LINKS];
+        for (int i = 0; i < LINKS; i++) {
+            codes[i] = urlShorter.buildShortUrl("https://www.example.com/" + i, owner, Integer.MAX_VALUE, 24);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        urlShorter.setClickAnalytics(false);
+    }
+
+    @Benchmark
+    public Resolution resolve() {
+        return urlShorter.resolve(codes[ThreadLocalRandom.current().nextInt(LINKS)], REFERRER);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Resolution resolveConcurrent() {
+        return urlShorter.resolve(codes[ThreadLocalRandom.current().nextInt(LINKS)], REFERRER);
+    }
+}
@@ -0,0 +1,68 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Цена чтения длинного URL: строка в ShortLink против байт UrlCodec (режим UrlShorter.setCompactUrls),
+// сам по себе (getLongUrl) и в restoreLongUrl. URL похожи на рабочие: несколько десятков сайтов, пути и utm-метки.
+// Память на ссылку - в ShortLinkFootprint.
+//
+// Запуск: java -jar target/benchmarks.jar CompactUrlBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompactUrlBenchmark {
+    private static final int LINKS = 10_000;
+    private static final String[] SOURCES = {"newsletter", "telegram", "vk", "partner"};
+
+    @Param({"false", "true"})
+    public boolean compact;
+
+    private ShortLink[] links;
+    private String[] shortUrls;
+    private UrlShorter urlShorter;
+    private int next;
+
+    // URL i-й ссылки: 50 сайтов, у половины - utm-метки кампании
+    static String sampleUrl(int i) {
+        String base = "https://www.shop" + i % 50 + ".example.com/catalog/item/" + i;
+        return i % 2 == 0 ? base : base + "?utm_source=" + SOURCES[i % SOURCES.length]
+                + "&utm_medium=email&utm_campaign=spring" + i % 20 + "&id=" + i;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        urlShorter = new UrlShorter((userUuid, message) -> { });
+        urlShorter.setCompactUrls(compact);
+        urlShorter.setMetricsEnabled(false);
+        UUID owner = UUID.randomUUID();
+        List<LinkRequest> requests = new ArrayList<>(LINKS);
+        for (int i = 0; i < LINKS; i++) {
+            requests.add(new LinkRequest(sampleUrl(i), owner, Integer.MAX_VALUE, 24 * 30));
+        }
+        shortUrls = urlShorter.buildShortUrls(requests).toArray(new String[0]);
+        links = new ShortLink[LINKS];
+        for (int i = 0; i < LINKS; i++) {
+            links[i] = urlShorter.getShortLinkByShortUrl(shortUrls[i]);
+        }
+    }
+
+    @Benchmark
+    public String getLongUrl() {
+        next = (next + 1) % LINKS;
+        return links[next].getLongUrl();
+    }
+
+    @Benchmark
+    public String restoreLongUrl() {
+        next = (next + 1) % LINKS;
+        return urlShorter.restoreLongUrl(shortUrls[next]);
+    }
+}
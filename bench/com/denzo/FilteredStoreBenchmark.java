@@ -0,0 +1,64 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Переходы по случайным несуществующим кодам (перебор ботом) в MappedLinkStore без фильтра и с FilteredLinkStore.
+//
+// Запуск: java -jar target/benchmarks.jar FilteredStoreBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilteredStoreBenchmark {
+    private static final int LINKS = 200_000;
+    private static final int PROBES = 1 << 16;
+
+    // Доля ложных срабатываний фильтра; 0 - без фильтра
+    @Param({"0", "0.01"})
+    public double falsePositiveRate;
+
+    private LinkStore store;
+    private UrlShorter urlShorter;
+    private String[] unknownCodes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        store = MappedLinkStore.open(Files.createTempDirectory("bench-filter"), 2L * LINKS);
+        if (falsePositiveRate > 0) {
+            store = new FilteredLinkStore(store, LINKS, falsePositiveRate);
+        }
+        urlShorter = new UrlShorter(store, (userUuid, message) -> { }, new FeistelCodeGenerator());
+        urlShorter.setMetricsEnabled(false);
+        UUID owner = UUID.randomUUID();
+        for (int i = 0; i < LINKS; i++) {
+            urlShorter.buildShortUrl("https://www.example.com/" + i, owner, Integer.MAX_VALUE, 24);
+        }
+        unknownCodes = new String[PROBES];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < PROBES; i++) {
+            String code;
+            do {
+                code = ShortCodes.unpack(ShortCodes.fromIndex(random.nextLong(ShortCodes.CODE_SPACE)));
+            } while (store.get(ShortCodes.pack(code)) != null);
+            unknownCodes[i] = code;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+    }
+
+    @Benchmark
+    public Resolution resolveUnknown() {
+        return urlShorter.resolve(unknownCodes[ThreadLocalRandom.current().nextInt(PROBES)]);
+    }
+}
@@ -0,0 +1,89 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Выгрузка и загрузка всех ссылок (LinkTransfer) на 1M ссылок в 1 и 4 потоках. Время - на весь набор;
+// записи в секунду = size / время. Выгрузка пишет в канал, который только считает байты, загрузка читает
+// заранее сделанную выгрузку из памяти в новый UrlShorter, чтобы замер не зависел от диска.
+//
+// Запуск: java -jar target/benchmarks.jar LinkTransferBenchmark
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LinkTransferBenchmark {
+    private static final String LONG_URL = "https://www.example.com/campaign/landing?utm_source=bench&id=";
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private UrlShorter source;
+    private byte[] dump;
+    private UrlShorter target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = new UrlShorter((userUuid, message) -> { });
+        UUID[] owners = new UUID[1000];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = UUID.randomUUID();
+        }
+        List<LinkRequest> requests = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            requests.add(new LinkRequest(LONG_URL + i, owners[i % owners.length], 100, 24 * 30));
+        }
+        source.buildShortUrls(requests);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        source.exportLinks(Channels.newChannel(bytes), threads, null);
+        dump = bytes.toByteArray();
+    }
+
+    @Setup(Level.Invocation)
+    public void freshTarget() {
+        target = new UrlShorter((userUuid, message) -> { });
+    }
+
+    @Benchmark
+    public TransferReport export() throws IOException {
+        return source.exportLinks(new CountingChannel(), threads, null);
+    }
+
+    @Benchmark
+    public TransferReport importLinks() throws IOException {
+        return target.importLinks(Channels.newChannel(new ByteArrayInputStream(dump)), threads, null);
+    }
+
+    private static final class CountingChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Накладные расходы метрик UrlShorter: те же переход и создание ссылки с включёнными и выключенными замерами.
+//
+// Запуск: java -jar target/benchmarks.jar MetricsOverheadBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsOverheadBenchmark {
+    private static final int LINKS = 100_000;
+    private static final int OWNERS = 1000;
+    private static final String LONG_URL = "https://www.example.com/some/long/path?utm_source=bench";
+
+    @Param({"true", "false"})
+    public boolean metrics;
+
+    private UrlShorter urlShorter;
+    private String[] codes;
+    private UUID[] owners;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        urlShorter = new UrlShorter((userUuid, message) -> { });
+        owners = new UUID[OWNERS];
+        for (int i = 0; i < OWNERS; i++) {
+            owners[i] = UUID.randomUUID();
+        }
+        codes = new String[LINKS];
+        for (int i = 0; i < LINKS; i++) {
+            codes[i] = urlShorter.buildShortUrl(LONG_URL, owners[i % OWNERS], Integer.MAX_VALUE, 24);
+        }
+        urlShorter.setMetricsEnabled(metrics);
+    }
+
+    @Benchmark
+    public Resolution resolveHit() {
+        return urlShorter.resolve(codes[ThreadLocalRandom.current().nextInt(LINKS)]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Resolution resolveHitConcurrent() {
+        return urlShorter.resolve(codes[ThreadLocalRandom.current().nextInt(LINKS)]);
+    }
+
+    @Benchmark
+    public String buildShortUrl() {
+        return urlShorter.buildShortUrl(LONG_URL, owners[ThreadLocalRandom.current().nextInt(OWNERS)], 10, 24);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String buildShortUrlConcurrent() {
+        return urlShorter.buildShortUrl(LONG_URL, owners[ThreadLocalRandom.current().nextInt(OWNERS)], 10, 24);
+    }
+}
@@ -0,0 +1,72 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Цена вызова notify() на пути перехода: синхронная печать (как ConsoleNotifier, но в пустой поток)
+// против AsyncNotifier, который только кладёт событие в очередь.
+//
+// Запуск: java -jar target/benchmarks.jar NotifierBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NotifierBenchmark {
+    private static final int OWNERS = 1000;
+
+    @Param({"DROP", "SAMPLE"})
+    public BackpressureMode backpressure;
+
+    private Notifier sync;
+    private AsyncNotifier async;
+    private UUID[] owners;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream(), true);
+        sync = (userUuid, message) -> out.println("Уведомление пользователю " + userUuid + ": " + message);
+        async = new AsyncNotifier(sync, backpressure);
+        owners = new UUID[OWNERS];
+        for (int i = 0; i < OWNERS; i++) {
+            owners[i] = UUID.randomUUID();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        async.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public void notifySync(Cursor cursor) {
+        sync.notify(owners[cursor.next = (cursor.next + 1) % OWNERS], "Ссылка abcdef достигла лимита переходов.");
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void notifySyncConcurrent(Cursor cursor) {
+        sync.notify(owners[cursor.next = (cursor.next + 1) % OWNERS], "Ссылка abcdef достигла лимита переходов.");
+    }
+
+    @Benchmark
+    public void notifyAsync(Cursor cursor) {
+        async.notify(owners[cursor.next = (cursor.next + 1) % OWNERS], "Ссылка abcdef достигла лимита переходов.");
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void notifyAsyncConcurrent(Cursor cursor) {
+        async.notify(owners[cursor.next = (cursor.next + 1) % OWNERS], "Ссылка abcdef достигла лимита переходов.");
+    }
+}
@@ -0,0 +1,72 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Операции над ссылками одного владельца с большим числом ссылок (интеграционные аккаунты API):
+// удаление случайной ссылки (в паре с созданием новой) и чтение одной страницы в каждом порядке.
+//
+// Запуск: java -jar target/benchmarks.jar OwnerIndexBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OwnerIndexBenchmark {
+    private static final String LONG_URL = "https://www.example.com/some/long/path?utm_source=bench";
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1000", "100000"})
+    public int linksPerOwner;
+
+    private UrlShorter urlShorter;
+    private UUID owner;
+    private String[] codes;
+    private String createdCursor;
+    private String expiresCursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        urlShorter = new UrlShorter((userUuid, message) -> { });
+        urlShorter.setMetricsEnabled(false);
+        owner = UUID.randomUUID();
+        codes = new String[linksPerOwner];
+        for (int i = 0; i < linksPerOwner; i++) {
+            codes[i] = urlShorter.buildShortUrl(LONG_URL, owner, 10, 1 + i % 720);
+        }
+        // Курсоры из середины списка, чтобы продолжение обхода не начиналось с головы
+        createdCursor = cursorAtMiddle(LinkOrder.CREATED);
+        expiresCursor = cursorAtMiddle(LinkOrder.EXPIRES);
+    }
+
+    private String cursorAtMiddle(LinkOrder order) {
+        String cursor = null;
+        for (int seen = 0; seen < linksPerOwner / 2; seen += PAGE_SIZE) {
+            cursor = urlShorter.getShortLinksByUserUuid(owner, order, cursor, PAGE_SIZE).getNextCursor();
+        }
+        return cursor;
+    }
+
+    // Удаление случайной ссылки; на её место сразу создаётся новая, чтобы размер списка не менялся
+    @Benchmark
+    public String deleteAndRecreate() {
+        int i = ThreadLocalRandom.current().nextInt(linksPerOwner);
+        urlShorter.deleteLink(codes[i], owner);
+        codes[i] = urlShorter.buildShortUrl(LONG_URL, owner, 10, 1 + i % 720);
+        return codes[i];
+    }
+
+    @Benchmark
+    public LinkPage pageByCreation() {
+        return urlShorter.getShortLinksByUserUuid(owner, LinkOrder.CREATED, createdCursor, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public LinkPage pageByExpiry() {
+        return urlShorter.getShortLinksByUserUuid(owner, LinkOrder.EXPIRES, expiresCursor, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,219 @@
+package com.denzo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Нагрузочный генератор для RedirectServer: N keep-alive соединений, каждое в своём потоке шлёт GET /{код}
+// по случайным существующим ссылкам и ждёт ответ (закрытая модель). Ссылки создаются через JSON API.
+// Без адреса поднимает сервер в этой же JVM на свободном порту.
+//
+// Запуск: java -cp target/benchmarks.jar com.denzo.RedirectLoadGenerator [соединений] [секунд] [ссылок] [host:port]
+public class RedirectLoadGenerator {
+    private static final String LONG_URL = "https://www.example.com/some/long/path?utm_source=load";
+    private static final int SAMPLES_PER_CONNECTION = 1 << 18;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int links = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+
+        RedirectServer embedded = null;
+        InetSocketAddress address;
+        if (args.length > 3) {
+            String[] hostPort = args[3].split(":");
+            address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        } else {
+            UrlShorter urlShorter = new UrlShorter((userUuid, message) -> { });
+            embedded = new RedirectServer(urlShorter, new InetSocketAddress("127.0.0.1", 0));
+            embedded.start();
+            address = new InetSocketAddress("127.0.0.1", embedded.getPort());
+        }
+
+        String[] codes = createLinks(address, links);
+        System.out.printf("Создано ссылок: %d, соединений: %d, длительность: %d с%n", codes.length, connections, seconds);
+
+        // Прогрев - 1/5 длительности, но не меньше секунды
+        run(address, codes, connections, Math.max(1, seconds / 5) * 1_000_000_000L);
+        Result result = run(address, codes, connections, seconds * 1_000_000_000L);
+
+        System.out.printf(Locale.ROOT, "Переходов: %d, ошибок: %d%n", result.requests, result.errors);
+        System.out.printf(Locale.ROOT, "Пропускная способность: %.0f запросов/с%n", result.requests / (double) seconds);
+        System.out.printf(Locale.ROOT, "Задержка, мкс: p50=%.0f p99=%.0f p99.9=%.0f max=%.0f%n",
+                result.percentile(0.5), result.percentile(0.99), result.percentile(0.999), result.percentile(1.0));
+
+        if (embedded != null) {
+            embedded.stop(0);
+        }
+    }
+
+    private static String[] createLinks(InetSocketAddress address, int links) throws IOException {
+        String[] codes = new String[links];
+        try (Connection connection = new Connection(address)) {
+            String body = "{\"longUrl\":\"" + LONG_URL + "\",\"limit\":2147483647,\"lifetimeHours\":24}";
+            byte[] request = ("POST /api/links HTTP/1.1\r\nHost: load\r\nContent-Type: application/json\r\n"
+                    + "Content-Length: " + body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < links; i++) {
+                int status = connection.exchange(request);
+                String response = connection.body();
+                if (status != 201) {
+                    throw new IOException("Сервер вернул " + status + " при создании ссылки: " + response);
+                }
+                int start = response.indexOf("\"code\":\"") + 8;
+                codes[i] = response.substring(start, response.indexOf('"', start));
+            }
+        }
+        return codes;
+    }
+
+    private static Result run(InetSocketAddress address, String[] codes, int connections, long durationNanos)
+            throws InterruptedException {
+        byte[][] requests = new byte[codes.length][];
+        for (int i = 0; i < codes.length; i++) {
+            requests[i] = ("GET /" + codes[i] + " HTTP/1.1\r\nHost: load\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+        Result result = new Result();
+        CountDownLatch done = new CountDownLatch(connections);
+        long deadline = System.nanoTime() + durationNanos;
+        for (int c = 0; c < connections; c++) {
+            Thread thread = new Thread(() -> {
+                long[] samples = new long[SAMPLES_PER_CONNECTION];
+                long requestsSent = 0;
+                long errors = 0;
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try (Connection connection = new Connection(address)) {
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        int status = connection.exchange(requests[random.nextInt(requests.length)]);
+                        long latency = System.nanoTime() - start;
+                        if (status != 302) {
+                            errors++;
+                        }
+                        // Резервуарная выборка задержек: память не зависит от числа запросов
+                        if (requestsSent < samples.length) {
+                            samples[(int) requestsSent] = latency;
+                        } else {
+                            long slot = random.nextLong(requestsSent + 1);
+                            if (slot < samples.length) {
+                                samples[(int) slot] = latency;
+                            }
+                        }
+                        requestsSent++;
+                    }
+                } catch (IOException e) {
+                    errors++;
+                }
+                result.add(requestsSent, errors, Arrays.copyOf(samples, (int) Math.min(requestsSent, samples.length)));
+                done.countDown();
+            }, "load-" + c);
+            thread.start();
+        }
+        done.await();
+        return result;
+    }
+
+    private static final class Result {
+        long requests;
+        long errors;
+        long[] latencies = new long[0];
+
+        synchronized void add(long requests, long errors, long[] samples) {
+            this.requests += requests;
+            this.errors += errors;
+            long[] merged = Arrays.copyOf(latencies, latencies.length + samples.length);
+            System.arraycopy(samples, 0, merged, latencies.length, samples.length);
+            latencies = merged;
+        }
+
+        // Перцентиль задержки в микросекундах
+        double percentile(double p) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+            return sorted[Math.max(0, index)] / 1000.0;
+        }
+    }
+
+    // Одно HTTP/1.1 соединение: отправляет запрос и читает ответ целиком, оставляя соединение открытым.
+    // Используется и в WorkloadGenerator.
+    static final class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] buffer = new byte[8192];
+        private int position;
+        private int limit;
+        private byte[] body = new byte[0];
+
+        Connection(InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        // Возвращает код ответа; тело доступно через body()
+        int exchange(byte[] request) throws IOException {
+            out.write(request);
+            out.flush();
+            String statusLine = readLine();
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+            int contentLength = 0;
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).equalsIgnoreCase("Content-Length")) {
+                    contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+                }
+            }
+            body = new byte[contentLength];
+            for (int i = 0; i < contentLength; i++) {
+                body[i] = (byte) read();
+            }
+            return status;
+        }
+
+        String body() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+            int b;
+            while ((b = read()) != '\n') {
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return line.toString(StandardCharsets.US_ASCII);
+        }
+
+        private int read() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer);
+                position = 0;
+                if (limit <= 0) {
+                    throw new IOException("Сервер закрыл соединение.");
+                }
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
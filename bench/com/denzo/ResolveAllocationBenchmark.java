@@ -0,0 +1,67 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Выделение памяти на успешный переход в InMemoryLinkStore: resolve(String) создаёт Resolution,
+// resolveInto - ничего. Короткие URL с префиксом "denzo.com/", коды в ByteBuffer - как путь HTTP-запроса.
+//
+// Запуск: java -jar target/benchmarks.jar ResolveAllocationBenchmark -prof gc
+// (gc.alloc.rate.norm - байт на операцию; для resolveInto ожидается ~0)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResolveAllocationBenchmark {
+    private static final int LINKS = 100_000;
+    private static final int MASK = 1024 - 1;
+
+    private UrlShorter urlShorter;
+    private String[] shortUrls;
+    private ByteBuffer codes;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final ResolveResult result = new ResolveResult();
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        urlShorter = new UrlShorter((userUuid, message) -> { });
+        UUID owner = UUID.randomUUID();
+        String[] created = new String[LINKS];
+        for (int i = 0; i < LINKS; i++) {
+            created[i] = urlShorter.buildShortUrl("https://www.example.com/" + i, owner, Integer.MAX_VALUE, 24);
+        }
+        // Небольшой набор случайных ссылок, чтобы замерялся сам переход, а не промахи кэша процессора
+        shortUrls = new String[MASK + 1];
+        codes = ByteBuffer.allocateDirect((MASK + 1) * ShortCodes.LENGTH);
+        for (int i = 0; i <= MASK; i++) {
+            shortUrls[i] = created[(int) ((i * 0x9E3779B97F4A7C15L >>> 1) % LINKS)];
+            codes.put(shortUrls[i].substring(ShortCodes.PREFIX.length()).getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Benchmark
+    public Resolution resolve(ThreadState state) {
+        return urlShorter.resolve(shortUrls[state.next++ & MASK]);
+    }
+
+    @Benchmark
+    public ResolveStatus resolveInto(ThreadState state) {
+        return urlShorter.resolveInto(shortUrls[state.next++ & MASK], state.result);
+    }
+
+    @Benchmark
+    public ResolveStatus resolveIntoBytes(ThreadState state) {
+        int from = (state.next++ & MASK) * ShortCodes.LENGTH;
+        return urlShorter.resolveInto(codes, from, from + ShortCodes.LENGTH, state.result);
+    }
+}
@@ -0,0 +1,55 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Пропускная способность ShardRouter на 1, 2, 4 и 8 узлах в одном процессе (InMemoryLinkStore на каждом узле),
+// 8 потоков: переходы по 100K ссылок и создание с удалением ссылки. Узлы делят одни и те же ядра, поэтому
+// замер показывает цену маршрутизации и снижение конкуренции внутри узла, а не прирост от отдельных машин.
+//
+// Запуск: java -jar target/benchmarks.jar ShardScalingBenchmark
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ShardScalingBenchmark {
+    private static final int LINKS = 100_000;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    private ShardRouter router;
+    private String[] shortUrls;
+    private UUID owner;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        router = new ShardRouter((userUuid, message) -> { });
+        for (int i = 0; i < shards; i++) {
+            router.addNode("node-" + i, new InMemoryLinkStore());
+            router.getNode("node-" + i).setMetricsEnabled(false);
+        }
+        owner = UUID.randomUUID();
+        shortUrls = new String[LINKS];
+        for (int i = 0; i < LINKS; i++) {
+            shortUrls[i] = router.buildShortUrl("https://www.example.com/" + i, owner, Integer.MAX_VALUE, 24);
+        }
+    }
+
+    @Benchmark
+    public Resolution resolve() {
+        return router.resolve(shortUrls[ThreadLocalRandom.current().nextInt(LINKS)]);
+    }
+
+    @Benchmark
+    public LinkUpdateStatus createAndDelete() {
+        String shortUrl = router.buildShortUrl("https://www.example.com/new", owner, Integer.MAX_VALUE, 24);
+        return router.removeLink(shortUrl, owner);
+    }
+}
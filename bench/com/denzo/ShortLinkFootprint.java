@@ -0,0 +1,112 @@
+package com.denzo;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Отчёт о памяти на одну ссылку: текущий ShortLink против прежнего графа объектов
+// (две LocalDateTime, строка кода, ссылка на UUID, индекс по строковому ключу).
+// В обоих случаях длинный URL и UUID владельцев общие и в замер не входят.
+// Отдельно - память на различные длинные URL: строка против байт UrlCodec (UrlShorter.setCompactUrls).
+//
+// Запуск: java -cp target/benchmarks.jar com.denzo.ShortLinkFootprint [число ссылок]
+public class ShortLinkFootprint {
+    private static final int OWNERS = 1000;
+    private static final String LONG_URL = "https://www.example.com/some/long/path";
+
+    // Прежняя раскладка полей ShortLink
+    static final class LegacyShortLink {
+        String longUrl;
+        String shortUrl;
+        volatile int limit;
+        LocalDateTime creationTime;
+        volatile LocalDateTime expireAt;
+        volatile int currentCount;
+        UUID ownerUuid;
+
+        LegacyShortLink(String longUrl, String shortUrl, int limit, LocalDateTime creationTime,
+                        LocalDateTime expireAt, UUID ownerUuid) {
+            this.longUrl = longUrl;
+            this.shortUrl = shortUrl;
+            this.limit = limit;
+            this.creationTime = creationTime;
+            this.expireAt = expireAt;
+            this.ownerUuid = ownerUuid;
+        }
+    }
+
+    public static void main(String[] args) {
+        int links = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        UUID[] owners = new UUID[OWNERS];
+        for (int i = 0; i < OWNERS; i++) {
+            owners[i] = UUID.randomUUID();
+        }
+        CodeGenerator generator = new FeistelCodeGenerator();
+
+        long before = usedHeap();
+        Map<String, LegacyShortLink> legacy = new ConcurrentHashMap<>(links);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < links; i++) {
+            String code = ShortCodes.unpack(generator.nextCode());
+            // Как и в прежнем buildShortUrl: отдельные объекты времени на каждую ссылку
+            LocalDateTime creationTime = now.plusNanos(i);
+            legacy.put(code, new LegacyShortLink(LONG_URL, code, 10, creationTime, creationTime.plusHours(24),
+                    owners[i % OWNERS]));
+        }
+        long legacyBytes = usedHeap() - before;
+        legacy = null;
+
+        before = usedHeap();
+        Map<Long, ShortLink> compact = new ConcurrentHashMap<>(links);
+        long nowSecond = CoarseClock.nowEpochSecond();
+        for (int i = 0; i < links; i++) {
+            long code = generator.nextCode();
+            UUID owner = owners[i % OWNERS];
+            compact.put(code, new ShortLink(LONG_URL, code, 10, nowSecond, nowSecond + 24 * 3600,
+                    owner.getMostSignificantBits(), owner.getLeastSignificantBits()));
+        }
+        long compactBytes = usedHeap() - before;
+
+        System.out.printf("Ссылок: %d%n", compact.size());
+        System.out.printf("Прежний граф объектов: %.1f байт на ссылку%n", (double) legacyBytes / links);
+        System.out.printf("Компактный ShortLink:  %.1f байт на ссылку%n", (double) compactBytes / links);
+        System.out.printf("Экономия: %.1f%%%n", 100.0 * (legacyBytes - compactBytes) / legacyBytes);
+        compact = null;
+
+        // Массив ссылок на URL одинаков в обоих случаях и взаимно вычитается
+        before = usedHeap();
+        Object[] strings = new Object[links];
+        for (int i = 0; i < links; i++) {
+            strings[i] = CompactUrlBenchmark.sampleUrl(i);
+        }
+        long stringBytes = usedHeap() - before;
+        before = usedHeap();
+        Object[] encoded = new Object[links];
+        for (int i = 0; i < links; i++) {
+            encoded[i] = UrlCodec.encode(CompactUrlBenchmark.sampleUrl(i));
+        }
+        long encodedBytes = usedHeap() - before;
+
+        System.out.printf("Длинный URL строкой:   %.1f байт на ссылку%n", (double) stringBytes / links);
+        System.out.printf("Длинный URL UrlCodec:  %.1f байт на ссылку%n", (double) encodedBytes / links);
+        System.out.printf("Экономия: %.1f%% (%d URL, средняя длина %.0f символов)%n",
+                100.0 * (stringBytes - encodedBytes) / stringBytes, strings.length, averageLength(strings));
+    }
+
+    private static double averageLength(Object[] urls) {
+        long total = 0;
+        for (Object url : urls) {
+            total += ((String) url).length();
+        }
+        return (double) total / urls.length;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
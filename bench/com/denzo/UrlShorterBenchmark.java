@@ -0,0 +1,225 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Бенчмарки горячих путей UrlShorter: создание, переход (попадание, промах, истёкшая ссылка, исчерпанный лимит),
+// удаление, очистка и список ссылок пользователя. Каждый сценарий есть в однопоточном и многопоточном варианте.
+//
+// Запуск: mvn -Pbench package && java -jar target/benchmarks.jar UrlShorterBenchmark
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class UrlShorterBenchmark {
+    private static final int OWNERS = 1000;
+    private static final String LONG_URL = "https://www.example.com/some/long/path?utm_source=bench";
+
+    @Param({"10000", "1000000", "10000000"})
+    public int size;
+
+    // heap - InMemoryLinkStore, mapped - MappedLinkStore во временном каталоге,
+    // durable - DurableLinkStore с настройками LogConfig по умолчанию
+    @Param({"heap", "mapped", "durable"})
+    public String store;
+
+    UrlShorter urlShorter;
+    String[] codes;
+    String[] missingCodes;
+    UUID[] owners;
+    String limitExceededCode;
+    private LinkStore linkStore;
+    private final LogConfig logConfig = new LogConfig();
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // restoreLongUrl печатает сообщения о промахах в консоль - в замерах они не нужны
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        switch (store) {
+            case "mapped":
+                linkStore = MappedLinkStore.open(Files.createTempDirectory("shortlinks-bench"), size * 2L);
+                break;
+            case "durable":
+                linkStore = DurableLinkStore.open(Files.createTempDirectory("shortlinks-bench"), logConfig);
+                break;
+            default:
+                linkStore = new InMemoryLinkStore();
+        }
+        urlShorter = new UrlShorter(linkStore, (userUuid, message) -> { }, new FeistelCodeGenerator());
+        owners = new UUID[OWNERS];
+        for (int i = 0; i < OWNERS; i++) {
+            owners[i] = UUID.randomUUID();
+        }
+        // Наполнение журнала без ожидания fsync на каждую ссылку; замеры идут с надёжностью по умолчанию
+        logConfig.setMutationDurability(Durability.BATCHED);
+        codes = new String[size];
+        for (int i = 0; i < size; i++) {
+            codes[i] = urlShorter.buildShortUrl(LONG_URL, owners[i % OWNERS], Integer.MAX_VALUE, 24);
+        }
+        logConfig.setMutationDurability(new LogConfig().getMutationDurability());
+
+        Set<String> existing = new HashSet<>(List.of(codes));
+        CodeGenerator randomCodes = new RandomCodeGenerator();
+        missingCodes = new String[1024];
+        for (int i = 0; i < missingCodes.length; ) {
+            String candidate = ShortCodes.PREFIX + ShortCodes.unpack(randomCodes.nextCode());
+            if (!existing.contains(candidate)) {
+                missingCodes[i++] = candidate;
+            }
+        }
+
+        limitExceededCode = urlShorter.buildShortUrl(LONG_URL, owners[0], 1, 24);
+        urlShorter.restoreLongUrl(limitExceededCode);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        linkStore.close();
+        System.setOut(originalOut);
+    }
+
+    // Ссылка, срок жизни которой истёк; пересоздаётся перед каждым вызовом, так как переход её удаляет.
+    @State(Scope.Thread)
+    public static class ExpiredLink {
+        String code;
+
+        @Setup(Level.Invocation)
+        public void setUp(UrlShorterBenchmark benchmark) {
+            // Отрицательное время жизни - ссылка истекла час назад (подходит для любого хранилища)
+            code = benchmark.urlShorter.buildShortUrl(LONG_URL, benchmark.owners[0], Integer.MAX_VALUE, -1);
+        }
+    }
+
+    private String randomExistingCode() {
+        return codes[ThreadLocalRandom.current().nextInt(codes.length)];
+    }
+
+    private String randomMissingCode() {
+        return missingCodes[ThreadLocalRandom.current().nextInt(missingCodes.length)];
+    }
+
+    private UUID randomOwner() {
+        return owners[ThreadLocalRandom.current().nextInt(OWNERS)];
+    }
+
+    // Создание без удаления: число ссылок растёт в течение замера, поэтому есть и вариант createAndDelete.
+    @Benchmark
+    @Threads(1)
+    public String buildShortUrl() {
+        return urlShorter.buildShortUrl(LONG_URL, randomOwner(), 10, 24);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String buildShortUrlConcurrent() {
+        return urlShorter.buildShortUrl(LONG_URL, randomOwner(), 10, 24);
+    }
+
+    // Пара «создать + удалить» держит размер хранилища постоянным; стоимость удаления - разница с buildShortUrl.
+    @Benchmark
+    @Threads(1)
+    public boolean createAndDelete() {
+        UUID owner = randomOwner();
+        return urlShorter.deleteLink(urlShorter.buildShortUrl(LONG_URL, owner, 10, 24), owner);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean createAndDeleteConcurrent() {
+        UUID owner = randomOwner();
+        return urlShorter.deleteLink(urlShorter.buildShortUrl(LONG_URL, owner, 10, 24), owner);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String resolveHit() {
+        return urlShorter.restoreLongUrl(randomExistingCode());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String resolveHitConcurrent() {
+        return urlShorter.restoreLongUrl(randomExistingCode());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String resolveMiss() {
+        return urlShorter.restoreLongUrl(randomMissingCode());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String resolveMissConcurrent() {
+        return urlShorter.restoreLongUrl(randomMissingCode());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String resolveLimitExceeded() {
+        return urlShorter.restoreLongUrl(limitExceededCode);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String resolveLimitExceededConcurrent() {
+        return urlShorter.restoreLongUrl(limitExceededCode);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String resolveExpired(ExpiredLink expired) {
+        return urlShorter.restoreLongUrl(expired.code);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String resolveExpiredConcurrent(ExpiredLink expired) {
+        return urlShorter.restoreLongUrl(expired.code);
+    }
+
+    // Очистка хранилища, в котором нет просроченных ссылок.
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(1)
+    public void cleanupExpiredLinks() {
+        urlShorter.cleanupExpiredLinks();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(Threads.MAX)
+    public void cleanupExpiredLinksConcurrent() {
+        urlShorter.cleanupExpiredLinks();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void getShortLinksByUserUuid(Blackhole blackhole) {
+        blackhole.consume(urlShorter.getShortLinksByUserUuid(randomOwner()));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void getShortLinksByUserUuidConcurrent(Blackhole blackhole) {
+        blackhole.consume(urlShorter.getShortLinksByUserUuid(randomOwner()));
+    }
+}
@@ -0,0 +1,44 @@
+package com.denzo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// 64 потока переходят по одной и той же ссылке без лимита: обычный счёт (CAS на счётчике ссылки)
+// против счёта по полосам с арендами (UrlShorter.setStripedClicks). Выигрыш виден только на многоядерной машине:
+// на одном ядре потоки не конкурируют за строку кэша одновременно.
+//
+// Запуск: java -jar target/benchmarks.jar ViralLinkBenchmark
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class ViralLinkBenchmark {
+    @Param({"false", "true"})
+    public boolean striped;
+
+    private UrlShorter urlShorter;
+    private String shortUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        urlShorter = new UrlShorter((userUuid, message) -> { });
+        urlShorter.setMetricsEnabled(false);
+        urlShorter.setStripedClicks(striped);
+        shortUrl = urlShorter.buildShortUrl("https://www.example.com/viral", UUID.randomUUID(), Integer.MAX_VALUE, 24);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        urlShorter.setStripedClicks(false);
+    }
+
+    @Benchmark
+    public Resolution resolve() {
+        return urlShorter.resolve(shortUrl);
+    }
+}
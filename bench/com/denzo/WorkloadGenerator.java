@@ -0,0 +1,656 @@
+package com.denzo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Генератор смешанной нагрузки на {@link UrlShorter}: в этой же JVM, через встроенный {@link RedirectServer}
+ * или на внешний сервер по HTTP.
+ * <p>
+ * Нагрузка:
+ * <ul>
+ *     <li>переходы выбирают ссылку по закону Ципфа (ранг k выбирается с вероятностью ~ 1/k^s): несколько ссылок
+ *     получают большую часть переходов, остальные - длинный хвост;</li>
+ *     <li>создание, изменение лимита и удаление идут в заданной доле от всех операций. Новая ссылка занимает место
+ *     случайной старой и наследует её популярность, удалённая остаётся в наборе (переходы по ней получают 404);</li>
+ *     <li>боты перебирают случайные коды, которых почти наверняка нет;</li>
+ *     <li>часть начальных ссылок разбита на когорты, которые истекают друг за другом во время замера (только
+ *     в этой JVM: через HTTP срок жизни задаётся в часах).</li>
+ * </ul>
+ * Нагрузка открытая: операция i запланирована на {@code start + i / rate} и выполняется свободным потоком не раньше
+ * этого момента. Задержка считается от запланированного момента, а не от фактической отправки, поэтому если сервис
+ * тормозит и потоки не успевают, ожидание очереди попадает в задержку (нет coordinated omission). Операции, которые
+ * начались позже плана больше чем на 1 мс, считаются отдельно: если их много, не хватает потоков генератора.
+ * <p>
+ * Итог печатается и пишется в JSON-файл (параметр, метка версии, пропускная способность и p50/p90/p99/p99.9/max
+ * по каждому типу операций), чтобы сравнивать прогоны между версиями.
+ * <p>
+ * Запуск (значения по умолчанию; {@code http} - встроенный сервер, {@code host:port} - внешний):
+ * <pre>
+ * java -cp target/benchmarks.jar com.denzo.WorkloadGenerator target=inprocess|http|host:port rate=20000 seconds=10
+ *     warmup=3 links=100000 owners=1000 zipf=1.0 mix=resolve:85,create:4,edit:2,delete:1,bot:8 expiring=0.2
+ *     cohorts=5 workers=64 out=workload-result.json label=dev
+ * </pre>
+ */
+public class WorkloadGenerator {
+    private static final String LONG_URL = "https://www.example.com/campaign/landing?utm_source=workload&id=";
+    private static final int LIFETIME_HOURS = 24 * 30;
+    private static final long LATE_NANOS = 1_000_000;
+
+    enum Operation { RESOLVE, CREATE, EDIT, DELETE, BOT }
+
+    // Результат одной операции: ожидаемый промах (нет ссылки, истекла, лимит) - не ошибка
+    enum Outcome { OK, MISS, ERROR }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.parse(args);
+        UrlShorter urlShorter = null;
+        RedirectServer server = null;
+        InetSocketAddress address = null;
+        if (config.target.equals("inprocess") || config.target.equals("http")) {
+            urlShorter = new UrlShorter((userUuid, message) -> { });
+            urlShorter.startExpiryScheduler();
+            if (config.target.equals("http")) {
+                server = new RedirectServer(urlShorter, new InetSocketAddress("127.0.0.1", 0));
+                server.start();
+                address = new InetSocketAddress("127.0.0.1", server.getPort());
+            }
+        } else {
+            String[] hostPort = config.target.split(":");
+            address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        }
+
+        UUID[] owners = new UUID[config.owners];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = UUID.randomUUID();
+        }
+        long seedStart = System.nanoTime();
+        AtomicReferenceArray<Link> links = urlShorter != null ? seed(urlShorter, config, owners)
+                : seed(address, config, owners);
+        System.out.printf(Locale.ROOT, "Цель: %s, ссылок: %d (истекающих когорт: %d), подготовка %.1f с%n",
+                config.target, links.length(), config.expiringCohorts(), (System.nanoTime() - seedStart) / 1e9);
+
+        InetSocketAddress httpAddress = address;
+        UrlShorter local = urlShorter;
+        ClientFactory clients = httpAddress != null ? () -> new HttpClient(httpAddress) : () -> new LocalClient(local);
+        Workload workload = new Workload(config, links, owners);
+        if (config.warmupSeconds > 0) {
+            workload.run(clients, config.warmupSeconds);
+        }
+        Result result = workload.run(clients, config.seconds);
+        result.print();
+        Path out = Path.of(config.out);
+        Files.writeString(out, result.toJson(config), StandardCharsets.UTF_8);
+        System.out.println("Результат записан в " + out.toAbsolutePath());
+
+        if (server != null) {
+            server.stop(0);
+        }
+        if (urlShorter != null) {
+            urlShorter.stopExpiryScheduler();
+        }
+    }
+
+    // Начальные ссылки в этой JVM: пачками через buildShortUrls, истекающие когорты - прямо в хранилище
+    private static AtomicReferenceArray<Link> seed(UrlShorter urlShorter, Config config, UUID[] owners) {
+        int expiring = config.expiringCohorts() == 0 ? 0 : (int) (config.links * config.expiring);
+        AtomicReferenceArray<Link> links = new AtomicReferenceArray<>(config.links);
+        List<Integer> slots = shuffledSlots(config.links);
+        int regular = config.links - expiring;
+        for (int from = 0; from < regular; from += 10_000) {
+            int to = Math.min(regular, from + 10_000);
+            List<LinkRequest> requests = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                requests.add(new LinkRequest(LONG_URL + i, owners[i % owners.length], Integer.MAX_VALUE,
+                        LIFETIME_HOURS));
+            }
+            List<String> shortUrls = urlShorter.buildShortUrls(requests);
+            for (int i = from; i < to; i++) {
+                links.set(slots.get(i), new Link(code(shortUrls.get(i - from)), owners[i % owners.length]));
+            }
+        }
+        // Когорта c истекает через (c + 1) / cohorts длительности замера после его начала (после прогрева)
+        long expireBase = CoarseClock.nowEpochSecond() + config.warmupSeconds;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int placed = regular;
+        while (placed < config.links) {
+            int cohort = (placed - regular) * config.cohorts / expiring;
+            long expireAt = expireBase + Math.max(1, (long) config.seconds * (cohort + 1) / config.cohorts);
+            UUID owner = owners[placed % owners.length];
+            long code = ShortCodes.fromIndex(random.nextLong(ShortCodes.CODE_SPACE));
+            ShortLink link = new ShortLink(LONG_URL + placed, code, Integer.MAX_VALUE, CoarseClock.nowEpochSecond(),
+                    expireAt, owner.getMostSignificantBits(), owner.getLeastSignificantBits());
+            // Занятый код просто выбирается заново
+            if (urlShorter.getStore().putIfAbsent(link)) {
+                links.set(slots.get(placed), new Link(link.getShortUrl(), owner));
+                placed++;
+            }
+        }
+        return links;
+    }
+
+    // Начальные ссылки на внешнем сервере - через API, по одной
+    private static AtomicReferenceArray<Link> seed(InetSocketAddress address, Config config, UUID[] owners)
+            throws IOException {
+        if (config.expiringCohorts() > 0) {
+            System.out.println("Истекающие когорты на внешнем сервере не поддерживаются: срок жизни в API - в часах.");
+        }
+        AtomicReferenceArray<Link> links = new AtomicReferenceArray<>(config.links);
+        List<Integer> slots = shuffledSlots(config.links);
+        try (HttpClient client = new HttpClient(address)) {
+            for (int i = 0; i < config.links; i++) {
+                UUID owner = owners[i % owners.length];
+                String code = client.create(LONG_URL + i, owner, Integer.MAX_VALUE, LIFETIME_HOURS);
+                if (code == null) {
+                    throw new IOException("Сервер не создал ссылку: " + client.lastStatus);
+                }
+                links.set(slots.get(i), new Link(code, owner));
+            }
+        }
+        return links;
+    }
+
+    // Популярность задаётся местом в наборе, поэтому ссылки (и когорты) раскладываются по местам случайно
+    private static List<Integer> shuffledSlots(int size) {
+        List<Integer> slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            slots.add(i);
+        }
+        Collections.shuffle(slots);
+        return slots;
+    }
+
+    private static String code(String shortUrl) {
+        return shortUrl.substring(shortUrl.length() - ShortCodes.LENGTH);
+    }
+
+    private static String randomCode(ThreadLocalRandom random) {
+        char[] chars = new char[ShortCodes.LENGTH];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = ShortCodes.ALPHABET.charAt(random.nextInt(ShortCodes.BASE));
+        }
+        return new String(chars);
+    }
+
+    private static final class Link {
+        final String code;
+        final UUID owner;
+
+        Link(String code, UUID owner) {
+            this.code = code;
+            this.owner = owner;
+        }
+    }
+
+    private static final class Config {
+        String target = "inprocess";
+        double rate = 20_000;
+        int seconds = 10;
+        int warmupSeconds = 3;
+        int links = 100_000;
+        int owners = 1000;
+        double zipf = 1.0;
+        String mix = "resolve:85,create:4,edit:2,delete:1,bot:8";
+        double[] weights = new double[Operation.values().length];
+        double expiring = 0.2;
+        int cohorts = 5;
+        int workers = 64;
+        String out = "workload-result.json";
+        String label = "dev";
+
+        static Config parse(String[] args) {
+            Config config = new Config();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) {
+                    throw new IllegalArgumentException("Параметр должен иметь вид имя=значение: " + arg);
+                }
+                String value = arg.substring(eq + 1);
+                switch (arg.substring(0, eq)) {
+                    case "target": config.target = value; break;
+                    case "rate": config.rate = Double.parseDouble(value); break;
+                    case "seconds": config.seconds = Integer.parseInt(value); break;
+                    case "warmup": config.warmupSeconds = Integer.parseInt(value); break;
+                    case "links": config.links = Integer.parseInt(value); break;
+                    case "owners": config.owners = Integer.parseInt(value); break;
+                    case "zipf": config.zipf = Double.parseDouble(value); break;
+                    case "mix": config.mix = value; break;
+                    case "expiring": config.expiring = Double.parseDouble(value); break;
+                    case "cohorts": config.cohorts = Integer.parseInt(value); break;
+                    case "workers": config.workers = Integer.parseInt(value); break;
+                    case "out": config.out = value; break;
+                    case "label": config.label = value; break;
+                    default: throw new IllegalArgumentException("Неизвестный параметр: " + arg);
+                }
+            }
+            for (String part : config.mix.split(",")) {
+                String[] nameWeight = part.split(":");
+                Operation operation = Operation.valueOf(nameWeight[0].trim().toUpperCase(Locale.ROOT));
+                config.weights[operation.ordinal()] = Double.parseDouble(nameWeight[1]);
+            }
+            if (config.rate <= 0 || config.seconds <= 0 || config.links <= 0 || config.owners <= 0
+                    || config.workers <= 0 || config.expiring < 0 || config.expiring >= 1) {
+                throw new IllegalArgumentException("Некорректные параметры нагрузки.");
+            }
+            return config;
+        }
+
+        int expiringCohorts() {
+            return target.contains(":") || expiring == 0 ? 0 : cohorts;
+        }
+    }
+
+    interface ClientFactory {
+        Client open() throws IOException;
+    }
+
+    // Операции над целью; у каждого потока свой клиент (для HTTP - своё keep-alive соединение)
+    interface Client extends AutoCloseable {
+        Outcome resolve(String code) throws IOException;
+
+        // Код новой ссылки или null, если создать не удалось
+        String create(String longUrl, UUID owner, int limit, int lifetimeHours) throws IOException;
+
+        Outcome edit(String code, UUID owner, int limit) throws IOException;
+
+        Outcome delete(String code, UUID owner) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static final class LocalClient implements Client {
+        private final UrlShorter urlShorter;
+        private final ResolveResult result = new ResolveResult();
+
+        LocalClient(UrlShorter urlShorter) {
+            this.urlShorter = urlShorter;
+        }
+
+        @Override
+        public Outcome resolve(String code) {
+            switch (urlShorter.resolveInto(code, result)) {
+                case FOUND: return Outcome.OK;
+                case REJECTED: return Outcome.ERROR;
+                default: return Outcome.MISS;
+            }
+        }
+
+        @Override
+        public String create(String longUrl, UUID owner, int limit, int lifetimeHours) {
+            return code(urlShorter.buildShortUrl(longUrl, owner, limit, lifetimeHours));
+        }
+
+        @Override
+        public Outcome edit(String code, UUID owner, int limit) {
+            return outcome(urlShorter.changeLimit(code, limit, owner));
+        }
+
+        @Override
+        public Outcome delete(String code, UUID owner) {
+            return outcome(urlShorter.removeLink(code, owner));
+        }
+
+        private static Outcome outcome(LinkUpdateStatus status) {
+            return status == LinkUpdateStatus.UPDATED ? Outcome.OK
+                    : status == LinkUpdateStatus.NOT_FOUND ? Outcome.MISS : Outcome.ERROR;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class HttpClient implements Client {
+        private final RedirectLoadGenerator.Connection connection;
+        int lastStatus;
+
+        HttpClient(InetSocketAddress address) throws IOException {
+            this.connection = new RedirectLoadGenerator.Connection(address);
+        }
+
+        @Override
+        public Outcome resolve(String code) throws IOException {
+            return outcome(send("GET /" + code + " HTTP/1.1\r\nHost: load\r\n\r\n"), 302);
+        }
+
+        @Override
+        public String create(String longUrl, UUID owner, int limit, int lifetimeHours) throws IOException {
+            String body = "{\"longUrl\":\"" + longUrl + "\",\"owner\":\"" + owner + "\",\"limit\":" + limit
+                    + ",\"lifetimeHours\":" + lifetimeHours + "}";
+            if (send(withBody("POST /api/links", body)) != 201) {
+                return null;
+            }
+            String response = connection.body();
+            int start = response.indexOf("\"code\":\"") + 8;
+            return response.substring(start, response.indexOf('"', start));
+        }
+
+        @Override
+        public Outcome edit(String code, UUID owner, int limit) throws IOException {
+            String body = "{\"owner\":\"" + owner + "\",\"limit\":" + limit + "}";
+            return outcome(send(withBody("PUT /api/links/" + code, body)), 200);
+        }
+
+        @Override
+        public Outcome delete(String code, UUID owner) throws IOException {
+            return outcome(send("DELETE /api/links/" + code + "?owner=" + owner + " HTTP/1.1\r\nHost: load\r\n\r\n"),
+                    200);
+        }
+
+        private int send(String request) throws IOException {
+            lastStatus = connection.exchange(request.getBytes(StandardCharsets.UTF_8));
+            return lastStatus;
+        }
+
+        private static String withBody(String requestLine, String body) {
+            return requestLine + " HTTP/1.1\r\nHost: load\r\nContent-Type: application/json\r\nContent-Length: "
+                    + body.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n" + body;
+        }
+
+        private static Outcome outcome(int status, int ok) {
+            return status == ok ? Outcome.OK : status == 404 || status == 410 ? Outcome.MISS : Outcome.ERROR;
+        }
+
+        @Override
+        public void close() throws IOException {
+            connection.close();
+        }
+    }
+
+    // Одна фаза нагрузки (прогрев или замер) по общему расписанию
+    private static final class Workload {
+        private final Config config;
+        private final AtomicReferenceArray<Link> links;
+        private final UUID[] owners;
+        private final ZipfSampler zipf;
+        private final double[] cumulative;
+        private final AtomicLong createdUrls = new AtomicLong();
+
+        Workload(Config config, AtomicReferenceArray<Link> links, UUID[] owners) {
+            this.config = config;
+            this.links = links;
+            this.owners = owners;
+            this.zipf = new ZipfSampler(links.length(), config.zipf);
+            this.cumulative = new double[config.weights.length];
+            double sum = 0;
+            for (int i = 0; i < config.weights.length; i++) {
+                sum += config.weights[i];
+                cumulative[i] = sum;
+            }
+            if (sum <= 0) {
+                throw new IllegalArgumentException("Доли операций в mix должны давать положительную сумму.");
+            }
+        }
+
+        Result run(ClientFactory clients, int seconds) throws InterruptedException {
+            Result result = new Result();
+            long intervalNanos = (long) (1e9 / config.rate);
+            long operations = (long) (config.rate * seconds);
+            AtomicLong next = new AtomicLong();
+            CountDownLatch done = new CountDownLatch(config.workers);
+            long start = System.nanoTime() + 10_000_000;
+            // Если сервис не справляется, очередь запланированных операций дорабатывается не дольше длительности фазы
+            long drainDeadline = start + 2L * seconds * 1_000_000_000L;
+            for (int w = 0; w < config.workers; w++) {
+                Thread thread = new Thread(() -> {
+                    try (Client client = clients.open()) {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        long i;
+                        while ((i = next.getAndIncrement()) < operations) {
+                            long intended = start + i * intervalNanos;
+                            long now;
+                            while ((now = System.nanoTime()) < intended) {
+                                LockSupport.parkNanos(intended - now);
+                            }
+                            if (now > drainDeadline) {
+                                // Остаток расписания списывается один раз, остальные потоки списывают только свою
+                                result.unsent.add(1 + Math.max(0, operations - next.getAndSet(operations)));
+                                break;
+                            }
+                            if (now - intended > LATE_NANOS) {
+                                result.late.increment();
+                            }
+                            Operation operation = pick(random.nextDouble() * cumulative[cumulative.length - 1]);
+                            Outcome outcome;
+                            try {
+                                outcome = execute(client, operation, random);
+                            } catch (IOException | RuntimeException e) {
+                                outcome = Outcome.ERROR;
+                            }
+                            result.record(operation, outcome, System.nanoTime() - intended);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }, "workload-" + w);
+                thread.start();
+            }
+            done.await();
+            result.elapsedNanos = System.nanoTime() - start;
+            result.plannedSeconds = seconds;
+            return result;
+        }
+
+        private Operation pick(double point) {
+            for (int i = 0; i < cumulative.length; i++) {
+                if (point < cumulative[i]) {
+                    return Operation.values()[i];
+                }
+            }
+            return Operation.RESOLVE;
+        }
+
+        private Outcome execute(Client client, Operation operation, ThreadLocalRandom random) throws IOException {
+            switch (operation) {
+                case RESOLVE:
+                    return client.resolve(links.get(zipf.sample(random) - 1).code);
+                case BOT:
+                    return client.resolve(randomCode(random));
+                case CREATE: {
+                    UUID owner = owners[random.nextInt(owners.length)];
+                    String code = client.create(LONG_URL + "new-" + createdUrls.incrementAndGet(), owner,
+                            Integer.MAX_VALUE, LIFETIME_HOURS);
+                    if (code == null) {
+                        return Outcome.ERROR;
+                    }
+                    links.set(random.nextInt(links.length()), new Link(code, owner));
+                    return Outcome.OK;
+                }
+                case EDIT: {
+                    Link link = links.get(random.nextInt(links.length()));
+                    return client.edit(link.code, link.owner, Integer.MAX_VALUE - random.nextInt(1000));
+                }
+                default: {
+                    Link link = links.get(random.nextInt(links.length()));
+                    return client.delete(link.code, link.owner);
+                }
+            }
+        }
+    }
+
+    /**
+     * Выборка рангов 1..n по закону Ципфа методом rejection-inversion (Hörmann, Derflinger, 1996): без таблицы
+     * вероятностей, поэтому память не зависит от n, а на выборку в среднем меньше двух попыток.
+     */
+    private static final class ZipfSampler {
+        private final int n;
+        private final double exponent;
+        private final double hIntegralX1;
+        private final double hIntegralN;
+        private final double s;
+
+        ZipfSampler(int n, double exponent) {
+            if (n <= 0 || exponent <= 0) {
+                throw new IllegalArgumentException("Число рангов и показатель должны быть положительными.");
+            }
+            this.n = n;
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1;
+            this.hIntegralN = hIntegral(n + 0.5);
+            this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        int sample(ThreadLocalRandom random) {
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                int k = (int) Math.max(1, Math.min(n, (long) (x + 0.5)));
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - exponent) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = Math.max(-1, x * (1 - exponent));
+            return Math.exp(helper1(t) * x);
+        }
+
+        // log(1 + x) / x с точностью и около нуля
+        private static double helper1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1 / 3.0 - 0.25 * x));
+        }
+
+        // (exp(x) - 1) / x с точностью и около нуля
+        private static double helper2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3.0 * (1 + 0.25 * x));
+        }
+    }
+
+    private static final class Result {
+        final Map<Operation, LatencyHistogram> latency = new EnumMap<>(Operation.class);
+        final Map<Operation, LongAdder[]> outcomes = new EnumMap<>(Operation.class);
+        final LatencyHistogram all = new LatencyHistogram();
+        final LongAdder late = new LongAdder();
+        final LongAdder unsent = new LongAdder();
+        long elapsedNanos;
+        int plannedSeconds;
+
+        Result() {
+            for (Operation operation : Operation.values()) {
+                latency.put(operation, new LatencyHistogram());
+                outcomes.put(operation, new LongAdder[]{new LongAdder(), new LongAdder(), new LongAdder()});
+            }
+        }
+
+        void record(Operation operation, Outcome outcome, long nanos) {
+            latency.get(operation).record(nanos);
+            all.record(nanos);
+            outcomes.get(operation)[outcome.ordinal()].increment();
+        }
+
+        long count(Operation operation, Outcome outcome) {
+            return outcomes.get(operation)[outcome.ordinal()].sum();
+        }
+
+        void print() {
+            LatencyHistogram.Snapshot total = all.snapshot();
+            System.out.printf(Locale.ROOT, "Операций: %d за %.1f с, %.0f оп/с; позже плана: %d, не отправлено: %d%n",
+                    total.getTotalCount(), elapsedNanos / 1e9, total.getTotalCount() * 1e9 / elapsedNanos,
+                    late.sum(), unsent.sum());
+            System.out.println("Операция     всего    промах    ошибки   p50 мкс   p99 мкс p99.9 мкс   max мкс");
+            for (Operation operation : Operation.values()) {
+                LatencyHistogram.Snapshot snapshot = latency.get(operation).snapshot();
+                if (snapshot.getTotalCount() > 0) {
+                    printRow(operation.name().toLowerCase(Locale.ROOT), snapshot, count(operation, Outcome.MISS),
+                            count(operation, Outcome.ERROR));
+                }
+            }
+            printRow("all", total, -1, -1);
+        }
+
+        private static void printRow(String name, LatencyHistogram.Snapshot snapshot, long misses, long errors) {
+            System.out.printf(Locale.ROOT, "%-8s %9d %9s %9s %9.0f %9.0f %9.0f %9.0f%n", name,
+                    snapshot.getTotalCount(), misses < 0 ? "" : String.valueOf(misses),
+                    errors < 0 ? "" : String.valueOf(errors), snapshot.getValueAtPercentile(50) / 1e3,
+                    snapshot.getValueAtPercentile(99) / 1e3, snapshot.getValueAtPercentile(99.9) / 1e3,
+                    snapshot.getMax() / 1e3);
+        }
+
+        String toJson(Config config) {
+            Map<String, String> fields = new LinkedHashMap<>();
+            fields.put("label", Json.quote(config.label));
+            fields.put("timestamp", Json.quote(Instant.now().toString()));
+            fields.put("java", Json.quote(System.getProperty("java.version")));
+            fields.put("cpus", String.valueOf(Runtime.getRuntime().availableProcessors()));
+            fields.put("config", "{\"target\":" + Json.quote(config.target) + ",\"rate\":" + number(config.rate)
+                    + ",\"seconds\":" + plannedSeconds + ",\"warmupSeconds\":" + config.warmupSeconds
+                    + ",\"links\":" + config.links + ",\"owners\":" + config.owners + ",\"zipf\":" + number(config.zipf)
+                    + ",\"mix\":" + Json.quote(config.mix) + ",\"expiring\":" + number(config.expiring)
+                    + ",\"cohorts\":" + config.expiringCohorts() + ",\"workers\":" + config.workers + "}");
+            fields.put("elapsedSeconds", number(elapsedNanos / 1e9));
+            fields.put("throughput", number(all.snapshot().getTotalCount() * 1e9 / elapsedNanos));
+            fields.put("lateStarts", String.valueOf(late.sum()));
+            fields.put("unsent", String.valueOf(unsent.sum()));
+            StringBuilder operations = new StringBuilder("{");
+            for (Operation operation : Operation.values()) {
+                if (operations.length() > 1) {
+                    operations.append(',');
+                }
+                operations.append(Json.quote(operation.name().toLowerCase(Locale.ROOT))).append(':')
+                        .append(stats(latency.get(operation).snapshot(), count(operation, Outcome.MISS),
+                                count(operation, Outcome.ERROR)));
+            }
+            fields.put("operations", operations.append('}').toString());
+            fields.put("all", stats(all.snapshot(), -1, -1));
+            StringBuilder json = new StringBuilder("{\n");
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                if (json.length() > 2) {
+                    json.append(",\n");
+                }
+                json.append("  ").append(Json.quote(field.getKey())).append(": ").append(field.getValue());
+            }
+            return json.append("\n}\n").toString();
+        }
+
+        private String stats(LatencyHistogram.Snapshot snapshot, long misses, long errors) {
+            return "{\"count\":" + snapshot.getTotalCount()
+                    + (misses < 0 ? "" : ",\"misses\":" + misses + ",\"errors\":" + errors)
+                    + ",\"throughput\":" + number(snapshot.getTotalCount() * 1e9 / elapsedNanos)
+                    + ",\"latencyMicros\":{\"p50\":" + micros(snapshot.getValueAtPercentile(50))
+                    + ",\"p90\":" + micros(snapshot.getValueAtPercentile(90))
+                    + ",\"p99\":" + micros(snapshot.getValueAtPercentile(99))
+                    + ",\"p999\":" + micros(snapshot.getValueAtPercentile(99.9))
+                    + ",\"max\":" + micros(snapshot.getMax()) + ",\"mean\":" + micros((long) snapshot.getMean()) + "}}";
+        }
+
+        private static String micros(long nanos) {
+            return number(nanos / 1e3);
+        }
+
+        private static String number(double value) {
+            return String.format(Locale.ROOT, "%.1f", value);
+        }
+    }
+}
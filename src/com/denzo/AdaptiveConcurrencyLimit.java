@@ -0,0 +1,126 @@
+package com.denzo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Предел одновременных операций, который подстраивается под наблюдаемую задержку (градиентный алгоритм, как
+ * Gradient в Netflix concurrency-limits и TCP Vegas).
+ * <p>
+ * Задержки допущенных операций копятся окнами по {@value #WINDOW_MILLIS} мс. По окну считается градиент
+ * {@code TOLERANCE * minRtt / средняя задержка окна} в пределах [0.5, 1]: пока очереди нет, задержка близка
+ * к минимальной и градиент равен 1, а предел растёт на {@code sqrt(предел)}; когда операции начинают ждать друг
+ * друга, градиент падает и предел сжимается. Минимальная задержка берётся за две последние эпохи по
+ * {@value #EPOCH_WINDOWS} окон, поэтому она переучивается, если система стала медленнее насовсем. Предел не растёт,
+ * если занята меньше половины (нагрузка не упирается в предел и окно ничего не говорит о большем пределе).
+ * <p>
+ * {@link #tryAcquire} допускает операцию, если занятых мест меньше доли предела, которая задаётся вызывающим:
+ * так менее важные операции отклоняются раньше, чем кончится весь предел.
+ */
+final class AdaptiveConcurrencyLimit {
+    private static final long WINDOW_MILLIS = 10;
+    private static final int MIN_WINDOW_SAMPLES = 8;
+    private static final int EPOCH_WINDOWS = 200;
+    private static final double TOLERANCE = 2.0;
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongSupplier clock;
+    private volatile double limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Наибольшее число занятых мест в текущем окне
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder windowNanos = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final AtomicLong windowMin = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong windowEnd = new AtomicLong();
+    // Поля ниже меняются только потоком, закрывающим окно (под this)
+    private long epochMin = Long.MAX_VALUE;
+    private long previousEpochMin = Long.MAX_VALUE;
+    private int epochWindows;
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, System::nanoTime);
+    }
+
+    // clock - источник времени в наносекундах для окон (в тестах - управляемые часы)
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, LongSupplier clock) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.clock = clock;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.windowEnd.set(clock.getAsLong() + WINDOW_MILLIS * 1_000_000);
+    }
+
+    // Занимает место, если занято меньше share от предела (0 < share <= 1); хотя бы одно место есть всегда
+    boolean tryAcquire(double share) {
+        int allowed = Math.max(1, (int) (limit * share));
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                if (current + 1 > peakInFlight.get()) {
+                    peakInFlight.accumulateAndGet(current + 1, Math::max);
+                }
+                return true;
+            }
+        }
+    }
+
+    // Освобождает место; rttNanos - время операции для подстройки предела (отрицательное - не учитывать)
+    void release(long rttNanos) {
+        inFlight.decrementAndGet();
+        if (rttNanos < 0) {
+            return;
+        }
+        windowNanos.add(rttNanos);
+        windowSamples.increment();
+        if (rttNanos < windowMin.get()) {
+            windowMin.accumulateAndGet(rttNanos, Math::min);
+        }
+        long now = clock.getAsLong();
+        long end = windowEnd.get();
+        if (now - end >= 0 && windowSamples.sum() >= MIN_WINDOW_SAMPLES
+                && windowEnd.compareAndSet(end, now + WINDOW_MILLIS * 1_000_000)) {
+            closeWindow();
+        }
+    }
+
+    private synchronized void closeWindow() {
+        long samples = windowSamples.sumThenReset();
+        long nanos = windowNanos.sumThenReset();
+        long min = windowMin.getAndSet(Long.MAX_VALUE);
+        int peak = peakInFlight.getAndSet(inFlight.get());
+        if (samples == 0) {
+            return;
+        }
+        epochMin = Math.min(epochMin, min);
+        if (++epochWindows >= EPOCH_WINDOWS) {
+            previousEpochMin = epochMin;
+            epochMin = Long.MAX_VALUE;
+            epochWindows = 0;
+        }
+        double minRtt = Math.min(epochMin, previousEpochMin);
+        double averageRtt = (double) nanos / samples;
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minRtt / averageRtt));
+        double current = limit;
+        if (gradient == 1.0 && peak < current / 2) {
+            return;
+        }
+        double target = current * gradient + Math.sqrt(current);
+        limit = Math.max(minLimit, Math.min(maxLimit, current * (1 - SMOOTHING) + target * SMOOTHING));
+    }
+
+    int getLimit() {
+        return (int) limit;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+}
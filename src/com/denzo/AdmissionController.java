@@ -0,0 +1,273 @@
+package com.denzo;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Допуск запросов к {@link UrlShorter} при перегрузке: при всплеске нагрузки часть запросов отклоняется сразу,
+ * чтобы переходы по живым ссылкам выполнялись с прежней задержкой, а не вставали в общую очередь.
+ * <p>
+ * Три механизма:
+ * <ul>
+ *     <li>создание ссылок ограничено у каждого владельца корзиной токенов (скорость и запас), поэтому массовое
+ *     создание от одного владельца не отнимает ресурсы у остальных;</li>
+ *     <li>число одновременных операций ограничено пределом {@link AdaptiveConcurrencyLimit}, который сжимается,
+ *     когда задержка переходов растёт, и расширяется, когда она возвращается к минимальной;</li>
+ *     <li>запросы разной важности могут занять разную долю предела: переход по коду, по которому недавно был
+ *     успешный переход, - весь предел, создание - {@value #CREATE_SHARE}, переход по неизвестному коду -
+ *     {@value #UNKNOWN_SHARE}. При перегрузке сначала отклоняются переходы по неизвестным кодам и создание.</li>
+ * </ul>
+ * Недавно найденные коды отмечаются в двух поколениях битового массива, которые сменяются раз в
+ * {@value #GENERATION_SECONDS} с; ложное совпадение лишь повышает важность неизвестного кода.
+ * <p>
+ * Отклонённый переход возвращает {@link ResolveStatus#REJECTED} (в {@link RedirectServer} - 503), отклонённое
+ * создание бросает {@link RejectedExecutionException} (429). Остальные операции вызываются у {@link UrlShorter}
+ * напрямую.
+ */
+public class AdmissionController {
+    private static final double CREATE_SHARE = 0.7;
+    private static final double UNKNOWN_SHARE = 0.5;
+    private static final long GENERATION_SECONDS = 600;
+    private static final int RECENT_BITS = 1 << 22;
+    private static final int SWEEP_THRESHOLD = 10_000;
+    private static final long SWEEP_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final UrlShorter urlShorter;
+    private final double createsPerSecond;
+    private final int createBurst;
+    private final AdaptiveConcurrencyLimit limit;
+    private final LongSupplier clock;
+    private final Map<UUID, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweepNanos;
+    // [текущее поколение, прошлое поколение] недавно найденных кодов
+    private volatile AtomicLongArray[] recent = {
+            new AtomicLongArray(RECENT_BITS / 64), new AtomicLongArray(RECENT_BITS / 64)};
+    private volatile long generationStart = CoarseClock.nowEpochSecond();
+    private final LongAdder rejectedResolves = new LongAdder();
+    private final LongAdder rejectedUnknown = new LongAdder();
+    private final LongAdder rateLimitedCreates = new LongAdder();
+    private final LongAdder shedCreates = new LongAdder();
+
+    // createsPerSecond и createBurst - скорость пополнения и размер корзины токенов одного владельца
+    public AdmissionController(UrlShorter urlShorter, double createsPerSecond, int createBurst) {
+        this(urlShorter, createsPerSecond, createBurst, 1000);
+    }
+
+    // maxConcurrency - верхняя граница предела одновременных операций
+    public AdmissionController(UrlShorter urlShorter, double createsPerSecond, int createBurst, int maxConcurrency) {
+        this(urlShorter, createsPerSecond, createBurst, maxConcurrency, System::nanoTime);
+    }
+
+    // clock - источник времени в наносекундах для корзин токенов и задержек переходов (в тестах - управляемые часы)
+    AdmissionController(UrlShorter urlShorter, double createsPerSecond, int createBurst, int maxConcurrency,
+                        LongSupplier clock) {
+        if (createsPerSecond <= 0 || createBurst <= 0 || maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Скорость, запас токенов и предел должны быть положительными.");
+        }
+        this.urlShorter = urlShorter;
+        this.createsPerSecond = createsPerSecond;
+        this.createBurst = createBurst;
+        this.clock = clock;
+        this.nextSweepNanos = new AtomicLong(clock.getAsLong());
+        this.limit = new AdaptiveConcurrencyLimit(Math.min(maxConcurrency, 20), 1, maxConcurrency, clock);
+        urlShorter.getMetrics().setAdmission(this);
+    }
+
+    public UrlShorter getUrlShorter() {
+        return urlShorter;
+    }
+
+    // Переход с допуском; при перегрузке - Resolution со статусом REJECTED, переход не засчитывается
+    public Resolution resolve(String shortUrl, String referrer) {
+        long code = ShortCodes.packShortUrl(shortUrl);
+        if (code == ShortCodes.INVALID) {
+            // Некорректный код отсеивается без обращения к хранилищу, место под него не нужно
+            return urlShorter.resolve(shortUrl, referrer);
+        }
+        boolean known = isRecent(code);
+        if (!admit(known)) {
+            return Resolution.REJECTED;
+        }
+        long start = clock.getAsLong();
+        Resolution resolution = null;
+        try {
+            resolution = urlShorter.resolve(shortUrl, referrer);
+            return resolution;
+        } finally {
+            limit.release(clock.getAsLong() - start);
+            if (resolution != null && resolution.getStatus() == ResolveStatus.FOUND) {
+                markRecent(code);
+            }
+        }
+    }
+
+    // Переход без выделения памяти (см. UrlShorter.resolveInto) с допуском
+    public ResolveStatus resolveInto(CharSequence shortUrl, ResolveResult result) {
+        long code = ShortCodes.packShortUrl(shortUrl);
+        if (code == ShortCodes.INVALID) {
+            return urlShorter.resolveInto(code, null, result);
+        }
+        if (!admit(isRecent(code))) {
+            result.set(ResolveStatus.REJECTED, null);
+            return ResolveStatus.REJECTED;
+        }
+        long start = clock.getAsLong();
+        ResolveStatus status = ResolveStatus.NOT_FOUND;
+        try {
+            status = urlShorter.resolveInto(code, null, result);
+            return status;
+        } finally {
+            limit.release(clock.getAsLong() - start);
+            if (status == ResolveStatus.FOUND) {
+                markRecent(code);
+            }
+        }
+    }
+
+    // Создание с допуском; RejectedExecutionException - у владельца кончились токены или сервис перегружен
+    public String buildShortUrl(String longUrl, UUID userUuid, int limit, int lifetimeHours) {
+        if (!bucket(userUuid).tryTake(clock.getAsLong())) {
+            rateLimitedCreates.increment();
+            throw new RejectedExecutionException("Слишком много новых ссылок от владельца " + userUuid
+                    + ": не больше " + createsPerSecond + " в секунду. Повторите позже.");
+        }
+        if (!this.limit.tryAcquire(CREATE_SHARE)) {
+            shedCreates.increment();
+            throw new RejectedExecutionException("Сервис перегружен: создание ссылок временно отклоняется.");
+        }
+        try {
+            return urlShorter.buildShortUrl(longUrl, userUuid, limit, lifetimeHours);
+        } finally {
+            // Создание дольше перехода, поэтому его время не участвует в подстройке предела
+            this.limit.release(-1);
+        }
+    }
+
+    // Текущий предел одновременных операций
+    public int getConcurrencyLimit() {
+        return limit.getLimit();
+    }
+
+    public int getInFlight() {
+        return limit.getInFlight();
+    }
+
+    // Отклонённые переходы (включая переходы по неизвестным кодам)
+    public long getRejectedResolves() {
+        return rejectedResolves.sum();
+    }
+
+    // Отклонённые переходы по кодам, по которым недавно не было успешного перехода
+    public long getRejectedUnknownResolves() {
+        return rejectedUnknown.sum();
+    }
+
+    // Создания, отклонённые корзиной токенов владельца
+    public long getRateLimitedCreates() {
+        return rateLimitedCreates.sum();
+    }
+
+    // Создания, отклонённые из-за перегрузки
+    public long getShedCreates() {
+        return shedCreates.sum();
+    }
+
+    private boolean admit(boolean known) {
+        if (limit.tryAcquire(known ? 1.0 : UNKNOWN_SHARE)) {
+            return true;
+        }
+        rejectedResolves.increment();
+        if (!known) {
+            rejectedUnknown.increment();
+        }
+        return false;
+    }
+
+    private boolean isRecent(long code) {
+        int bit = (int) Murmur3.fmix(code) & (RECENT_BITS - 1);
+        AtomicLongArray[] generations = recent;
+        long mask = 1L << bit;
+        return (generations[0].get(bit >>> 6) & mask) != 0 || (generations[1].get(bit >>> 6) & mask) != 0;
+    }
+
+    private void markRecent(long code) {
+        long now = CoarseClock.nowEpochSecond();
+        if (now - generationStart >= GENERATION_SECONDS) {
+            rotate(now);
+        }
+        int bit = (int) Murmur3.fmix(code) & (RECENT_BITS - 1);
+        AtomicLongArray current = recent[0];
+        long mask = 1L << bit;
+        if ((current.get(bit >>> 6) & mask) == 0) {
+            current.getAndAccumulate(bit >>> 6, mask, (word, set) -> word | set);
+        }
+    }
+
+    // Новое пустое поколение; коды прошлого поколения забываются
+    private synchronized void rotate(long now) {
+        if (now - generationStart < GENERATION_SECONDS) {
+            return;
+        }
+        recent = new AtomicLongArray[]{new AtomicLongArray(RECENT_BITS / 64), recent[0]};
+        generationStart = now;
+    }
+
+    private TokenBucket bucket(UUID owner) {
+        if (buckets.size() > SWEEP_THRESHOLD) {
+            sweepIdleBuckets();
+        }
+        return buckets.computeIfAbsent(owner, k -> new TokenBucket(createsPerSecond, createBurst, clock.getAsLong()));
+    }
+
+    // Полная корзина ничем не отличается от новой, поэтому корзины простаивающих владельцев удаляются
+    private void sweepIdleBuckets() {
+        long now = clock.getAsLong();
+        long next = nextSweepNanos.get();
+        if (now - next < 0 || !nextSweepNanos.compareAndSet(next, now + SWEEP_INTERVAL_NANOS)) {
+            return;
+        }
+        buckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    // Корзина токенов одного владельца: пополняется при обращении по прошедшему времени
+    private static final class TokenBucket {
+        private final double tokensPerNano;
+        private final int capacity;
+        private double tokens;
+        private long updatedNanos;
+
+        TokenBucket(double tokensPerSecond, int capacity, long now) {
+            this.tokensPerNano = tokensPerSecond / 1e9;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.updatedNanos = now;
+        }
+
+        synchronized boolean tryTake(long now) {
+            refill(now);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= capacity;
+        }
+
+        private void refill(long now) {
+            if (now - updatedNanos > 0) {
+                tokens = Math.min(capacity, tokens + (now - updatedNanos) * tokensPerNano);
+                updatedNanos = now;
+            }
+        }
+    }
+}
@@ -1,18 +1,21 @@
 package com.denzo;
 
 import java.awt.Desktop;
+import java.io.IOException;
 import java.net.URI;
 import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
 
 public class App {
-    private static UrlShorter urlShorter = new UrlShorter();
+    private static UrlShorter urlShorter = createUrlShorter();
     private static Scanner scanner = new Scanner(System.in);
     private static UUID currentUserUuid;
 
     public static void main(String[] args) {
         initializeUser();
+        urlShorter.startExpiryScheduler();
+        urlShorter.getMetrics().register("app");
         boolean exit = false;
 
         while (!exit) {
@@ -44,9 +47,26 @@ public class App {
             }
         }
 
+        urlShorter.stopExpiryScheduler();
         scanner.close();
     }
 
+    // Хранилище выбирается системными свойствами -Dshortlinks.data и -Dshortlinks.store (см. LinkStores),
+    // -Dshortlinks.dedup=true включает дедупликацию длинных URL, -Dshortlinks.analytics=true - статистику переходов
+    private static UrlShorter createUrlShorter() {
+        UrlShorter urlShorter;
+        try {
+            urlShorter = new UrlShorter(LinkStores.fromSystemProperties(), new ConsoleNotifier(), new FeistelCodeGenerator());
+        } catch (IOException e) {
+            System.out.println("Не удалось открыть хранилище " + System.getProperty("shortlinks.data") + ": " + e.getMessage());
+            urlShorter = new UrlShorter();
+        }
+        urlShorter.setDeduplicateUrls(Boolean.getBoolean("shortlinks.dedup"));
+        urlShorter.setCompactUrls(Boolean.getBoolean("shortlinks.compactUrls"));
+        urlShorter.setClickAnalytics(Boolean.getBoolean("shortlinks.analytics"));
+        return urlShorter;
+    }
+
     // Инициализация или смена текущего пользователя
     private static void initializeUser() {
         System.out.println("Добро пожаловать в сервис сокращения ссылок!");
@@ -157,6 +177,12 @@ public class App {
             System.out.println("Длинный URL: " + link.getLongUrl());
             System.out.println("Лимит переходов: " + link.getLimit());
             System.out.println("Текущее количество переходов: " + link.getCurrentCount());
+            ClickAnalytics analytics = urlShorter.getClickAnalytics();
+            if (analytics != null) {
+                String shortUrl = link.getShortUrl();
+                System.out.println("Переходов за час: " + analytics.getLinkClicks(shortUrl, 60)
+                        + ", за сутки: " + analytics.getLinkClicksLastDay(shortUrl));
+            }
             System.out.println("Срок действия: " + link.getExpireAt());
             String status = link.isExpired() ? "Истекла" : (link.isLimitExceeded() ? "Лимит переходов исчерпан" : "Активна");
             System.out.println("Статус: " + status);
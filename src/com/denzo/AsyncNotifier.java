@@ -0,0 +1,229 @@
+package com.denzo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Асинхронный {@link Notifier}: вызов {@link #notify} только кладёт событие в ограниченную очередь
+ * {@link MpscRingBuffer}, а доставкой занимается отдельный поток, поэтому медленный получатель не задерживает переход.
+ * <p>
+ * Поток доставки забирает события пачками (до {@code maxBatch}), группирует их по владельцу и отправляет каждому
+ * одно уведомление со всеми сообщениями пачки. Повторы одного и того же сообщения владельцу (например, «достигла
+ * лимита переходов» на каждый переход) в пределах пачки и в течение {@code dedupWindowMillis} отбрасываются.
+ * Поведение при заполненной очереди задаёт {@link BackpressureMode}.
+ */
+public class AsyncNotifier implements Notifier, AutoCloseable {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int DEFAULT_MAX_BATCH = 1024;
+    private static final long DEFAULT_DEDUP_WINDOW_MILLIS = 60_000;
+    private static final int SAMPLE_EVERY = 10;
+    private static final int DEDUP_MEMORY = 1 << 14;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private final Notifier delegate;
+    private final MpscRingBuffer<Event> queue;
+    private final BackpressureMode backpressure;
+    private final int maxBatch;
+    private final long dedupWindowMillis;
+    private final Thread dispatcher;
+    private volatile boolean closed;
+    // Сколько событий поток доставки забрал из очереди и обработал полностью
+    private volatile long completed;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicLong sampleCounter = new AtomicLong();
+
+    // Когда сообщение владельцу отправлялось последний раз; используется только потоком доставки
+    private final Map<Event, Long> recentlyDelivered = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Event, Long> eldest) {
+            return size() > DEDUP_MEMORY;
+        }
+    };
+
+    private static final class Event {
+        final UUID owner;
+        final String message;
+
+        Event(UUID owner, String message) {
+            this.owner = owner;
+            this.message = message;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Event)) {
+                return false;
+            }
+            Event other = (Event) o;
+            return owner.equals(other.owner) && message.equals(other.message);
+        }
+
+        @Override
+        public int hashCode() {
+            return owner.hashCode() * 31 + message.hashCode();
+        }
+    }
+
+    public AsyncNotifier(Notifier delegate, int capacity, BackpressureMode backpressure, int maxBatch, long dedupWindowMillis) {
+        this.delegate = delegate;
+        this.queue = new MpscRingBuffer<>(capacity);
+        this.backpressure = backpressure;
+        this.maxBatch = maxBatch;
+        this.dedupWindowMillis = dedupWindowMillis;
+        this.dispatcher = new Thread(this::dispatchLoop, "notifier-dispatch");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public AsyncNotifier(Notifier delegate, BackpressureMode backpressure) {
+        this(delegate, DEFAULT_CAPACITY, backpressure, DEFAULT_MAX_BATCH, DEFAULT_DEDUP_WINDOW_MILLIS);
+    }
+
+    public AsyncNotifier(Notifier delegate) {
+        this(delegate, BackpressureMode.DROP);
+    }
+
+    @Override
+    public void notify(UUID userUuid, String message) {
+        if (closed) {
+            dropped.increment();
+            return;
+        }
+        Event event = new Event(userUuid, message);
+        if (backpressure == BackpressureMode.SAMPLE && queue.size() > queue.capacity() / 4 * 3) {
+            if (sampleCounter.incrementAndGet() % SAMPLE_EVERY != 0) {
+                dropped.increment();
+                return;
+            }
+        }
+        if (queue.offer(event)) {
+            queued.increment();
+            return;
+        }
+        if (backpressure != BackpressureMode.BLOCK) {
+            dropped.increment();
+            return;
+        }
+        while (!queue.offer(event)) {
+            if (closed) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.parkNanos(10_000);
+        }
+        queued.increment();
+    }
+
+    // Ждёт, пока будут доставлены все уведомления, поставленные в очередь до вызова
+    public void flush() {
+        long target = queue.offered();
+        while (completed < target) {
+            if (!dispatcher.isAlive()) {
+                return;
+            }
+            LockSupport.unpark(dispatcher);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    // Доставляет оставшиеся уведомления и останавливает поток доставки
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(dispatcher);
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Принято в очередь
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+    // Отброшено из-за заполненной очереди, выборки или закрытия
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    // Отброшено как повтор уже доставленного сообщения
+    public long getDeduplicatedCount() {
+        return deduplicated.sum();
+    }
+
+    // Доставлено получателю (сообщений, а не вызовов: пачка из трёх сообщений даёт 3)
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    // Получатель выбросил исключение
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    private void dispatchLoop() {
+        List<Event> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            Event event;
+            while (batch.size() < maxBatch && (event = queue.poll()) != null) {
+                batch.add(event);
+            }
+            if (batch.isEmpty()) {
+                if (closed && queue.size() == 0) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            deliver(batch);
+            completed += batch.size();
+            batch.clear();
+        }
+    }
+
+    private void deliver(List<Event> batch) {
+        long now = System.currentTimeMillis();
+        Map<UUID, Set<String>> byOwner = new LinkedHashMap<>();
+        for (Event event : batch) {
+            Long last = recentlyDelivered.get(event);
+            if (last != null && now - last < dedupWindowMillis) {
+                deduplicated.increment();
+                continue;
+            }
+            if (!byOwner.computeIfAbsent(event.owner, k -> new LinkedHashSet<>()).add(event.message)) {
+                deduplicated.increment();
+                continue;
+            }
+            recentlyDelivered.put(event, now);
+        }
+        for (Map.Entry<UUID, Set<String>> entry : byOwner.entrySet()) {
+            Set<String> messages = entry.getValue();
+            try {
+                delegate.notify(entry.getKey(), String.join("\n", messages));
+                delivered.add(messages.size());
+            } catch (RuntimeException e) {
+                // Ошибка одного получателя не должна останавливать доставку остальным
+                failed.add(messages.size());
+            }
+        }
+    }
+}
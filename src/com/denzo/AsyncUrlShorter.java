@@ -0,0 +1,48 @@
+package com.denzo;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Неблокирующий интерфейс сервиса коротких ссылок: каждый метод сразу возвращает {@link CompletionStage}, а работа
+ * с хранилищем (диск, другой узел) идёт в потоках реализации, а не в потоке вызывающего.
+ * <p>
+ * Результаты типизированы так же, как у синхронных методов {@link UrlShorter}: переход - {@link Resolution} со
+ * статусом FOUND, NOT_FOUND, EXPIRED или LIMIT_EXCEEDED вместо {@code null}, изменение и удаление -
+ * {@link LinkUpdateStatus} вместо {@code boolean}. Ошибки (например, {@link RejectedExecutionException} при
+ * перегрузке) завершают стадию исключением. Уведомления владельцам по-прежнему уходят через {@link Notifier}.
+ * <p>
+ * Реализация для {@link UrlShorter} - {@link AsyncUrlShorterAdapter}.
+ */
+public interface AsyncUrlShorter {
+    CompletionStage<String> buildShortUrl(String longUrl, UUID ownerUuid, int limit, int lifetimeHours);
+
+    CompletionStage<Resolution> restoreLongUrl(String shortUrl);
+
+    CompletionStage<LinkUpdateStatus> editLimit(String shortUrl, int newLimit, UUID requesterUuid);
+
+    CompletionStage<LinkUpdateStatus> deleteLink(String shortUrl, UUID requesterUuid);
+
+    CompletionStage<List<ShortLink>> getShortLinksByUserUuid(UUID ownerUuid);
+
+    CompletionStage<LinkPage> getShortLinksByUserUuid(UUID ownerUuid, LinkOrder order, String cursor, int limit);
+
+    // Конвейер переходов не больше чем на maxOutstanding незавершённых переходов (см. Pipeline)
+    Pipeline pipeline(int maxOutstanding);
+
+    /**
+     * Конвейер переходов одного соединения: вызывающий отправляет переходы, не дожидаясь ответов, а они выполняются
+     * пачками и завершаются в порядке отправки (как конвейер запросов HTTP/1.1). Пачка занимает один поток
+     * реализации, поэтому много одновременных переходов не требуют стольких же потоков и задач.
+     * Если незавершённых переходов уже {@code maxOutstanding}, новый сразу завершается
+     * {@link RejectedExecutionException}.
+     */
+    interface Pipeline {
+        CompletionStage<Resolution> restoreLongUrl(String shortUrl);
+
+        // Отправленные, но ещё не выполненные переходы
+        int getOutstanding();
+    }
+}
@@ -0,0 +1,178 @@
+package com.denzo;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * {@link AsyncUrlShorter} поверх {@link UrlShorter}: синхронные вызовы выполняются в отдельном пуле, поэтому поток
+ * вызывающего не ждёт хранилище. Если пул не передан, используются виртуальные потоки (Java 21+) или пул из
+ * 4 потоков на ядро, как у {@link RedirectServer}; переданный снаружи пул {@link #close()} не закрывает.
+ * <p>
+ * Стадии завершаются в потоках пула, и зависимые действия без {@code ...Async} выполняются там же, поэтому тяжёлую
+ * работу лучше продолжать через {@code thenApplyAsync} со своим пулом.
+ * <p>
+ * Конвейер ({@link #pipeline}) складывает переходы в ограниченную очередь {@link MpscRingBuffer}. Первый переход
+ * в пустой очереди ставит в пул задачу, которая выполняет накопившиеся переходы по порядку, пачками по
+ * {@value #PIPELINE_BATCH}; между пачками задача заново встаёт в пул, чтобы не занимать поток бесконечно.
+ */
+public class AsyncUrlShorterAdapter implements AsyncUrlShorter, AutoCloseable {
+    private static final int PIPELINE_BATCH = 1024;
+
+    private final UrlShorter urlShorter;
+    private final Executor executor;
+    // null - пул передан снаружи и закрывается его владельцем
+    private final ExecutorService ownExecutor;
+
+    public AsyncUrlShorterAdapter(UrlShorter urlShorter) {
+        this.urlShorter = urlShorter;
+        this.ownExecutor = RedirectServer.createExecutor("url-shorter-async-");
+        this.executor = ownExecutor;
+    }
+
+    public AsyncUrlShorterAdapter(UrlShorter urlShorter, Executor executor) {
+        this.urlShorter = urlShorter;
+        this.executor = executor;
+        this.ownExecutor = null;
+    }
+
+    public UrlShorter getUrlShorter() {
+        return urlShorter;
+    }
+
+    @Override
+    public CompletionStage<String> buildShortUrl(String longUrl, UUID ownerUuid, int limit, int lifetimeHours) {
+        return supply(() -> urlShorter.buildShortUrl(longUrl, ownerUuid, limit, lifetimeHours));
+    }
+
+    @Override
+    public CompletionStage<Resolution> restoreLongUrl(String shortUrl) {
+        return supply(() -> urlShorter.resolve(shortUrl));
+    }
+
+    @Override
+    public CompletionStage<LinkUpdateStatus> editLimit(String shortUrl, int newLimit, UUID requesterUuid) {
+        return supply(() -> urlShorter.changeLimit(shortUrl, newLimit, requesterUuid));
+    }
+
+    @Override
+    public CompletionStage<LinkUpdateStatus> deleteLink(String shortUrl, UUID requesterUuid) {
+        return supply(() -> urlShorter.removeLink(shortUrl, requesterUuid));
+    }
+
+    @Override
+    public CompletionStage<List<ShortLink>> getShortLinksByUserUuid(UUID ownerUuid) {
+        return supply(() -> urlShorter.getShortLinksByUserUuid(ownerUuid));
+    }
+
+    @Override
+    public CompletionStage<LinkPage> getShortLinksByUserUuid(UUID ownerUuid, LinkOrder order, String cursor,
+                                                             int limit) {
+        return supply(() -> urlShorter.getShortLinksByUserUuid(ownerUuid, order, cursor, limit));
+    }
+
+    // Очередь округляется вверх до степени двойки, поэтому мест может быть чуть больше maxOutstanding
+    @Override
+    public Pipeline pipeline(int maxOutstanding) {
+        if (maxOutstanding <= 0) {
+            throw new IllegalArgumentException("Число незавершённых переходов должно быть положительным.");
+        }
+        return new ResolvePipeline(maxOutstanding);
+    }
+
+    // Закрывает собственный пул; уже принятые вызовы доработают
+    @Override
+    public void close() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+    }
+
+    private <T> CompletionStage<T> supply(Supplier<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(call, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static final class PendingResolve {
+        final String shortUrl;
+        final CompletableFuture<Resolution> future = new CompletableFuture<>();
+
+        PendingResolve(String shortUrl) {
+            this.shortUrl = shortUrl;
+        }
+    }
+
+    private final class ResolvePipeline implements Pipeline {
+        private final MpscRingBuffer<PendingResolve> queue;
+        // true - задача разбора очереди поставлена в пул или выполняется; потребитель очереди всегда один
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        ResolvePipeline(int maxOutstanding) {
+            this.queue = new MpscRingBuffer<>(maxOutstanding);
+        }
+
+        @Override
+        public CompletionStage<Resolution> restoreLongUrl(String shortUrl) {
+            PendingResolve pending = new PendingResolve(shortUrl);
+            if (!queue.offer(pending)) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException(
+                        "В конвейере уже " + queue.capacity() + " незавершённых переходов."));
+            }
+            if (draining.compareAndSet(false, true)) {
+                schedule();
+            }
+            return pending.future;
+        }
+
+        @Override
+        public int getOutstanding() {
+            return queue.size();
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Пул закрыт: отказываем всем, кто уже в очереди
+                PendingResolve pending;
+                while ((pending = queue.poll()) != null) {
+                    pending.future.completeExceptionally(e);
+                }
+                draining.set(false);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                PendingResolve pending;
+                int done = 0;
+                while (done < PIPELINE_BATCH && (pending = queue.poll()) != null) {
+                    try {
+                        pending.future.complete(urlShorter.resolve(pending.shortUrl));
+                    } catch (RuntimeException e) {
+                        pending.future.completeExceptionally(e);
+                    }
+                    done++;
+                }
+                if (done == PIPELINE_BATCH) {
+                    schedule();
+                    return;
+                }
+                draining.set(false);
+                // Переход, добавленный после последнего poll, но до сброса флага, иначе остался бы без задачи
+                if (queue.size() == 0 || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+    }
+}
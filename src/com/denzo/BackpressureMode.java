@@ -0,0 +1,11 @@
+package com.denzo;
+
+// Поведение AsyncNotifier, когда очередь уведомлений заполнена
+public enum BackpressureMode {
+    // Новое уведомление отбрасывается, вызывающий поток не ждёт
+    DROP,
+    // Вызывающий поток ждёт освобождения места
+    BLOCK,
+    // При заполнении очереди больше чем на 3/4 принимается только каждое N-е уведомление, остальные отбрасываются
+    SAMPLE
+}
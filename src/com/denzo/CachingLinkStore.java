@@ -0,0 +1,362 @@
+package com.denzo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Ограниченный кэш горячих ссылок перед другим хранилищем (например, {@link MappedLinkStore}, где каждое
+ * чтение - разбор слота и строки URL из файла).
+ * <p>
+ * Кэш разбит на полосы по коду, у каждой своя блокировка и своя политика W-TinyLFU:
+ * <ul>
+ *     <li>новая ссылка попадает в маленькое окно LRU (1% полосы);</li>
+ *     <li>вытесненная из окна ссылка допускается в основную часть, только если по {@link FrequencySketch}
+ *     к ней обращались чаще, чем к кандидату на вытеснение оттуда, - редкие коды не вытесняют горячие;</li>
+ *     <li>основная часть - сегментированный LRU: повторное обращение переводит ссылку из испытательного
+ *     сегмента в защищённый (80%).</li>
+ * </ul>
+ * Попадание не берёт блокировку: ссылка ищется в {@link ConcurrentHashMap} полосы, а обращение записывается в
+ * маленький буфер чтений полосы. Буфер разбирается под блокировкой (обновление порядка LRU и {@link FrequencySketch})
+ * тем потоком, которому удалось её взять ({@code tryLock}) после каждых {@value #DRAIN_EVERY} записей, а также при
+ * загрузке в кэш. Буфер с потерями: если его не успели разобрать, старые записи затираются - порядок и частоты
+ * становятся приблизительными, но чтение никогда не ждёт блокировку.
+ * <p>
+ * Смена лимита, удаление и истечение сначала выполняются в хранилище, затем убирают ссылку из кэша. Загрузка,
+ * начатая до такого изменения, в кэш не попадает (счётчик поколений полосы), поэтому устаревший снимок не
+ * переживает удаление. Переходы всегда засчитываются хранилищем ({@code tryIncrement} идёт мимо кэша), так что
+ * лимит переходов проверяется по настоящему счётчику, а счётчик в закэшированном снимке может отставать.
+ */
+public class CachingLinkStore implements LinkStore {
+    private static final int MIN_STRIPE_CAPACITY = 64;
+    // Буфер чтений полосы (степень двойки) и как часто его пробуют разобрать
+    private static final int READ_BUFFER = 32;
+    private static final int DRAIN_EVERY = READ_BUFFER / 2;
+
+    private final LinkStore backend;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public CachingLinkStore(LinkStore backend, int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Размер кэша должен быть положительным.");
+        }
+        this.backend = backend;
+        int stripeCount = Integer.highestOneBit(Math.max(1, Math.min(
+                4 * Runtime.getRuntime().availableProcessors(), maximumSize / MIN_STRIPE_CAPACITY)));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(maximumSize / stripeCount + (i < maximumSize % stripeCount ? 1 : 0));
+        }
+        this.stripeMask = stripeCount - 1;
+    }
+
+    private final class Stripe {
+        private final int windowCapacity;
+        private final int protectedCapacity;
+        private final int mainCapacity;
+        // Все ссылки полосы для чтения без блокировки; порядок и сегменты ниже меняются только под lock
+        private final ConcurrentHashMap<Long, ShortLink> data = new ConcurrentHashMap<>();
+        // accessOrder = true: первая запись - давнее всего использованная
+        private final LinkedHashMap<Long, ShortLink> window = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Long, ShortLink> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Long, ShortLink> protectedLinks = new LinkedHashMap<>(16, 0.75f, true);
+        private final FrequencySketch sketch;
+        private final ReentrantLock lock = new ReentrantLock();
+        // Коды попаданий + 1 (0 - пустая ячейка), ещё не учтённые политикой
+        private final AtomicLongArray reads = new AtomicLongArray(READ_BUFFER);
+        private final AtomicLong readCount = new AtomicLong();
+        // Растёт при каждом удалении ссылки из кэша; загрузка кладёт снимок, только если поколение не сменилось
+        private volatile long generation;
+
+        Stripe(int capacity) {
+            this.windowCapacity = Math.max(1, capacity / 100);
+            this.mainCapacity = Math.max(1, capacity - windowCapacity);
+            this.protectedCapacity = mainCapacity * 4 / 5;
+            this.sketch = new FrequencySketch(capacity);
+        }
+
+        // Попадание: без блокировки, обращение учитывается позже при разборе буфера
+        ShortLink get(long code) {
+            ShortLink link = data.get(code);
+            if (link != null) {
+                long count = readCount.getAndIncrement();
+                reads.lazySet((int) count & (READ_BUFFER - 1), code + 1);
+                if ((count & (DRAIN_EVERY - 1)) == DRAIN_EVERY - 1 && lock.tryLock()) {
+                    try {
+                        drainReads();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+            return link;
+        }
+
+        // Применяет записанные попадания к политике; вызывается под lock
+        private void drainReads() {
+            for (int i = 0; i < READ_BUFFER; i++) {
+                long entry = reads.getAndSet(i, 0);
+                if (entry != 0) {
+                    access(entry - 1);
+                }
+            }
+        }
+
+        private void access(long code) {
+            sketch.increment(code);
+            if (window.get(code) != null || protectedLinks.get(code) != null) {
+                return;
+            }
+            ShortLink link = probation.remove(code);
+            if (link != null) {
+                // Второе обращение в основной части - в защищённый сегмент, лишнее оттуда - обратно на испытание
+                protectedLinks.put(code, link);
+                if (protectedLinks.size() > protectedCapacity) {
+                    Map.Entry<Long, ShortLink> demoted = removeEldest(protectedLinks);
+                    probation.put(demoted.getKey(), demoted.getValue());
+                }
+            }
+        }
+
+        // Промах: обращение к коду учитывается сразу, а снимок кладётся, только если поколение не сменилось
+        void load(long code, ShortLink link, long expectedGeneration) {
+            lock.lock();
+            try {
+                drainReads();
+                sketch.increment(code);
+                if (generation == expectedGeneration && !data.containsKey(code)) {
+                    put(code, link);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void put(long code, ShortLink link) {
+            data.put(code, link);
+            window.put(code, link);
+            if (window.size() <= windowCapacity) {
+                return;
+            }
+            Map.Entry<Long, ShortLink> candidate = removeEldest(window);
+            if (probation.size() + protectedLinks.size() < mainCapacity) {
+                probation.put(candidate.getKey(), candidate.getValue());
+                return;
+            }
+            // Кандидат из окна против самого давнего в испытательном сегменте: остаётся тот, кто популярнее
+            LinkedHashMap<Long, ShortLink> victims = probation.isEmpty() ? protectedLinks : probation;
+            Map.Entry<Long, ShortLink> victim = victims.entrySet().iterator().next();
+            if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+                victims.remove(victim.getKey());
+                data.remove(victim.getKey());
+                probation.put(candidate.getKey(), candidate.getValue());
+            } else {
+                data.remove(candidate.getKey());
+                rejections.increment();
+            }
+            evictions.increment();
+        }
+
+        void invalidate(long code) {
+            lock.lock();
+            try {
+                generation++;
+                data.remove(code);
+                if (window.remove(code) == null && probation.remove(code) == null) {
+                    protectedLinks.remove(code);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            return data.size();
+        }
+
+        private Map.Entry<Long, ShortLink> removeEldest(LinkedHashMap<Long, ShortLink> map) {
+            Iterator<Map.Entry<Long, ShortLink>> iterator = map.entrySet().iterator();
+            Map.Entry<Long, ShortLink> eldest = iterator.next();
+            // Копия: запись LinkedHashMap после удаления больше не принадлежит карте
+            Map.Entry<Long, ShortLink> copy = Map.entry(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+            return copy;
+        }
+    }
+
+    @Override
+    public ShortLink get(long code) {
+        Stripe stripe = stripe(code);
+        ShortLink cached = stripe.get(code);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        // Поколение читается до загрузки: удаление после этого момента не даст положить устаревший снимок
+        long generation = stripe.generation;
+        misses.increment();
+        ShortLink link = backend.get(code);
+        if (link != null) {
+            stripe.load(code, link, generation);
+        }
+        return link;
+    }
+
+    @Override
+    public boolean putIfAbsent(ShortLink link) {
+        return backend.putIfAbsent(link);
+    }
+
+    @Override
+    public boolean[] putAllIfAbsent(List<ShortLink> links) {
+        return backend.putAllIfAbsent(links);
+    }
+
+    @Override
+    public boolean remove(ShortLink link) {
+        boolean removed = backend.remove(link);
+        invalidate(link.getCode());
+        return removed;
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link) {
+        return backend.tryIncrement(link);
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link, int clicks) {
+        return backend.tryIncrement(link, clicks);
+    }
+
+    @Override
+    public void releaseClicks(ShortLink link, int clicks) {
+        backend.releaseClicks(link, clicks);
+    }
+
+    @Override
+    public void setLimit(ShortLink link, int limit) {
+        backend.setLimit(link, limit);
+        invalidate(link.getCode());
+    }
+
+    @Override
+    public List<ShortLink> findByOwner(UUID ownerUuid) {
+        return backend.findByOwner(ownerUuid);
+    }
+
+    @Override
+    public LinkPage findByOwner(UUID ownerUuid, LinkOrder order, String cursor, int limit) {
+        return backend.findByOwner(ownerUuid, order, cursor, limit);
+    }
+
+    @Override
+    public List<ShortLink> removeExpired(long nowEpochSecond) {
+        List<ShortLink> removed = backend.removeExpired(nowEpochSecond);
+        for (ShortLink link : removed) {
+            invalidate(link.getCode());
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean keepsLinkObjects() {
+        return backend.keepsLinkObjects();
+    }
+
+    @Override
+    public boolean indexesOwners() {
+        return backend.indexesOwners();
+    }
+
+    @Override
+    public CodeState loadCodeState() {
+        return backend.loadCodeState();
+    }
+
+    @Override
+    public boolean saveCodeState(CodeState state) {
+        return backend.saveCodeState(state);
+    }
+
+    @Override
+    public long size() {
+        return backend.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortLink> action) {
+        backend.forEach(action);
+    }
+
+    @Override
+    public void forEachOwner(ObjIntConsumer<UUID> action) {
+        backend.forEachOwner(action);
+    }
+
+    @Override
+    public void close() {
+        backend.close();
+    }
+
+    LinkStore getBackend() {
+        return backend;
+    }
+
+    // Убирает ссылку из кэша, например после изменения в хранилище в обход этого класса
+    public void invalidate(long code) {
+        stripe(code).invalidate(code);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    // Доля обращений, обслуженных кэшем (0, если обращений не было)
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    // Вытеснено из кэша при переполнении: более редкая ссылка основной части или отклонённый кандидат из окна
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    // Кандидаты из окна, не допущенные в основную часть, потому что вытесняемая ссылка популярнее
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    public int getCachedCount() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    private Stripe stripe(long code) {
+        long hash = code * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (hash >>> 40) & stripeMask];
+    }
+}
@@ -0,0 +1,207 @@
+package com.denzo;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Статистика переходов по времени для ссылок и владельцев.
+ * <p>
+ * Успешный переход только кладёт компактное событие (код, владелец, секунда, источник) в ограниченную очередь
+ * {@link ClickEventBuffer} без блокировок и выделения памяти; если очередь заполнена, событие отбрасывается и
+ * учитывается в {@link #getDroppedCount()}, поэтому переход никогда не ждёт аналитику. Поток агрегации забирает
+ * события и ведёт поминутные и почасовые сводки {@link ClickRollup} по каждой ссылке и каждому владельцу, а запросы
+ * («переходы по ссылке за последние 24 часа») отвечаются по сводкам, а не по сырым событиям.
+ * <p>
+ * Сводки отстают от переходов на время обработки очереди (обычно меньше миллисекунды), {@link #flush()} ждёт,
+ * пока будут учтены все уже записанные события. Сводки без переходов за {@value ClickRollup#HOURS} часов удаляются.
+ */
+public class ClickAnalytics implements AutoCloseable {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int MAX_BATCH = 4096;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+    private static final int DAY_MINUTES = 24 * 60;
+
+    private final ClickEventBuffer buffer;
+    private final Map<Long, ClickRollup> links = new ConcurrentHashMap<>();
+    private final Map<UUID, ClickRollup> owners = new ConcurrentHashMap<>();
+    private final Thread aggregator;
+    private volatile boolean closed;
+    // Сколько событий поток агрегации забрал из очереди и учёл в сводках
+    private volatile long completed;
+    private final LongAdder dropped = new LongAdder();
+    // Последний разобранный источник: переходы одной волны обычно приходят с одной страницы (только поток агрегации)
+    private String lastReferrer;
+    private String lastReferrerHost;
+
+    public ClickAnalytics(int capacity) {
+        this.buffer = new ClickEventBuffer(capacity);
+        this.aggregator = new Thread(this::aggregateLoop, "click-analytics");
+        aggregator.setDaemon(true);
+        aggregator.start();
+    }
+
+    public ClickAnalytics() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // Записывает переход; вызывается на пути перехода и никогда не блокируется
+    void record(ShortLink link, long epochSecond, String referrer) {
+        if (closed || !buffer.offer(link.getCode(), link.getOwnerMostSigBits(), link.getOwnerLeastSigBits(),
+                epochSecond, referrer)) {
+            dropped.increment();
+        }
+    }
+
+    // Переходы по ссылке за последние windowMinutes минут (до часа - с точностью до минуты, больше - до часа,
+    // не больше ClickRollup.HOURS часов)
+    public long getLinkClicks(String shortUrl, int windowMinutes) {
+        checkWindow(windowMinutes);
+        ClickRollup rollup = linkRollup(shortUrl);
+        return rollup == null ? 0 : rollup.sum(CoarseClock.nowEpochSecond(), windowMinutes);
+    }
+
+    // Переходы по ссылке за последние 24 часа
+    public long getLinkClicksLastDay(String shortUrl) {
+        return getLinkClicks(shortUrl, DAY_MINUTES);
+    }
+
+    // Переходы по всем ссылкам владельца за последние windowMinutes минут
+    public long getOwnerClicks(UUID ownerUuid, int windowMinutes) {
+        checkWindow(windowMinutes);
+        ClickRollup rollup = owners.get(ownerUuid);
+        return rollup == null ? 0 : rollup.sum(CoarseClock.nowEpochSecond(), windowMinutes);
+    }
+
+    // Переходы по ссылке по минутам последнего часа, от самой старой минуты к текущей
+    public long[] getLinkClicksPerMinute(String shortUrl) {
+        ClickRollup rollup = linkRollup(shortUrl);
+        return rollup == null ? new long[ClickRollup.MINUTES] : rollup.perMinute(CoarseClock.nowEpochSecond());
+    }
+
+    // Переходы по ссылке по часам последних ClickRollup.HOURS часов, от самого старого часа к текущему
+    public long[] getLinkClicksPerHour(String shortUrl) {
+        ClickRollup rollup = linkRollup(shortUrl);
+        return rollup == null ? new long[ClickRollup.HOURS] : rollup.perHour(CoarseClock.nowEpochSecond());
+    }
+
+    // Хосты из заголовка Referer по убыванию числа переходов; источники сверх ClickRollup.MAX_REFERRERS
+    // учитываются вместе под ключом "other"
+    public Map<String, Long> getTopReferrers(String shortUrl, int limit) {
+        ClickRollup rollup = linkRollup(shortUrl);
+        return rollup == null ? Map.of() : rollup.topReferrers(limit);
+    }
+
+    // Ждёт, пока будут учтены все события, записанные до вызова
+    public void flush() {
+        long target = buffer.offered();
+        while (completed < target) {
+            if (!aggregator.isAlive()) {
+                return;
+            }
+            LockSupport.unpark(aggregator);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    // Учитывает оставшиеся события и останавливает поток агрегации
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(aggregator);
+        try {
+            aggregator.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Учтено в сводках
+    public long getRecordedCount() {
+        return completed;
+    }
+
+    // Отброшено из-за заполненной очереди или после закрытия
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private void aggregateLoop() {
+        long nextSweep = CoarseClock.nowEpochSecond() + SWEEP_INTERVAL_SECONDS;
+        while (true) {
+            int processed = 0;
+            int index;
+            while (processed < MAX_BATCH && (index = buffer.peek()) >= 0) {
+                aggregate(index);
+                buffer.release(index);
+                processed++;
+            }
+            completed += processed;
+            if (CoarseClock.nowEpochSecond() >= nextSweep) {
+                sweep();
+                nextSweep = CoarseClock.nowEpochSecond() + SWEEP_INTERVAL_SECONDS;
+            }
+            if (processed == 0) {
+                if (closed && buffer.peek() < 0) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void aggregate(int index) {
+        long code = buffer.code(index);
+        ClickRollup link = links.get(code);
+        if (link == null) {
+            UUID ownerUuid = new UUID(buffer.ownerHigh(index), buffer.ownerLow(index));
+            link = new ClickRollup(owners.computeIfAbsent(ownerUuid, k -> new ClickRollup(null)));
+            links.put(code, link);
+        }
+        long epochSecond = buffer.epochSecond(index);
+        String referrer = buffer.referrer(index);
+        if (referrer != null && !referrer.equals(lastReferrer)) {
+            lastReferrer = referrer;
+            lastReferrerHost = referrerHost(referrer);
+        }
+        link.add(epochSecond, referrer == null ? null : lastReferrerHost);
+        link.owner.add(epochSecond, null);
+    }
+
+    // Удаляет сводки без переходов за всё почасовое окно; сводка владельца устаревает не раньше сводок его ссылок
+    private void sweep() {
+        long now = CoarseClock.nowEpochSecond();
+        links.values().removeIf(rollup -> rollup.isStale(now));
+        owners.values().removeIf(rollup -> rollup.isStale(now));
+    }
+
+    private ClickRollup linkRollup(String shortUrl) {
+        String code = shortUrl.startsWith(ShortCodes.PREFIX) ? shortUrl.substring(ShortCodes.PREFIX.length()) : shortUrl;
+        long packed = ShortCodes.pack(code);
+        return packed == ShortCodes.INVALID ? null : links.get(packed);
+    }
+
+    private static void checkWindow(int windowMinutes) {
+        if (windowMinutes <= 0 || windowMinutes > ClickRollup.HOURS * 60) {
+            throw new IllegalArgumentException("Окно должно быть от 1 минуты до " + ClickRollup.HOURS + " часов.");
+        }
+    }
+
+    // Хост из заголовка Referer ("https://news.example.com/a?b" -> "news.example.com"), null - заголовка нет
+    static String referrerHost(String referrer) {
+        if (referrer == null || referrer.isEmpty()) {
+            return null;
+        }
+        int start = referrer.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = start;
+        while (end < referrer.length() && "/:?#".indexOf(referrer.charAt(end)) < 0) {
+            end++;
+        }
+        return end == start ? null : referrer.substring(start, end).toLowerCase(Locale.ROOT);
+    }
+}
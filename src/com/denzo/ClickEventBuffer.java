@@ -0,0 +1,93 @@
+package com.denzo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Очередь событий перехода для ClickAnalytics: та же схема Вьюкова, что в MpscRingBuffer, но поля события лежат
+// в параллельных примитивных массивах, поэтому запись перехода не создаёт объект. Производитель пишет поля
+// в занятую ячейку обычными записями и публикует их записью номера последовательности (volatile).
+final class ClickEventBuffer {
+    private final int mask;
+    private final long[] codes;
+    private final long[] seconds;
+    private final long[] ownersHigh;
+    private final long[] ownersLow;
+    private final String[] referrers;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // меняет и читает только потребитель
+
+    ClickEventBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.codes = new long[size];
+        this.seconds = new long[size];
+        this.ownersHigh = new long[size];
+        this.ownersLow = new long[size];
+        this.referrers = new String[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Добавляет событие; false - если очередь заполнена
+    boolean offer(long code, long ownerHigh, long ownerLow, long epochSecond, String referrer) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    codes[index] = code;
+                    seconds[index] = epochSecond;
+                    ownersHigh[index] = ownerHigh;
+                    ownersLow[index] = ownerLow;
+                    referrers[index] = referrer;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false;
+            }
+        }
+    }
+
+    // Индекс ячейки следующего события или -1, если очередь пуста (только для потребителя).
+    // Поля события читаются по индексу, после чего ячейку нужно освободить через release().
+    int peek() {
+        int index = (int) (head & mask);
+        return sequences.get(index) == head + 1 ? index : -1;
+    }
+
+    void release(int index) {
+        referrers[index] = null;
+        sequences.set(index, head + mask + 1);
+        head++;
+    }
+
+    long code(int index) {
+        return codes[index];
+    }
+
+    long epochSecond(int index) {
+        return seconds[index];
+    }
+
+    long ownerHigh(int index) {
+        return ownersHigh[index];
+    }
+
+    long ownerLow(int index) {
+        return ownersLow[index];
+    }
+
+    String referrer(int index) {
+        return referrers[index];
+    }
+
+    // Сколько событий было добавлено за всё время
+    long offered() {
+        return tail.get();
+    }
+}
@@ -0,0 +1,145 @@
+package com.denzo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Сводка переходов одной ссылки или одного владельца для {@link ClickAnalytics}: кольцо из {@value #MINUTES}
+ * поминутных счётчиков и кольцо из {@value #HOURS} почасовых. Ячейка кольца переиспользуется, когда время уходит
+ * на полный круг: при продвижении пропущенные ячейки обнуляются, поэтому старые значения не попадают в новые окна.
+ * <p>
+ * Пишет только поток агрегации, запросы приходят из любых потоков; все методы синхронизированы на сводке.
+ */
+final class ClickRollup {
+    static final int MINUTES = 60;
+    static final int HOURS = 48;
+    static final int MAX_REFERRERS = 16;
+    static final String OTHER_REFERRERS = "other";
+
+    private final int[] minutes = new int[MINUTES];
+    private final int[] hours = new int[HOURS];
+    private long lastMinute = Long.MIN_VALUE;
+    private long lastHour = Long.MIN_VALUE;
+    private long total;
+    // Сводка владельца ссылки (у сводки владельца - null)
+    final ClickRollup owner;
+    // Переходы по хостам источника; заводится при первом переходе с заголовком Referer
+    private Map<String, long[]> referrers;
+
+    ClickRollup(ClickRollup owner) {
+        this.owner = owner;
+    }
+
+    synchronized void add(long epochSecond, String referrerHost) {
+        long minute = Math.floorDiv(epochSecond, 60);
+        long hour = Math.floorDiv(minute, 60);
+        if (minute > lastMinute) {
+            clear(minutes, lastMinute, minute);
+            lastMinute = minute;
+        }
+        if (hour > lastHour) {
+            clear(hours, lastHour, hour);
+            lastHour = hour;
+        }
+        // Событие могло задержаться в очереди дольше окна кольца: тогда оно учитывается только в общем итоге
+        if (minute > lastMinute - MINUTES) {
+            minutes[Math.floorMod(minute, MINUTES)]++;
+        }
+        if (hour > lastHour - HOURS) {
+            hours[Math.floorMod(hour, HOURS)]++;
+        }
+        total++;
+        if (referrerHost != null) {
+            addReferrer(referrerHost);
+        }
+    }
+
+    // Переходы за последние windowMinutes минут к моменту nowEpochSecond, включая текущую минуту. Окно до часа
+    // считается по минутам, больше - по часам (текущий час целиком), поэтому длинное окно округляется вверх до часа.
+    synchronized long sum(long nowEpochSecond, int windowMinutes) {
+        long nowMinute = Math.floorDiv(nowEpochSecond, 60);
+        if (windowMinutes <= MINUTES) {
+            return sum(minutes, lastMinute, nowMinute, windowMinutes);
+        }
+        return sum(hours, lastHour, Math.floorDiv(nowMinute, 60), (windowMinutes + 59) / 60);
+    }
+
+    // Поминутные счётчики последнего часа, от самой старой минуты к текущей
+    synchronized long[] perMinute(long nowEpochSecond) {
+        return series(minutes, lastMinute, Math.floorDiv(nowEpochSecond, 60));
+    }
+
+    // Почасовые счётчики последних HOURS часов, от самого старого часа к текущему
+    synchronized long[] perHour(long nowEpochSecond) {
+        return series(hours, lastHour, Math.floorDiv(nowEpochSecond, 3600));
+    }
+
+    synchronized long total() {
+        return total;
+    }
+
+    // Не было переходов за всё окно почасового кольца
+    synchronized boolean isStale(long nowEpochSecond) {
+        return lastHour <= Math.floorDiv(nowEpochSecond, 3600) - HOURS;
+    }
+
+    // Не больше limit источников по убыванию числа переходов
+    synchronized Map<String, Long> topReferrers(int limit) {
+        Map<String, Long> top = new LinkedHashMap<>();
+        if (referrers == null) {
+            return top;
+        }
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(referrers.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        for (Map.Entry<String, long[]> entry : entries.subList(0, Math.min(limit, entries.size()))) {
+            top.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return top;
+    }
+
+    private void addReferrer(String host) {
+        if (referrers == null) {
+            referrers = new HashMap<>();
+        }
+        long[] count = referrers.get(host);
+        if (count == null) {
+            // Число источников ограничено, чтобы сводка популярной ссылки не росла без предела
+            String key = referrers.size() < MAX_REFERRERS ? host : OTHER_REFERRERS;
+            count = referrers.computeIfAbsent(key, k -> new long[1]);
+        }
+        count[0]++;
+    }
+
+    // Обнуляет ячейки (from, to], не больше одного круга
+    private static void clear(int[] ring, long from, long to) {
+        long start = Math.max(from + 1, to - ring.length + 1);
+        for (long slot = start; slot <= to; slot++) {
+            ring[Math.floorMod(slot, ring.length)] = 0;
+        }
+    }
+
+    private static long sum(int[] ring, long last, long now, int window) {
+        if (last == Long.MIN_VALUE) {
+            return 0;
+        }
+        long result = 0;
+        for (long slot = Math.max(now - window + 1, last - ring.length + 1); slot <= Math.min(now, last); slot++) {
+            result += ring[Math.floorMod(slot, ring.length)];
+        }
+        return result;
+    }
+
+    private static long[] series(int[] ring, long last, long now) {
+        long[] result = new long[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            long slot = now - ring.length + 1 + i;
+            if (slot <= last && slot > last - ring.length) {
+                result[i] = ring[Math.floorMod(slot, ring.length)];
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,29 @@
+package com.denzo;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Грубые часы в секундах эпохи: фоновый поток обновляет значение раз в 50 мс,
+// поэтому проверка срока жизни на каждом переходе - это чтение одного volatile-поля.
+public final class CoarseClock {
+    private static final long TICK_MILLIS = 50;
+    private static volatile long nowEpochSecond = System.currentTimeMillis() / 1000;
+
+    static {
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "coarse-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> nowEpochSecond = System.currentTimeMillis() / 1000,
+                TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private CoarseClock() {
+    }
+
+    public static long nowEpochSecond() {
+        return nowEpochSecond;
+    }
+}
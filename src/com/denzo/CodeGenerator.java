@@ -0,0 +1,19 @@
+package com.denzo;
+
+// Стратегия генерации кода короткой ссылки. Код возвращается упакованным (см. ShortCodes.pack).
+public interface CodeGenerator {
+    long nextCode();
+
+    // Заполняет codes[from, from + count) новыми кодами. По умолчанию - nextCode() по одному;
+    // генераторы с общим счётчиком резервируют весь диапазон одним обращением к нему.
+    default void nextCodes(long[] codes, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            codes[i] = nextCode();
+        }
+    }
+
+    // Вызывается UrlShorter при создании: генератор может продолжить выдачу с состояния, сохранённого
+    // в хранилище, и сохранять туда своё. По умолчанию ничего не делает.
+    default void attach(LinkStore store) {
+    }
+}
@@ -0,0 +1,21 @@
+package com.denzo;
+
+// Состояние генератора кодов, которое хранилище сохраняет вместе со ссылками: seed перестановки и граница
+// зарезервированных номеров. После перезапуска выдача продолжается с этой границы (см. FeistelCodeGenerator).
+public final class CodeState {
+    private final long seed;
+    private final long reservedUntil;
+
+    public CodeState(long seed, long reservedUntil) {
+        this.seed = seed;
+        this.reservedUntil = reservedUntil;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getReservedUntil() {
+        return reservedUntil;
+    }
+}
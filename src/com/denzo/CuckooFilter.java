@@ -0,0 +1,205 @@
+package com.denzo;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Фильтр кукушки по кодам ссылок для {@link FilteredLinkStore}: «точно нет» или «возможно есть», с удалением.
+ * <p>
+ * Корзина - один long из четырёх 16-битных ячеек, в ячейке - отпечаток кода ({@code fingerprintBits} бит, 0 - пусто).
+ * Отпечаток может лежать в одной из двух корзин: {@code i1} по хешу кода и {@code i2 = i1 ^ hash(отпечатка)}, поэтому
+ * при переполнении его можно перенести во вторую корзину, не зная самого кода. Ложноположительный ответ -
+ * примерно {@code 8 / 2^fingerprintBits}: 10 бит дают ~0.8%, 16 - ~0.01%.
+ * <p>
+ * Проверка идёт без блокировок: два чтения корзин и счётчика версий. Добавление и удаление синхронизированы,
+ * на время изменения версия нечётная. Отрицательный ответ, при котором версия изменилась, заменяется на «возможно
+ * есть»: переносимый отпечаток мог оказаться между корзинами, а ложноотрицательных ответов фильтр не даёт.
+ */
+final class CuckooFilter {
+    private static final int SLOTS = 4;
+    private static final int SLOT_BITS = 16;
+    private static final int MAX_KICKS = 500;
+    private static final int MAX_WALKS = 8;
+    private static final double LOAD_FACTOR = 0.95;
+
+    private final AtomicLongArray buckets;
+    private final int bucketMask;
+    private final int fingerprintBits;
+    private final long fingerprintMask;
+    private final AtomicLong version = new AtomicLong();
+    private long count;
+
+    CuckooFilter(long expectedItems, double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("Доля ложных срабатываний должна быть в (0, 1).");
+        }
+        long needed = (long) Math.ceil(Math.max(1, expectedItems) / (SLOTS * LOAD_FACTOR));
+        int bucketCount = (int) Math.min(1 << 30, Math.max(2, Long.highestOneBit(needed - 1) << 1));
+        this.buckets = new AtomicLongArray(bucketCount);
+        this.bucketMask = bucketCount - 1;
+        int bits = (int) Math.ceil(Math.log(2.0 * SLOTS / falsePositiveRate) / Math.log(2));
+        this.fingerprintBits = Math.max(4, Math.min(SLOT_BITS, bits));
+        this.fingerprintMask = (1L << fingerprintBits) - 1;
+    }
+
+    boolean mightContain(long key) {
+        long hash = Murmur3.fmix(key);
+        int fingerprint = fingerprint(hash);
+        int first = (int) hash & bucketMask;
+        long before = version.get();
+        if (contains(buckets.get(first), fingerprint)
+                || contains(buckets.get(alternate(first, fingerprint)), fingerprint)) {
+            return true;
+        }
+        return (before & 1) != 0 || version.get() != before;
+    }
+
+    // false - фильтр переполнен и ключ не добавлен
+    synchronized boolean add(long key) {
+        long hash = Murmur3.fmix(key);
+        int fingerprint = fingerprint(hash);
+        int first = (int) hash & bucketMask;
+        int second = alternate(first, fingerprint);
+        if (!insertIntoEmptySlot(first, fingerprint) && !insertIntoEmptySlot(second, fingerprint)
+                && !relocate(ThreadLocalRandom.current().nextBoolean() ? first : second, fingerprint)) {
+            return false;
+        }
+        count++;
+        return true;
+    }
+
+    // Удаляет один отпечаток ключа. Вызывать только для добавленных ключей: иначе можно удалить чужой
+    // совпавший отпечаток и получить ложноотрицательный ответ.
+    synchronized boolean remove(long key) {
+        long hash = Murmur3.fmix(key);
+        int fingerprint = fingerprint(hash);
+        int first = (int) hash & bucketMask;
+        if (!removeFromBucket(first, fingerprint) && !removeFromBucket(alternate(first, fingerprint), fingerprint)) {
+            return false;
+        }
+        count--;
+        return true;
+    }
+
+    synchronized long size() {
+        return count;
+    }
+
+    long capacity() {
+        return (long) buckets.length() * SLOTS;
+    }
+
+    int getFingerprintBits() {
+        return fingerprintBits;
+    }
+
+    // Путь переносов ищется без изменений: случайное блуждание от корзины start до корзины со свободной ячейкой.
+    // Найденный путь применяется с конца - каждый отпечаток сначала копируется в следующую корзину и только
+    // потом затирается, так что ни один добавленный ключ не пропадает, даже если путь не найден.
+    private boolean relocate(int start, int fingerprint) {
+        int[] pathBuckets = new int[MAX_KICKS];
+        int[] pathSlots = new int[MAX_KICKS];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int walk = 0; walk < MAX_WALKS; walk++) {
+            int bucket = start;
+            for (int depth = 0; depth < MAX_KICKS; depth++) {
+                int slot = random.nextInt(SLOTS);
+                int victim = slotValue(buckets.get(bucket), slot);
+                int next = alternate(bucket, victim);
+                if (visited(pathBuckets, depth, next) || next == bucket) {
+                    break;
+                }
+                pathBuckets[depth] = bucket;
+                pathSlots[depth] = slot;
+                int free = freeSlot(buckets.get(next));
+                if (free >= 0) {
+                    applyPath(pathBuckets, pathSlots, depth, next, free, fingerprint);
+                    return true;
+                }
+                bucket = next;
+            }
+        }
+        return false;
+    }
+
+    private void applyPath(int[] pathBuckets, int[] pathSlots, int last, int target, int targetSlot, int fingerprint) {
+        version.incrementAndGet();
+        try {
+            int moved = slotValue(buckets.get(pathBuckets[last]), pathSlots[last]);
+            buckets.set(target, withSlot(buckets.get(target), targetSlot, moved));
+            for (int i = last; i > 0; i--) {
+                int previous = slotValue(buckets.get(pathBuckets[i - 1]), pathSlots[i - 1]);
+                buckets.set(pathBuckets[i], withSlot(buckets.get(pathBuckets[i]), pathSlots[i], previous));
+            }
+            buckets.set(pathBuckets[0], withSlot(buckets.get(pathBuckets[0]), pathSlots[0], fingerprint));
+        } finally {
+            version.incrementAndGet();
+        }
+    }
+
+    private static boolean visited(int[] pathBuckets, int depth, int bucket) {
+        for (int i = 0; i < depth; i++) {
+            if (pathBuckets[i] == bucket) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean insertIntoEmptySlot(int bucket, int fingerprint) {
+        int free = freeSlot(buckets.get(bucket));
+        if (free < 0) {
+            return false;
+        }
+        buckets.set(bucket, withSlot(buckets.get(bucket), free, fingerprint));
+        return true;
+    }
+
+    private boolean removeFromBucket(int bucket, int fingerprint) {
+        long value = buckets.get(bucket);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (slotValue(value, slot) == fingerprint) {
+                buckets.set(bucket, withSlot(value, slot, 0));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(long bucket, int fingerprint) {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (slotValue(bucket, slot) == fingerprint) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int freeSlot(long bucket) {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (slotValue(bucket, slot) == 0) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static int slotValue(long bucket, int slot) {
+        return (int) (bucket >>> (slot * SLOT_BITS)) & 0xFFFF;
+    }
+
+    private static long withSlot(long bucket, int slot, int fingerprint) {
+        int shift = slot * SLOT_BITS;
+        return (bucket & ~(0xFFFFL << shift)) | ((long) fingerprint << shift);
+    }
+
+    private int fingerprint(long hash) {
+        int fingerprint = (int) ((hash >>> 40) & fingerprintMask);
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private int alternate(int bucket, int fingerprint) {
+        return (bucket ^ (int) Murmur3.fmix(fingerprint)) & bucketMask;
+    }
+}
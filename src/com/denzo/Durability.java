@@ -0,0 +1,11 @@
+package com.denzo;
+
+// Уровень надёжности записи в журнал.
+public enum Durability {
+    // Запись попадает в файл фоновым потоком без fsync: при сбое ОС теряется всё, что не успела сбросить ОС
+    NONE,
+    // Пакетный fsync раз в интервал или по размеру пакета: при сбое теряется не больше одного интервала
+    BATCHED,
+    // Вызывающий ждёт fsync своей записи; одновременные записи разделяют один fsync (group commit)
+    SYNC
+}
@@ -0,0 +1,398 @@
+package com.denzo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Хранилище в куче, изменения которого записываются в журнал {@link LinkLog} и переживают перезапуск.
+ * <p>
+ * Изменение сначала применяется к {@link InMemoryLinkStore}, затем пишется в журнал с уровнем надёжности
+ * из {@link LogConfig}: создание, удаление, истечение и смена лимита - {@code mutationDurability},
+ * переходы - {@code clickDurability}. Периодически состояние сбрасывается в снимок {@code snapshot.bin},
+ * а сегменты журнала, которые он покрывает, удаляются. При открытии читается снимок и накатываются
+ * сегменты после него. Состояние генератора кодов ({@link CodeState}) пишется в журнал и в начало снимка.
+ */
+public class DurableLinkStore implements LinkStore {
+    private static final int SNAPSHOT_MAGIC = 0x445A534E; // "DZSN"
+    // Снимок начинается с состояния генератора кодов
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final String SNAPSHOT_TMP = "snapshot.tmp";
+
+    private final InMemoryLinkStore memory = new InMemoryLinkStore();
+    private final Path directory;
+    private final LogConfig config;
+    private final Object snapshotLock = new Object();
+    private final Object codesLock = new Object();
+    // Последнее сохранённое состояние генератора кодов или null
+    private volatile CodeState codeState;
+    private final ScheduledExecutorService snapshotExecutor;
+    private final LinkLog log;
+    private volatile long lastSnapshotSecond;
+
+    private DurableLinkStore(Path directory, LogConfig config) throws IOException {
+        this.directory = directory;
+        this.config = config;
+        long nextSegment = recover();
+        this.log = new LinkLog(directory, nextSegment, config);
+        this.lastSnapshotSecond = CoarseClock.nowEpochSecond();
+        this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "link-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotExecutor.scheduleWithFixedDelay(this::snapshotIfNeeded, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // Открывает хранилище в каталоге directory (создаёт, если его нет) и восстанавливает ссылки из снимка и журнала.
+    public static DurableLinkStore open(Path directory, LogConfig config) throws IOException {
+        Files.createDirectories(directory);
+        return new DurableLinkStore(directory, config);
+    }
+
+    public static DurableLinkStore open(Path directory) throws IOException {
+        return open(directory, new LogConfig());
+    }
+
+    @Override
+    public ShortLink get(long code) {
+        return memory.get(code);
+    }
+
+    // Запись в журнал - под монитором ссылки, чтобы создание, смена лимита и удаление одной ссылки
+    // попадали в журнал в том же порядке, в каком применялись.
+    @Override
+    public boolean putIfAbsent(ShortLink link) {
+        synchronized (link) {
+            if (!memory.putIfAbsent(link)) {
+                return false;
+            }
+            log.appendPut(link, config.getMutationDurability());
+            return true;
+        }
+    }
+
+    // Записи пачки идут в журнал без ожидания, ждём только последнюю: один fsync на пачку вместо fsync на ссылку.
+    // Каждая ссылка сохраняется и записывается под своим монитором, как в putIfAbsent.
+    @Override
+    public boolean[] putAllIfAbsent(List<ShortLink> links) {
+        boolean[] stored = new boolean[links.size()];
+        boolean anyStored = false;
+        for (int i = 0; i < stored.length; i++) {
+            ShortLink link = links.get(i);
+            synchronized (link) {
+                if (memory.putIfAbsent(link)) {
+                    stored[i] = true;
+                    anyStored = true;
+                    log.appendPut(link, Durability.NONE);
+                }
+            }
+        }
+        if (anyStored) {
+            log.awaitDurable(config.getMutationDurability());
+        }
+        return stored;
+    }
+
+    @Override
+    public boolean remove(ShortLink link) {
+        synchronized (link) {
+            if (!memory.remove(link)) {
+                return false;
+            }
+            log.appendRemove(link, config.getMutationDurability());
+            return true;
+        }
+    }
+
+    // В журнал пишется абсолютное значение счётчика: при восстановлении берётся максимум,
+    // поэтому порядок записей от разных потоков не важен.
+    @Override
+    public boolean tryIncrement(ShortLink link) {
+        if (!memory.tryIncrement(link)) {
+            return false;
+        }
+        log.appendCount(link, link.getCurrentCount(), config.getClickDurability());
+        return true;
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link, int clicks) {
+        if (!memory.tryIncrement(link, clicks)) {
+            return false;
+        }
+        log.appendCount(link, link.getCurrentCount(), config.getClickDurability());
+        return true;
+    }
+
+    // Возврат в журнал не пишется: при восстановлении берётся максимум счётчика, и меньшее значение всё равно
+    // не применилось бы. После перезапуска счётчик может превышать фактический не больше чем на выданные аренды.
+    @Override
+    public void releaseClicks(ShortLink link, int clicks) {
+        memory.releaseClicks(link, clicks);
+    }
+
+    @Override
+    public void setLimit(ShortLink link, int limit) {
+        synchronized (link) {
+            memory.setLimit(link, limit);
+            log.appendSetLimit(link, limit, config.getMutationDurability());
+        }
+    }
+
+    @Override
+    public List<ShortLink> findByOwner(UUID ownerUuid) {
+        return memory.findByOwner(ownerUuid);
+    }
+
+    @Override
+    public LinkPage findByOwner(UUID ownerUuid, LinkOrder order, String cursor, int limit) {
+        return memory.findByOwner(ownerUuid, order, cursor, limit);
+    }
+
+    // Удаления пишутся без ожидания, ждём только последнее: один fsync на всю пачку истёкших ссылок.
+    @Override
+    public List<ShortLink> removeExpired(long nowEpochSecond) {
+        List<ShortLink> removed = memory.removeExpired(nowEpochSecond);
+        for (int i = 0; i < removed.size(); i++) {
+            ShortLink link = removed.get(i);
+            Durability durability = i == removed.size() - 1 ? config.getMutationDurability() : Durability.NONE;
+            synchronized (link) {
+                log.appendRemove(link, durability);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean keepsLinkObjects() {
+        return true;
+    }
+
+    @Override
+    public boolean indexesOwners() {
+        return true;
+    }
+
+    @Override
+    public CodeState loadCodeState() {
+        return codeState;
+    }
+
+    // Состояние запоминается до записи в журнал: снимок, начатый после этой записи, его уже увидит
+    @Override
+    public boolean saveCodeState(CodeState state) {
+        synchronized (codesLock) {
+            codeState = state;
+            log.appendCodeState(state, config.getMutationDurability());
+            return true;
+        }
+    }
+
+    @Override
+    public long size() {
+        return memory.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortLink> action) {
+        memory.forEach(action);
+    }
+
+    @Override
+    public void forEachOwner(ObjIntConsumer<UUID> action) {
+        memory.forEachOwner(action);
+    }
+
+    /**
+     * Записывает снимок всех ссылок и удаляет покрытые им сегменты журнала.
+     * <p>
+     * Журнал сначала переключается на новый сегмент, затем ссылки обходятся без остановки записи.
+     * Изменения, сделанные во время обхода, могут попасть и в снимок, и в новый сегмент - при восстановлении
+     * они накатываются повторно без вреда.
+     */
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long firstSegment = log.rotate();
+            Path tmp = directory.resolve(SNAPSHOT_TMP);
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+                buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(firstSegment);
+                CodeState state = codeState;
+                if (state != null) {
+                    LinkLog.writeCodeState(buffer, state);
+                }
+                for (ShortLink link : snapshotLinks()) {
+                    byte[] url = link.getLongUrl().getBytes(StandardCharsets.UTF_8);
+                    int size = LinkLog.putSize(url.length);
+                    if (buffer.remaining() < size) {
+                        writeFully(out, buffer);
+                        if (buffer.capacity() < size) {
+                            buffer = ByteBuffer.allocate(size);
+                        }
+                    }
+                    synchronized (link) {
+                        LinkLog.writePut(buffer, link, url);
+                    }
+                }
+                writeFully(out, buffer);
+                out.force(true);
+            }
+            Files.move(tmp, directory.resolve(SNAPSHOT_FILE),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            for (long index : listSegments()) {
+                if (index < firstSegment) {
+                    Files.deleteIfExists(LinkLog.segmentPath(directory, index));
+                }
+            }
+            lastSnapshotSecond = CoarseClock.nowEpochSecond();
+        }
+    }
+
+    @Override
+    public void close() {
+        snapshotExecutor.shutdownNow();
+        synchronized (snapshotLock) {
+            log.close();
+        }
+    }
+
+    // Снимок по размеру журнала или по времени, если с прошлого снимка что-то записано
+    private void snapshotIfNeeded() {
+        try {
+            long bytes = log.segmentBytes();
+            boolean due = CoarseClock.nowEpochSecond() - lastSnapshotSecond >= config.getSnapshotIntervalSeconds();
+            if (bytes >= config.getSnapshotThresholdBytes() || (due && bytes > 0)) {
+                snapshot();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Исключение отменило бы все следующие запуски
+            System.out.println("Ошибка записи снимка ссылок: " + e.getMessage());
+        }
+    }
+
+    private List<ShortLink> snapshotLinks() {
+        List<ShortLink> links = new ArrayList<>((int) Math.min(Integer.MAX_VALUE, memory.size()));
+        memory.forEach(links::add);
+        return links;
+    }
+
+    // Читает снимок и сегменты после него; возвращает индекс сегмента для новых записей.
+    // Хвост последнего сегмента мог оборваться при сбое, поэтому запись всегда продолжается в новом сегменте.
+    private long recover() throws IOException {
+        LinkLog.Handler replay = new Replay();
+        long firstSegment = 0;
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (FileChannel in = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(16);
+                while (header.hasRemaining() && in.read(header) >= 0) {
+                }
+                header.flip();
+                int version = header.remaining() < 16 || header.getInt() != SNAPSHOT_MAGIC ? 0 : header.getInt();
+                if (version != SNAPSHOT_VERSION) {
+                    throw new IOException("Файл " + snapshot + " не является снимком ссылок этой версии.");
+                }
+                firstSegment = header.getLong();
+                LinkLog.read(in, replay);
+            }
+        }
+        long nextSegment = firstSegment;
+        for (long index : listSegments()) {
+            if (index < firstSegment) {
+                continue;
+            }
+            try (FileChannel in = FileChannel.open(LinkLog.segmentPath(directory, index), StandardOpenOption.READ)) {
+                LinkLog.read(in, replay);
+            }
+            nextSegment = index + 1;
+        }
+        return nextSegment;
+    }
+
+    private long[] listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.mapToLong(LinkLog::segmentIndex).filter(index -> index >= 0).sorted().toArray();
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Применяет записи к хранилищу в куче. Ссылка сверяется по коду и времени создания,
+    // чтобы запись о старой ссылке не изменила новую, занявшую тот же код.
+    private class Replay implements LinkLog.Handler {
+        @Override
+        public void onPut(ShortLink link) {
+            ShortLink existing = memory.get(link.getCode());
+            if (existing != null && existing.getCreationEpochSecond() == link.getCreationEpochSecond()) {
+                existing.setLimit(link.getLimit());
+                existing.setCurrentCount(Math.max(existing.getCurrentCount(), link.getCurrentCount()));
+                return;
+            }
+            if (existing != null) {
+                memory.remove(existing);
+            }
+            memory.putIfAbsent(link);
+        }
+
+        @Override
+        public void onRemove(long code, long creationEpochSecond) {
+            ShortLink existing = find(code, creationEpochSecond);
+            if (existing != null) {
+                memory.remove(existing);
+            }
+        }
+
+        @Override
+        public void onSetLimit(long code, long creationEpochSecond, int limit) {
+            ShortLink existing = find(code, creationEpochSecond);
+            if (existing != null) {
+                existing.setLimit(limit);
+            }
+        }
+
+        @Override
+        public void onCount(long code, long creationEpochSecond, int count) {
+            ShortLink existing = find(code, creationEpochSecond);
+            if (existing != null && count > existing.getCurrentCount()) {
+                existing.setCurrentCount(count);
+            }
+        }
+
+        // Граница резерва только растёт; берётся самая дальняя из снимка и журнала
+        @Override
+        public void onCodeState(long seed, long reservedUntil) {
+            CodeState current = codeState;
+            if (current == null || reservedUntil > current.getReservedUntil()) {
+                codeState = new CodeState(seed, reservedUntil);
+            }
+        }
+
+        private ShortLink find(long code, long creationEpochSecond) {
+            ShortLink existing = memory.get(code);
+            return existing != null && existing.getCreationEpochSecond() == creationEpochSecond ? existing : null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.denzo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Корзины ссылок по времени истечения: ссылки раскладываются по слотам по {@code expireAt},
+ * корзины упорядочены по времени, как в min-куче. {@link #pollDue} забирает только корзины, чей слот уже закончился,
+ * поэтому работа пропорциональна числу истекающих ссылок, а не размеру хранилища.
+ * <p>
+ * Корзина - множество, поэтому удалённая ссылка убирается из своей корзины за O(1) и не удерживается в памяти
+ * до наступления срока.
+ */
+class ExpiryBuckets {
+    private final ConcurrentSkipListMap<Long, Set<ShortLink>> slots = new ConcurrentSkipListMap<>();
+    // Добавление в корзины идёт под общей (read) блокировкой, изъятие корзин - под эксклюзивной,
+    // чтобы ссылка не попала в корзину, которую уже забрали.
+    private final ReentrantReadWriteLock slotsLock = new ReentrantReadWriteLock();
+    private final long slotSeconds;
+
+    ExpiryBuckets(long slotSeconds) {
+        this.slotSeconds = slotSeconds;
+    }
+
+    void add(ShortLink link) {
+        long slot = link.getExpireAtEpochSecond() / slotSeconds;
+        slotsLock.readLock().lock();
+        try {
+            slots.computeIfAbsent(slot, k -> ConcurrentHashMap.newKeySet()).add(link);
+        } finally {
+            slotsLock.readLock().unlock();
+        }
+    }
+
+    // Убирает ссылку из корзины её срока. Корзину, которую уже забрал pollDue, не трогает: ссылка из неё
+    // вернётся в pollDue, и хранилище её пропустит, потому что уже удалило. Ссылка, срок которой продлили после
+    // добавления, лежит в корзине прежнего срока и уйдёт из неё при изъятии этой корзины.
+    void remove(ShortLink link) {
+        Set<ShortLink> bucket = slots.get(link.getExpireAtEpochSecond() / slotSeconds);
+        if (bucket != null) {
+            bucket.remove(link);
+        }
+    }
+
+    // Добавляет пачку под одной блокировкой; соседние ссылки из одного слота (обычно в пачке у всех один срок)
+    // кладутся без повторного поиска корзины.
+    void addAll(List<ShortLink> links) {
+        slotsLock.readLock().lock();
+        try {
+            long slot = Long.MIN_VALUE;
+            Set<ShortLink> bucket = null;
+            for (ShortLink link : links) {
+                long linkSlot = link.getExpireAtEpochSecond() / slotSeconds;
+                if (bucket == null || linkSlot != slot) {
+                    slot = linkSlot;
+                    bucket = slots.computeIfAbsent(slot, k -> ConcurrentHashMap.newKeySet());
+                }
+                bucket.add(link);
+            }
+        } finally {
+            slotsLock.readLock().unlock();
+        }
+    }
+
+    // Ссылки во всех корзинах (для проверок)
+    int size() {
+        int size = 0;
+        for (Set<ShortLink> bucket : slots.values()) {
+            size += bucket.size();
+        }
+        return size;
+    }
+
+    // Возвращает ссылки из закончившихся слотов. Ссылки, срок которых продлили, возвращаются в свои корзины.
+    List<ShortLink> pollDue(long nowEpochSecond) {
+        long currentSlot = nowEpochSecond / slotSeconds;
+        List<Set<ShortLink>> due = new ArrayList<>();
+        slotsLock.writeLock().lock();
+        try {
+            Map.Entry<Long, Set<ShortLink>> first;
+            while ((first = slots.firstEntry()) != null && first.getKey() < currentSlot) {
+                due.add(slots.pollFirstEntry().getValue());
+            }
+        } finally {
+            slotsLock.writeLock().unlock();
+        }
+
+        List<ShortLink> expired = new ArrayList<>();
+        List<ShortLink> postponed = new ArrayList<>();
+        for (Set<ShortLink> bucket : due) {
+            for (ShortLink link : bucket) {
+                if (link.getExpireAtEpochSecond() >= nowEpochSecond) {
+                    postponed.add(link);
+                } else {
+                    expired.add(link);
+                }
+            }
+        }
+        postponed.forEach(this::add);
+        return expired;
+    }
+}
@@ -0,0 +1,163 @@
+package com.denzo;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Генератор кодов без коллизий: порядковый номер переставляется сетью Фейстеля внутри пространства кодов
+ * и записывается в base62. Перестановка взаимно однозначна, поэтому разные номера дают разные коды,
+ * а соседние номера - непохожие коды.
+ * <p>
+ * Номера выдаются по полосам: поток попадает в полосу по своему номеру и берёт номер из её блока (CAS на ячейке
+ * полосы), а общий счётчик трогается один раз на {@value #BLOCK} номеров, при пакетной выдаче ({@link #nextCodes}) -
+ * один раз на всю пачку. Поэтому одновременные создатели ссылок не конкурируют за один счётчик, а блок принадлежит
+ * полосе, а не потоку: короткоживущие потоки не уносят с собой начатые блоки, и пропадает не больше одного
+ * неизрасходованного блока на полосу.
+ * <p>
+ * Хранилище, переживающее перезапуск, хранит seed и границу зарезервированных номеров ({@link CodeState}):
+ * при {@link #attach} генератор берёт их из хранилища, а номера резервирует по {@value #RESERVATION} вперёд.
+ * После перезапуска выдача продолжается с границы, и коды прежних ссылок не повторяются; пропадает не больше
+ * одного резерва на перезапуск. К одному хранилищу подключается один генератор.
+ */
+public class FeistelCodeGenerator implements CodeGenerator {
+    private static final int ROUNDS = 4;
+    private static final int HALF_BITS = 18; // 2^36 - ближайшая степень двойки, покрывающая 62^6
+    private static final long HALF_MASK = (1L << HALF_BITS) - 1;
+    private static final long RESERVATION = 1 << 16;
+    private static final int BLOCK = 64;
+    // Ячейка полосы: (следующий номер << REMAINING_BITS) | сколько номеров блока осталось после него
+    private static final int REMAINING_BITS = 7;
+    private static final long REMAINING_MASK = (1L << REMAINING_BITS) - 1;
+    // Ячейки полос на расстоянии 128 байт, чтобы полосы не делили строку кэша
+    private static final int PADDING = 16;
+
+    private final long[] roundKeys = new long[ROUNDS];
+    private final AtomicLong nextIndex;
+    private final int stripes;
+    private final AtomicLongArray blocks;
+    private long seed;
+    // Хранилище, где сохраняется граница резерва; null - граница не сохраняется и равна концу пространства кодов
+    private LinkStore store;
+    private volatile long reservedUntil = ShortCodes.CODE_SPACE;
+
+    public FeistelCodeGenerator() {
+        this(ThreadLocalRandom.current().nextLong(), 0);
+    }
+
+    // seed задаёт перестановку, firstIndex - номер, с которого начать выдачу. Состояние, сохранённое
+    // в хранилище, заменяет оба (см. attach).
+    public FeistelCodeGenerator(long seed, long firstIndex) {
+        this.nextIndex = new AtomicLong(firstIndex);
+        this.stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+        this.blocks = new AtomicLongArray(stripes * PADDING);
+        applySeed(seed);
+    }
+
+    @Override
+    public long nextCode() {
+        return ShortCodes.fromIndex(permute(nextIndex()));
+    }
+
+    // Номер из блока полосы текущего потока; пустой блок заменяется новым из общего счётчика
+    private long nextIndex() {
+        int cell = (int) (Murmur3.fmix(Thread.currentThread().getId()) & (stripes - 1)) * PADDING;
+        while (true) {
+            long current = blocks.get(cell);
+            long remaining = current & REMAINING_MASK;
+            if (remaining > 0) {
+                long index = current >>> REMAINING_BITS;
+                if (blocks.compareAndSet(cell, current, ((index + 1) << REMAINING_BITS) | (remaining - 1))) {
+                    return index;
+                }
+                continue;
+            }
+            long start = nextIndex.getAndAdd(BLOCK);
+            long end = Math.min(start + BLOCK, ShortCodes.CODE_SPACE);
+            if (start >= ShortCodes.CODE_SPACE || end > reservedUntil) {
+                reserve(start >= ShortCodes.CODE_SPACE ? start + 1 : end);
+            }
+            // Если полосу успел пополнить другой поток, остаток этого блока пропадает: номера не повторяются
+            blocks.compareAndSet(cell, current, ((start + 1) << REMAINING_BITS) | (end - start - 1));
+            return start;
+        }
+    }
+
+    @Override
+    public void nextCodes(long[] codes, int from, int count) {
+        long start = nextIndex.getAndAdd(count);
+        if (start + count > reservedUntil) {
+            reserve(start + count);
+        }
+        for (int i = 0; i < count; i++) {
+            codes[from + i] = ShortCodes.fromIndex(permute(start + i));
+        }
+    }
+
+    // Берёт seed и границу из хранилища (если они там есть) и резервирует первые номера. Вызывается до выдачи
+    // кодов: UrlShorter делает это в конструкторе.
+    @Override
+    public synchronized void attach(LinkStore store) {
+        if (this.store != null) {
+            throw new IllegalStateException("Генератор кодов уже подключён к хранилищу.");
+        }
+        CodeState saved = store.loadCodeState();
+        if (saved != null) {
+            applySeed(saved.getSeed());
+            nextIndex.set(saved.getReservedUntil());
+            // Блоки, начатые до подключения, относятся к прежней перестановке
+            for (int i = 0; i < stripes; i++) {
+                blocks.set(i * PADDING, 0);
+            }
+        }
+        long until = nextIndex.get() + RESERVATION;
+        if (store.saveCodeState(new CodeState(seed, until))) {
+            this.store = store;
+            reservedUntil = until;
+        }
+    }
+
+    // Сдвигает границу резерва за needed и сохраняет её до выдачи номеров из нового резерва
+    private synchronized void reserve(long needed) {
+        if (needed > ShortCodes.CODE_SPACE) {
+            throw new IllegalStateException("Пространство коротких кодов исчерпано.");
+        }
+        if (needed > reservedUntil) {
+            long until = Math.min(needed + RESERVATION, ShortCodes.CODE_SPACE);
+            if (!store.saveCodeState(new CodeState(seed, until))) {
+                throw new IllegalStateException("Хранилище не сохранило состояние генератора кодов.");
+            }
+            reservedUntil = until;
+        }
+    }
+
+    private void applySeed(long seed) {
+        this.seed = seed;
+        long state = seed;
+        for (int i = 0; i < ROUNDS; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            roundKeys[i] = Murmur3.fmix(state);
+        }
+    }
+
+    // Перестановка [0, 62^6): сеть Фейстеля над 36 битами с «обходом цикла» - если результат
+    // выпал за пределы пространства кодов, перестановка применяется повторно.
+    long permute(long index) {
+        long value = index;
+        do {
+            value = feistel(value);
+        } while (value >= ShortCodes.CODE_SPACE);
+        return value;
+    }
+
+    private long feistel(long value) {
+        long left = (value >>> HALF_BITS) & HALF_MASK;
+        long right = value & HALF_MASK;
+        for (int i = 0; i < ROUNDS; i++) {
+            long next = left ^ (Murmur3.fmix(right ^ roundKeys[i]) & HALF_MASK);
+            left = right;
+            right = next;
+        }
+        return (left << HALF_BITS) | right;
+    }
+}
@@ -0,0 +1,265 @@
+package com.denzo;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Фильтр несуществующих кодов перед другим хранилищем: боты перебирают случайные коды, и в {@link MappedLinkStore}
+ * или {@link DurableLinkStore} каждый такой промах - поиск по файлу или по диску. {@link CuckooFilter} с кодами
+ * живых ссылок отвечает «точно нет» большинству неизвестных кодов, не обращаясь к хранилищу; поддерживает удаление,
+ * поэтому удалённые и истёкшие ссылки из него убираются.
+ * <p>
+ * Код добавляется в фильтр после того, как ссылка сохранена, и убирается после удаления из хранилища, поэтому
+ * живая ссылка никогда не отсеивается. Если фильтр переполнился, он пересоздаётся вдвое большим по содержимому
+ * хранилища; на время пересоздания изменения ждут (блокировка на запись), а переходы продолжаются по старому фильтру.
+ */
+public class FilteredLinkStore implements LinkStore {
+    private final LinkStore backend;
+    private final double falsePositiveRate;
+    private volatile CuckooFilter filter;
+    // Изменения берут блокировку на чтение (друг другу не мешают), пересоздание фильтра - на запись
+    private final ReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+    // Фильтр переполнен и ещё не пересоздан: пока все коды считаются возможными
+    private volatile boolean saturated;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+
+    // expectedLinks - ожидаемое число ссылок, falsePositiveRate - допустимая доля неизвестных кодов,
+    // которые фильтр пропустит в хранилище (например 0.01)
+    public FilteredLinkStore(LinkStore backend, long expectedLinks, double falsePositiveRate) {
+        this.backend = backend;
+        this.falsePositiveRate = falsePositiveRate;
+        this.filter = populate(Math.max(expectedLinks, 2 * backend.size()));
+    }
+
+    @Override
+    public ShortLink get(long code) {
+        if (!saturated && !filter.mightContain(code)) {
+            rejected.increment();
+            return null;
+        }
+        passed.increment();
+        ShortLink link = backend.get(code);
+        if (link == null) {
+            falsePositives.increment();
+        }
+        return link;
+    }
+
+    @Override
+    public boolean putIfAbsent(ShortLink link) {
+        boolean full;
+        rebuildLock.readLock().lock();
+        try {
+            if (!backend.putIfAbsent(link)) {
+                return false;
+            }
+            full = !addToFilter(link.getCode());
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+        if (full) {
+            rebuild();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean[] putAllIfAbsent(List<ShortLink> links) {
+        boolean[] stored;
+        boolean full = false;
+        rebuildLock.readLock().lock();
+        try {
+            stored = backend.putAllIfAbsent(links);
+            for (int i = 0; i < stored.length; i++) {
+                if (stored[i] && !addToFilter(links.get(i).getCode())) {
+                    full = true;
+                }
+            }
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+        if (full) {
+            rebuild();
+        }
+        return stored;
+    }
+
+    @Override
+    public boolean remove(ShortLink link) {
+        rebuildLock.readLock().lock();
+        try {
+            if (!backend.remove(link)) {
+                return false;
+            }
+            filter.remove(link.getCode());
+            return true;
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ShortLink> removeExpired(long nowEpochSecond) {
+        rebuildLock.readLock().lock();
+        try {
+            List<ShortLink> removed = backend.removeExpired(nowEpochSecond);
+            CuckooFilter current = filter;
+            for (ShortLink link : removed) {
+                current.remove(link.getCode());
+            }
+            return removed;
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link) {
+        return backend.tryIncrement(link);
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link, int clicks) {
+        return backend.tryIncrement(link, clicks);
+    }
+
+    @Override
+    public void releaseClicks(ShortLink link, int clicks) {
+        backend.releaseClicks(link, clicks);
+    }
+
+    @Override
+    public void setLimit(ShortLink link, int limit) {
+        backend.setLimit(link, limit);
+    }
+
+    @Override
+    public List<ShortLink> findByOwner(UUID ownerUuid) {
+        return backend.findByOwner(ownerUuid);
+    }
+
+    @Override
+    public LinkPage findByOwner(UUID ownerUuid, LinkOrder order, String cursor, int limit) {
+        return backend.findByOwner(ownerUuid, order, cursor, limit);
+    }
+
+    @Override
+    public boolean keepsLinkObjects() {
+        return backend.keepsLinkObjects();
+    }
+
+    @Override
+    public boolean indexesOwners() {
+        return backend.indexesOwners();
+    }
+
+    @Override
+    public CodeState loadCodeState() {
+        return backend.loadCodeState();
+    }
+
+    @Override
+    public boolean saveCodeState(CodeState state) {
+        return backend.saveCodeState(state);
+    }
+
+    @Override
+    public long size() {
+        return backend.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortLink> action) {
+        backend.forEach(action);
+    }
+
+    @Override
+    public void forEachOwner(ObjIntConsumer<UUID> action) {
+        backend.forEachOwner(action);
+    }
+
+    @Override
+    public void close() {
+        backend.close();
+    }
+
+    LinkStore getBackend() {
+        return backend;
+    }
+
+    // Неизвестные коды, отсеянные фильтром без обращения к хранилищу
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    // Коды, пропущенные фильтром в хранилище
+    public long getPassedCount() {
+        return passed.sum();
+    }
+
+    // Пропущенные фильтром коды, которых в хранилище не оказалось
+    public long getFalsePositiveCount() {
+        return falsePositives.sum();
+    }
+
+    // Доля пропущенных неизвестных кодов среди всех неизвестных (0, если их не было)
+    public double getFalsePositiveRatio() {
+        long falsePositiveCount = falsePositives.sum();
+        long unknown = falsePositiveCount + rejected.sum();
+        return unknown == 0 ? 0 : (double) falsePositiveCount / unknown;
+    }
+
+    public long getRebuildCount() {
+        return rebuilds.sum();
+    }
+
+    // Коды в фильтре
+    public long getFilteredCount() {
+        return filter.size();
+    }
+
+    // Вызывается под блокировкой на чтение; false - фильтр переполнен, код не добавлен
+    private boolean addToFilter(long code) {
+        if (filter.add(code)) {
+            return true;
+        }
+        saturated = true;
+        return false;
+    }
+
+    // Пересоздаёт переполненный фильтр вдвое большим. Под блокировкой на запись хранилище не меняется,
+    // поэтому новый фильтр содержит ровно коды живых ссылок.
+    private void rebuild() {
+        rebuildLock.writeLock().lock();
+        try {
+            if (!saturated) {
+                return;
+            }
+            filter = populate(Math.max(2 * filter.capacity(), 2 * backend.size()));
+            saturated = false;
+            rebuilds.increment();
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    private CuckooFilter populate(long capacity) {
+        while (true) {
+            CuckooFilter candidate = new CuckooFilter(capacity, falsePositiveRate);
+            boolean[] full = new boolean[1];
+            backend.forEach(link -> full[0] |= !candidate.add(link.getCode()));
+            if (!full[0]) {
+                return candidate;
+            }
+            capacity *= 2;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.denzo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Ведомый узел репликации: копия ссылок ведущего узла ({@link LeaderLinkStore}) в куче, по которой
+ * {@link UrlShorter} выполняет переходы локально.
+ * <p>
+ * Поток приёма подключается к ведущему узлу, собирает снимок в новом {@link InMemoryLinkStore} и подменяет им
+ * текущую копию по первой отметке, после чего применяет изменения по мере поступления. При обрыве соединения
+ * переходы продолжаются по последней копии, а поток переподключается и догоняет ведущий узел новым снимком.
+ * <p>
+ * Переход засчитывается в локальной копии и копится по ссылкам; раз в {@value #FLUSH_MILLIS} мс накопленные переходы
+ * отправляются ведущему узлу пачкой. Счётчик с ведущего узла только поднимает локальный (берётся больший), поэтому
+ * лимит соблюдается с превышением не больше числа переходов, сделанных на других узлах за время доставки пачки и
+ * ответного счётчика. Создавать, менять и удалять ссылки можно только на ведущем узле; здесь удаляются только
+ * истёкшие ссылки (ведущий узел удалит их и сам).
+ * <p>
+ * Неиспользованная аренда переходов ({@link #releaseClicks}) вычитается из ещё не отправленных переходов ссылки.
+ * Ведущему узлу уходят только положительные суммы: если аренду уже отправили, долг остаётся здесь и гасится
+ * следующими переходами по ссылке, а ведущий узел до тех пор считает её занятой - не больше, чем на одну
+ * возвращённую аренду.
+ */
+public class FollowerLinkStore implements LinkStore {
+    private static final long FLUSH_MILLIS = 20;
+    private static final long MIN_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+    private static final String READ_ONLY = "Ведомый узел только для чтения: создавайте и меняйте ссылки на ведущем узле.";
+
+    private final InetSocketAddress leader;
+    private volatile InMemoryLinkStore local = new InMemoryLinkStore();
+    private volatile SocketChannel channel;
+    private final Thread receiver;
+    private final ScheduledExecutorService sender;
+    // Переходы, ещё не отправленные ведущему узлу; отрицательная сумма - возвращённая аренда, уже отправленная ранее
+    private final Map<ShortLink, LongAdder> pendingClicks = new ConcurrentHashMap<>();
+    private final CountDownLatch firstSnapshot = new CountDownLatch(1);
+    private final LongAdder snapshots = new LongAdder();
+    private final LongAdder sentClicks = new LongAdder();
+    private volatile long appliedSequence = -1;
+    private volatile long lastMarkMillis;
+    private volatile boolean closed;
+
+    public FollowerLinkStore(InetSocketAddress leader) {
+        this.leader = leader;
+        this.receiver = new Thread(this::receiveLoop, "replication-follower");
+        receiver.setDaemon(true);
+        receiver.start();
+        this.sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replication-clicks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sender.scheduleWithFixedDelay(this::flushClicks, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Ждёт первого снимка ведущего узла; false - не дождались за timeout
+    public boolean awaitSnapshot(long timeout, TimeUnit unit) throws InterruptedException {
+        return firstSnapshot.await(timeout, unit);
+    }
+
+    @Override
+    public ShortLink get(long code) {
+        return local.get(code);
+    }
+
+    @Override
+    public boolean putIfAbsent(ShortLink link) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+    @Override
+    public boolean[] putAllIfAbsent(List<ShortLink> links) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+    // Удаляет только истёкшую ссылку (переход по ней); остальные удаляются на ведущем узле
+    @Override
+    public boolean remove(ShortLink link) {
+        if (!link.isExpired()) {
+            throw new UnsupportedOperationException(READ_ONLY);
+        }
+        return local.remove(link);
+    }
+
+    @Override
+    public List<ShortLink> removeExpired(long nowEpochSecond) {
+        return local.removeExpired(nowEpochSecond);
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link) {
+        if (!local.tryIncrement(link)) {
+            return false;
+        }
+        pendingClicks.computeIfAbsent(link, k -> new LongAdder()).increment();
+        return true;
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link, int clicks) {
+        if (!local.tryIncrement(link, clicks)) {
+            return false;
+        }
+        pendingClicks.computeIfAbsent(link, k -> new LongAdder()).add(clicks);
+        return true;
+    }
+
+    @Override
+    public void releaseClicks(ShortLink link, int clicks) {
+        local.releaseClicks(link, clicks);
+        pendingClicks.computeIfAbsent(link, k -> new LongAdder()).add(-clicks);
+    }
+
+    @Override
+    public void setLimit(ShortLink link, int limit) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+    @Override
+    public List<ShortLink> findByOwner(UUID ownerUuid) {
+        return local.findByOwner(ownerUuid);
+    }
+
+    @Override
+    public LinkPage findByOwner(UUID ownerUuid, LinkOrder order, String cursor, int limit) {
+        return local.findByOwner(ownerUuid, order, cursor, limit);
+    }
+
+    @Override
+    public long size() {
+        return local.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortLink> action) {
+        local.forEach(action);
+    }
+
+    @Override
+    public boolean indexesOwners() {
+        return true;
+    }
+
+    @Override
+    public void forEachOwner(ObjIntConsumer<UUID> action) {
+        local.forEachOwner(action);
+    }
+
+    // Отправляет оставшиеся переходы и отключается от ведущего узла
+    @Override
+    public void close() {
+        sender.shutdown();
+        try {
+            sender.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushClicks();
+        closed = true;
+        SocketChannel current = channel;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Сокет уже закрыт
+            }
+        }
+        receiver.interrupt();
+        try {
+            receiver.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isConnected() {
+        return channel != null;
+    }
+
+    // Номер изменения ведущего узла, до которого включительно применён поток (-1 - снимка ещё не было)
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    // Отставание от ведущего узла: сколько миллисекунд назад по его часам было состояние, которое уже применено
+    // (-1 - снимка ещё не было). Ведущий узел шлёт отметки каждые 20 мс, поэтому без обрыва отставание
+    // складывается из этого интервала и времени доставки.
+    public long getLagMillis() {
+        long mark = lastMarkMillis;
+        return mark == 0 ? -1 : Math.max(0, System.currentTimeMillis() - mark);
+    }
+
+    // Снимки, полученные от ведущего узла (первый и после каждого переподключения)
+    public long getSnapshotCount() {
+        return snapshots.sum();
+    }
+
+    // Переходы, отправленные ведущему узлу
+    public long getSentClicks() {
+        return sentClicks.sum();
+    }
+
+    private void receiveLoop() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (!closed) {
+            try (SocketChannel connection = SocketChannel.open(leader)) {
+                connection.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel = connection;
+                backoff = MIN_BACKOFF_MILLIS;
+                LinkLog.read(connection, new Applier(new InMemoryLinkStore()));
+            } catch (IOException e) {
+                // Ведущий узел недоступен или соединение оборвалось: переподключимся
+            } finally {
+                channel = null;
+            }
+            if (closed) {
+                return;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    // Отправляет накопленные переходы пачкой; при ошибке они вернутся в очередь
+    private void flushClicks() {
+        SocketChannel current = channel;
+        if (current == null || pendingClicks.isEmpty()) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(1, pendingClicks.size()) * LinkLog.CODE_INT_SIZE);
+        List<ShortLink> links = new ArrayList<>();
+        List<Long> counts = new ArrayList<>();
+        InMemoryLinkStore store = local;
+        for (Map.Entry<ShortLink, LongAdder> entry : pendingClicks.entrySet()) {
+            ShortLink link = entry.getKey();
+            // Долг по аренде не обнуляется даже на миг: его учитывает счётчик, пришедший с ведущего узла
+            long clicks = entry.getValue().sum() > 0 ? entry.getValue().sumThenReset() : 0;
+            if (clicks < 0) {
+                entry.getValue().add(clicks);
+            }
+            if (clicks <= 0) {
+                // Ссылка удалена или заменена новым снимком: её переходы уже отправлены, а долг списывается.
+                // Иначе долг гасится следующими переходами: отрицательных переходов ведущий узел не принимает
+                if (store.get(link.getCode()) != link) {
+                    pendingClicks.remove(link, entry.getValue());
+                }
+                continue;
+            }
+            if (buffer.remaining() < LinkLog.CODE_INT_SIZE) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            LinkLog.writeCodeInt(buffer, LinkLog.CLICKS, link.getCode(), link.getCreationEpochSecond(), (int) clicks);
+            links.add(link);
+            counts.add(clicks);
+        }
+        if (links.isEmpty()) {
+            return;
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                current.write(buffer);
+            }
+            for (long clicks : counts) {
+                sentClicks.add(clicks);
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < links.size(); i++) {
+                pendingClicks.computeIfAbsent(links.get(i), k -> new LongAdder()).add(counts.get(i));
+            }
+        }
+    }
+
+    // Применяет поток ведущего узла: до первой отметки - к собираемому снимку, потом - к текущей копии
+    private final class Applier implements LinkLog.Handler {
+        private final InMemoryLinkStore target;
+        private boolean live;
+
+        Applier(InMemoryLinkStore target) {
+            this.target = target;
+        }
+
+        @Override
+        public void onPut(ShortLink link) {
+            ShortLink existing = target.get(link.getCode());
+            if (existing != null && existing.getCreationEpochSecond() == link.getCreationEpochSecond()) {
+                existing.raiseCount(link.getCurrentCount());
+                return;
+            }
+            if (existing != null) {
+                target.remove(existing);
+            }
+            target.putIfAbsent(link);
+        }
+
+        @Override
+        public void onRemove(long code, long creationEpochSecond) {
+            ShortLink existing = find(code, creationEpochSecond);
+            if (existing != null) {
+                target.remove(existing);
+            }
+        }
+
+        @Override
+        public void onSetLimit(long code, long creationEpochSecond, int limit) {
+            ShortLink existing = find(code, creationEpochSecond);
+            if (existing != null) {
+                target.setLimit(existing, limit);
+            }
+        }
+
+        @Override
+        public void onCount(long code, long creationEpochSecond, int count) {
+            ShortLink existing = find(code, creationEpochSecond);
+            if (existing != null) {
+                // Счётчик ведущего узла не знает о неотправленных переходах и уже включает возвращённую аренду
+                LongAdder pending = pendingClicks.get(existing);
+                long adjusted = pending == null ? count : count + pending.sum();
+                existing.raiseCount((int) Math.max(0, Math.min(Integer.MAX_VALUE, adjusted)));
+            }
+        }
+
+        @Override
+        public void onMark(long sequence, long epochMillis) {
+            if (!live) {
+                local = target;
+                live = true;
+                snapshots.increment();
+                firstSnapshot.countDown();
+            }
+            appliedSequence = sequence;
+            lastMarkMillis = epochMillis;
+        }
+
+        private ShortLink find(long code, long creationEpochSecond) {
+            ShortLink existing = target.get(code);
+            return existing != null && existing.getCreationEpochSecond() == creationEpochSecond ? existing : null;
+        }
+    }
+}
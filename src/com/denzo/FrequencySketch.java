@@ -0,0 +1,70 @@
+package com.denzo;
+
+/**
+ * Приблизительная частота обращений к ключам для решения о допуске в {@link CachingLinkStore} (TinyLFU).
+ * <p>
+ * Count-Min Sketch из 4-битных счётчиков, по 16 в одном long: ключ увеличивает 4 счётчика в разных местах таблицы,
+ * частота - минимум из них. После {@code 10 * capacity} увеличений все счётчики делятся пополам, поэтому
+ * старая популярность постепенно забывается. Не потокобезопасен: вызывается под блокировкой владельца.
+ */
+final class FrequencySketch {
+    private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+    private static final long[] SEEDS = {
+            0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.table = new long[size];
+        this.tableMask = size - 1;
+        this.sampleSize = 10 * Math.max(1, capacity);
+    }
+
+    int frequency(long key) {
+        int frequency = 15;
+        for (int i = 0; i < 4; i++) {
+            long hash = hash(key, i);
+            int shift = (int) (hash & 15) << 2;
+            frequency = Math.min(frequency, (int) ((table[index(hash)] >>> shift) & 15));
+        }
+        return frequency;
+    }
+
+    void increment(long key) {
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            long hash = hash(key, i);
+            int index = index(hash);
+            int shift = (int) (hash & 15) << 2;
+            if (((table[index] >>> shift) & 15) < 15) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    // Старение: все счётчики пополам
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int index(long hash) {
+        return (int) (hash >>> 32) & tableMask;
+    }
+
+    private static long hash(long key, int row) {
+        long z = (key + SEEDS[row]) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 32)) * 0xD6E8FEB86659FD93L;
+        return z ^ (z >>> 32);
+    }
+}
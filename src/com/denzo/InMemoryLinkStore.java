@@ -0,0 +1,176 @@
+package com.denzo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+// Хранилище в куче: карта кодов, индексы ссылок по владельцам и корзины истечения.
+// Чтение без блокировок, индексы владельцев блокируются по отдельности.
+public class InMemoryLinkStore implements LinkStore {
+    // Хранение коротких ссылок: ключ (упакованный код, см. ShortCodes.pack) -> ShortLink, без упаковки ключа в Long
+    private final LongLinkMap shortUrlMap = new LongLinkMap();
+    // Ссылки каждого пользователя: удаление за O(log n) и постраничный просмотр (см. OwnerLinkIndex).
+    // Индекс меняется внутри compute по владельцу, поэтому пустой индекс убирается из карты, не теряя
+    // одновременно добавленную ссылку.
+    private final Map<UUID, OwnerLinkIndex> userLinksMap = new ConcurrentHashMap<>();
+    // Номера ссылок в индексах владельцев: общие для хранилища, чтобы курсор пережил пересоздание индекса
+    private final AtomicLong ownerSequences = new AtomicLong();
+    // Корзины ссылок по времени истечения (слот - 1 секунда)
+    private final ExpiryBuckets expiryBuckets = new ExpiryBuckets(1);
+
+    @Override
+    public ShortLink get(long code) {
+        return shortUrlMap.get(code);
+    }
+
+    @Override
+    public boolean putIfAbsent(ShortLink link) {
+        if (shortUrlMap.putIfAbsent(link.getCode(), link) != null) {
+            return false;
+        }
+        userLinksMap.compute(link.getOwnerUuid(), (owner, userLinks) -> {
+            OwnerLinkIndex index = userLinks == null ? new OwnerLinkIndex(ownerSequences) : userLinks;
+            index.add(link);
+            return index;
+        });
+        expiryBuckets.add(link);
+        return true;
+    }
+
+    // Индексы владельцев и корзины истечения пополняются один раз на пачку, а не на каждую ссылку
+    @Override
+    public boolean[] putAllIfAbsent(List<ShortLink> links) {
+        boolean[] stored = new boolean[links.size()];
+        List<ShortLink> added = new ArrayList<>(links.size());
+        Map<UUID, List<ShortLink>> byOwner = new HashMap<>();
+        UUID lastOwner = null;
+        List<ShortLink> lastOwnerLinks = null;
+        for (int i = 0; i < stored.length; i++) {
+            ShortLink link = links.get(i);
+            if (shortUrlMap.putIfAbsent(link.getCode(), link) != null) {
+                continue;
+            }
+            stored[i] = true;
+            added.add(link);
+            // Пачки обычно от одного владельца: UUID сравнивается по битам, без поиска в карте
+            if (lastOwner == null || lastOwner.getMostSignificantBits() != link.getOwnerMostSigBits()
+                    || lastOwner.getLeastSignificantBits() != link.getOwnerLeastSigBits()) {
+                lastOwner = link.getOwnerUuid();
+                lastOwnerLinks = byOwner.computeIfAbsent(lastOwner, k -> new ArrayList<>());
+            }
+            lastOwnerLinks.add(link);
+        }
+        byOwner.forEach((owner, ownerLinks) -> userLinksMap.compute(owner, (k, userLinks) -> {
+            OwnerLinkIndex index = userLinks == null ? new OwnerLinkIndex(ownerSequences) : userLinks;
+            index.addAll(ownerLinks);
+            return index;
+        }));
+        expiryBuckets.addAll(added);
+        return stored;
+    }
+
+    @Override
+    public boolean remove(ShortLink link) {
+        if (!shortUrlMap.remove(link.getCode(), link)) {
+            return false;
+        }
+        userLinksMap.computeIfPresent(link.getOwnerUuid(), (owner, userLinks) -> {
+            userLinks.remove(link);
+            return userLinks.size() == 0 ? null : userLinks;
+        });
+        expiryBuckets.remove(link);
+        return true;
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link) {
+        return link.tryIncrement();
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link, int clicks) {
+        return link.tryIncrement(clicks);
+    }
+
+    @Override
+    public void releaseClicks(ShortLink link, int clicks) {
+        link.releaseClicks(clicks);
+    }
+
+    @Override
+    public void setLimit(ShortLink link, int limit) {
+        link.setLimit(limit);
+    }
+
+    // Возвращается копия, чтобы её можно было обходить, пока другие потоки меняют ссылки пользователя.
+    @Override
+    public List<ShortLink> findByOwner(UUID ownerUuid) {
+        OwnerLinkIndex userLinks = userLinksMap.get(ownerUuid);
+        return userLinks == null ? Collections.emptyList() : userLinks.toList();
+    }
+
+    @Override
+    public LinkPage findByOwner(UUID ownerUuid, LinkOrder order, String cursor, int limit) {
+        OwnerLinkIndex userLinks = userLinksMap.get(ownerUuid);
+        return userLinks == null ? new LinkPage(Collections.emptyList(), null) : userLinks.page(order, cursor, limit);
+    }
+
+    @Override
+    public List<ShortLink> removeExpired(long nowEpochSecond) {
+        List<ShortLink> removed = new ArrayList<>();
+        for (ShortLink link : expiryBuckets.pollDue(nowEpochSecond)) {
+            if (remove(link)) {
+                removed.add(link);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean keepsLinkObjects() {
+        return true;
+    }
+
+    @Override
+    public boolean indexesOwners() {
+        return true;
+    }
+
+    // Ссылки в корзинах истечения (для проверок)
+    int pendingExpiry() {
+        return expiryBuckets.size();
+    }
+
+    // Владельцы с индексом ссылок (для проверок)
+    int ownerIndexCount() {
+        return userLinksMap.size();
+    }
+
+    @Override
+    public long size() {
+        return shortUrlMap.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortLink> action) {
+        shortUrlMap.forEach(action);
+    }
+
+    @Override
+    public void forEachOwner(ObjIntConsumer<UUID> action) {
+        userLinksMap.forEach((owner, userLinks) -> {
+            int size = userLinks.size();
+            // Индекс мог опустеть между чтением карты и size()
+            if (size > 0) {
+                action.accept(owner, size);
+            }
+        });
+    }
+}
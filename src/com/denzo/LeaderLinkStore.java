@@ -0,0 +1,586 @@
+package com.denzo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Ведущий узел репликации: хранилище перед другим хранилищем, которое передаёт ведомым узлам
+ * ({@link FollowerLinkStore}) упорядоченный поток изменений по TCP.
+ * <p>
+ * Поток - записи {@link LinkLog} (создание, смена лимита, удаление и истечение, счётчик переходов) и отметки
+ * {@code MARK} с номером последнего изменения и временем ведущего узла. Подключившийся ведомый узел сначала
+ * получает снимок (все ссылки записями {@code PUT}) и отметку, затем изменения, сделанные с начала снимка: записи
+ * идемпотентны, как в журнале, поэтому их можно накатывать поверх снимка. Счётчики переходов передаются не на каждый
+ * переход: изменённые ссылки копятся и раз в {@value #TICK_MILLIS} мс отправляются абсолютными значениями вместе
+ * с отметкой.
+ * <p>
+ * Ведомые узлы присылают обратно пачки своих переходов ({@code CLICKS}); они засчитываются здесь в пределах лимита,
+ * а не уместившиеся учитываются в {@link #getOvershootClicks()} - это переходы сверх лимита, уже выданные ведомыми
+ * узлами, пока до них не дошёл счётчик. Ведомый узел, который не успевает читать поток
+ * (больше {@value #MAX_PENDING_BYTES} байт в очереди), отключается и при переподключении получает новый снимок.
+ * <p>
+ * Изменение в хранилище и его номер в потоке выполняются под блокировкой полосы кода: изменения одной ссылки
+ * (две смены лимита, создание и удаление истёкшей ссылки с тем же кодом) попадают в поток в том же порядке,
+ * в каком применились к хранилищу.
+ */
+public class LeaderLinkStore implements LinkStore {
+    private static final long TICK_MILLIS = 20;
+    private static final int MAX_PENDING_BYTES = 64 << 20;
+    private static final int SNAPSHOT_CHUNK = 1 << 16;
+    private static final int STRIPES = 64;
+
+    private final LinkStore backend;
+    private final ServerSocketChannel server;
+    private final Thread acceptor;
+    private final ScheduledExecutorService ticker;
+    private final List<Follower> followers = new CopyOnWriteArrayList<>();
+    // Номер изменения и порядок записей в очередях всех ведомых узлов меняются только под этой блокировкой
+    private final Object feedLock = new Object();
+    private long sequence;
+    // Полосы по коду; берутся до feedLock, пакетные изменения берут свои полосы по возрастанию номера
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    // Ссылки, чей счётчик изменился с прошлой отправки (по коду)
+    private final Map<Long, ShortLink> dirty = new ConcurrentHashMap<>();
+    private final LongAdder receivedClicks = new LongAdder();
+    private final LongAdder overshootClicks = new LongAdder();
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean closed;
+
+    // port - порт для ведомых узлов (0 - любой свободный, см. getPort)
+    public LeaderLinkStore(LinkStore backend, int port) throws IOException {
+        this.backend = backend;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        this.acceptor = new Thread(this::acceptLoop, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replication-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(() -> {
+            try {
+                publishCounts();
+            } catch (RuntimeException e) {
+                // Исключение отменило бы все следующие запуски
+                System.out.println("Ошибка отправки счётчиков ведомым узлам: " + e.getMessage());
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public ShortLink get(long code) {
+        return backend.get(code);
+    }
+
+    @Override
+    public boolean putIfAbsent(ShortLink link) {
+        ReentrantLock lock = stripe(link.getCode());
+        lock.lock();
+        try {
+            if (!backend.putIfAbsent(link)) {
+                return false;
+            }
+            publishPut(link);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean[] putAllIfAbsent(List<ShortLink> links) {
+        boolean[] locked = new boolean[STRIPES];
+        for (ShortLink link : links) {
+            locked[stripeIndex(link.getCode())] = true;
+        }
+        lockStripes(locked);
+        try {
+            boolean[] stored = backend.putAllIfAbsent(links);
+            for (int i = 0; i < stored.length; i++) {
+                if (stored[i]) {
+                    publishPut(links.get(i));
+                }
+            }
+            return stored;
+        } finally {
+            unlockStripes(locked);
+        }
+    }
+
+    @Override
+    public boolean remove(ShortLink link) {
+        ReentrantLock lock = stripe(link.getCode());
+        lock.lock();
+        try {
+            if (!backend.remove(link)) {
+                return false;
+            }
+            publishRemove(link);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Истёкшие коды заранее неизвестны, поэтому берутся все полосы
+    @Override
+    public List<ShortLink> removeExpired(long nowEpochSecond) {
+        boolean[] locked = new boolean[STRIPES];
+        Arrays.fill(locked, true);
+        lockStripes(locked);
+        try {
+            List<ShortLink> removed = backend.removeExpired(nowEpochSecond);
+            for (ShortLink link : removed) {
+                publishRemove(link);
+            }
+            return removed;
+        } finally {
+            unlockStripes(locked);
+        }
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link) {
+        if (!backend.tryIncrement(link)) {
+            return false;
+        }
+        markDirty(link);
+        return true;
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link, int clicks) {
+        if (!backend.tryIncrement(link, clicks)) {
+            return false;
+        }
+        markDirty(link);
+        return true;
+    }
+
+    @Override
+    public void releaseClicks(ShortLink link, int clicks) {
+        backend.releaseClicks(link, clicks);
+        markDirty(link);
+    }
+
+    @Override
+    public void setLimit(ShortLink link, int limit) {
+        ReentrantLock lock = stripe(link.getCode());
+        lock.lock();
+        try {
+            backend.setLimit(link, limit);
+            if (!followers.isEmpty()) {
+                ByteBuffer frame = ByteBuffer.allocate(LinkLog.CODE_INT_SIZE);
+                LinkLog.writeCodeInt(frame, LinkLog.SET_LIMIT, link.getCode(), link.getCreationEpochSecond(), limit);
+                publish(frame);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<ShortLink> findByOwner(UUID ownerUuid) {
+        return backend.findByOwner(ownerUuid);
+    }
+
+    @Override
+    public LinkPage findByOwner(UUID ownerUuid, LinkOrder order, String cursor, int limit) {
+        return backend.findByOwner(ownerUuid, order, cursor, limit);
+    }
+
+    @Override
+    public boolean keepsLinkObjects() {
+        return backend.keepsLinkObjects();
+    }
+
+    @Override
+    public boolean indexesOwners() {
+        return backend.indexesOwners();
+    }
+
+    @Override
+    public CodeState loadCodeState() {
+        return backend.loadCodeState();
+    }
+
+    @Override
+    public boolean saveCodeState(CodeState state) {
+        return backend.saveCodeState(state);
+    }
+
+    @Override
+    public long size() {
+        return backend.size();
+    }
+
+    @Override
+    public void forEach(Consumer<ShortLink> action) {
+        backend.forEach(action);
+    }
+
+    @Override
+    public void forEachOwner(ObjIntConsumer<UUID> action) {
+        backend.forEachOwner(action);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        ticker.shutdownNow();
+        try {
+            server.close();
+        } catch (IOException e) {
+            // Сокет уже закрыт
+        }
+        for (Follower follower : followers) {
+            follower.close();
+        }
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        backend.close();
+    }
+
+    LinkStore getBackend() {
+        return backend;
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    // Подключённые ведомые узлы
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    // Номер последнего переданного изменения; ведомый узел сообщает, до какого номера он применил поток
+    public long getSequence() {
+        synchronized (feedLock) {
+            return sequence;
+        }
+    }
+
+    // Переходы, присланные ведомыми узлами
+    public long getReceivedClicks() {
+        return receivedClicks.sum();
+    }
+
+    // Присланные переходы, которые не уместились в лимит (выданы ведомыми узлами сверх лимита)
+    public long getOvershootClicks() {
+        return overshootClicks.sum();
+    }
+
+    // Коды выдаёт перестановка, их младшие биты распределены равномерно
+    private static int stripeIndex(long code) {
+        return Long.hashCode(code) & (STRIPES - 1);
+    }
+
+    private ReentrantLock stripe(long code) {
+        return stripes[stripeIndex(code)];
+    }
+
+    private void lockStripes(boolean[] locked) {
+        for (int i = 0; i < STRIPES; i++) {
+            if (locked[i]) {
+                stripes[i].lock();
+            }
+        }
+    }
+
+    private void unlockStripes(boolean[] locked) {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            if (locked[i]) {
+                stripes[i].unlock();
+            }
+        }
+    }
+
+    private void markDirty(ShortLink link) {
+        if (!followers.isEmpty()) {
+            dirty.put(link.getCode(), link);
+        }
+    }
+
+    private void publishPut(ShortLink link) {
+        if (followers.isEmpty()) {
+            // Изменение уже в хранилище: ведомый узел, подключающийся сейчас, увидит его в снимке
+            return;
+        }
+        byte[] url = link.getLongUrl().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(LinkLog.putSize(url.length));
+        LinkLog.writePut(frame, link, url);
+        publish(frame);
+    }
+
+    private void publishRemove(ShortLink link) {
+        if (!followers.isEmpty()) {
+            ByteBuffer frame = ByteBuffer.allocate(LinkLog.REMOVE_SIZE);
+            LinkLog.writeRemove(frame, link.getCode(), link.getCreationEpochSecond());
+            publish(frame);
+        }
+    }
+
+    private void publish(ByteBuffer frame) {
+        synchronized (feedLock) {
+            sequence++;
+            for (Follower follower : followers) {
+                follower.append(frame.array(), frame.position());
+            }
+        }
+    }
+
+    // Отправляет счётчики изменившихся ссылок и отметку с текущим номером изменения
+    private void publishCounts() {
+        for (Map.Entry<Long, ShortLink> entry : dirty.entrySet()) {
+            // Сначала убрать, потом прочитать: переход после чтения снова пометит ссылку
+            dirty.remove(entry.getKey());
+            // Под полосой кода: счётчик удалённой ссылки не уйдёт в поток после её удаления
+            ReentrantLock lock = stripe(entry.getKey());
+            lock.lock();
+            try {
+                ShortLink link = backend.get(entry.getKey());
+                if (link != null && link.getCreationEpochSecond() == entry.getValue().getCreationEpochSecond()) {
+                    ByteBuffer frame = ByteBuffer.allocate(LinkLog.CODE_INT_SIZE);
+                    LinkLog.writeCodeInt(frame, LinkLog.COUNT, link.getCode(), link.getCreationEpochSecond(),
+                            link.getCurrentCount());
+                    publish(frame);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        ByteBuffer mark = ByteBuffer.allocate(LinkLog.MARK_SIZE);
+        synchronized (feedLock) {
+            LinkLog.writeMark(mark, sequence, System.currentTimeMillis());
+            for (Follower follower : followers) {
+                follower.append(mark.array(), mark.position());
+            }
+        }
+    }
+
+    // Засчитывает переходы ведомого узла, не превышая лимит
+    private void applyClicks(long code, long creationEpochSecond, int clicks) {
+        if (clicks <= 0) {
+            // Ведомые узлы возвращают аренду у себя: отрицательная пачка - ошибка протокола, её нельзя засчитать
+            return;
+        }
+        receivedClicks.add(clicks);
+        int remaining = clicks;
+        while (remaining > 0) {
+            ShortLink link = backend.get(code);
+            if (link == null || link.getCreationEpochSecond() != creationEpochSecond) {
+                // Ссылку уже удалили: переходы по ней больше не важны
+                return;
+            }
+            int allowed = Math.min(remaining, link.getLimit() - link.getCurrentCount());
+            if (allowed <= 0) {
+                break;
+            }
+            // Хранилище без аренды переходов засчитывает их только по одному
+            if (backend.tryIncrement(link, allowed)) {
+                remaining -= allowed;
+            } else if (backend.tryIncrement(link)) {
+                remaining--;
+            }
+            markDirty(link);
+        }
+        overshootClicks.add(remaining);
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("Ошибка подключения ведомого узла: " + e.getMessage());
+                }
+                continue;
+            }
+            Follower follower = new Follower(channel);
+            int id = connections.incrementAndGet();
+            Thread sender = new Thread(follower::sendLoop, "replication-sender-" + id);
+            sender.setDaemon(true);
+            sender.start();
+            Thread receiver = new Thread(follower::receiveLoop, "replication-receiver-" + id);
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+    }
+
+    // Подключённый ведомый узел: очередь записей потока и потоки отправки и приёма
+    private final class Follower {
+        private final SocketChannel channel;
+        // Поля ниже защищены this
+        private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+        private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+        private boolean stopped;
+
+        Follower(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // Вызывается под feedLock
+        synchronized void append(byte[] frame, int length) {
+            if (stopped) {
+                return;
+            }
+            if (pending.remaining() < length) {
+                if (pending.position() + length > MAX_PENDING_BYTES) {
+                    System.out.println("Ведомый узел не успевает читать поток репликации и будет отключён.");
+                    close();
+                    return;
+                }
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length));
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+            pending.put(frame, 0, length);
+            notifyAll();
+        }
+
+        synchronized void close() {
+            stopped = true;
+            notifyAll();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Сокет уже закрыт
+            }
+        }
+
+        void sendLoop() {
+            try {
+                sendSnapshot();
+                while (true) {
+                    ByteBuffer toWrite;
+                    synchronized (this) {
+                        while (pending.position() == 0 && !stopped) {
+                            wait();
+                        }
+                        if (stopped) {
+                            return;
+                        }
+                        toWrite = pending;
+                        pending = spare;
+                        spare = toWrite;
+                    }
+                    toWrite.flip();
+                    while (toWrite.hasRemaining()) {
+                        channel.write(toWrite);
+                    }
+                    toWrite.clear();
+                }
+            } catch (IOException | UncheckedIOException e) {
+                // Ведомый узел отключился; при переподключении он получит новый снимок
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                followers.remove(this);
+                close();
+            }
+        }
+
+        // Снимок - все ссылки записями PUT и отметка с номером изменения на начало снимка. Изменения, сделанные
+        // во время снимка, уже копятся в очереди и уйдут следом.
+        private void sendSnapshot() throws IOException {
+            long snapshotSequence;
+            synchronized (feedLock) {
+                followers.add(this);
+                snapshotSequence = sequence;
+            }
+            ByteBuffer[] chunk = {ByteBuffer.allocate(SNAPSHOT_CHUNK)};
+            backend.forEach(link -> {
+                byte[] url = link.getLongUrl().getBytes(StandardCharsets.UTF_8);
+                int size = LinkLog.putSize(url.length);
+                try {
+                    if (chunk[0].remaining() < size) {
+                        writeFully(chunk[0]);
+                        if (chunk[0].capacity() < size) {
+                            chunk[0] = ByteBuffer.allocate(size);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                LinkLog.writePut(chunk[0], link, url);
+            });
+            if (chunk[0].remaining() < LinkLog.MARK_SIZE) {
+                writeFully(chunk[0]);
+            }
+            LinkLog.writeMark(chunk[0], snapshotSequence, System.currentTimeMillis());
+            writeFully(chunk[0]);
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void receiveLoop() {
+            try {
+                LinkLog.read(channel, new LinkLog.Handler() {
+                    @Override
+                    public void onPut(ShortLink link) {
+                    }
+
+                    @Override
+                    public void onRemove(long code, long creationEpochSecond) {
+                    }
+
+                    @Override
+                    public void onSetLimit(long code, long creationEpochSecond, int limit) {
+                    }
+
+                    @Override
+                    public void onCount(long code, long creationEpochSecond, int count) {
+                    }
+
+                    @Override
+                    public void onClicks(long code, long creationEpochSecond, int clicks) {
+                        applyClicks(code, creationEpochSecond, clicks);
+                    }
+                });
+            } catch (IOException e) {
+                // Ведомый узел отключился
+            } finally {
+                close();
+            }
+        }
+    }
+}
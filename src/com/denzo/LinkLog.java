@@ -0,0 +1,544 @@
+package com.denzo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Двоичный журнал изменений ссылок, куда только дописывают, с групповой фиксацией.
+ * <p>
+ * Записи копятся в буфере, фоновый поток сбрасывает их в текущий сегмент {@code log-NNNNNN.wal} раз в интервал,
+ * по размеру пакета или сразу, если кто-то ждёт {@link Durability#SYNC}. Один fsync покрывает весь пакет.
+ * <p>
+ * Формат записи: {@code [int длина][byte тип][данные][int CRC32 от типа и данных]}. При чтении журнал обрывается
+ * на первой неполной или повреждённой записи - это хвост, не успевший записаться при сбое.
+ * Все записи идемпотентны (счётчик пишется абсолютным значением), поэтому их можно накатывать поверх снимка,
+ * сделанного во время работы.
+ */
+class LinkLog implements AutoCloseable {
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+    static final byte SET_LIMIT = 3;
+    static final byte COUNT = 4;
+    // Только в потоке репликации (LeaderLinkStore / FollowerLinkStore), в журнал не пишутся
+    static final byte MARK = 5;
+    static final byte CLICKS = 6;
+    // Состояние генератора кодов (только в журнале и снимке DurableLinkStore)
+    static final byte CODE_STATE = 7;
+
+    private static final int INITIAL_BUFFER = 1 << 16;
+
+    // Обработчик записей при чтении журнала или снимка
+    interface Handler {
+        void onPut(ShortLink link);
+
+        void onRemove(long code, long creationEpochSecond);
+
+        void onSetLimit(long code, long creationEpochSecond, int limit);
+
+        void onCount(long code, long creationEpochSecond, int count);
+
+        // Отметка ведущего узла: все изменения с номерами до sequence включительно переданы, время - его часы
+        default void onMark(long sequence, long epochMillis) {
+        }
+
+        // Переходы, сделанные на ведомом узле (приращение, а не абсолютное значение)
+        default void onClicks(long code, long creationEpochSecond, int clicks) {
+        }
+
+        // Seed и граница зарезервированных номеров генератора кодов
+        default void onCodeState(long seed, long reservedUntil) {
+        }
+    }
+
+    private final Path directory;
+    private final LogConfig config;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private final Thread flusher;
+
+    // Поля ниже защищены lock
+    private ByteBuffer active = ByteBuffer.allocate(INITIAL_BUFFER);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER);
+    private long appendedSeq;
+    private long durableSeq;
+    private int pendingRecords;
+    private boolean pendingForce;
+    // До какой записи включительно журнал записан и сброшен на диск (force)
+    private long forcedSeq;
+    private int syncWaiters;
+    private long requestedRotation = -1;
+    private long segmentIndex;
+    private long segmentBytes;
+    private boolean closed;
+    private IOException failure;
+
+    private FileChannel channel; // используется только потоком сброса
+
+    LinkLog(Path directory, long segmentIndex, LogConfig config) throws IOException {
+        this.directory = directory;
+        this.config = config;
+        this.segmentIndex = segmentIndex;
+        this.channel = openSegment(segmentIndex);
+        this.flusher = new Thread(this::flushLoop, "link-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    static Path segmentPath(Path directory, long index) {
+        return directory.resolve(String.format("log-%06d.wal", index));
+    }
+
+    // Индекс сегмента по имени файла или -1
+    static long segmentIndex(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith("log-") || !name.endsWith(".wal")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(4, name.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    void appendPut(ShortLink link, Durability durability) {
+        byte[] url = link.getLongUrl().getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            ByteBuffer buffer = reserve(putSize(url.length));
+            writePut(buffer, link, url);
+            commit(durability);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void appendRemove(ShortLink link, Durability durability) {
+        lock.lock();
+        try {
+            writeRemove(reserve(REMOVE_SIZE), link.getCode(), link.getCreationEpochSecond());
+            commit(durability);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void appendSetLimit(ShortLink link, int limit, Durability durability) {
+        lock.lock();
+        try {
+            writeCodeInt(reserve(CODE_INT_SIZE), SET_LIMIT, link.getCode(), link.getCreationEpochSecond(), limit);
+            commit(durability);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void appendCount(ShortLink link, int count, Durability durability) {
+        lock.lock();
+        try {
+            writeCodeInt(reserve(CODE_INT_SIZE), COUNT, link.getCode(), link.getCreationEpochSecond(), count);
+            commit(durability);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void appendCodeState(CodeState state, Durability durability) {
+        lock.lock();
+        try {
+            writeCodeState(reserve(CODE_STATE_SIZE), state);
+            commit(durability);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Переключает запись на новый сегмент и возвращает его индекс. Всё, что было добавлено до вызова,
+    // остаётся в старых сегментах.
+    long rotate() throws IOException {
+        lock.lock();
+        try {
+            checkOpen();
+            long next = segmentIndex + 1;
+            requestedRotation = next;
+            work.signal();
+            while (segmentIndex < next && failure == null && !closed) {
+                flushed.awaitUninterruptibly();
+            }
+            checkOpen();
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Байт записано в текущий сегмент
+    long segmentBytes() {
+        lock.lock();
+        try {
+            return segmentBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            work.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+            channel.force(false);
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось закрыть журнал: " + e.getMessage(), e);
+        }
+    }
+
+    // Читает записи из канала; возвращает число прочитанных целых записей.
+    static long read(ReadableByteChannel in, Handler handler) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        buffer.flip();
+        long records = 0;
+        CRC32 crc = new CRC32();
+        while (true) {
+            if (!fill(in, buffer, 4)) {
+                return records;
+            }
+            int length = buffer.getInt();
+            if (length <= 0 || length > (1 << 24)) {
+                return records;
+            }
+            if (buffer.capacity() < length + 4) {
+                ByteBuffer larger = ByteBuffer.allocate(length + 4);
+                larger.put(buffer).flip();
+                buffer = larger;
+            }
+            if (!fill(in, buffer, length + 4)) {
+                return records;
+            }
+            int start = buffer.position();
+            crc.reset();
+            crc.update(buffer.array(), start, length);
+            buffer.position(start + length);
+            if ((int) crc.getValue() != buffer.getInt()) {
+                return records;
+            }
+            buffer.position(start);
+            byte type = buffer.get();
+            switch (type) {
+                case PUT:
+                    handler.onPut(readPut(buffer));
+                    break;
+                case REMOVE:
+                    handler.onRemove(buffer.getLong(), buffer.getLong());
+                    break;
+                case SET_LIMIT:
+                    handler.onSetLimit(buffer.getLong(), buffer.getLong(), buffer.getInt());
+                    break;
+                case COUNT:
+                    handler.onCount(buffer.getLong(), buffer.getLong(), buffer.getInt());
+                    break;
+                case MARK:
+                    handler.onMark(buffer.getLong(), buffer.getLong());
+                    break;
+                case CLICKS:
+                    handler.onClicks(buffer.getLong(), buffer.getLong(), buffer.getInt());
+                    break;
+                case CODE_STATE:
+                    handler.onCodeState(buffer.getLong(), buffer.getLong());
+                    break;
+                default:
+                    return records;
+            }
+            buffer.position(start + length + 4);
+            records++;
+        }
+    }
+
+    // Запись ссылки целиком - используется и в журнале, и в снимке
+    static int putSize(int urlLength) {
+        return frameSize(8 + 4 + 4 + 8 + 8 + 8 + 8 + 4 + urlLength);
+    }
+
+    static void writePut(ByteBuffer buffer, ShortLink link, byte[] url) {
+        int start = beginFrame(buffer, PUT);
+        UUID owner = link.getOwnerUuid();
+        buffer.putLong(link.getCode())
+                .putInt(link.getLimit())
+                .putInt(link.getCurrentCount())
+                .putLong(link.getCreationEpochSecond())
+                .putLong(link.getExpireAtEpochSecond())
+                .putLong(owner.getMostSignificantBits())
+                .putLong(owner.getLeastSignificantBits())
+                .putInt(url.length)
+                .put(url);
+        endFrame(buffer, start);
+    }
+
+    // Размеры записей удаления, записей «код + число» (лимит, счётчик, переходы), отметок и состояния генератора
+    static final int REMOVE_SIZE = frameSize(16);
+    static final int CODE_INT_SIZE = frameSize(20);
+    static final int MARK_SIZE = frameSize(16);
+    static final int CODE_STATE_SIZE = frameSize(16);
+
+    static void writeRemove(ByteBuffer buffer, long code, long creationEpochSecond) {
+        int start = beginFrame(buffer, REMOVE);
+        buffer.putLong(code).putLong(creationEpochSecond);
+        endFrame(buffer, start);
+    }
+
+    // SET_LIMIT, COUNT и CLICKS: код, время создания ссылки и число
+    static void writeCodeInt(ByteBuffer buffer, byte type, long code, long creationEpochSecond, int value) {
+        int start = beginFrame(buffer, type);
+        buffer.putLong(code).putLong(creationEpochSecond).putInt(value);
+        endFrame(buffer, start);
+    }
+
+    static void writeMark(ByteBuffer buffer, long sequence, long epochMillis) {
+        int start = beginFrame(buffer, MARK);
+        buffer.putLong(sequence).putLong(epochMillis);
+        endFrame(buffer, start);
+    }
+
+    static void writeCodeState(ByteBuffer buffer, CodeState state) {
+        int start = beginFrame(buffer, CODE_STATE);
+        buffer.putLong(state.getSeed()).putLong(state.getReservedUntil());
+        endFrame(buffer, start);
+    }
+
+    private static ShortLink readPut(ByteBuffer buffer) {
+        long code = buffer.getLong();
+        int limit = buffer.getInt();
+        int count = buffer.getInt();
+        long created = buffer.getLong();
+        long expireAt = buffer.getLong();
+        long ownerMsb = buffer.getLong();
+        long ownerLsb = buffer.getLong();
+        byte[] url = new byte[buffer.getInt()];
+        buffer.get(url);
+        ShortLink link = new ShortLink(new String(url, StandardCharsets.UTF_8), code, limit, created, expireAt, ownerMsb, ownerLsb);
+        link.setCurrentCount(count);
+        return link;
+    }
+
+    private static int frameSize(int payload) {
+        return 4 + 1 + payload + 4;
+    }
+
+    private static int beginFrame(ByteBuffer buffer, byte type) {
+        int start = buffer.position();
+        buffer.putInt(0).put(type);
+        return start;
+    }
+
+    private static void endFrame(ByteBuffer buffer, int start) {
+        int length = buffer.position() - start - 4;
+        buffer.putInt(start, length);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + start + 4, length);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private static boolean fill(ReadableByteChannel in, ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return true;
+        }
+        buffer.compact();
+        while (buffer.position() < needed) {
+            if (in.read(buffer) < 0) {
+                buffer.flip();
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    // Вызывается под lock: гарантирует место в активном буфере
+    private ByteBuffer reserve(int bytes) {
+        checkOpen();
+        if (active.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(active.capacity() * 2, active.position() + bytes));
+            active.flip();
+            larger.put(active);
+            active = larger;
+        }
+        return active;
+    }
+
+    // Вызывается под lock после добавления записи
+    private void commit(Durability durability) {
+        long seq = ++appendedSeq;
+        pendingRecords++;
+        if (durability != Durability.NONE) {
+            pendingForce = true;
+        }
+        if (durability == Durability.SYNC) {
+            awaitFlushed(seq);
+        } else if (pendingRecords >= config.getBatchSize()) {
+            work.signal();
+        }
+    }
+
+    // Делает надёжными с уровнем durability все записи, добавленные до вызова, - для пачек, записанных с NONE
+    void awaitDurable(Durability durability) {
+        if (durability == Durability.NONE) {
+            return;
+        }
+        lock.lock();
+        try {
+            long seq = appendedSeq;
+            if (forcedSeq >= seq) {
+                return;
+            }
+            // Записи могли уже уйти в файл без force: следующий сброс сделает force, даже если новых записей нет
+            pendingForce = true;
+            work.signal();
+            if (durability == Durability.SYNC) {
+                syncWaiters++;
+                try {
+                    while (forcedSeq < seq && failure == null && !closed) {
+                        flushed.awaitUninterruptibly();
+                    }
+                } finally {
+                    syncWaiters--;
+                }
+                if (forcedSeq < seq) {
+                    checkOpen();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Вызывается под lock
+    private void awaitFlushed(long seq) {
+        syncWaiters++;
+        work.signal();
+        try {
+            while (durableSeq < seq && failure == null && !closed) {
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            syncWaiters--;
+        }
+        if (durableSeq < seq) {
+            checkOpen();
+        }
+    }
+
+    private void checkOpen() {
+        if (failure != null) {
+            throw new IllegalStateException("Журнал недоступен: " + failure.getMessage(), failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Журнал закрыт.");
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer toWrite;
+            long seq;
+            boolean force;
+            long rotation;
+            lock.lock();
+            try {
+                if (pendingRecords < config.getBatchSize() && syncWaiters == 0 && requestedRotation < 0 && !closed) {
+                    work.await(config.getFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+                }
+                if (pendingRecords == 0 && requestedRotation < 0 && !pendingForce) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                toWrite = active;
+                active = spare;
+                seq = appendedSeq;
+                force = pendingForce;
+                rotation = requestedRotation;
+                pendingRecords = 0;
+                pendingForce = false;
+                requestedRotation = -1;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            long written = 0;
+            try {
+                toWrite.flip();
+                written = toWrite.remaining();
+                while (toWrite.hasRemaining()) {
+                    channel.write(toWrite);
+                }
+                if (force) {
+                    channel.force(false);
+                }
+                if (rotation >= 0) {
+                    channel.force(false);
+                    channel.close();
+                    channel = openSegment(rotation);
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            toWrite.clear();
+
+            lock.lock();
+            try {
+                spare = toWrite;
+                // После ошибки записи или force записи пакета не считаются сброшенными: ожидающие SYNC получат
+                // failure, а не успех
+                if (error == null) {
+                    durableSeq = seq;
+                    if (force || rotation >= 0) {
+                        forcedSeq = seq;
+                    }
+                }
+                segmentBytes += written;
+                if (rotation >= 0 && error == null) {
+                    segmentIndex = rotation;
+                    segmentBytes = 0;
+                }
+                if (error != null) {
+                    failure = error;
+                }
+                flushed.signalAll();
+                if (error != null) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private FileChannel openSegment(long index) throws IOException {
+        return FileChannel.open(segmentPath(directory, index),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+}
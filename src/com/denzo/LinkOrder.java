@@ -0,0 +1,9 @@
+package com.denzo;
+
+// Порядок ссылок владельца при постраничном просмотре
+public enum LinkOrder {
+    // По времени создания, от старых к новым
+    CREATED,
+    // По времени истечения, сначала те, что истекают раньше
+    EXPIRES
+}
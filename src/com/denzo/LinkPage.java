@@ -0,0 +1,33 @@
+package com.denzo;
+
+import java.util.List;
+
+// Страница ссылок владельца. nextCursor передаётся в следующий запрос; null - страниц больше нет.
+// Курсор непрозрачен и действителен только для того хранилища и порядка, которые его выдали.
+public final class LinkPage {
+    private final List<ShortLink> links;
+    private final String nextCursor;
+
+    public LinkPage(List<ShortLink> links, String nextCursor) {
+        this.links = links;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<ShortLink> getLinks() {
+        return links;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    // Разбирает курсор вида "a:b" на два числа
+    static long[] parseCursor(String cursor) {
+        int colon = cursor.indexOf(':');
+        try {
+            return new long[]{Long.parseLong(cursor.substring(0, colon)), Long.parseLong(cursor.substring(colon + 1))};
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Некорректный курсор: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.denzo;
+
+import java.util.UUID;
+
+// Параметры одной ссылки для пакетного создания (UrlShorter.buildShortUrls) - те же, что у buildShortUrl.
+public class LinkRequest {
+    private String longUrl;
+    private UUID ownerUuid;
+    private int limit;
+    private int lifetimeHours;
+
+    public LinkRequest(String longUrl, UUID ownerUuid, int limit, int lifetimeHours) {
+        this.longUrl = longUrl;
+        this.ownerUuid = ownerUuid;
+        this.limit = limit;
+        this.lifetimeHours = lifetimeHours;
+    }
+
+    public String getLongUrl() {
+        return longUrl;
+    }
+
+    public void setLongUrl(String longUrl) {
+        this.longUrl = longUrl;
+    }
+
+    public UUID getOwnerUuid() {
+        return ownerUuid;
+    }
+
+    public void setOwnerUuid(UUID ownerUuid) {
+        this.ownerUuid = ownerUuid;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public int getLifetimeHours() {
+        return lifetimeHours;
+    }
+
+    public void setLifetimeHours(int lifetimeHours) {
+        this.lifetimeHours = lifetimeHours;
+    }
+}
@@ -0,0 +1,128 @@
+package com.denzo;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Хранилище ссылок, на котором работает {@link UrlShorter}. Все методы должны быть потокобезопасны.
+ * <p>
+ * Изменяющие методы принимают ссылку, полученную из {@link #get}: хранилище может вернуть снимок записи,
+ * поэтому счётчик и лимит меняются только через хранилище.
+ */
+public interface LinkStore extends AutoCloseable {
+    // Ссылка по упакованному коду или null
+    ShortLink get(long code);
+
+    // Сохраняет ссылку, если её код свободен
+    boolean putIfAbsent(ShortLink link);
+
+    // Сохраняет пачку ссылок; stored[i] - заняла ли links.get(i) свой код. По умолчанию - putIfAbsent по одной.
+    default boolean[] putAllIfAbsent(List<ShortLink> links) {
+        boolean[] stored = new boolean[links.size()];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = putIfAbsent(links.get(i));
+        }
+        return stored;
+    }
+
+    // Удаляет именно эту ссылку (а не другую, занявшую тот же код позже). true - если удалил этот вызов.
+    boolean remove(ShortLink link);
+
+    // Атомарно засчитывает переход, если лимит ещё не исчерпан
+    boolean tryIncrement(ShortLink link);
+
+    // Атомарно засчитывает сразу clicks переходов, если все они укладываются в лимит (аренда переходов,
+    // см. StripedClickCounter). По умолчанию поддерживается только clicks == 1.
+    default boolean tryIncrement(ShortLink link, int clicks) {
+        return clicks == 1 && tryIncrement(link);
+    }
+
+    // Возвращает clicks переходов, засчитанных через tryIncrement(link, clicks), но не использованных
+    default void releaseClicks(ShortLink link, int clicks) {
+        throw new UnsupportedOperationException("Хранилище не поддерживает аренду переходов.");
+    }
+
+    void setLimit(ShortLink link, int limit);
+
+    // Ссылки владельца в порядке создания
+    List<ShortLink> findByOwner(UUID ownerUuid);
+
+    // Страница из не более чем limit ссылок владельца в порядке order после курсора (null - с начала).
+    // По умолчанию строится из полного списка findByOwner; курсор - "ключ:код" последней выданной ссылки.
+    default LinkPage findByOwner(UUID ownerUuid, LinkOrder order, String cursor, int limit) {
+        ToLongFunction<ShortLink> key = order == LinkOrder.CREATED
+                ? ShortLink::getCreationEpochSecond
+                : ShortLink::getExpireAtEpochSecond;
+        List<ShortLink> links = new ArrayList<>(findByOwner(ownerUuid));
+        links.sort(Comparator.comparingLong(key).thenComparingLong(ShortLink::getCode));
+        int from = 0;
+        if (cursor != null) {
+            long[] after = LinkPage.parseCursor(cursor);
+            long cursorKey = after[0];
+            long cursorCode = after[1];
+            while (from < links.size()) {
+                ShortLink link = links.get(from);
+                long linkKey = key.applyAsLong(link);
+                if (linkKey > cursorKey || (linkKey == cursorKey && link.getCode() > cursorCode)) {
+                    break;
+                }
+                from++;
+            }
+        }
+        int to = (int) Math.min(links.size(), (long) from + limit);
+        List<ShortLink> page = new ArrayList<>(links.subList(from, to));
+        String next = null;
+        if (to < links.size() && !page.isEmpty()) {
+            ShortLink last = page.get(page.size() - 1);
+            next = key.applyAsLong(last) + ":" + last.getCode();
+        }
+        return new LinkPage(page, next);
+    }
+
+    // Удаляет ссылки, истёкшие к моменту nowEpochSecond, и возвращает их
+    List<ShortLink> removeExpired(long nowEpochSecond);
+
+    long size();
+
+    void forEach(Consumer<ShortLink> action);
+
+    // Держит ли хранилище в куче сами объекты ссылок из putIfAbsent, а не их копии: тогда ссылки могут делить
+    // общие объекты, например строку URL (см. UrlDeduplicator)
+    default boolean keepsLinkObjects() {
+        return false;
+    }
+
+    // Сохранённое состояние генератора кодов или null, если его ещё нет или хранилище его не хранит
+    default CodeState loadCodeState() {
+        return null;
+    }
+
+    // Надёжно сохраняет состояние генератора кодов; false - хранилище его не хранит (например, живёт только в куче)
+    default boolean saveCodeState(CodeState state) {
+        return false;
+    }
+
+    // Ведёт ли хранилище индекс владельцев, по которому forEachOwner не обходит все ссылки. Без него метрики
+    // владельцев не собираются: полный обход на каждый опрос метрик слишком дорог.
+    default boolean indexesOwners() {
+        return false;
+    }
+
+    // Число ссылок каждого владельца (для метрик). По умолчанию - подсчёт полным обходом.
+    default void forEachOwner(ObjIntConsumer<UUID> action) {
+        Map<UUID, Integer> counts = new HashMap<>();
+        forEach(link -> counts.merge(link.getOwnerUuid(), 1, Integer::sum));
+        counts.forEach(action::accept);
+    }
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,62 @@
+package com.denzo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+
+// Выбор хранилища по системным свойствам; общий для App и RedirectServer.
+final class LinkStores {
+    private static final long DEFAULT_CAPACITY = 1 << 20;
+
+    private LinkStores() {
+    }
+
+    // С -Dshortlinks.data=<каталог> ссылки хранятся в отображённых файлах и переживают перезапуск,
+    // с -Dshortlinks.store=log - в куче с журналом изменений в том же каталоге.
+    // Без каталога - InMemoryLinkStore. Хранилище закрывается при завершении JVM.
+    // -Dshortlinks.filter=<доля ложных срабатываний> ставит перед файловым хранилищем фильтр несуществующих кодов
+    // (FilteredLinkStore), -Dshortlinks.cache=<число ссылок> - кэш горячих ссылок (CachingLinkStore) перед ними.
+    // -Dshortlinks.capacity=<число ссылок> - ожидаемое число ссылок: начальная ёмкость MappedLinkStore (дальше
+    // таблица растёт сама, но каждый рост - пересборка файлов) и размер фильтра.
+    //
+    // Репликация: -Dshortlinks.replication.port=<порт> делает узел ведущим (LeaderLinkStore перед выбранным
+    // хранилищем), -Dshortlinks.replication.leader=<хост:порт> - ведомым (FollowerLinkStore, остальные свойства
+    // хранилища не действуют).
+    static LinkStore fromSystemProperties() throws IOException {
+        String leaderAddress = System.getProperty("shortlinks.replication.leader");
+        if (leaderAddress != null) {
+            int colon = leaderAddress.lastIndexOf(':');
+            FollowerLinkStore follower = new FollowerLinkStore(new InetSocketAddress(
+                    leaderAddress.substring(0, colon), Integer.parseInt(leaderAddress.substring(colon + 1))));
+            Runtime.getRuntime().addShutdownHook(new Thread(follower::close));
+            return follower;
+        }
+        LinkStore store = openStore();
+        Integer replicationPort = Integer.getInteger("shortlinks.replication.port");
+        if (replicationPort != null) {
+            store = new LeaderLinkStore(store, replicationPort);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(store::close));
+        return store;
+    }
+
+    private static LinkStore openStore() throws IOException {
+        String dataDirectory = System.getProperty("shortlinks.data");
+        if (dataDirectory == null) {
+            return new InMemoryLinkStore();
+        }
+        long capacity = Long.getLong("shortlinks.capacity", DEFAULT_CAPACITY);
+        LinkStore store = "log".equals(System.getProperty("shortlinks.store"))
+                ? DurableLinkStore.open(Path.of(dataDirectory))
+                : MappedLinkStore.open(Path.of(dataDirectory), capacity);
+        String falsePositiveRate = System.getProperty("shortlinks.filter");
+        if (falsePositiveRate != null) {
+            store = new FilteredLinkStore(store, capacity, Double.parseDouble(falsePositiveRate));
+        }
+        Integer cacheSize = Integer.getInteger("shortlinks.cache");
+        if (cacheSize != null && cacheSize > 0) {
+            store = new CachingLinkStore(store, cacheSize);
+        }
+        return store;
+    }
+}
@@ -0,0 +1,437 @@
+package com.denzo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Потоковая выгрузка и загрузка всех ссылок в сжатом двоичном формате (резервные копии и переезд между
+ * хранилищами). Коды сохраняются, поэтому короткие ссылки после загрузки ведут туда же.
+ * <p>
+ * Формат: {@code [int MAGIC][int VERSION]}, затем блоки {@code [int записей][int длина][int сжатая длина]
+ * [int CRC32 несжатых данных][данные Deflate]} и в конце {@code [int 0][long всего записей]}. Внутри блока записи
+ * идут подряд: {@code [varint длина записи][varlong код][varint лимит][varint счётчик][varlong создание]
+ * [varlong срок жизни в секундах][long, long владелец][URL в UTF-8 до конца записи]}.
+ * <p>
+ * Блоки сжимаются и разжимаются независимо, поэтому выгрузка сжимает их в нескольких потоках, а загрузка -
+ * разжимает, разбирает и сохраняет пачкой ({@link LinkStore#putAllIfAbsent}). Одновременно в работе не больше
+ * двух блоков на поток, так что память не зависит от числа ссылок. Ход работы раз в секунду и в конце передаётся
+ * в {@code progress}.
+ */
+public final class LinkTransfer {
+    private static final int MAGIC = 0x444E5A4C; // "DNZL"
+    private static final int VERSION = 1;
+    private static final int BLOCK_BYTES = 1 << 18;
+    private static final int BLOCK_HEADER = 16;
+    private static final int MAX_BLOCK_BYTES = 1 << 26;
+    private static final long REPORT_INTERVAL_NANOS = 1_000_000_000L;
+
+    private LinkTransfer() {
+    }
+
+    // Запуск: java -cp target/classes [-Dshortlinks.data=...] com.denzo.LinkTransfer export|import <файл> [потоков]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.out.println("Использование: LinkTransfer export|import <файл> [потоков]");
+            return;
+        }
+        Path file = Path.of(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        UrlShorter urlShorter = new UrlShorter(LinkStores.fromSystemProperties(), new ConsoleNotifier(),
+                new FeistelCodeGenerator());
+        Consumer<TransferReport> progress = report -> System.out.println(report);
+        TransferReport report;
+        if (args[0].equals("export")) {
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                report = urlShorter.exportLinks(out, threads, progress);
+                out.force(true);
+            }
+        } else {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                report = urlShorter.importLinks(in, threads, progress);
+            }
+        }
+        System.out.println("Готово: " + report + ".");
+    }
+
+    static TransferReport export(LinkStore store, WritableByteChannel out, int threads,
+                                 Consumer<TransferReport> progress) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService compressors = newPool(threads, "link-export");
+        ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+        long[] written = {0};
+        long[] records = {0};
+        long[] nextReport = {start + REPORT_INTERVAL_NANOS};
+        try {
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+            written[0] += writeFully(out, header.flip());
+            ByteBuffer[] block = {ByteBuffer.allocate(BLOCK_BYTES)};
+            int[] blockRecords = {0};
+            try {
+                store.forEach(link -> {
+                    try {
+                        byte[] url = link.getLongUrl().getBytes(StandardCharsets.UTF_8);
+                        int size = maxRecordSize(url.length);
+                        if (block[0].remaining() < size) {
+                            if (blockRecords[0] > 0) {
+                                submit(compressors, pending, block[0], blockRecords[0]);
+                                // Не больше двух блоков на поток в очереди: дальше выгрузка ждёт записи
+                                while (pending.size() > 2 * threads) {
+                                    written[0] += writeFully(out, await(pending.poll()));
+                                }
+                            }
+                            block[0] = ByteBuffer.allocate(Math.max(BLOCK_BYTES, size));
+                            blockRecords[0] = 0;
+                        }
+                        writeRecord(block[0], link, url);
+                        blockRecords[0]++;
+                        records[0]++;
+                        long now = System.nanoTime();
+                        if (progress != null && now - nextReport[0] >= 0) {
+                            nextReport[0] = now + REPORT_INTERVAL_NANOS;
+                            progress.accept(new TransferReport(records[0], 0, written[0], now - start));
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (blockRecords[0] > 0) {
+                submit(compressors, pending, block[0], blockRecords[0]);
+            }
+            while (!pending.isEmpty()) {
+                written[0] += writeFully(out, await(pending.poll()));
+            }
+            ByteBuffer end = ByteBuffer.allocate(12).putInt(0).putLong(records[0]);
+            written[0] += writeFully(out, end.flip());
+        } finally {
+            compressors.shutdownNow();
+        }
+        TransferReport report = new TransferReport(records[0], 0, written[0], System.nanoTime() - start);
+        if (progress != null) {
+            progress.accept(report);
+        }
+        return report;
+    }
+
+    // importer сохраняет разобранный блок и возвращает, какие ссылки сохранены (занятые коды пропускаются)
+    static TransferReport importLinks(ReadableByteChannel in, int threads, Importer importer,
+                                      Consumer<TransferReport> progress) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        if (!readFully(in, header) || header.getInt(0) != MAGIC) {
+            throw new IOException("Это не файл выгрузки ссылок.");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Неподдерживаемая версия выгрузки: " + header.getInt(4) + ".");
+        }
+        ExecutorService decoders = newPool(threads, "link-import");
+        Semaphore inFlight = new Semaphore(2 * threads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        LongAdder stored = new LongAdder();
+        LongAdder skipped = new LongAdder();
+        AtomicLong read = new AtomicLong(8);
+        AtomicLong nextReport = new AtomicLong(start + REPORT_INTERVAL_NANOS);
+        long expected;
+        long blocks = 0;
+        try {
+            ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER);
+            while (true) {
+                blockHeader.clear().limit(4);
+                if (!readFully(in, blockHeader)) {
+                    throw new IOException("Выгрузка оборвана: нет отметки конца.");
+                }
+                int records = blockHeader.getInt(0);
+                if (records == 0) {
+                    ByteBuffer end = ByteBuffer.allocate(8);
+                    if (!readFully(in, end)) {
+                        throw new IOException("Выгрузка оборвана: нет отметки конца.");
+                    }
+                    expected = end.getLong(0);
+                    read.addAndGet(12);
+                    break;
+                }
+                blockHeader.limit(BLOCK_HEADER);
+                if (!readFully(in, blockHeader)) {
+                    throw new IOException("Выгрузка оборвана в заголовке блока " + blocks + ".");
+                }
+                int rawLength = blockHeader.getInt(4);
+                int compressedLength = blockHeader.getInt(8);
+                int checksum = blockHeader.getInt(12);
+                if (records < 0 || rawLength <= 0 || rawLength > MAX_BLOCK_BYTES
+                        || compressedLength <= 0 || compressedLength > MAX_BLOCK_BYTES) {
+                    throw new IOException("Повреждён заголовок блока " + blocks + ".");
+                }
+                ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+                if (!readFully(in, compressed)) {
+                    throw new IOException("Выгрузка оборвана в блоке " + blocks + ".");
+                }
+                read.addAndGet(BLOCK_HEADER + compressedLength);
+                inFlight.acquireUninterruptibly();
+                checkFailure(failure);
+                long index = blocks++;
+                decoders.execute(() -> {
+                    try {
+                        List<ShortLink> links = decodeBlock(compressed.array(), rawLength, checksum, records, index);
+                        boolean[] saved = importer.store(links);
+                        int count = 0;
+                        for (boolean s : saved) {
+                            count += s ? 1 : 0;
+                        }
+                        stored.add(count);
+                        skipped.add(links.size() - count);
+                        long now = System.nanoTime();
+                        long next = nextReport.get();
+                        if (progress != null && now - next >= 0
+                                && nextReport.compareAndSet(next, now + REPORT_INTERVAL_NANOS)) {
+                            progress.accept(new TransferReport(stored.sum(), skipped.sum(), read.get(), now - start));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            // Дождаться всех блоков: освободятся все места
+            inFlight.acquireUninterruptibly(2 * threads);
+            checkFailure(failure);
+        } finally {
+            decoders.shutdownNow();
+        }
+        long total = stored.sum() + skipped.sum();
+        if (total != expected) {
+            throw new IOException("В выгрузке " + expected + " записей, прочитано " + total + ".");
+        }
+        TransferReport report = new TransferReport(stored.sum(), skipped.sum(), read.get(), System.nanoTime() - start);
+        if (progress != null) {
+            progress.accept(report);
+        }
+        return report;
+    }
+
+    // Сохранение разобранного блока
+    interface Importer {
+        boolean[] store(List<ShortLink> links);
+    }
+
+    private static ExecutorService newPool(int threads, String name) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Число потоков должно быть положительным.");
+        }
+        AtomicLong ids = new AtomicLong();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + ids.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static void submit(ExecutorService compressors, ArrayDeque<Future<ByteBuffer>> pending, ByteBuffer raw,
+                               int records) {
+        pending.add(compressors.submit(() -> compressBlock(raw, records)));
+    }
+
+    private static ByteBuffer compressBlock(ByteBuffer raw, int records) {
+        int rawLength = raw.position();
+        CRC32 crc = new CRC32();
+        crc.update(raw.array(), 0, rawLength);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw.array(), 0, rawLength);
+            deflater.finish();
+            // Несжимаемые данные Deflate увеличивает не больше чем на 5 байт на 16 КБ плюс заголовок
+            byte[] out = new byte[BLOCK_HEADER + rawLength + rawLength / 1000 + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                length += deflater.deflate(out, BLOCK_HEADER + length, out.length - BLOCK_HEADER - length);
+            }
+            return ByteBuffer.wrap(out, 0, BLOCK_HEADER + length)
+                    .putInt(0, records).putInt(4, rawLength).putInt(8, length).putInt(12, (int) crc.getValue());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static List<ShortLink> decodeBlock(byte[] compressed, int rawLength, int checksum, int records,
+                                               long index) throws IOException {
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != rawLength) {
+                throw new IOException("Повреждён блок " + index + ": неверная длина данных.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Повреждён блок " + index + ": " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, rawLength);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Повреждён блок " + index + ": не совпадает контрольная сумма.");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        List<ShortLink> links = new ArrayList<>(records);
+        while (buffer.hasRemaining()) {
+            int end = readVarInt(buffer);
+            end += buffer.position();
+            long code = readVarLong(buffer);
+            int limit = readVarInt(buffer);
+            int count = readVarInt(buffer);
+            long created = readVarLong(buffer);
+            long expireAt = created + unzigzag(readVarLong(buffer));
+            long ownerMsb = buffer.getLong();
+            long ownerLsb = buffer.getLong();
+            String url = new String(raw, buffer.position(), end - buffer.position(), StandardCharsets.UTF_8);
+            buffer.position(end);
+            ShortLink link = new ShortLink(url, code, limit, created, expireAt, ownerMsb, ownerLsb);
+            link.setCurrentCount(count);
+            links.add(link);
+        }
+        if (links.size() != records) {
+            throw new IOException("Повреждён блок " + index + ": неверное число записей.");
+        }
+        return links;
+    }
+
+    // Префикс длины, пять чисел по 10 байт в худшем случае, владелец и URL
+    private static int maxRecordSize(int urlLength) {
+        return 5 + 5 * 10 + 16 + urlLength;
+    }
+
+    private static void writeRecord(ByteBuffer buffer, ShortLink link, byte[] url) {
+        int lengthAt = buffer.position();
+        // Место под длину: один байт, если запись короче 128 байт, иначе данные сдвигаются
+        buffer.position(lengthAt + 1);
+        writeVarLong(buffer, link.getCode());
+        writeVarLong(buffer, link.getLimit());
+        writeVarLong(buffer, link.getCurrentCount());
+        writeVarLong(buffer, link.getCreationEpochSecond());
+        writeVarLong(buffer, zigzag(link.getExpireAtEpochSecond() - link.getCreationEpochSecond()));
+        buffer.putLong(link.getOwnerMostSigBits()).putLong(link.getOwnerLeastSigBits()).put(url);
+        int length = buffer.position() - lengthAt - 1;
+        int prefix = varIntSize(length);
+        if (prefix > 1) {
+            byte[] array = buffer.array();
+            System.arraycopy(array, lengthAt + 1, array, lengthAt + prefix, length);
+        }
+        buffer.position(lengthAt);
+        writeVarLong(buffer, length);
+        buffer.position(lengthAt + prefix + length);
+    }
+
+    private static int varIntSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Слишком длинное число в записи.");
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        return (int) readVarLong(buffer);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static ByteBuffer await(Future<ByteBuffer> block) throws IOException {
+        try {
+            return block.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Выгрузка прервана.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Не удалось сжать блок: " + e.getCause(), e.getCause());
+        }
+    }
+
+    private static void checkFailure(AtomicReference<Throwable> failure) throws IOException {
+        Throwable error = failure.get();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error != null) {
+            throw new IOException("Не удалось загрузить блок: " + error, error);
+        }
+    }
+
+    private static long writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        long bytes = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return bytes;
+    }
+
+    // false - канал кончился раньше, чем буфер заполнился
+    private static boolean readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,9 @@
+package com.denzo;
+
+// Результат изменения или удаления ссылки владельцем
+public enum LinkUpdateStatus {
+    UPDATED,
+    NOT_FOUND,
+    FORBIDDEN,
+    INVALID_LIMIT
+}
@@ -0,0 +1,62 @@
+package com.denzo;
+
+// Настройки журнала DurableLinkStore.
+public class LogConfig {
+    // Создание, удаление, истечение и смена лимита
+    private Durability mutationDurability = Durability.SYNC;
+    // Переходы по ссылкам: обычно можно потерять несколько последних, чтобы не ждать fsync при переходе
+    private Durability clickDurability = Durability.BATCHED;
+    private long flushIntervalMillis = 10;
+    private int batchSize = 1024;
+    // Снимок делается, если журнал с прошлого снимка вырос больше чем на snapshotThresholdBytes
+    private long snapshotIntervalSeconds = 60;
+    private long snapshotThresholdBytes = 64L << 20;
+
+    public Durability getMutationDurability() {
+        return mutationDurability;
+    }
+
+    public void setMutationDurability(Durability mutationDurability) {
+        this.mutationDurability = mutationDurability;
+    }
+
+    public Durability getClickDurability() {
+        return clickDurability;
+    }
+
+    public void setClickDurability(Durability clickDurability) {
+        this.clickDurability = clickDurability;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getSnapshotIntervalSeconds() {
+        return snapshotIntervalSeconds;
+    }
+
+    public void setSnapshotIntervalSeconds(long snapshotIntervalSeconds) {
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+    }
+
+    public long getSnapshotThresholdBytes() {
+        return snapshotThresholdBytes;
+    }
+
+    public void setSnapshotThresholdBytes(long snapshotThresholdBytes) {
+        this.snapshotThresholdBytes = snapshotThresholdBytes;
+    }
+}
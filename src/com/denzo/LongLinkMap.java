@@ -0,0 +1,166 @@
+package com.denzo;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Карта «упакованный код -> ссылка» для {@link InMemoryLinkStore} без упаковки ключа в {@code Long}: поиск
+ * по {@code ConcurrentHashMap<Long, ...>} создаёт объект ключа на каждый переход (коды больше 127 не кэшируются).
+ * <p>
+ * Карта разбита на сегменты по хешу кода. Сегмент - открытая адресация с линейным пробированием: ключи в массиве
+ * {@code long[]}, ссылки - в {@link AtomicReferenceArray}. Чтение идёт без блокировок: ключ записывается до
+ * публикации ссылки (volatile), поэтому прочитанная непустая ссылка видит свой ключ. Запись синхронизирована
+ * на сегменте; удалённая ячейка помечается {@link #REMOVED} и не занимается повторно, пока таблица не будет
+ * пересобрана, поэтому ключ ячейки после публикации не меняется. Пересборка (рост или очистка от удалённых)
+ * строит новую таблицу и публикует её одной записью.
+ */
+final class LongLinkMap {
+    private static final ShortLink REMOVED = new ShortLink("", 0, 0, 0, 0, 0, 0);
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    private static final class Table {
+        final long[] keys;
+        final AtomicReferenceArray<ShortLink> links;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            links = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private static final class Segment {
+        volatile Table table = new Table(INITIAL_CAPACITY);
+        // Меняются только под блокировкой сегмента; size читается без неё для оценки размера
+        volatile int size;
+        int used; // живые и удалённые ячейки
+
+        ShortLink get(long code, long hash) {
+            Table current = table;
+            for (int i = (int) hash & current.mask; ; i = (i + 1) & current.mask) {
+                ShortLink link = current.links.get(i);
+                if (link == null) {
+                    return null;
+                }
+                if (current.keys[i] == code && link != REMOVED) {
+                    return link;
+                }
+            }
+        }
+
+        synchronized ShortLink putIfAbsent(long code, long hash, ShortLink link) {
+            ShortLink existing = get(code, hash);
+            if (existing != null) {
+                return existing;
+            }
+            if ((used + 1) * 4L > table.keys.length * 3L) {
+                // Удалённых много - таблица пересобирается того же размера, иначе вдвое больше
+                int capacity = (size + 1) * 2L > table.keys.length ? table.keys.length * 2 : table.keys.length;
+                rebuild(capacity);
+            }
+            Table current = table;
+            int i = (int) hash & current.mask;
+            while (current.links.get(i) != null) {
+                i = (i + 1) & current.mask;
+            }
+            current.keys[i] = code;
+            current.links.set(i, link);
+            used++;
+            size++;
+            return null;
+        }
+
+        synchronized boolean remove(long code, long hash, ShortLink link) {
+            Table current = table;
+            for (int i = (int) hash & current.mask; ; i = (i + 1) & current.mask) {
+                ShortLink stored = current.links.get(i);
+                if (stored == null) {
+                    return false;
+                }
+                if (current.keys[i] == code && stored == link) {
+                    current.links.set(i, REMOVED);
+                    size--;
+                    return true;
+                }
+            }
+        }
+
+        void forEach(Consumer<ShortLink> action) {
+            Table current = table;
+            for (int i = 0; i < current.keys.length; i++) {
+                ShortLink link = current.links.get(i);
+                if (link != null && link != REMOVED) {
+                    action.accept(link);
+                }
+            }
+        }
+
+        private void rebuild(int capacity) {
+            Table old = table;
+            Table rebuilt = new Table(capacity);
+            for (int i = 0; i < old.keys.length; i++) {
+                ShortLink link = old.links.get(i);
+                if (link != null && link != REMOVED) {
+                    int j = (int) Murmur3.fmix(old.keys[i]) & rebuilt.mask;
+                    while (rebuilt.links.get(j) != null) {
+                        j = (j + 1) & rebuilt.mask;
+                    }
+                    rebuilt.keys[j] = old.keys[i];
+                    rebuilt.links.lazySet(j, link);
+                }
+            }
+            used = size;
+            // Публикация таблицы (volatile) делает видимыми и все её ячейки
+            table = rebuilt;
+        }
+    }
+
+    LongLinkMap() {
+        int count = Integer.highestOneBit(Math.max(16, 4 * Runtime.getRuntime().availableProcessors()) - 1) << 1;
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+        segmentShift = 64 - Integer.numberOfTrailingZeros(count);
+    }
+
+    ShortLink get(long code) {
+        long hash = Murmur3.fmix(code);
+        return segment(hash).get(code, hash);
+    }
+
+    // Сохраняет ссылку, если код свободен; возвращает уже сохранённую ссылку или null
+    ShortLink putIfAbsent(long code, ShortLink link) {
+        long hash = Murmur3.fmix(code);
+        return segment(hash).putIfAbsent(code, hash, link);
+    }
+
+    // Удаляет именно этот объект ссылки
+    boolean remove(long code, ShortLink link) {
+        long hash = Murmur3.fmix(code);
+        return segment(hash).remove(code, hash, link);
+    }
+
+    long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    // Слабо согласованный обход, как у ConcurrentHashMap: изменения во время обхода могут быть не видны
+    void forEach(Consumer<ShortLink> action) {
+        for (Segment segment : segments) {
+            segment.forEach(action);
+        }
+    }
+
+    private Segment segment(long hash) {
+        return segments[(int) (hash >>> segmentShift)];
+    }
+}
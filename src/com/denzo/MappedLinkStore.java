@@ -0,0 +1,730 @@
+package com.denzo;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Хранилище ссылок вне кучи, в отображённых в память файлах ({@link FileChannel#map}).
+ * <ul>
+ *     <li>{@code links.idx} - заголовок и хеш-таблица с открытой адресацией по упакованному коду.
+ *     Слоты фиксированного размера хранят лимит, счётчик, время создания и истечения, владельца и адрес URL;</li>
+ *     <li>{@code links.url} ({@code links.N.url} после N-й пересборки) - область длинных URL в UTF-8, куда только
+ *     дописывают;</li>
+ *     <li>{@code codes.bin} - состояние генератора кодов ({@link CodeState}), заменяется атомарным переименованием.</li>
+ * </ul>
+ * Перезапуск - это повторное отображение файлов, без загрузки ссылок в кучу.
+ * <p>
+ * Когда живые и удалённые слоты занимают {@value #MAX_LOAD_PERCENT}% таблицы или удалённые URL занимают больше
+ * места, чем живые, таблица пересобирается в новые файлы: удалённые слоты и URL не переносятся, а если живых ссылок
+ * больше половины ёмкости, таблица вдвое растёт. Поэтому начальная ёмкость - только оценка, а таблица не забивается
+ * удалёнными слотами при постоянном создании и удалении ссылок.
+ * <p>
+ * Чтение и счётчик переходов работают без блокировок (VarHandle поверх буферов, CAS для счётчика),
+ * вставка, удаление, смена лимита и пересборка сериализуются одной блокировкой. Пересборка замораживает счётчик
+ * каждого переносимого слота, поэтому переход по уже перенесённой ссылке ждёт окончания пересборки, а не теряется.
+ */
+public class MappedLinkStore implements LinkStore {
+    private static final int MAGIC = 0x4C4E4B53; // "LNKS"
+    private static final int VERSION = 2;
+    private static final String INDEX = "links.idx";
+    private static final String REBUILD_INDEX = "links.idx.new";
+    private static final String CODES = "codes.bin";
+    private static final String CODES_TMP = "codes.bin.new";
+
+    // Заголовок
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_CAPACITY = 8;
+    private static final int H_SIZE = 16;
+    private static final int H_URL_END = 24;
+    private static final int H_URL_GENERATION = 32; // номер файла области URL
+    private static final int H_TOMBSTONES = 40;
+    private static final int H_URL_LIVE = 48; // байты URL живых ссылок
+
+    // Слот
+    private static final int SLOT_SIZE = 64;
+    private static final int S_KEY = 0; // код + 1; 0 - пустой слот, -1 - удалённый
+    private static final int S_LIMIT = 8;
+    private static final int S_COUNT = 12; // MOVED - слот заморожен пересборкой, счётчик в S_FROZEN_COUNT
+    private static final int S_CREATED = 16;
+    private static final int S_EXPIRE = 24;
+    private static final int S_OWNER_MSB = 32;
+    private static final int S_OWNER_LSB = 40;
+    private static final int S_URL_OFFSET = 48;
+    private static final int S_URL_LENGTH = 56;
+    private static final int S_FROZEN_COUNT = 60;
+
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = -1;
+    private static final int MOVED = Integer.MIN_VALUE;
+    // Линейное пробирование: промах проходит около (1 + 1 / (1 - α)^2) / 2 слотов - 6 при 70%, 50 при 90%
+    private static final int MAX_LOAD_PERCENT = 70;
+    private static final int SEGMENT_SHIFT = 24; // 2^24 слотов (1 ГиБ) на одно отображение
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final long URL_CHUNK_SIZE = 64L << 20;
+    private static final int SWEEP_BATCH = 1 << 20; // слотов за один вызов removeExpired
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Path directory;
+    private volatile Table table;
+    private final Object writeLock = new Object();
+    private final Object codesLock = new Object();
+    private long sweepCursor;
+
+    private MappedLinkStore(Path directory, Table table) {
+        this.directory = directory;
+        this.table = table;
+    }
+
+    // Открывает хранилище в каталоге directory или создаёт новое с начальной ёмкостью capacity ссылок
+    // (округляется до степени двойки). Для существующего хранилища capacity не используется.
+    public static MappedLinkStore open(Path directory, long capacity) throws IOException {
+        Files.createDirectories(directory);
+        // Остатки пересборки, оборванной сбоем: до переименования индекса действуют старые файлы
+        Files.deleteIfExists(directory.resolve(REBUILD_INDEX));
+        Table table = new Table(directory, directory.resolve(INDEX), capacity, 0);
+        try (DirectoryStream<Path> urlFiles = Files.newDirectoryStream(directory, "links*.url")) {
+            for (Path file : urlFiles) {
+                if (!file.equals(table.urlPath)) {
+                    Files.delete(file);
+                }
+            }
+        }
+        return new MappedLinkStore(directory, table);
+    }
+
+    @Override
+    public ShortLink get(long code) {
+        long key = code + 1;
+        while (true) {
+            Table t = table;
+            long slot = findSlot(t, key);
+            if (slot < 0) {
+                return null;
+            }
+            ShortLink link = readSlot(t, slot, key);
+            if (link != null) {
+                return link;
+            }
+            // Слот освободили и заняли другой ссылкой во время чтения - ищем заново
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(ShortLink link) {
+        long key = link.getCode() + 1;
+        byte[] url = link.getLongUrl().getBytes(StandardCharsets.UTF_8);
+        synchronized (writeLock) {
+            Table t = table;
+            long size = t.header.getLong(H_SIZE);
+            long urlDead = t.header.getLong(H_URL_END) - t.header.getLong(H_URL_LIVE);
+            if (size + t.header.getLong(H_TOMBSTONES) >= t.capacity * MAX_LOAD_PERCENT / 100
+                    || urlDead > URL_CHUNK_SIZE && urlDead > t.header.getLong(H_URL_LIVE)) {
+                long newCapacity = t.capacity;
+                while ((size + 1) * 2 > newCapacity) {
+                    newCapacity *= 2;
+                }
+                rebuild(newCapacity);
+                t = table;
+            }
+            long tombstone = -1;
+            long empty = -1;
+            long slot = Murmur3.fmix(link.getCode()) & t.mask;
+            // Проход ограничен ёмкостью: после пересборки в таблице всегда есть пустые слоты
+            for (long probes = 0; probes < t.capacity && empty < 0; probes++) {
+                long current = (long) LONGS.getAcquire(t.segment(slot), offset(slot) + S_KEY);
+                if (current == key) {
+                    return false;
+                }
+                if (current == TOMBSTONE && tombstone < 0) {
+                    tombstone = slot;
+                }
+                if (current == EMPTY) {
+                    empty = slot;
+                }
+                slot = (slot + 1) & t.mask;
+            }
+            long target = tombstone >= 0 ? tombstone : empty;
+            if (target < 0) {
+                throw new IllegalStateException("В таблице ссылок нет свободного слота.");
+            }
+            if (target == tombstone) {
+                t.header.putLong(H_TOMBSTONES, t.header.getLong(H_TOMBSTONES) - 1);
+            }
+
+            long urlOffset = t.appendUrl(url);
+            MappedByteBuffer buffer = t.segment(target);
+            int base = offset(target);
+            buffer.putInt(base + S_LIMIT, link.getLimit());
+            buffer.putInt(base + S_COUNT, link.getCurrentCount());
+            buffer.putLong(base + S_CREATED, link.getCreationEpochSecond());
+            buffer.putLong(base + S_EXPIRE, link.getExpireAtEpochSecond());
+            UUID owner = link.getOwnerUuid();
+            buffer.putLong(base + S_OWNER_MSB, owner.getMostSignificantBits());
+            buffer.putLong(base + S_OWNER_LSB, owner.getLeastSignificantBits());
+            buffer.putLong(base + S_URL_OFFSET, urlOffset);
+            buffer.putInt(base + S_URL_LENGTH, url.length);
+            // Публикация слота: читатели видят ключ только после всех остальных полей
+            LONGS.setRelease(buffer, base + S_KEY, key);
+            t.header.putLong(H_URL_LIVE, t.header.getLong(H_URL_LIVE) + url.length);
+            LONGS.setVolatile(t.header, H_SIZE, size + 1);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean remove(ShortLink link) {
+        long key = link.getCode() + 1;
+        synchronized (writeLock) {
+            Table t = table;
+            long slot = findSlot(t, key);
+            if (slot < 0 || t.segment(slot).getLong(offset(slot) + S_CREATED) != link.getCreationEpochSecond()) {
+                return false;
+            }
+            MappedByteBuffer buffer = t.segment(slot);
+            LONGS.setRelease(buffer, offset(slot) + S_KEY, TOMBSTONE);
+            long tombstones = t.header.getLong(H_TOMBSTONES) + 1 - clearTombstones(t, slot);
+            t.header.putLong(H_TOMBSTONES, tombstones);
+            t.header.putLong(H_URL_LIVE, t.header.getLong(H_URL_LIVE) - buffer.getInt(offset(slot) + S_URL_LENGTH));
+            LONGS.setVolatile(t.header, H_SIZE, t.header.getLong(H_SIZE) - 1);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link) {
+        return tryIncrement(link, 1);
+    }
+
+    @Override
+    public boolean tryIncrement(ShortLink link, int clicks) {
+        long key = link.getCode() + 1;
+        while (true) {
+            Table t = table;
+            long slot = findSlot(t, key);
+            if (slot < 0) {
+                return false;
+            }
+            MappedByteBuffer buffer = t.segment(slot);
+            int base = offset(slot);
+            int current = (int) INTS.getVolatile(buffer, base + S_COUNT);
+            if (current == MOVED) {
+                awaitRebuild(t, buffer, base);
+                continue;
+            }
+            if ((long) current + clicks > (int) INTS.getVolatile(buffer, base + S_LIMIT)) {
+                return false;
+            }
+            if (INTS.compareAndSet(buffer, base + S_COUNT, current, current + clicks)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void releaseClicks(ShortLink link, int clicks) {
+        long key = link.getCode() + 1;
+        while (true) {
+            Table t = table;
+            long slot = findSlot(t, key);
+            // Код могла уже занять другая ссылка
+            if (slot < 0 || t.segment(slot).getLong(offset(slot) + S_CREATED) != link.getCreationEpochSecond()) {
+                return;
+            }
+            MappedByteBuffer buffer = t.segment(slot);
+            int base = offset(slot);
+            int current = (int) INTS.getVolatile(buffer, base + S_COUNT);
+            if (current == MOVED) {
+                awaitRebuild(t, buffer, base);
+            } else if (INTS.compareAndSet(buffer, base + S_COUNT, current, current - clicks)) {
+                return;
+            }
+        }
+    }
+
+    // Под блокировкой, чтобы новый лимит не остался в таблице, которую пересборка уже перенесла
+    @Override
+    public void setLimit(ShortLink link, int limit) {
+        synchronized (writeLock) {
+            Table t = table;
+            long slot = findSlot(t, link.getCode() + 1);
+            if (slot >= 0) {
+                INTS.setVolatile(t.segment(slot), offset(slot) + S_LIMIT, limit);
+            }
+        }
+        link.setLimit(limit);
+    }
+
+    // Полный просмотр таблицы: список ссылок владельца - редкая операция, индекс по владельцам держал бы кучу.
+    // Владелец сравнивается прямо в слоте, а URL читается только у подходящих ссылок.
+    @Override
+    public List<ShortLink> findByOwner(UUID ownerUuid) {
+        List<ShortLink> result = new ArrayList<>();
+        long ownerMsb = ownerUuid.getMostSignificantBits();
+        long ownerLsb = ownerUuid.getLeastSignificantBits();
+        Table t = table;
+        for (long slot = 0; slot < t.capacity; slot++) {
+            long key = ownedKey(t, slot, ownerMsb, ownerLsb);
+            if (key > 0) {
+                ShortLink link = readSlot(t, slot, key);
+                if (link != null && link.isOwnedBy(ownerUuid)) {
+                    result.add(link);
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong(ShortLink::getCreationEpochSecond));
+        return result;
+    }
+
+    // Страница - тоже один просмотр таблицы, но без полного списка: в куче держатся только limit + 1 первых
+    // подходящих слотов (ключ порядка, код, слот), а URL читается только у попавших на страницу.
+    // Курсор - "ключ:код" последней выданной ссылки, как у LinkStore по умолчанию.
+    @Override
+    public LinkPage findByOwner(UUID ownerUuid, LinkOrder order, String cursor, int limit) {
+        long[] after = cursor == null ? null : LinkPage.parseCursor(cursor);
+        int orderField = order == LinkOrder.CREATED ? S_CREATED : S_EXPIRE;
+        Comparator<long[]> byKey = Comparator.<long[]>comparingLong(entry -> entry[0])
+                .thenComparingLong(entry -> entry[1]);
+        int kept = Math.max(1, limit + 1);
+        PriorityQueue<long[]> first = new PriorityQueue<>(Math.min(kept, 1024), byKey.reversed());
+        long ownerMsb = ownerUuid.getMostSignificantBits();
+        long ownerLsb = ownerUuid.getLeastSignificantBits();
+        Table t = table;
+        for (long slot = 0; slot < t.capacity; slot++) {
+            long key = ownedKey(t, slot, ownerMsb, ownerLsb);
+            if (key <= 0) {
+                continue;
+            }
+            long[] entry = {t.segment(slot).getLong(offset(slot) + orderField), key - 1, slot};
+            if (after != null && (entry[0] < after[0] || (entry[0] == after[0] && entry[1] <= after[1]))) {
+                continue;
+            }
+            if (first.size() < kept) {
+                first.add(entry);
+            } else if (byKey.compare(entry, first.peek()) < 0) {
+                first.poll();
+                first.add(entry);
+            }
+        }
+        List<long[]> entries = new ArrayList<>(first);
+        entries.sort(byKey);
+        int size = Math.max(0, Math.min(limit, entries.size()));
+        List<ShortLink> links = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long[] entry = entries.get(i);
+            ShortLink link = readSlot(t, entry[2], entry[1] + 1);
+            // Ссылку могли удалить после просмотра: её место на странице просто пропускается
+            if (link != null && link.isOwnedBy(ownerUuid)) {
+                links.add(link);
+            }
+        }
+        String next = null;
+        if (entries.size() > limit && size > 0) {
+            long[] last = entries.get(size - 1);
+            next = last[0] + ":" + last[1];
+        }
+        return new LinkPage(links, next);
+    }
+
+    // Просматривает очередные SWEEP_BATCH слотов, а не всю таблицу: полный проход занимает несколько вызовов,
+    // между ними истёкшие ссылки отсекает ленивая проверка в UrlShorter.
+    @Override
+    public synchronized List<ShortLink> removeExpired(long nowEpochSecond) {
+        List<ShortLink> removed = new ArrayList<>();
+        Table t = table;
+        long scanned = Math.min(SWEEP_BATCH, t.capacity);
+        for (long i = 0; i < scanned; i++) {
+            long slot = sweepCursor & t.mask;
+            sweepCursor = (slot + 1) & t.mask;
+            long key = (long) LONGS.getAcquire(t.segment(slot), offset(slot) + S_KEY);
+            if (key <= 0 || t.segment(slot).getLong(offset(slot) + S_EXPIRE) >= nowEpochSecond) {
+                continue;
+            }
+            ShortLink link = readSlot(t, slot, key);
+            if (link != null && remove(link)) {
+                removed.add(link);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public long size() {
+        return (long) LONGS.getVolatile(table.header, H_SIZE);
+    }
+
+    @Override
+    public void forEach(Consumer<ShortLink> action) {
+        Table t = table;
+        for (long slot = 0; slot < t.capacity; slot++) {
+            long key = (long) LONGS.getAcquire(t.segment(slot), offset(slot) + S_KEY);
+            if (key > 0) {
+                ShortLink link = readSlot(t, slot, key);
+                if (link != null) {
+                    action.accept(link);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            table.force();
+            table.close();
+        }
+    }
+
+    @Override
+    public CodeState loadCodeState() {
+        synchronized (codesLock) {
+            Path file = directory.resolve(CODES);
+            try {
+                if (!Files.exists(file)) {
+                    return null;
+                }
+                ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+                if (data.remaining() != 2 * Long.BYTES) {
+                    throw new IllegalStateException("Файл " + file + " не является состоянием генератора кодов.");
+                }
+                return new CodeState(data.getLong(), data.getLong());
+            } catch (IOException e) {
+                throw new IllegalStateException("Не удалось прочитать состояние генератора кодов: "
+                        + e.getMessage(), e);
+            }
+        }
+    }
+
+    // Новое состояние пишется во временный файл и сбрасывается на диск до переименования: при сбое остаётся
+    // прежнее или новое состояние целиком
+    @Override
+    public boolean saveCodeState(CodeState state) {
+        synchronized (codesLock) {
+            Path tmp = directory.resolve(CODES_TMP);
+            try {
+                try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer data = ByteBuffer.allocate(2 * Long.BYTES);
+                    data.putLong(state.getSeed()).putLong(state.getReservedUntil()).flip();
+                    while (data.hasRemaining()) {
+                        out.write(data);
+                    }
+                    out.force(true);
+                }
+                Files.move(tmp, directory.resolve(CODES),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new IllegalStateException("Не удалось сохранить состояние генератора кодов: "
+                        + e.getMessage(), e);
+            }
+            return true;
+        }
+    }
+
+    // Текущая ёмкость таблицы в слотах
+    long capacity() {
+        return table.capacity;
+    }
+
+    // Занятая часть области URL вместе с удалёнными URL
+    long urlBytes() {
+        return table.header.getLong(H_URL_END);
+    }
+
+    // Переносит живые ссылки в таблицу на newCapacity слотов и новую область URL, затем атомарно подменяет индекс.
+    // Вызывается под writeLock. До переименования индекса при сбое действуют старые файлы.
+    private void rebuild(long newCapacity) {
+        Table old = table;
+        long generation = old.header.getLong(H_URL_GENERATION) + 1;
+        Path rebuildIndex = directory.resolve(REBUILD_INDEX);
+        Table fresh = null;
+        try {
+            Files.deleteIfExists(rebuildIndex);
+            Files.deleteIfExists(urlPath(directory, generation));
+            fresh = new Table(directory, rebuildIndex, newCapacity, generation);
+            long size = 0;
+            long urlLive = 0;
+            for (long slot = 0; slot < old.capacity; slot++) {
+                MappedByteBuffer from = old.segment(slot);
+                int base = offset(slot);
+                long key = (long) LONGS.getAcquire(from, base + S_KEY);
+                if (key <= 0) {
+                    continue;
+                }
+                int count = freeze(from, base);
+                int urlLength = from.getInt(base + S_URL_LENGTH);
+                long urlOffset = fresh.appendUrl(old.readUrlBytes(from.getLong(base + S_URL_OFFSET), urlLength));
+                long target = Murmur3.fmix(key - 1) & fresh.mask;
+                while (fresh.segment(target).getLong(offset(target) + S_KEY) != EMPTY) {
+                    target = (target + 1) & fresh.mask;
+                }
+                MappedByteBuffer to = fresh.segment(target);
+                int toBase = offset(target);
+                for (int field = S_LIMIT; field < SLOT_SIZE; field += Long.BYTES) {
+                    to.putLong(toBase + field, from.getLong(base + field));
+                }
+                to.putInt(toBase + S_COUNT, count);
+                to.putLong(toBase + S_URL_OFFSET, urlOffset);
+                to.putInt(toBase + S_FROZEN_COUNT, 0);
+                to.putLong(toBase + S_KEY, key);
+                size++;
+                urlLive += urlLength;
+            }
+            fresh.header.putLong(H_SIZE, size);
+            fresh.header.putLong(H_URL_LIVE, urlLive);
+            fresh.force();
+            Files.move(rebuildIndex, directory.resolve(INDEX),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            if (fresh != null) {
+                fresh.close();
+            }
+            throw new IllegalStateException("Не удалось пересобрать хранилище ссылок: " + e.getMessage(), e);
+        }
+        // Читатели без блокировок могут ещё обращаться к старым отображениям: они действуют и после закрытия
+        // каналов и удаления файлов
+        table = fresh;
+        old.close();
+        try {
+            Files.deleteIfExists(old.urlPath);
+        } catch (IOException e) {
+            // Удаляется при следующем открытии
+        }
+    }
+
+    // Замораживает счётчик слота для переноса и возвращает его; с этого момента CAS по счётчику не проходит
+    private static int freeze(MappedByteBuffer buffer, int base) {
+        while (true) {
+            int count = (int) INTS.getVolatile(buffer, base + S_COUNT);
+            if (count == MOVED) {
+                // Заморожен оборванной пересборкой
+                return (int) INTS.getVolatile(buffer, base + S_FROZEN_COUNT);
+            }
+            INTS.setRelease(buffer, base + S_FROZEN_COUNT, count);
+            if (INTS.compareAndSet(buffer, base + S_COUNT, count, MOVED)) {
+                return count;
+            }
+        }
+    }
+
+    // Ждёт окончания пересборки, заморозившей слот. Если таблица не сменилась, пересборка оборвалась (ошибкой
+    // или сбоем процесса) - счётчик возвращается в слот.
+    private void awaitRebuild(Table seen, MappedByteBuffer buffer, int base) {
+        synchronized (writeLock) {
+            if (table == seen) {
+                INTS.compareAndSet(buffer, base + S_COUNT, MOVED, (int) INTS.getVolatile(buffer, base + S_FROZEN_COUNT));
+            }
+        }
+    }
+
+    // Слот с ключом key или -1
+    private static long findSlot(Table t, long key) {
+        long slot = Murmur3.fmix(key - 1) & t.mask;
+        for (long probes = 0; probes < t.capacity; probes++) {
+            long current = (long) LONGS.getAcquire(t.segment(slot), offset(slot) + S_KEY);
+            if (current == key) {
+                return slot;
+            }
+            if (current == EMPTY) {
+                return -1;
+            }
+            slot = (slot + 1) & t.mask;
+        }
+        return -1;
+    }
+
+    // Если за удалённым слотом пустой, цепочки поиска через него не проходят: слот и предшествующие ему удалённые
+    // слоты можно снова пометить пустыми. Живые записи не перемещаются, поэтому счётчики без блокировок не страдают.
+    // Возвращает число освобождённых слотов.
+    private static long clearTombstones(Table t, long slot) {
+        long next = (slot + 1) & t.mask;
+        if ((long) LONGS.getAcquire(t.segment(next), offset(next) + S_KEY) != EMPTY) {
+            return 0;
+        }
+        long cleared = 0;
+        while (cleared < t.capacity && (long) LONGS.getAcquire(t.segment(slot), offset(slot) + S_KEY) == TOMBSTONE) {
+            LONGS.setRelease(t.segment(slot), offset(slot) + S_KEY, EMPTY);
+            slot = (slot - 1) & t.mask;
+            cleared++;
+        }
+        return cleared;
+    }
+
+    // Ключ слота, если в нём живая ссылка этого владельца, иначе 0
+    private static long ownedKey(Table t, long slot, long ownerMsb, long ownerLsb) {
+        MappedByteBuffer buffer = t.segment(slot);
+        int base = offset(slot);
+        long key = (long) LONGS.getAcquire(buffer, base + S_KEY);
+        if (key <= 0 || buffer.getLong(base + S_OWNER_MSB) != ownerMsb) {
+            return 0;
+        }
+        return buffer.getLong(base + S_OWNER_LSB) == ownerLsb ? key : 0;
+    }
+
+    // Снимок слота или null, если во время чтения слот сменил ключ
+    private static ShortLink readSlot(Table t, long slot, long key) {
+        MappedByteBuffer buffer = t.segment(slot);
+        int base = offset(slot);
+        int limit = (int) INTS.getVolatile(buffer, base + S_LIMIT);
+        int count = (int) INTS.getVolatile(buffer, base + S_COUNT);
+        if (count == MOVED) {
+            count = (int) INTS.getVolatile(buffer, base + S_FROZEN_COUNT);
+        }
+        long created = buffer.getLong(base + S_CREATED);
+        long expireAt = buffer.getLong(base + S_EXPIRE);
+        long ownerMsb = buffer.getLong(base + S_OWNER_MSB);
+        long ownerLsb = buffer.getLong(base + S_OWNER_LSB);
+        long urlOffset = buffer.getLong(base + S_URL_OFFSET);
+        int urlLength = buffer.getInt(base + S_URL_LENGTH);
+        // Обычные чтения полей выше не переносятся за повторную проверку ключа (как в seqlock)
+        VarHandle.acquireFence();
+        if ((long) LONGS.getAcquire(buffer, base + S_KEY) != key) {
+            return null;
+        }
+        String url = new String(t.readUrlBytes(urlOffset, urlLength), StandardCharsets.UTF_8);
+        ShortLink link = new ShortLink(url, key - 1, limit, created, expireAt, ownerMsb, ownerLsb);
+        link.setCurrentCount(count);
+        return link;
+    }
+
+    private static Path urlPath(Path directory, long generation) {
+        return directory.resolve(generation == 0 ? "links.url" : "links." + generation + ".url");
+    }
+
+    private static int offset(long slot) {
+        return (int) ((slot & SEGMENT_MASK) * SLOT_SIZE);
+    }
+
+    // Отображение одной пары файлов: индекса и области URL его поколения
+    private static final class Table {
+        final FileChannel indexChannel;
+        final FileChannel urlChannel;
+        final Path urlPath;
+        final MappedByteBuffer header;
+        final MappedByteBuffer[] segments;
+        final long capacity;
+        final long mask;
+        volatile MappedByteBuffer[] urlChunks = new MappedByteBuffer[0];
+
+        // Пустой файл индекса размечается на requestedCapacity слотов с областью URL поколения generation
+        Table(Path directory, Path indexPath, long requestedCapacity, long generation) throws IOException {
+            this.indexChannel = FileChannel.open(indexPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean created = indexChannel.size() == 0;
+            this.header = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            int version = header.getInt(H_VERSION);
+            if (created) {
+                header.putInt(H_MAGIC, MAGIC);
+                header.putInt(H_VERSION, VERSION);
+                header.putLong(H_CAPACITY, Long.highestOneBit(Math.max(requestedCapacity, 16) * 2 - 1));
+                header.putLong(H_URL_GENERATION, generation);
+            } else if (header.getInt(H_MAGIC) != MAGIC || version != VERSION) {
+                indexChannel.close();
+                throw new IOException("Файл не является хранилищем ссылок этой версии.");
+            }
+            this.capacity = header.getLong(H_CAPACITY);
+            this.mask = capacity - 1;
+            this.urlPath = urlPath(directory, header.getLong(H_URL_GENERATION));
+            this.urlChannel = FileChannel.open(urlPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            int segmentCount = (int) ((capacity + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+            this.segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long slots = Math.min(1L << SEGMENT_SHIFT, capacity - ((long) i << SEGMENT_SHIFT));
+                segments[i] = indexChannel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER_SIZE + ((long) i << SEGMENT_SHIFT) * SLOT_SIZE, slots * SLOT_SIZE);
+                // Обычные get/put должны совпадать по порядку байт с VarHandle
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            long urlEnd = header.getLong(H_URL_END);
+            if (urlEnd > 0) {
+                ensureUrlChunk((int) ((urlEnd - 1) / URL_CHUNK_SIZE));
+            }
+        }
+
+        MappedByteBuffer segment(long slot) {
+            return segments[(int) (slot >>> SEGMENT_SHIFT)];
+        }
+
+        byte[] readUrlBytes(long offset, int length) {
+            byte[] bytes = new byte[length];
+            urlChunks[(int) (offset / URL_CHUNK_SIZE)].get((int) (offset % URL_CHUNK_SIZE), bytes);
+            return bytes;
+        }
+
+        // Дописывает URL в область URL; вызывается под writeLock. URL не пересекает границу фрагмента.
+        long appendUrl(byte[] url) {
+            if (url.length > URL_CHUNK_SIZE) {
+                throw new IllegalArgumentException("Слишком длинный URL: " + url.length + " байт.");
+            }
+            long position = header.getLong(H_URL_END);
+            if (position % URL_CHUNK_SIZE + url.length > URL_CHUNK_SIZE) {
+                position = (position / URL_CHUNK_SIZE + 1) * URL_CHUNK_SIZE;
+            }
+            int chunk = (int) (position / URL_CHUNK_SIZE);
+            ensureUrlChunk(chunk);
+            urlChunks[chunk].put((int) (position % URL_CHUNK_SIZE), url);
+            header.putLong(H_URL_END, position + url.length);
+            return position;
+        }
+
+        private void ensureUrlChunk(int chunk) {
+            MappedByteBuffer[] chunks = urlChunks;
+            if (chunk < chunks.length) {
+                return;
+            }
+            MappedByteBuffer[] grown = Arrays.copyOf(chunks, chunk + 1);
+            try {
+                for (int i = chunks.length; i <= chunk; i++) {
+                    grown[i] = urlChannel.map(FileChannel.MapMode.READ_WRITE, i * URL_CHUNK_SIZE, URL_CHUNK_SIZE);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Не удалось отобразить область URL: " + e.getMessage(), e);
+            }
+            urlChunks = grown;
+        }
+
+        void force() {
+            header.force();
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            for (MappedByteBuffer chunk : urlChunks) {
+                chunk.force();
+            }
+        }
+
+        // Отображения остаются действительными и после закрытия каналов
+        void close() {
+            try {
+                indexChannel.close();
+                urlChannel.close();
+            } catch (IOException e) {
+                throw new IllegalStateException("Не удалось закрыть файлы хранилища ссылок: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.denzo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Ограниченная очередь на кольцевом массиве: много производителей, один потребитель, без блокировок.
+// У каждой ячейки свой номер последовательности (схема Вьюкова): производитель занимает место CAS-ом по хвосту
+// и публикует элемент, записав номер ячейки; потребитель читает ячейки по порядку и освобождает их для следующего круга.
+final class MpscRingBuffer<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head; // меняет только потребитель
+
+    MpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Добавляет элемент; false - если очередь заполнена
+    boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false;
+            }
+            // Ячейку занял другой производитель - пробуем следующую позицию
+        }
+    }
+
+    // Забирает элемент или возвращает null, если очередь пуста (только для потока-потребителя)
+    E poll() {
+        long position = head;
+        int index = (int) (position & mask);
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        E element = elements.get(index);
+        elements.lazySet(index, null);
+        sequences.set(index, position + mask + 1);
+        head = position + 1;
+        return element;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    // Приблизительный размер: хвост и голова читаются не атомарно
+    int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    // Сколько элементов было добавлено за всё время
+    long offered() {
+        return tail.get();
+    }
+}
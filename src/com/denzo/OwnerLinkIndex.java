@@ -0,0 +1,133 @@
+package com.denzo;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ссылки одного владельца для InMemoryLinkStore. Все методы синхронизированы на самом индексе.
+ * <p>
+ * Каждая ссылка получает номер из общего для хранилища счётчика, поэтому номера растут в порядке создания и не
+ * повторяются, даже если индекс владельца убрали из карты и создали заново. Ссылки лежат в дереве по номеру и в
+ * хеш-таблице по коду, поэтому добавление и удаление - O(log n) вместо линейного {@code List.remove}. Для порядка по
+ * истечению есть отдельное дерево. Постраничный просмотр продолжает обход с места, указанного курсором (O(log n)),
+ * а не пропускает уже выданные ссылки.
+ */
+final class OwnerLinkIndex {
+    private static final Comparator<Node> BY_EXPIRY =
+            Comparator.<Node>comparingLong(node -> node.expireAt).thenComparingLong(node -> node.sequence);
+
+    private static final class Node {
+        final ShortLink link;
+        final long sequence;
+        // Копия: дерево не должно зависеть от изменения expireAt у самой ссылки
+        final long expireAt;
+
+        Node(ShortLink link, long sequence, long expireAt) {
+            this.link = link;
+            this.sequence = sequence;
+            this.expireAt = expireAt;
+        }
+    }
+
+    // Общий счётчик номеров хранилища
+    private final AtomicLong sequences;
+    private Map<Long, Node> byCode = new HashMap<>();
+    private final TreeMap<Long, Node> bySequence = new TreeMap<>();
+    private final TreeSet<Node> byExpiry = new TreeSet<>(BY_EXPIRY);
+
+    OwnerLinkIndex(AtomicLong sequences) {
+        this.sequences = sequences;
+    }
+
+    synchronized void add(ShortLink link) {
+        add(link, sequences.getAndIncrement());
+    }
+
+    // Добавляет пачку под одной блокировкой и с одним обращением к счётчику номеров. Если пачка больше уже
+    // сохранённого, таблица кодов заранее пересоздаётся нужного размера, чтобы не расширяться несколько раз.
+    synchronized void addAll(List<ShortLink> links) {
+        if (links.size() > byCode.size()) {
+            Map<Long, Node> resized = new HashMap<>((int) ((byCode.size() + links.size()) / 0.75f) + 1);
+            resized.putAll(byCode);
+            byCode = resized;
+        }
+        long sequence = sequences.getAndAdd(links.size());
+        for (ShortLink link : links) {
+            add(link, sequence++);
+        }
+    }
+
+    private void add(ShortLink link, long sequence) {
+        Node node = new Node(link, sequence, link.getExpireAtEpochSecond());
+        byCode.put(link.getCode(), node);
+        bySequence.put(sequence, node);
+        byExpiry.add(node);
+    }
+
+    // Удаляет именно этот объект ссылки
+    synchronized boolean remove(ShortLink link) {
+        Node node = byCode.get(link.getCode());
+        if (node == null || node.link != link) {
+            return false;
+        }
+        byCode.remove(link.getCode());
+        bySequence.remove(node.sequence);
+        byExpiry.remove(node);
+        return true;
+    }
+
+    synchronized int size() {
+        return byCode.size();
+    }
+
+    // Все ссылки в порядке создания
+    synchronized List<ShortLink> toList() {
+        List<ShortLink> result = new ArrayList<>(byCode.size());
+        for (Node node : bySequence.values()) {
+            result.add(node.link);
+        }
+        return result;
+    }
+
+    synchronized LinkPage page(LinkOrder order, String cursor, int limit) {
+        List<ShortLink> links = new ArrayList<>(Math.min(limit, byCode.size()));
+        Node last = null;
+        if (order == LinkOrder.CREATED) {
+            // Курсор - "номер:код" последней выданной ссылки. Номера не повторяются, поэтому обход продолжается
+            // с первого большего номера, даже если саму ссылку курсора уже удалили.
+            Map<Long, Node> from = cursor == null ? bySequence
+                    : bySequence.tailMap(LinkPage.parseCursor(cursor)[0], false);
+            for (Node node : from.values()) {
+                if (links.size() == limit) {
+                    break;
+                }
+                links.add(node.link);
+                last = node;
+            }
+            boolean more = last != null && bySequence.higherKey(last.sequence) != null;
+            return new LinkPage(links, more ? last.sequence + ":" + last.link.getCode() : null);
+        }
+        Node from = cursor == null ? null : parseExpiryCursor(cursor);
+        for (Node node : from == null ? byExpiry : byExpiry.tailSet(from, false)) {
+            if (links.size() == limit) {
+                break;
+            }
+            links.add(node.link);
+            last = node;
+        }
+        boolean more = last != null && byExpiry.higher(last) != null;
+        return new LinkPage(links, more ? last.expireAt + ":" + last.sequence : null);
+    }
+
+    // Курсор порядка истечения - "истечение:номер" последней выданной ссылки
+    private static Node parseExpiryCursor(String cursor) {
+        long[] parts = LinkPage.parseCursor(cursor);
+        return new Node(null, parts[1], parts[0]);
+    }
+}
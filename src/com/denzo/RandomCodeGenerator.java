@@ -0,0 +1,11 @@
+package com.denzo;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Случайные коды: при заполнении пространства кодов растёт число повторных попыток в UrlShorter.
+public class RandomCodeGenerator implements CodeGenerator {
+    @Override
+    public long nextCode() {
+        return ShortCodes.fromIndex(ThreadLocalRandom.current().nextLong(ShortCodes.CODE_SPACE));
+    }
+}
@@ -0,0 +1,436 @@
+package com.denzo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP-сервер переходов на встроенном {@code com.sun.net.httpserver} без внешних зависимостей.
+ * <p>
+ * {@code GET /{код}} отвечает 302 с заголовком {@code Location}, 404 - если ссылки нет, 410 - если она истекла
+ * или исчерпала лимит. JSON API:
+ * <ul>
+ *     <li>{@code GET /api/links?owner=UUID&order=created|expires&limit=N&cursor=...} - страница ссылок владельца
+ *     {@code {"links": [...], "nextCursor"}};</li>
+ *     <li>{@code POST /api/links} {@code {"longUrl", "owner"?, "limit", "lifetimeHours"}} - 201 и {@code {"shortUrl", "code", "owner"}};</li>
+ *     <li>{@code PUT /api/links/{код}} {@code {"owner", "limit"}} - 200, 400, 403 или 404;</li>
+ *     <li>{@code DELETE /api/links/{код}?owner=UUID} - 200 и {@code {"code", "deleted"}}, 403 или 404;</li>
+ *     <li>{@code GET /api/links/{код}/clicks?owner=UUID} - статистика переходов {@link ClickAnalytics}
+ *     {@code {"code", "lastHour", "lastDay", "perMinute", "perHour", "referrers"}}, 403 или 404.</li>
+ * </ul>
+ * {@code GET /metrics} - метрики {@link UrlShorterMetrics} в текстовом формате Prometheus.
+ * <p>
+ * С {@link AdmissionController} переходы и создание проходят через него: отклонённый при перегрузке переход
+ * получает 503, отклонённое создание - 429, оба с заголовком {@code Retry-After}.
+ * <p>
+ * Соединения keep-alive: тело запроса всегда дочитывается, у каждого ответа есть тело известной длины
+ * ({@code HttpServer} в JDK 17 закрывает соединение после ответа без тела, поэтому 204 не используется).
+ * Обработчики выполняются на виртуальных потоках, если они есть в JVM (Java 21+), иначе - в пуле потоков.
+ */
+public class RedirectServer {
+    private static final String API_PATH = "/api/links";
+    private static final String METRICS_PATH = "/metrics";
+    private static final String CLICKS_SUFFIX = "/clicks";
+    private static final int TOP_REFERRERS = 10;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final byte[] REDIRECT_BODY = bytes("Redirect\n");
+    private static final byte[] NOT_FOUND_BODY = bytes("Short URL не существует.\n");
+    private static final byte[] GONE_BODY = bytes("Ссылка истекла или достигла лимита переходов.\n");
+    private static final byte[] METHOD_NOT_ALLOWED_BODY = bytes("Метод не поддерживается.\n");
+    private static final byte[] OVERLOADED_BODY = bytes("Сервис перегружен, повторите позже.\n");
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private final UrlShorter urlShorter;
+    // null - запросы выполняются без допуска
+    private final AdmissionController admission;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public RedirectServer(UrlShorter urlShorter, InetSocketAddress address) throws IOException {
+        this(urlShorter, null, address);
+    }
+
+    // Переходы и создание ссылок идут через admission (null - без допуска)
+    public RedirectServer(UrlShorter urlShorter, AdmissionController admission, InetSocketAddress address)
+            throws IOException {
+        this.urlShorter = urlShorter;
+        this.admission = admission;
+        // Заголовки и тело ответа уходят отдельными записями; без TCP_NODELAY алгоритм Нейгла вместе
+        // с отложенным ACK клиента задерживает каждый ответ keep-alive на ~40 мс. Свойство читается
+        // один раз при первом создании HttpServer в JVM.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(address, 1024);
+        this.executor = createExecutor("redirect-http-");
+        server.setExecutor(executor);
+        server.createContext("/", this::handleRedirect);
+        server.createContext(API_PATH, this::handleApi);
+        server.createContext(METRICS_PATH, this::handleMetrics);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Останавливает приём соединений, ожидая завершения текущих запросов не дольше delaySeconds
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Запуск: java -cp target/classes com.denzo.RedirectServer [порт]
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        // Уведомления печатаются в отдельном потоке пачками и без повторов, не задерживая переходы
+        AsyncNotifier notifier = new AsyncNotifier(new ConsoleNotifier());
+        Runtime.getRuntime().addShutdownHook(new Thread(notifier::close));
+        UrlShorter urlShorter = new UrlShorter(LinkStores.fromSystemProperties(), notifier, new FeistelCodeGenerator());
+        urlShorter.setDeduplicateUrls(Boolean.getBoolean("shortlinks.dedup"));
+        urlShorter.setCompactUrls(Boolean.getBoolean("shortlinks.compactUrls"));
+        urlShorter.setClickAnalytics(Boolean.getBoolean("shortlinks.analytics"));
+        urlShorter.startExpiryScheduler();
+        urlShorter.getMetrics().register("redirect-server");
+        AdmissionController admission = null;
+        if (Boolean.getBoolean("shortlinks.admission")) {
+            admission = new AdmissionController(urlShorter,
+                    Double.parseDouble(System.getProperty("shortlinks.admission.createsPerSecond", "10")),
+                    Integer.getInteger("shortlinks.admission.createBurst", 20));
+        }
+        RedirectServer server = new RedirectServer(urlShorter, admission, new InetSocketAddress(port));
+        server.start();
+        System.out.println("Сервер переходов запущен на порту " + server.getPort() + ".");
+    }
+
+    private void handleRedirect(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                send(exchange, 405, METHOD_NOT_ALLOWED_BODY);
+                return;
+            }
+            String code = exchange.getRequestURI().getRawPath().substring(1);
+            String referrer = exchange.getRequestHeaders().getFirst("Referer");
+            Resolution resolution = admission == null
+                    ? urlShorter.resolve(code, referrer) : admission.resolve(code, referrer);
+            switch (resolution.getStatus()) {
+                case FOUND:
+                    exchange.getResponseHeaders().set("Location", resolution.getLongUrl());
+                    send(exchange, 302, REDIRECT_BODY);
+                    break;
+                case NOT_FOUND:
+                    send(exchange, 404, NOT_FOUND_BODY);
+                    break;
+                case REJECTED:
+                    exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+                    send(exchange, 503, OVERLOADED_BODY);
+                    break;
+                default:
+                    send(exchange, 410, GONE_BODY);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, METHOD_NOT_ALLOWED_BODY);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            send(exchange, 200, bytes(urlShorter.getMetrics().toPrometheusText()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleApi(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getRawPath();
+            String method = exchange.getRequestMethod();
+            try {
+                if (path.equals(API_PATH) || path.equals(API_PATH + "/")) {
+                    if (method.equals("POST")) {
+                        create(exchange);
+                    } else if (method.equals("GET")) {
+                        list(exchange);
+                    } else {
+                        send(exchange, 405, METHOD_NOT_ALLOWED_BODY);
+                    }
+                    return;
+                }
+                if (!path.startsWith(API_PATH + "/")) {
+                    sendError(exchange, 404, "Неизвестный путь.");
+                    return;
+                }
+                String code = path.substring(API_PATH.length() + 1);
+                if (code.endsWith(CLICKS_SUFFIX)) {
+                    if (method.equals("GET")) {
+                        clicks(exchange, code.substring(0, code.length() - CLICKS_SUFFIX.length()));
+                    } else {
+                        send(exchange, 405, METHOD_NOT_ALLOWED_BODY);
+                    }
+                    return;
+                }
+                switch (method) {
+                    case "PUT":
+                        editLimit(exchange, code);
+                        break;
+                    case "DELETE":
+                        delete(exchange, code);
+                        break;
+                    default:
+                        send(exchange, 405, METHOD_NOT_ALLOWED_BODY);
+                }
+            } catch (IllegalArgumentException e) {
+                // Некорректный JSON, число или UUID
+                sendError(exchange, 400, e.getMessage());
+            } catch (UnsupportedOperationException e) {
+                // Ведомый узел репликации: ссылки меняются только на ведущем
+                sendError(exchange, 409, e.getMessage());
+            } catch (RejectedExecutionException e) {
+                // AdmissionController: у владельца кончились токены или сервис перегружен
+                exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+                sendError(exchange, 429, e.getMessage());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void create(HttpExchange exchange) throws IOException {
+        Map<String, String> request = Json.parseObject(readBody(exchange));
+        String longUrl = request.get("longUrl");
+        if (longUrl == null || !(longUrl.startsWith("http://") || longUrl.startsWith("https://"))) {
+            sendError(exchange, 400, "Некорректный URL.");
+            return;
+        }
+        String ownerValue = request.get("owner");
+        UUID owner = ownerValue == null ? UUID.randomUUID() : UUID.fromString(ownerValue);
+        int limit = positiveInt(request, "limit");
+        int lifetimeHours = positiveInt(request, "lifetimeHours");
+        String shortUrl = admission == null ? urlShorter.buildShortUrl(longUrl, owner, limit, lifetimeHours)
+                : admission.buildShortUrl(longUrl, owner, limit, lifetimeHours);
+        sendJson(exchange, 201, "{\"shortUrl\":" + Json.quote(shortUrl)
+                + ",\"code\":" + Json.quote(shortUrl.substring(ShortCodes.PREFIX.length()))
+                + ",\"owner\":" + Json.quote(owner.toString()) + "}");
+    }
+
+    private void list(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String owner = queryParameter(query, "owner");
+        if (owner == null) {
+            sendError(exchange, 400, "Не указан владелец (owner).");
+            return;
+        }
+        String orderValue = queryParameter(query, "order");
+        LinkOrder order = orderValue == null ? LinkOrder.CREATED : LinkOrder.valueOf(orderValue.toUpperCase(Locale.ROOT));
+        String limitValue = queryParameter(query, "limit");
+        int limit = limitValue == null ? DEFAULT_PAGE_SIZE : Math.min(MAX_PAGE_SIZE, Integer.parseInt(limitValue));
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным числом.");
+        }
+        LinkPage page = urlShorter.getShortLinksByUserUuid(UUID.fromString(owner), order,
+                queryParameter(query, "cursor"), limit);
+        StringBuilder json = new StringBuilder(128 + page.getLinks().size() * 160).append("{\"links\":[");
+        for (int i = 0; i < page.getLinks().size(); i++) {
+            ShortLink link = page.getLinks().get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"code\":").append(Json.quote(link.getShortUrl()))
+                    .append(",\"longUrl\":").append(Json.quote(link.getLongUrl()))
+                    .append(",\"limit\":").append(link.getLimit())
+                    .append(",\"count\":").append(link.getCurrentCount())
+                    .append(",\"createdAt\":").append(link.getCreationEpochSecond())
+                    .append(",\"expireAt\":").append(link.getExpireAtEpochSecond())
+                    .append('}');
+        }
+        json.append("],\"nextCursor\":").append(Json.quote(page.getNextCursor())).append('}');
+        sendJson(exchange, 200, json.toString());
+    }
+
+    private void editLimit(HttpExchange exchange, String code) throws IOException {
+        Map<String, String> request = Json.parseObject(readBody(exchange));
+        UUID owner = UUID.fromString(required(request, "owner"));
+        int limit = positiveInt(request, "limit");
+        LinkUpdateStatus status = urlShorter.changeLimit(code, limit, owner);
+        if (status == LinkUpdateStatus.UPDATED) {
+            sendJson(exchange, 200, "{\"code\":" + Json.quote(code) + ",\"limit\":" + limit + "}");
+        } else {
+            sendStatus(exchange, status);
+        }
+    }
+
+    private void delete(HttpExchange exchange, String code) throws IOException {
+        readBody(exchange);
+        String owner = queryParameter(exchange.getRequestURI().getRawQuery(), "owner");
+        if (owner == null) {
+            sendError(exchange, 400, "Не указан владелец (owner).");
+            return;
+        }
+        LinkUpdateStatus status = urlShorter.removeLink(code, UUID.fromString(owner));
+        if (status == LinkUpdateStatus.UPDATED) {
+            sendJson(exchange, 200, "{\"code\":" + Json.quote(code) + ",\"deleted\":true}");
+        } else {
+            sendStatus(exchange, status);
+        }
+    }
+
+    private void clicks(HttpExchange exchange, String code) throws IOException {
+        String owner = queryParameter(exchange.getRequestURI().getRawQuery(), "owner");
+        if (owner == null) {
+            sendError(exchange, 400, "Не указан владелец (owner).");
+            return;
+        }
+        ClickAnalytics analytics = urlShorter.getClickAnalytics();
+        if (analytics == null) {
+            sendError(exchange, 404, "Статистика переходов выключена.");
+            return;
+        }
+        ShortLink link = urlShorter.getShortLinkByShortUrl(code);
+        if (link == null) {
+            sendStatus(exchange, LinkUpdateStatus.NOT_FOUND);
+            return;
+        }
+        if (!link.isOwnedBy(UUID.fromString(owner))) {
+            sendStatus(exchange, LinkUpdateStatus.FORBIDDEN);
+            return;
+        }
+        StringBuilder json = new StringBuilder(1024).append("{\"code\":").append(Json.quote(code))
+                .append(",\"lastHour\":").append(analytics.getLinkClicks(code, 60))
+                .append(",\"lastDay\":").append(analytics.getLinkClicksLastDay(code));
+        appendArray(json.append(",\"perMinute\":"), analytics.getLinkClicksPerMinute(code));
+        appendArray(json.append(",\"perHour\":"), analytics.getLinkClicksPerHour(code));
+        json.append(",\"referrers\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : analytics.getTopReferrers(code, TOP_REFERRERS).entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            json.append(Json.quote(entry.getKey())).append(':').append(entry.getValue());
+            first = false;
+        }
+        sendJson(exchange, 200, json.append("}}").toString());
+    }
+
+    private static void appendArray(StringBuilder json, long[] values) {
+        json.append('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(values[i]);
+        }
+        json.append(']');
+    }
+
+    private static void sendStatus(HttpExchange exchange, LinkUpdateStatus status) throws IOException {
+        switch (status) {
+            case NOT_FOUND:
+                sendError(exchange, 404, "Короткая ссылка не найдена.");
+                break;
+            case FORBIDDEN:
+                sendError(exchange, 403, "Операция доступна только владельцу ссылки.");
+                break;
+            default:
+                sendError(exchange, 400, "Лимит должен быть положительным числом.");
+        }
+    }
+
+    private static String required(Map<String, String> request, String name) {
+        String value = request.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Не указано поле " + name + ".");
+        }
+        return value;
+    }
+
+    private static int positiveInt(Map<String, String> request, String name) {
+        int value = Integer.parseInt(required(request, name));
+        if (value <= 0) {
+            throw new IllegalArgumentException("Поле " + name + " должно быть положительным числом.");
+        }
+        return value;
+    }
+
+    private static String queryParameter(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        sendJson(exchange, status, "{\"error\":" + Json.quote(message) + "}");
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        send(exchange, status, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Длина ответа передаётся заранее, чтобы соединение оставалось открытым (у HEAD тела нет)
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        boolean head = exchange.getRequestMethod().equals("HEAD");
+        if (!head && exchange.getResponseHeaders().getFirst("Content-Type") == null) {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        }
+        exchange.sendResponseHeaders(status, head ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (!head) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Виртуальные потоки берутся через отражение, чтобы сборка оставалась на Java 17 (также для AsyncUrlShorterAdapter)
+    static ExecutorService createExecutor(String threadPrefix) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4, runnable -> {
+                Thread thread = new Thread(runnable, threadPrefix + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.denzo;
+
+// Результат UrlShorter.resolve(): статус и длинный URL (только для FOUND).
+// Для неуспешных статусов используются общие экземпляры, чтобы не создавать объект на каждый промах.
+public final class Resolution {
+    static final Resolution NOT_FOUND = new Resolution(ResolveStatus.NOT_FOUND, null);
+    static final Resolution EXPIRED = new Resolution(ResolveStatus.EXPIRED, null);
+    static final Resolution LIMIT_EXCEEDED = new Resolution(ResolveStatus.LIMIT_EXCEEDED, null);
+    static final Resolution REJECTED = new Resolution(ResolveStatus.REJECTED, null);
+
+    private final ResolveStatus status;
+    private final String longUrl;
+
+    private Resolution(ResolveStatus status, String longUrl) {
+        this.status = status;
+        this.longUrl = longUrl;
+    }
+
+    static Resolution found(String longUrl) {
+        return new Resolution(ResolveStatus.FOUND, longUrl);
+    }
+
+    public ResolveStatus getStatus() {
+        return status;
+    }
+
+    public String getLongUrl() {
+        return longUrl;
+    }
+}
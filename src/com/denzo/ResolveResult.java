@@ -0,0 +1,29 @@
+package com.denzo;
+
+// Изменяемый результат UrlShorter.resolveInto(): вызывающий держит один объект на поток (или на соединение)
+// и передаёт его в каждый переход, поэтому успешный переход не создаёт объектов.
+public final class ResolveResult {
+    private ResolveStatus status = ResolveStatus.NOT_FOUND;
+    // String или байты UrlCodec: сжатый URL распаковывается только в getLongUrl()
+    private Object longUrl;
+
+    void set(ResolveStatus status, Object longUrl) {
+        this.status = status;
+        this.longUrl = longUrl;
+    }
+
+    public ResolveStatus getStatus() {
+        return status;
+    }
+
+    // Длинный URL для FOUND, иначе null
+    public String getLongUrl() {
+        Object url = longUrl;
+        if (url instanceof byte[]) {
+            String decoded = UrlCodec.decode((byte[]) url);
+            longUrl = decoded;
+            return decoded;
+        }
+        return (String) url;
+    }
+}
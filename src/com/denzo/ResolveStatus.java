@@ -0,0 +1,11 @@
+package com.denzo;
+
+// Результат перехода по короткой ссылке
+public enum ResolveStatus {
+    FOUND,
+    NOT_FOUND,
+    EXPIRED,
+    LIMIT_EXCEEDED,
+    // Отклонён AdmissionController при перегрузке, переход не засчитан
+    REJECTED
+}
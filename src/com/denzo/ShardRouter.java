@@ -0,0 +1,556 @@
+package com.denzo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Распределение ссылок по нескольким узлам {@link UrlShorter}, у каждого своё хранилище.
+ * <p>
+ * Пространство кодов разбито на {@value #PARTITIONS} разделов, номер раздела - последние два символа кода
+ * ({@code индекс * 62 + индекс}). Разделы раскладываются по узлам согласованным хешированием: у каждого узла
+ * {@code virtualNodes} точек на кольце, раздел принадлежит первой точке по часовой стрелке от хеша своего номера.
+ * Код сам говорит, в каком разделе лежит ссылка, поэтому переход - это разбор кода и чтение из массива
+ * «раздел -> узел», без поиска по каталогу. Новая ссылка создаётся на случайном узле (пропорционально числу его
+ * разделов), а генератор узла выдаёт только коды его разделов.
+ * <p>
+ * При добавлении узла к нему переходят только те разделы, чьи точки на кольце он перехватил (около {@code 1/N}),
+ * и переносятся без остановки переходов: сначала публикуется новая раскладка, где у перенесённого раздела запомнен
+ * прежний узел, и поиск идёт сначала на нём, а при промахе - на новом узле; затем ссылки копируются (вместе
+ * со счётчиком переходов) и удаляются с прежнего узла; в конце прежние узлы забываются. Создание ссылок ждёт
+ * только момент публикации раскладки. Смена лимита и удаление ссылки не пересекаются с её переносом (блокировка
+ * полосы по коду), поэтому не теряются и не возвращают удалённую ссылку копией. Если код уже занят на новом узле
+ * той же ссылкой (перенос прервался после копирования), копия считается сделанной; если другой ссылкой, ссылка
+ * остаётся на прежнем узле, поиск по её разделу по-прежнему начинается с него, а {@link #addNode} сообщает о
+ * конфликте исключением.
+ * <p>
+ * Общий генератор кодов сохраняет своё состояние в хранилище первого добавленного узла: после перезапуска с теми же
+ * хранилищами коды продолжают ту же перестановку и не повторяют выданные.
+ * <p>
+ * Ссылки владельца лежат на разных узлах, поэтому список и страницы ссылок собираются со всех узлов
+ * параллельно и сливаются по времени создания (истечения).
+ */
+public class ShardRouter {
+    // Раздел - последние два символа кода
+    public static final int PARTITIONS = ShortCodes.BASE * ShortCodes.BASE;
+    private static final int DEFAULT_VIRTUAL_NODES = 128;
+    private static final int MUTATION_STRIPES = 64;
+    private static final String EXHAUSTED = "-";
+
+    private final Notifier notifier;
+    private final int virtualNodes;
+    // Общий генератор: коды разных узлов не повторяются, узел берёт из него коды своих разделов
+    private final CodeGenerator codes = new FeistelCodeGenerator();
+    // Подключён ли общий генератор к хранилищу (первого узла)
+    private boolean codesAttached;
+    private volatile Routing routing = new Routing(List.of(), new Shard[PARTITIONS], null);
+    // Создание ссылок берёт блокировку на чтение, смена раскладки - на запись: код, выданный по старой
+    // раскладке, не попадёт на узел, который раздел уже отдал
+    private final ReadWriteLock topologyLock = new ReentrantReadWriteLock();
+    // Полосы по коду: перенос ссылки (копирование и удаление с прежнего узла) и её изменение владельцем
+    // выполняются по очереди
+    private final Object[] mutationLocks = new Object[MUTATION_STRIPES];
+
+    private static final class Shard {
+        final String name;
+        final UrlShorter shorter;
+
+        Shard(String name, UrlShorter shorter) {
+            this.name = name;
+            this.shorter = shorter;
+        }
+    }
+
+    // Неизменяемая раскладка. previous[p] - узел, с которого раздел p сейчас переносится (null - не переносится)
+    private static final class Routing {
+        final List<Shard> shards;
+        final Shard[] owners;
+        final Shard[] previous;
+
+        Routing(List<Shard> shards, Shard[] owners, Shard[] previous) {
+            this.shards = shards;
+            this.owners = owners;
+            this.previous = previous;
+        }
+    }
+
+    // Генератор узла: коды из общего генератора, которые по текущей раскладке попадают в разделы этого узла
+    private final class ShardCodeGenerator implements CodeGenerator {
+        private Shard shard;
+
+        @Override
+        public long nextCode() {
+            while (true) {
+                long code = codes.nextCode();
+                if (routing.owners[partition(code)] == shard) {
+                    return code;
+                }
+            }
+        }
+
+        // Вызывается из addNode (под блокировкой роутера): состояние общего генератора хранит первый узел
+        @Override
+        public void attach(LinkStore store) {
+            if (!codesAttached) {
+                codes.attach(store);
+                codesAttached = true;
+            }
+        }
+    }
+
+    public ShardRouter(Notifier notifier, int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Число виртуальных узлов должно быть положительным.");
+        }
+        this.notifier = notifier;
+        this.virtualNodes = virtualNodes;
+        for (int i = 0; i < MUTATION_STRIPES; i++) {
+            mutationLocks[i] = new Object();
+        }
+    }
+
+    public ShardRouter(Notifier notifier) {
+        this(notifier, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Добавляет узел с пустым хранилищем и переносит на него его разделы. Переходы по перенесённым ссылкам
+     * продолжаются во время переноса; переходы, начатые на прежнем узле в момент удаления с него ссылки, могут
+     * не попасть в перенесённый счётчик.
+     */
+    public synchronized void addNode(String name, LinkStore store) {
+        if (name.isEmpty() || name.contains(";") || name.contains("=")) {
+            throw new IllegalArgumentException("Имя узла не может быть пустым и содержать ';' или '=': " + name);
+        }
+        Routing current = routing;
+        if (current.previous != null) {
+            throw new IllegalStateException("Прошлый перенос разделов не завершён: коды на новом узле заняты другими"
+                    + " ссылками.");
+        }
+        for (Shard shard : current.shards) {
+            if (shard.name.equals(name)) {
+                throw new IllegalArgumentException("Узел " + name + " уже добавлен.");
+            }
+        }
+        ShardCodeGenerator generator = new ShardCodeGenerator();
+        Shard added = new Shard(name, new UrlShorter(store, notifier, generator));
+        generator.shard = added;
+        List<Shard> shards = new ArrayList<>(current.shards);
+        shards.add(added);
+        Shard[] owners = assign(shards);
+        Shard[] previous = new Shard[PARTITIONS];
+        Set<Shard> donors = new HashSet<>();
+        for (int p = 0; p < PARTITIONS; p++) {
+            if (current.owners[p] != null && owners[p] != current.owners[p]) {
+                previous[p] = current.owners[p];
+                donors.add(current.owners[p]);
+            }
+        }
+        publish(new Routing(List.copyOf(shards), owners, donors.isEmpty() ? null : previous));
+        List<Long> conflicts = new ArrayList<>();
+        for (Shard donor : donors) {
+            List<ShortLink> moving = new ArrayList<>();
+            donor.shorter.getStore().forEach(link -> {
+                if (previous[partition(link.getCode())] == donor) {
+                    moving.add(link);
+                }
+            });
+            for (ShortLink link : moving) {
+                if (!move(link, donor, owners[partition(link.getCode())])) {
+                    conflicts.add(link.getCode());
+                }
+            }
+        }
+        if (conflicts.isEmpty()) {
+            routing = new Routing(routing.shards, owners, null);
+            return;
+        }
+        // Разделы с конфликтом по-прежнему ищутся сначала на прежнем узле, иначе его ссылки стали бы недоступны
+        Shard[] stuck = new Shard[PARTITIONS];
+        for (long code : conflicts) {
+            stuck[partition(code)] = previous[partition(code)];
+        }
+        routing = new Routing(routing.shards, owners, stuck);
+        throw new IllegalStateException("Коды заняты на узле " + name + " другими ссылками, эти ссылки остались"
+                + " на прежних узлах: " + conflicts.stream().map(ShortCodes::unpack).collect(Collectors.joining(", ")));
+    }
+
+    // Копирует ссылку на новый узел, затем удаляет с прежнего. Переходы, сделанные на прежнем узле между
+    // копированием и удалением, добавляются к счётчику копии. Под блокировкой полосы кода: удаление или смена
+    // лимита между копированием и удалением с прежнего узла не попали бы в копию.
+    // Возвращает false, если код на новом узле занят другой ссылкой: тогда ссылка остаётся на прежнем узле.
+    private boolean move(ShortLink link, Shard from, Shard to) {
+        synchronized (mutationLock(link.getCode())) {
+            return copyAndEvict(link, from, to);
+        }
+    }
+
+    private static boolean copyAndEvict(ShortLink link, Shard from, Shard to) {
+        LinkStore source = from.shorter.getStore();
+        LinkStore target = to.shorter.getStore();
+        ShortLink current = source.get(link.getCode());
+        if (current == null) {
+            return true;
+        }
+        ShortLink copy = ShortLink.withStoredUrl(current.getStoredUrl(), current.getCode(), current.getLimit(),
+                current.getCreationEpochSecond(), current.getExpireAtEpochSecond(),
+                current.getOwnerMostSigBits(), current.getOwnerLeastSigBits());
+        int copied = current.getCurrentCount();
+        copy.setCurrentCount(copied);
+        if (!target.putIfAbsent(copy)) {
+            ShortLink existing = target.get(link.getCode());
+            if (existing == null || existing.getCreationEpochSecond() != current.getCreationEpochSecond()
+                    || existing.getOwnerMostSigBits() != current.getOwnerMostSigBits()
+                    || existing.getOwnerLeastSigBits() != current.getOwnerLeastSigBits()) {
+                return false;
+            }
+            // Та же ссылка, скопированная прерванным переносом: считаем копией её, счётчик - больший из двух
+            copy = existing;
+            copied = existing.getCurrentCount();
+            if (current.getCurrentCount() > copied) {
+                target.tryIncrement(copy, current.getCurrentCount() - copied);
+                copied = current.getCurrentCount();
+            }
+        }
+        // С этого момента переходы находят копию на новом узле; на прежнем могут закончиться только начатые
+        ShortLink latest = source.get(link.getCode());
+        if (latest != null && from.shorter.evict(latest)) {
+            int missed = latest.getCurrentCount() - copied;
+            if (missed > 0) {
+                target.tryIncrement(copy, missed);
+            }
+        }
+        return true;
+    }
+
+    private void publish(Routing next) {
+        topologyLock.writeLock().lock();
+        try {
+            routing = next;
+        } finally {
+            topologyLock.writeLock().unlock();
+        }
+    }
+
+    // Раскладка разделов по кольцу с виртуальными узлами
+    private Shard[] assign(List<Shard> shards) {
+        TreeMap<Long, Shard> ring = new TreeMap<>();
+        for (Shard shard : shards) {
+            long base = (long) shard.name.hashCode() << 32;
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(Murmur3.fmix(base | i), shard);
+            }
+        }
+        Shard[] owners = new Shard[PARTITIONS];
+        for (int p = 0; p < PARTITIONS; p++) {
+            Map.Entry<Long, Shard> point = ring.ceilingEntry(Murmur3.fmix(p + 0x9E3779B97F4A7C15L));
+            owners[p] = (point != null ? point : ring.firstEntry()).getValue();
+        }
+        return owners;
+    }
+
+    // Создаёт ссылку на случайном узле
+    public String buildShortUrl(String longUrl, UUID userUuid, int limit, int lifetimeHours) {
+        topologyLock.readLock().lock();
+        try {
+            return randomShard().shorter.buildShortUrl(longUrl, userUuid, limit, lifetimeHours);
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    // Создаёт ссылки пачкой: запросы делятся между узлами, каждый узел создаёт свою часть пачкой
+    public List<String> buildShortUrls(List<LinkRequest> requests) {
+        topologyLock.readLock().lock();
+        try {
+            Map<Shard, List<Integer>> positions = new LinkedHashMap<>();
+            for (int i = 0; i < requests.size(); i++) {
+                positions.computeIfAbsent(randomShard(), k -> new ArrayList<>()).add(i);
+            }
+            String[] shortUrls = new String[requests.size()];
+            for (Map.Entry<Shard, List<Integer>> entry : positions.entrySet()) {
+                List<Integer> indexes = entry.getValue();
+                List<LinkRequest> part = new ArrayList<>(indexes.size());
+                for (int index : indexes) {
+                    part.add(requests.get(index));
+                }
+                List<String> created = entry.getKey().shorter.buildShortUrls(part);
+                for (int i = 0; i < indexes.size(); i++) {
+                    shortUrls[indexes.get(i)] = created.get(i);
+                }
+            }
+            return Arrays.asList(shortUrls);
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    private Shard randomShard() {
+        Shard shard = routing.owners[ThreadLocalRandom.current().nextInt(PARTITIONS)];
+        if (shard == null) {
+            throw new IllegalStateException("Не добавлено ни одного узла.");
+        }
+        return shard;
+    }
+
+    public Resolution resolve(String shortUrl) {
+        return resolve(shortUrl, null);
+    }
+
+    public Resolution resolve(String shortUrl, String referrer) {
+        return route(shortUrl, shorter -> shorter.resolve(shortUrl, referrer),
+                resolution -> resolution.getStatus() == ResolveStatus.NOT_FOUND, Resolution.NOT_FOUND);
+    }
+
+    // Переход без выделения памяти (см. UrlShorter.resolveInto)
+    public ResolveStatus resolveInto(CharSequence shortUrl, ResolveResult result) {
+        long code = ShortCodes.packShortUrl(shortUrl);
+        if (code == ShortCodes.INVALID) {
+            result.set(ResolveStatus.NOT_FOUND, null);
+            return ResolveStatus.NOT_FOUND;
+        }
+        int partition = partition(code);
+        while (true) {
+            Routing current = routing;
+            Shard previous = current.previous == null ? null : current.previous[partition];
+            ResolveStatus status = ResolveStatus.NOT_FOUND;
+            if (previous != null) {
+                status = previous.shorter.resolveInto(code, null, result);
+            }
+            Shard owner = current.owners[partition];
+            if (status == ResolveStatus.NOT_FOUND && owner != null) {
+                status = owner.shorter.resolveInto(code, null, result);
+            }
+            if (status != ResolveStatus.NOT_FOUND || routing == current) {
+                return status;
+            }
+        }
+    }
+
+    public LinkUpdateStatus changeLimit(String shortUrl, int newLimit, UUID requesterUuid) {
+        return mutate(shortUrl, shorter -> shorter.changeLimit(shortUrl, newLimit, requesterUuid));
+    }
+
+    public LinkUpdateStatus removeLink(String shortUrl, UUID requesterUuid) {
+        return mutate(shortUrl, shorter -> shorter.removeLink(shortUrl, requesterUuid));
+    }
+
+    // Изменение ссылки владельцем: под блокировкой полосы кода, чтобы не пересечься с переносом ссылки
+    private LinkUpdateStatus mutate(String shortUrl, Function<UrlShorter, LinkUpdateStatus> action) {
+        long code = ShortCodes.packShortUrl(shortUrl);
+        if (code == ShortCodes.INVALID) {
+            return LinkUpdateStatus.NOT_FOUND;
+        }
+        synchronized (mutationLock(code)) {
+            return route(shortUrl, action, status -> status == LinkUpdateStatus.NOT_FOUND, LinkUpdateStatus.NOT_FOUND);
+        }
+    }
+
+    private Object mutationLock(long code) {
+        return mutationLocks[(int) Murmur3.fmix(code) & (MUTATION_STRIPES - 1)];
+    }
+
+    public ShortLink getShortLinkByShortUrl(String shortUrl) {
+        return route(shortUrl, shorter -> shorter.getShortLinkByShortUrl(shortUrl), Objects::isNull, null);
+    }
+
+    // Выполняет действие на прежнем узле переносимого раздела, а если ссылки там нет - на узле раздела. Копия
+    // появляется на новом узле раньше, чем ссылка удаляется с прежнего, поэтому в таком порядке переносимая ссылка
+    // не проскакивает между проверками. Если раскладка сменилась, пока шёл поиск, поиск повторяется.
+    private <T> T route(String shortUrl, Function<UrlShorter, T> action, Predicate<T> missing, T notFound) {
+        long code = ShortCodes.packShortUrl(shortUrl);
+        if (code == ShortCodes.INVALID) {
+            return notFound;
+        }
+        int partition = partition(code);
+        while (true) {
+            Routing current = routing;
+            T value = notFound;
+            Shard previous = current.previous == null ? null : current.previous[partition];
+            if (previous != null) {
+                value = action.apply(previous.shorter);
+            }
+            Shard owner = current.owners[partition];
+            if (missing.test(value) && owner != null) {
+                value = action.apply(owner.shorter);
+            }
+            if (!missing.test(value) || routing == current) {
+                return value;
+            }
+        }
+    }
+
+    // Все ссылки владельца со всех узлов в порядке создания
+    public List<ShortLink> getShortLinksByUserUuid(UUID userUuid) {
+        List<ShortLink> links = routing.shards.parallelStream()
+                .flatMap(shard -> shard.shorter.getShortLinksByUserUuid(userUuid).stream())
+                .collect(Collectors.toList());
+        return distinct(links.stream()
+                .sorted(Comparator.comparingLong(ShortLink::getCreationEpochSecond).thenComparingLong(ShortLink::getCode))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Страница ссылок владельца со всех узлов. Каждый узел параллельно отдаёт до {@code limit} ссылок после своего
+     * курсора, страницы сливаются по ключу порядка; курсор роутера - курсоры узлов вида {@code "узел=курсор;..."}.
+     * Узел, у которого взята только часть страницы, запрашивается ещё раз, чтобы получить курсор после
+     * последней взятой ссылки.
+     */
+    public LinkPage getShortLinksByUserUuid(UUID userUuid, LinkOrder order, String cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным числом.");
+        }
+        List<Shard> shards = routing.shards;
+        Map<String, String> cursors = parseCursor(cursor);
+        List<LinkPage> pages = shards.parallelStream()
+                .map(shard -> EXHAUSTED.equals(cursors.get(shard.name))
+                        ? new LinkPage(List.of(), null)
+                        : shard.shorter.getShortLinksByUserUuid(userUuid, order, cursors.get(shard.name), limit))
+                .collect(Collectors.toList());
+
+        ToLongFunction<ShortLink> key = order == LinkOrder.CREATED
+                ? ShortLink::getCreationEpochSecond
+                : ShortLink::getExpireAtEpochSecond;
+        int[] taken = new int[shards.size()];
+        List<ShortLink> links = new ArrayList<>(limit);
+        Set<Long> seen = new HashSet<>();
+        while (links.size() < limit) {
+            int next = -1;
+            for (int i = 0; i < pages.size(); i++) {
+                List<ShortLink> page = pages.get(i).getLinks();
+                if (taken[i] < page.size() && (next < 0 || before(page.get(taken[i]),
+                        pages.get(next).getLinks().get(taken[next]), key))) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            ShortLink link = pages.get(next).getLinks().get(taken[next]++);
+            // Во время переноса раздела ссылка может на мгновение оказаться на двух узлах
+            if (seen.add(link.getCode())) {
+                links.add(link);
+            }
+        }
+
+        StringBuilder nextCursor = new StringBuilder();
+        boolean more = false;
+        for (int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.get(i);
+            String previous = cursors.get(shard.name);
+            LinkPage page = pages.get(i);
+            String shardCursor;
+            if (EXHAUSTED.equals(previous)) {
+                shardCursor = EXHAUSTED;
+            } else if (taken[i] == page.getLinks().size()) {
+                shardCursor = page.getNextCursor() == null ? EXHAUSTED : page.getNextCursor();
+            } else if (taken[i] == 0) {
+                shardCursor = previous == null ? "" : previous;
+            } else {
+                String after = shard.shorter.getShortLinksByUserUuid(userUuid, order, previous, taken[i]).getNextCursor();
+                shardCursor = after == null ? EXHAUSTED : after;
+            }
+            more |= !EXHAUSTED.equals(shardCursor);
+            if (nextCursor.length() > 0) {
+                nextCursor.append(';');
+            }
+            nextCursor.append(shard.name).append('=').append(shardCursor);
+        }
+        return new LinkPage(links, more ? nextCursor.toString() : null);
+    }
+
+    private static boolean before(ShortLink a, ShortLink b, ToLongFunction<ShortLink> key) {
+        long ka = key.applyAsLong(a);
+        long kb = key.applyAsLong(b);
+        return ka < kb || (ka == kb && a.getCode() < b.getCode());
+    }
+
+    // "узел=курсор;..." -> курсоры узлов; пустой курсор узла - с начала, null - узла не было (тоже с начала)
+    private static Map<String, String> parseCursor(String cursor) {
+        Map<String, String> cursors = new HashMap<>();
+        if (cursor == null) {
+            return cursors;
+        }
+        for (String part : cursor.split(";")) {
+            int eq = part.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Некорректный курсор: " + cursor);
+            }
+            String shardCursor = part.substring(eq + 1);
+            cursors.put(part.substring(0, eq), shardCursor.isEmpty() ? null : shardCursor);
+        }
+        return cursors;
+    }
+
+    private static List<ShortLink> distinct(Collection<ShortLink> links) {
+        Set<Long> seen = new HashSet<>();
+        List<ShortLink> result = new ArrayList<>(links.size());
+        for (ShortLink link : links) {
+            if (seen.add(link.getCode())) {
+                result.add(link);
+            }
+        }
+        return result;
+    }
+
+    // Очищает просроченные ссылки на всех узлах
+    public void cleanupExpiredLinks() {
+        for (Shard shard : routing.shards) {
+            shard.shorter.cleanupExpiredLinks();
+        }
+    }
+
+    public List<String> getNodeNames() {
+        return routing.shards.stream().map(shard -> shard.name).collect(Collectors.toList());
+    }
+
+    // Узел по имени (например, чтобы включить на нём статистику или прочитать метрики); null - такого нет
+    public UrlShorter getNode(String name) {
+        for (Shard shard : routing.shards) {
+            if (shard.name.equals(name)) {
+                return shard.shorter;
+            }
+        }
+        return null;
+    }
+
+    // Имя узла, которому принадлежит код; null - код некорректен или узлов нет
+    public String getNodeName(String shortUrl) {
+        long code = ShortCodes.packShortUrl(shortUrl);
+        Shard owner = code == ShortCodes.INVALID ? null : routing.owners[partition(code)];
+        return owner == null ? null : owner.name;
+    }
+
+    // Число разделов узла
+    public int getPartitionCount(String name) {
+        int count = 0;
+        for (Shard owner : routing.owners) {
+            if (owner != null && owner.name.equals(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Номер раздела - последние два символа кода
+    static int partition(long code) {
+        return (int) ((code >>> 6) & 63) * ShortCodes.BASE + (int) (code & 63);
+    }
+}
@@ -0,0 +1,123 @@
+package com.denzo;
+
+import java.nio.ByteBuffer;
+
+// Общие параметры кодов коротких ссылок: алфавит, длина и доменный префикс.
+// Код хранится упакованным в long: по 6 бит на символ (индекс в ALPHABET), 6 символов занимают 36 бит.
+public final class ShortCodes {
+    public static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    public static final int BASE = ALPHABET.length();
+    public static final int LENGTH = 6; // Фиксированная длина короткой ссылки
+    public static final String PREFIX = "denzo.com/";
+
+    // Количество различных кодов длины LENGTH: 62^6
+    public static final long CODE_SPACE = pow(BASE, LENGTH);
+    // Значение, которое возвращает pack для строки, не являющейся кодом
+    public static final long INVALID = -1L;
+
+    private static final int BITS_PER_CHAR = 6;
+    private static final byte[] INDEX = new byte[128];
+
+    static {
+        java.util.Arrays.fill(INDEX, (byte) -1);
+        for (int i = 0; i < BASE; i++) {
+            INDEX[ALPHABET.charAt(i)] = (byte) i;
+        }
+    }
+
+    private ShortCodes() {
+    }
+
+    // Упаковывает код из LENGTH символов алфавита; для любой другой строки возвращает INVALID.
+    public static long pack(CharSequence code) {
+        return pack(code, 0, code.length());
+    }
+
+    // Упаковывает код из символов [from, to) без создания подстроки
+    public static long pack(CharSequence text, int from, int to) {
+        if (to - from != LENGTH) {
+            return INVALID;
+        }
+        long packed = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            int index = c < 128 ? INDEX[c] : -1;
+            if (index < 0) {
+                return INVALID;
+            }
+            packed = (packed << BITS_PER_CHAR) | index;
+        }
+        return packed;
+    }
+
+    // Упаковывает код из байтов ASCII [from, to) буфера (например, пути HTTP-запроса); позиция буфера не меняется
+    public static long pack(ByteBuffer bytes, int from, int to) {
+        if (to - from != LENGTH) {
+            return INVALID;
+        }
+        long packed = 0;
+        for (int i = from; i < to; i++) {
+            byte b = bytes.get(i);
+            int index = b >= 0 ? INDEX[b] : -1;
+            if (index < 0) {
+                return INVALID;
+            }
+            packed = (packed << BITS_PER_CHAR) | index;
+        }
+        return packed;
+    }
+
+    // Упаковывает код из короткого URL с префиксом PREFIX или без него, без substring
+    public static long packShortUrl(CharSequence shortUrl) {
+        int prefixLength = PREFIX.length();
+        int from = 0;
+        if (shortUrl.length() == prefixLength + LENGTH) {
+            for (int i = 0; i < prefixLength; i++) {
+                if (shortUrl.charAt(i) != PREFIX.charAt(i)) {
+                    return INVALID;
+                }
+            }
+            from = prefixLength;
+        }
+        return pack(shortUrl, from, shortUrl.length());
+    }
+
+    public static String unpack(long packed) {
+        char[] chars = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET.charAt((int) (packed & 0x3F));
+            packed >>>= BITS_PER_CHAR;
+        }
+        return new String(chars);
+    }
+
+    // Короткий URL с префиксом: PREFIX и код собираются в один массив, без промежуточной строки кода
+    public static String toShortUrl(long packed) {
+        int prefixLength = PREFIX.length();
+        char[] chars = new char[prefixLength + LENGTH];
+        PREFIX.getChars(0, prefixLength, chars, 0);
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[prefixLength + i] = ALPHABET.charAt((int) (packed & 0x3F));
+            packed >>>= BITS_PER_CHAR;
+        }
+        return new String(chars);
+    }
+
+    // Переводит число из диапазона [0, CODE_SPACE) в base62 фиксированной длины и упаковывает его.
+    public static long fromIndex(long value) {
+        long packed = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            packed |= (value % BASE) << (BITS_PER_CHAR * i);
+            value /= BASE;
+        }
+        return packed;
+    }
+
+    static long pow(int base, int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= base;
+        }
+        return result;
+    }
+}
@@ -1,28 +1,61 @@
 package com.denzo;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
+// Компактное представление ссылки: время хранится в секундах эпохи, код упакован в long,
+// владелец - двумя long. Объекты LocalDateTime, UUID и строка кода создаются только по запросу геттеров.
+// Длинный URL - строка или, в режиме UrlShorter.setCompactUrls, байты UrlCodec (строка собирается в getLongUrl).
 public class ShortLink {
-    private String longUrl;
-    private String shortUrl;
-    private int limit;
-    private LocalDateTime creationTime;
-    private LocalDateTime expireAt;
-    private int currentCount;
-    private UUID ownerUuid;
+    // Атомарный доступ к счётчику переходов без отдельного объекта AtomicInteger на каждую ссылку
+    private static final AtomicIntegerFieldUpdater<ShortLink> COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(ShortLink.class, "currentCount");
+
+    // String или byte[] от UrlCodec.encode
+    private Object longUrl;
+    private long code;
+    private volatile int limit;
+    private volatile int currentCount;
+    private long creationTime;
+    private volatile long expireAt;
+    private long ownerMostSigBits;
+    private long ownerLeastSigBits;
 
     public ShortLink(String longUrl, String shortUrl, int limit, LocalDateTime creationTime, LocalDateTime expireAt, UUID ownerUuid) {
+        this(longUrl, packCode(shortUrl), limit, toEpochSecond(creationTime), toEpochSecond(expireAt),
+                ownerUuid.getMostSignificantBits(), ownerUuid.getLeastSignificantBits());
+    }
+
+    public ShortLink(String longUrl, long code, int limit, long creationTime, long expireAt,
+                     long ownerMostSigBits, long ownerLeastSigBits) {
         this.longUrl = longUrl;
-        this.shortUrl = shortUrl;
+        this.code = code;
         this.limit = limit;
         this.creationTime = creationTime;
         this.expireAt = expireAt;
-        this.ownerUuid = ownerUuid;
+        this.ownerMostSigBits = ownerMostSigBits;
+        this.ownerLeastSigBits = ownerLeastSigBits;
         this.currentCount = 0;
     }
 
+    // Ссылка с URL в хранимом виде: строкой или байтами UrlCodec (см. getStoredUrl)
+    static ShortLink withStoredUrl(Object storedUrl, long code, int limit, long creationTime, long expireAt,
+                                   long ownerMostSigBits, long ownerLeastSigBits) {
+        ShortLink link = new ShortLink(null, code, limit, creationTime, expireAt, ownerMostSigBits, ownerLeastSigBits);
+        link.longUrl = storedUrl;
+        return link;
+    }
+
     public String getLongUrl() {
+        Object url = longUrl;
+        return url instanceof byte[] ? UrlCodec.decode((byte[]) url) : (String) url;
+    }
+
+    // URL в том виде, в каком он хранится: строка или байты UrlCodec (без распаковки)
+    Object getStoredUrl() {
         return longUrl;
     }
 
@@ -30,12 +63,31 @@ public class ShortLink {
         this.longUrl = longUrl;
     }
 
+    // Только для ссылки, которая ещё не попала в хранилище
+    void setStoredUrl(Object storedUrl) {
+        this.longUrl = storedUrl;
+    }
+
+    // Биты UUID владельца - для сравнения без создания объекта UUID
+    public long getOwnerMostSigBits() {
+        return ownerMostSigBits;
+    }
+
+    public long getOwnerLeastSigBits() {
+        return ownerLeastSigBits;
+    }
+
     public String getShortUrl() {
-        return shortUrl;
+        return ShortCodes.unpack(code);
     }
 
     public void setShortUrl(String shortUrl) {
-        this.shortUrl = shortUrl;
+        this.code = packCode(shortUrl);
+    }
+
+    // Упакованный код ссылки (см. ShortCodes.pack)
+    public long getCode() {
+        return code;
     }
 
     public int getLimit() {
@@ -47,19 +99,27 @@ public class ShortLink {
     }
 
     public LocalDateTime getCreationTime() {
-        return creationTime;
+        return toLocalDateTime(creationTime);
     }
 
     public void setCreationTime(LocalDateTime creationTime) {
-        this.creationTime = creationTime;
+        this.creationTime = toEpochSecond(creationTime);
+    }
+
+    public long getCreationEpochSecond() {
+        return creationTime;
     }
 
     public LocalDateTime getExpireAt() {
-        return expireAt;
+        return toLocalDateTime(expireAt);
     }
 
     public void setExpireAt(LocalDateTime expireAt) {
-        this.expireAt = expireAt;
+        this.expireAt = toEpochSecond(expireAt);
+    }
+
+    public long getExpireAtEpochSecond() {
+        return expireAt;
     }
 
     public int getCurrentCount() {
@@ -67,35 +127,110 @@ public class ShortLink {
     }
 
     public void incrementCount() {
-        this.currentCount++;
+        COUNT.incrementAndGet(this);
+    }
+
+    // Восстанавливает счётчик, когда ссылка читается из хранилища или журнала
+    void setCurrentCount(int currentCount) {
+        this.currentCount = currentCount;
+    }
+
+    // Атомарно проверяет лимит и засчитывает переход. Возвращает false, если лимит уже исчерпан.
+    public boolean tryIncrement() {
+        while (true) {
+            int current = currentCount;
+            if (current >= limit) {
+                return false;
+            }
+            if (COUNT.compareAndSet(this, current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // Засчитывает сразу clicks переходов, если они все укладываются в лимит (аренда для StripedClickCounter)
+    public boolean tryIncrement(int clicks) {
+        while (true) {
+            int current = currentCount;
+            if ((long) current + clicks > limit) {
+                return false;
+            }
+            if (COUNT.compareAndSet(this, current, current + clicks)) {
+                return true;
+            }
+        }
+    }
+
+    // Поднимает счётчик до count, если он меньше (счётчик с ведущего узла на ведомом, см. FollowerLinkStore)
+    void raiseCount(int count) {
+        while (true) {
+            int current = currentCount;
+            if (current >= count || COUNT.compareAndSet(this, current, count)) {
+                return;
+            }
+        }
+    }
+
+    // Возвращает засчитанные заранее, но не использованные переходы
+    public void releaseClicks(int clicks) {
+        COUNT.getAndAdd(this, -clicks);
     }
 
     public UUID getOwnerUuid() {
-        return ownerUuid;
+        return new UUID(ownerMostSigBits, ownerLeastSigBits);
     }
 
     public void setOwnerUuid(UUID ownerUuid) {
-        this.ownerUuid = ownerUuid;
+        this.ownerMostSigBits = ownerUuid.getMostSignificantBits();
+        this.ownerLeastSigBits = ownerUuid.getLeastSignificantBits();
+    }
+
+    // Проверка владельца без создания объекта UUID
+    public boolean isOwnedBy(UUID userUuid) {
+        return userUuid != null
+                && userUuid.getMostSignificantBits() == ownerMostSigBits
+                && userUuid.getLeastSignificantBits() == ownerLeastSigBits;
     }
 
     @Override
     public String toString() {
         return "ShortLink{" +
-                "longUrl='" + longUrl + '\'' +
-                ", shortUrl='" + shortUrl + '\'' +
+                "longUrl='" + getLongUrl() + '\'' +
+                ", shortUrl='" + getShortUrl() + '\'' +
                 ", limit=" + limit +
-                ", creationTime=" + creationTime +
-                ", expireAt=" + expireAt +
+                ", creationTime=" + getCreationTime() +
+                ", expireAt=" + getExpireAt() +
                 ", currentCount=" + currentCount +
-                ", ownerUuid=" + ownerUuid +
+                ", ownerUuid=" + getOwnerUuid() +
                 '}';
     }
 
+    // Сравнивается с грубыми часами (CoarseClock), чтобы не вызывать LocalDateTime.now() на каждом переходе.
     public boolean isExpired() {
-        return LocalDateTime.now().isAfter(expireAt);
+        return isExpired(CoarseClock.nowEpochSecond());
+    }
+
+    public boolean isExpired(long nowEpochSecond) {
+        return nowEpochSecond > expireAt;
     }
 
     public boolean isLimitExceeded() {
         return currentCount >= limit;
     }
+
+    private static long packCode(String shortUrl) {
+        long packed = ShortCodes.pack(shortUrl);
+        if (packed == ShortCodes.INVALID) {
+            throw new IllegalArgumentException("Некорректный код короткой ссылки: " + shortUrl);
+        }
+        return packed;
+    }
+
+    private static long toEpochSecond(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochSecond) {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneId.systemDefault());
+    }
 }
@@ -0,0 +1,182 @@
+package com.denzo;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счёт переходов для вирусных ссылок без общей точки конкуренции.
+ * <p>
+ * Обычный переход - CAS на счётчике ссылки: при тысячах переходов в секунду по одной ссылке со всех ядер эта строка
+ * кэша становится узким местом. Здесь каждый поток попадает в свою полосу (по номеру потока) и берёт у хранилища
+ * аренду - сразу {@code lease} переходов одним {@link LinkStore#tryIncrement(ShortLink, int)}, - а дальше расходует
+ * её локально, уменьшая ячейку своей полосы. Аренда засчитывается до использования, поэтому лимит не превышается.
+ * <p>
+ * Аренды выдаются только ссылкам, у которых уже не меньше {@value #PROMOTE_AFTER_CLICKS} переходов, и размер аренды
+ * не больше четверти остатка до лимита, делённого на число полос: чем ближе лимит, тем меньше аренды, а при остатке
+ * меньше {@value #MIN_LEASE} на полосу переход засчитывается точно, как обычно. Если точный переход упёрся в лимит,
+ * а у других полос остались неизрасходованные аренды, они возвращаются и переход повторяется.
+ * <p>
+ * Фоновый поток раз в {@code flushIntervalMillis} возвращает хранилищу неизрасходованные аренды, поэтому
+ * сохранённый счётчик превышает фактический не больше чем на аренды, выданные за последний интервал; ссылки без
+ * новых аренд за интервал выходят из этого режима.
+ */
+final class StripedClickCounter implements AutoCloseable {
+    static final int PROMOTE_AFTER_CLICKS = 256;
+    static final int MIN_LEASE = 16;
+    static final int MAX_LEASE = 1024;
+    // Ячейки полос на расстоянии 128 байт, чтобы полосы не делили строку кэша
+    private static final int PADDING = 16;
+
+    private final LinkStore store;
+    private final int stripes;
+    private final Map<Long, Leases> leasesByCode = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final LongAdder leasesTaken = new LongAdder();
+
+    private final class Leases {
+        final ShortLink link;
+        // Остаток аренды каждой полосы (индекс полосы * PADDING)
+        final AtomicLongArray remaining = new AtomicLongArray(stripes * PADDING);
+        volatile boolean closed;
+        // Были ли новые аренды с прошлого сброса; пишется редко, поэтому гонки записи не важны
+        volatile boolean active = true;
+
+        Leases(ShortLink link) {
+            this.link = link;
+        }
+
+        // Забирает остатки всех полос и возвращает их хранилищу
+        void drain() {
+            long unused = 0;
+            for (int i = 0; i < stripes; i++) {
+                unused += remaining.getAndSet(i * PADDING, 0);
+            }
+            if (unused > 0) {
+                store.releaseClicks(link, (int) unused);
+            }
+        }
+    }
+
+    StripedClickCounter(LinkStore store, long flushIntervalMillis) {
+        this.store = store;
+        this.stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "click-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // То же, что store.tryIncrement(link), но для вирусных ссылок - из аренды своей полосы
+    boolean tryIncrement(ShortLink link) {
+        if (link.getCurrentCount() < PROMOTE_AFTER_CLICKS) {
+            return store.tryIncrement(link);
+        }
+        Leases leases = leasesByCode.get(link.getCode());
+        if (leases == null) {
+            if (leaseSize(link) < MIN_LEASE) {
+                return store.tryIncrement(link);
+            }
+            leases = leasesByCode.computeIfAbsent(link.getCode(), code -> new Leases(link));
+        }
+        if (leases.link.getCreationEpochSecond() != link.getCreationEpochSecond()) {
+            // Код занят новой ссылкой, а аренды остались от удалённой
+            return store.tryIncrement(link);
+        }
+
+        int cell = stripe() * PADDING;
+        AtomicLongArray remaining = leases.remaining;
+        long available;
+        while ((available = remaining.get(cell)) > 0) {
+            if (remaining.compareAndSet(cell, available, available - 1)) {
+                return true;
+            }
+        }
+
+        int lease = leaseSize(link);
+        if (!leases.closed && lease >= MIN_LEASE && store.tryIncrement(link, lease)) {
+            leasesTaken.increment();
+            leases.active = true;
+            remaining.addAndGet(cell, lease - 1);
+            if (leases.closed) {
+                // Аренды уже вернули без нас: возвращаем и эту
+                long unused = remaining.getAndSet(cell, 0);
+                if (unused > 0) {
+                    store.releaseClicks(link, (int) unused);
+                }
+            }
+            return true;
+        }
+        if (store.tryIncrement(link)) {
+            return true;
+        }
+        // Лимит исчерпан с учётом аренд - возможно, их просто не успели израсходовать
+        settle(leases);
+        return store.tryIncrement(link);
+    }
+
+    // Возвращает хранилищу все аренды ссылки и выводит её из режима аренд (смена лимита, удаление)
+    void settle(ShortLink link) {
+        Leases leases = leasesByCode.get(link.getCode());
+        if (leases != null) {
+            settle(leases);
+        }
+    }
+
+    // Выдано аренд за всё время (для бенчмарка и тестов)
+    long getLeasesTaken() {
+        return leasesTaken.sum();
+    }
+
+    // Останавливает фоновый поток и возвращает все аренды
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Leases leases : leasesByCode.values()) {
+            settle(leases);
+        }
+    }
+
+    private void settle(Leases leases) {
+        leases.closed = true;
+        leasesByCode.remove(leases.link.getCode(), leases);
+        leases.drain();
+    }
+
+    private void flush() {
+        try {
+            for (Leases leases : leasesByCode.values()) {
+                if (leases.active) {
+                    leases.active = false;
+                    leases.drain();
+                } else {
+                    settle(leases);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Исключение отменило бы все следующие запуски
+            System.out.println("Ошибка сброса счётчиков переходов: " + e.getMessage());
+        }
+    }
+
+    private int leaseSize(ShortLink link) {
+        long headroom = (long) link.getLimit() - link.getCurrentCount();
+        return (int) Math.min(MAX_LEASE, headroom / 4 / stripes);
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (stripes - 1);
+    }
+}
@@ -0,0 +1,46 @@
+package com.denzo;
+
+import java.util.Locale;
+
+// Ход выгрузки или загрузки ссылок (LinkTransfer): сколько записей и байт обработано и за какое время.
+// skipped - записи, не загруженные из-за уже занятого кода (при выгрузке всегда 0).
+public final class TransferReport {
+    private final long records;
+    private final long skipped;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    TransferReport(long records, long skipped, long bytes, long elapsedNanos) {
+        this.records = records;
+        this.skipped = skipped;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    // Сжатые байты, записанные в канал или прочитанные из него
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getRecordsPerSecond() {
+        return elapsedNanos == 0 ? 0 : records * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "записей: %d, пропущено: %d, %.1f МБ, %.1f с, %.0f записей/с",
+                records, skipped, bytes / 1048576.0, elapsedNanos / 1e9, getRecordsPerSecond());
+    }
+}
@@ -0,0 +1,184 @@
+package com.denzo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Компактное хранение длинных URL в куче (режим {@link UrlShorter#setCompactUrls}): вместо строки ссылка держит
+ * один массив байт {@code [номер префикса: 1-2 байта][остаток URL в UTF-8]}.
+ * <p>
+ * Префикс - начало URL из общего словаря: схема и хост с первым "/" ({@code https://www.example.com/}) запоминаются
+ * при первой встрече, поэтому ссылки на один сайт хранят его адрес один раз. Словарь общий на JVM и ограничен
+ * {@value #MAX_PREFIXES} записями; когда он заполнен, новые хосты сжимаются только по схеме ({@code https://www.}).
+ * Частые подстроки запроса и пути ({@code ?utm_source=}, {@code .html} и т.п.) в остатке заменяются одним байтом
+ * из диапазона 0xF5-0xFF, который в UTF-8 не встречается.
+ * <p>
+ * Экономия на ссылке - заголовок объекта String (24 байта) и длина префикса. Строка собирается заново при каждом
+ * чтении URL ({@link ShortLink#getLongUrl()}), поэтому переход без чтения URL ({@link UrlShorter#resolveInto})
+ * по-прежнему ничего не выделяет.
+ */
+final class UrlCodec {
+    private static final int MAX_PREFIXES = 1 << 14;
+    private static final int MAX_PREFIX_LENGTH = 128;
+    // Первые номера словаря - схемы, от более длинной к более короткой; 0 - без префикса
+    private static final String[] SCHEMES = {"", "https://www.", "http://www.", "https://", "http://"};
+    // Подстроки для байтов 0xF5..0xFF; более длинная идёт раньше своей части
+    private static final String[] TOKENS = {"?utm_source=", "&utm_medium=", "&utm_campaign=", "&utm_content=",
+            "&utm_term=", "utm_source=", "utm_medium=", "utm_campaign=", ".html", "index", ".php"};
+    private static final int FIRST_TOKEN = 0xF5;
+    private static final byte[][] TOKEN_BYTES = new byte[TOKENS.length][];
+
+    private static final Map<String, Integer> prefixIds = new ConcurrentHashMap<>();
+    private static final AtomicReferenceArray<byte[]> prefixes = new AtomicReferenceArray<>(MAX_PREFIXES);
+    private static final AtomicInteger nextPrefix = new AtomicInteger(SCHEMES.length);
+
+    static {
+        for (int i = 0; i < SCHEMES.length; i++) {
+            prefixes.set(i, SCHEMES[i].getBytes(StandardCharsets.US_ASCII));
+        }
+        for (int i = 0; i < TOKENS.length; i++) {
+            TOKEN_BYTES[i] = TOKENS[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private UrlCodec() {
+    }
+
+    // Кодирует URL; null - в строке есть одиночный суррогат, который UTF-8 не сохранит (такой URL хранится строкой)
+    static byte[] encode(String url) {
+        int prefixId = prefixId(url);
+        int from = prefixes.get(prefixId).length;
+        byte[] out = new byte[2 + 3 * (url.length() - from)];
+        int position = 0;
+        if (prefixId < 0x80) {
+            out[position++] = (byte) prefixId;
+        } else {
+            out[position++] = (byte) (0x80 | (prefixId & 0x7F));
+            out[position++] = (byte) (prefixId >>> 7);
+        }
+        int i = from;
+        while (i < url.length()) {
+            char c = url.charAt(i);
+            int token = c == '?' || c == '&' || c == 'u' || c == '.' || c == 'i' ? token(url, i) : -1;
+            if (token >= 0) {
+                out[position++] = (byte) (FIRST_TOKEN + token);
+                i += TOKENS[token].length();
+            } else if (c < 0x80) {
+                out[position++] = (byte) c;
+                i++;
+            } else {
+                int end = i;
+                while (end < url.length() && url.charAt(end) >= 0x80) {
+                    if (Character.isHighSurrogate(url.charAt(end))) {
+                        if (end + 1 == url.length() || !Character.isLowSurrogate(url.charAt(end + 1))) {
+                            return null;
+                        }
+                        end++;
+                    } else if (Character.isLowSurrogate(url.charAt(end))) {
+                        return null;
+                    }
+                    end++;
+                }
+                byte[] run = url.substring(i, end).getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(run, 0, out, position, run.length);
+                position += run.length;
+                i = end;
+            }
+        }
+        return Arrays.copyOf(out, position);
+    }
+
+    static String decode(byte[] encoded) {
+        int prefixId = encoded[0] & 0xFF;
+        int from = 1;
+        if (prefixId >= 0x80) {
+            prefixId = (prefixId & 0x7F) | (encoded[1] & 0xFF) << 7;
+            from = 2;
+        }
+        byte[] prefix = prefixes.get(prefixId);
+        int length = prefix.length;
+        for (int i = from; i < encoded.length; i++) {
+            int b = encoded[i] & 0xFF;
+            length += b >= FIRST_TOKEN ? TOKEN_BYTES[b - FIRST_TOKEN].length : 1;
+        }
+        byte[] out = new byte[length];
+        System.arraycopy(prefix, 0, out, 0, prefix.length);
+        int position = prefix.length;
+        for (int i = from; i < encoded.length; i++) {
+            int b = encoded[i] & 0xFF;
+            if (b >= FIRST_TOKEN) {
+                byte[] token = TOKEN_BYTES[b - FIRST_TOKEN];
+                System.arraycopy(token, 0, out, position, token.length);
+                position += token.length;
+            } else {
+                out[position++] = (byte) b;
+            }
+        }
+        return new String(out, StandardCharsets.UTF_8);
+    }
+
+    // Число хостов в словаре префиксов
+    static int learnedPrefixes() {
+        return prefixIds.size();
+    }
+
+    // Номер хоста из словаря (новый хост запоминается, пока есть место), иначе - самой длинной подходящей схемы
+    private static int prefixId(String url) {
+        String origin = origin(url);
+        if (origin != null) {
+            Integer id = prefixIds.get(origin);
+            if (id == null && nextPrefix.get() < MAX_PREFIXES) {
+                id = prefixIds.computeIfAbsent(origin, key -> {
+                    int next = nextPrefix.getAndIncrement();
+                    if (next >= MAX_PREFIXES) {
+                        return null;
+                    }
+                    prefixes.set(next, key.getBytes(StandardCharsets.US_ASCII));
+                    return next;
+                });
+            }
+            if (id != null) {
+                return id;
+            }
+        }
+        for (int i = 1; i < SCHEMES.length; i++) {
+            if (url.startsWith(SCHEMES[i])) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    // Схема и хост с "/" после него: "https://www.example.com/"; null - не http(s), нет пути или хост не ASCII
+    private static String origin(String url) {
+        int authorityStart = url.startsWith("https://") ? 8 : url.startsWith("http://") ? 7 : -1;
+        if (authorityStart < 0) {
+            return null;
+        }
+        int end = authorityStart;
+        while (end < url.length() && end < MAX_PREFIX_LENGTH && "/?#".indexOf(url.charAt(end)) < 0) {
+            // Хост в префиксе - только ASCII: тогда длина префикса в байтах равна длине в символах
+            if (url.charAt(end) >= 0x80) {
+                return null;
+            }
+            end++;
+        }
+        if (end == authorityStart || end == url.length() || url.charAt(end) != '/') {
+            return null;
+        }
+        return url.substring(0, end + 1);
+    }
+
+    private static int token(String url, int at) {
+        for (int i = 0; i < TOKENS.length; i++) {
+            if (url.startsWith(TOKENS[i], at)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
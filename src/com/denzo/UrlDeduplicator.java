@@ -0,0 +1,227 @@
+package com.denzo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Режим дедупликации длинных URL для {@link UrlShorter}.
+ * <p>
+ * Ключ URL - 128-битный MurmurHash3 от нормализованной строки (схема и хост в нижнем регистре, без порта
+ * по умолчанию, пустой путь - "/"). По ключу хранятся:
+ * <ul>
+ *     <li>общая строка URL (или байты {@link UrlCodec} в режиме компактных URL) со счётчиком ссылок: все ссылки
+ *     на один URL держат один объект, он освобождается вместе с последней ссылкой. Только для хранилищ, которые
+ *     держат объекты ссылок в куче ({@link LinkStore#keepsLinkObjects()}): остальные хранят URL сами, и общий
+ *     объект лишь занимал бы память;</li>
+ *     <li>обратный индекс (владелец, URL) -> последняя ссылка владельца на этот URL: повторный запрос
+ *     возвращает её, пока она действует.</li>
+ * </ul>
+ * При совпадении ключей строки дополнительно сравниваются, поэтому коллизия хеша не склеит разные URL.
+ */
+final class UrlDeduplicator {
+    private static final long SEED = 0x5EED_D3D0L;
+
+    private final boolean shareUrls;
+    private final Map<UrlKey, SharedUrl> urls = new ConcurrentHashMap<>();
+    private final Map<OwnerUrlKey, ShortLink> linksByOwnerUrl = new ConcurrentHashMap<>();
+
+    // shareUrls - держать общие объекты URL (хранилище хранит сами объекты ссылок)
+    UrlDeduplicator(boolean shareUrls) {
+        this.shareUrls = shareUrls;
+    }
+
+    private static final class UrlKey {
+        final long high;
+        final long low;
+
+        UrlKey(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof UrlKey)) {
+                return false;
+            }
+            UrlKey other = (UrlKey) o;
+            return high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high);
+        }
+    }
+
+    private static final class OwnerUrlKey {
+        final long ownerMostSigBits;
+        final long ownerLeastSigBits;
+        final UrlKey url;
+
+        OwnerUrlKey(long ownerMostSigBits, long ownerLeastSigBits, UrlKey url) {
+            this.ownerMostSigBits = ownerMostSigBits;
+            this.ownerLeastSigBits = ownerLeastSigBits;
+            this.url = url;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof OwnerUrlKey)) {
+                return false;
+            }
+            OwnerUrlKey other = (OwnerUrlKey) o;
+            return ownerMostSigBits == other.ownerMostSigBits && ownerLeastSigBits == other.ownerLeastSigBits
+                    && url.equals(other.url);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(ownerMostSigBits ^ ownerLeastSigBits) * 31 + url.hashCode();
+        }
+    }
+
+    private static final class SharedUrl {
+        // String или байты UrlCodec - то, что хранят ссылки
+        final Object url;
+        final String normalized;
+        // Ссылки, созданные с этим объектом или учтённые через register
+        int references;
+
+        SharedUrl(Object url, String normalized) {
+            this.url = url;
+            this.normalized = normalized;
+        }
+    }
+
+    /**
+     * Возвращает действующую ссылку владельца на этот URL или создаёт новую: {@code create} получает общий
+     * URL в хранимом виде и должен сохранить ссылку в хранилище. Для одной пары (владелец, URL) выполняется под блокировкой,
+     * поэтому одновременные повторные запросы не создадут две ссылки.
+     *
+     * @param storedUrl URL в том виде, в каком его будет хранить новая ссылка (строка или байты {@link UrlCodec});
+     *                  становится общим, если этот URL ещё никто не держит
+     * @param live      проверяет, что найденная ссылка ещё в хранилище, не истекла и не исчерпала лимит
+     */
+    ShortLink findOrCreate(UUID owner, String longUrl, Object storedUrl, Predicate<ShortLink> live,
+                           Function<Object, ShortLink> create) {
+        String normalized = normalize(longUrl);
+        UrlKey urlKey = key(normalized);
+        OwnerUrlKey key = new OwnerUrlKey(owner.getMostSignificantBits(), owner.getLeastSignificantBits(), urlKey);
+        return linksByOwnerUrl.compute(key, (k, existing) -> {
+            if (existing != null && live.test(existing) && normalize(existing.getLongUrl()).equals(normalized)) {
+                return existing;
+            }
+            if (!shareUrls) {
+                return create.apply(storedUrl);
+            }
+            Object shared = acquire(urlKey, longUrl, storedUrl, normalized);
+            try {
+                return create.apply(shared);
+            } catch (RuntimeException e) {
+                release(urlKey, normalized);
+                throw e;
+            }
+        });
+    }
+
+    // Учитывает уже существующую ссылку (например, восстановленную из журнала) в обратном индексе и в счётчике
+    // общего URL: её forget отпустит его так же, как у созданной здесь ссылки
+    void register(ShortLink link) {
+        String longUrl = link.getLongUrl();
+        String normalized = normalize(longUrl);
+        UrlKey urlKey = key(normalized);
+        if (shareUrls) {
+            acquire(urlKey, longUrl, link.getStoredUrl(), normalized);
+        }
+        OwnerUrlKey key = new OwnerUrlKey(link.getOwnerMostSigBits(), link.getOwnerLeastSigBits(), urlKey);
+        linksByOwnerUrl.merge(key, link,
+                (current, added) -> added.getCreationEpochSecond() > current.getCreationEpochSecond() ? added : current);
+    }
+
+    // Вызывается, когда ссылку удалили из хранилища: убирает её из обратного индекса и отпускает общую строку
+    void forget(ShortLink link) {
+        String normalized = normalize(link.getLongUrl());
+        UrlKey urlKey = key(normalized);
+        OwnerUrlKey key = new OwnerUrlKey(link.getOwnerMostSigBits(), link.getOwnerLeastSigBits(), urlKey);
+        linksByOwnerUrl.computeIfPresent(key, (k, current) -> sameLink(current, link) ? null : current);
+        if (shareUrls) {
+            release(urlKey, normalized);
+        }
+    }
+
+    // Число различных общих URL
+    int sharedUrls() {
+        return urls.size();
+    }
+
+    private Object acquire(UrlKey urlKey, String longUrl, Object storedUrl, String normalized) {
+        SharedUrl shared = urls.compute(urlKey, (k, current) -> {
+            if (current == null) {
+                // Обычно URL уже нормализован, и вторая строка не нужна
+                current = new SharedUrl(storedUrl, normalized.equals(longUrl) ? longUrl : normalized);
+            } else if (!current.normalized.equals(normalized)) {
+                // Коллизия хеша: этот URL хранится отдельно
+                return current;
+            }
+            current.references++;
+            return current;
+        });
+        return shared.normalized.equals(normalized) ? shared.url : storedUrl;
+    }
+
+    // Отпускает общий URL по ключу и нормализованной строке, а не по объекту: хранилище может вернуть ссылку
+    // с копией URL. URL, чей ключ совпал с чужим (коллизия хеша), в счётчике не участвовал.
+    private void release(UrlKey urlKey, String normalized) {
+        urls.computeIfPresent(urlKey, (k, current) -> {
+            if (!current.normalized.equals(normalized)) {
+                return current;
+            }
+            return --current.references == 0 ? null : current;
+        });
+    }
+
+    // Хранилище может вернуть снимок записи, поэтому ссылки сравниваются по коду и времени создания
+    private static boolean sameLink(ShortLink a, ShortLink b) {
+        return a.getCode() == b.getCode() && a.getCreationEpochSecond() == b.getCreationEpochSecond();
+    }
+
+    private static UrlKey key(String normalized) {
+        byte[] bytes = normalized.getBytes(StandardCharsets.UTF_8);
+        long[] hash = new long[2];
+        Murmur3.hash128(bytes, bytes.length, SEED, hash);
+        return new UrlKey(hash[0], hash[1]);
+    }
+
+    // Схема и хост без учёта регистра, порт по умолчанию и пустой путь не отличают URL
+    static String normalize(String longUrl) {
+        String url = longUrl.trim();
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd <= 0) {
+            return url;
+        }
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = authorityStart;
+        while (authorityEnd < url.length() && "/?#".indexOf(url.charAt(authorityEnd)) < 0) {
+            authorityEnd++;
+        }
+        String scheme = url.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+        String authority = url.substring(authorityStart, authorityEnd);
+        int at = authority.lastIndexOf('@');
+        String userInfo = authority.substring(0, at + 1);
+        String host = authority.substring(at + 1).toLowerCase(Locale.ROOT);
+        if ((scheme.equals("http") && host.endsWith(":80")) || (scheme.equals("https") && host.endsWith(":443"))) {
+            host = host.substring(0, host.lastIndexOf(':'));
+        }
+        String rest = url.substring(authorityEnd);
+        if (!rest.startsWith("/")) {
+            rest = "/" + rest;
+        }
+        return scheme + "://" + userInfo + host + rest;
+    }
+}
@@ -1,155 +1,663 @@
 package com.denzo;
 
-import java.time.LocalDateTime;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
+// Потокобезопасен: методы можно вызывать из многих потоков одновременно.
+// Ссылки хранит LinkStore (по умолчанию - InMemoryLinkStore в куче).
 public class UrlShorter {
-    private final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
-    private final int BASE = ALPHABET.length();
-    private final int SHORT_URL_LENGTH = 6; // Фиксированная длина короткой ссылки
+    private final LinkStore store;
+    private final Notifier notifier;
+    private final CodeGenerator codeGenerator;
+    private final UrlShorterMetrics metrics;
+    // Замеры можно выключить, например чтобы сравнить накладные расходы в бенчмарке
+    private volatile boolean metricsEnabled = true;
+    // Время измеряется у каждого N-го перехода: System.nanoTime() упорядочивает выполнение и мешает процессору
+    // совмещать промахи кэша соседних переходов, поэтому замер каждого перехода заметно дороже самих счётчиков
+    private volatile int latencySampleRate = 16;
+    // Пакетные операции делятся на части по BULK_CHUNK; пачки от PARALLEL_THRESHOLD обрабатываются параллельно
+    private static final int BULK_CHUNK = 4096;
+    private static final int PARALLEL_THRESHOLD = 2 * BULK_CHUNK;
+    private ScheduledExecutorService expiryExecutor;
+    // null - режим дедупликации длинных URL выключен
+    private volatile UrlDeduplicator deduplicator;
+    // null - переходы считаются напрямую в хранилище, без аренд по полосам
+    private volatile StripedClickCounter clickCounter;
+    private static final long CLICK_FLUSH_MILLIS = 100;
+    // null - статистика переходов по времени не ведётся
+    private volatile ClickAnalytics clickAnalytics;
+    // true - новые ссылки хранят URL байтами UrlCodec, а не строкой
+    private volatile boolean compactUrls;
 
-    // Хранение коротких ссылок: ключ (код) -> ShortLink
-    private final Map<String, ShortLink> shortUrlMap = new HashMap<>();
-    // Хранение списка ссылок для каждого пользователя
-    private final Map<UUID, List<ShortLink>> userLinksMap = new HashMap<>();
+    // Конструктор с хранилищем, Notifier и стратегией генерации кодов
+    public UrlShorter(LinkStore store, Notifier notifier, CodeGenerator codeGenerator) {
+        this.store = store;
+        this.notifier = notifier;
+        this.codeGenerator = codeGenerator;
+        codeGenerator.attach(store);
+        this.metrics = new UrlShorterMetrics(store);
+    }
 
-    private final Random random = new Random();
-    private final Notifier notifier;
+    // Конструктор с параметрами Notifier и стратегией генерации кодов
+    public UrlShorter(Notifier notifier, CodeGenerator codeGenerator) {
+        this(new InMemoryLinkStore(), notifier, codeGenerator);
+    }
 
-    // Конструктор с параметром Notifier
+    // Конструктор с параметром Notifier, коды генерируются без коллизий (FeistelCodeGenerator)
     public UrlShorter(Notifier notifier) {
-        this.notifier = notifier;
+        this(notifier, new FeistelCodeGenerator());
     }
 
     // Конструктор по умолчанию, использующий ConsoleNotifier
     public UrlShorter() {
-        this.notifier = new ConsoleNotifier();
+        this(new ConsoleNotifier());
     }
 
     //Генерирует короткую ссылку с префиксом "denzo.com/".
 
+    // В режиме дедупликации (setDeduplicateUrls) повторный запрос владельца на тот же URL возвращает его
+    // действующую ссылку; лимит и срок жизни из повторного запроса тогда не применяются.
     public String buildShortUrl(String longUrl, UUID userUuid, int limit, int lifetimeHours) {
-        String shortUrl;
+        boolean measure = metricsEnabled;
+        long start = measure ? System.nanoTime() : 0;
+        int[] attempts = new int[1];
+        long creationTime = CoarseClock.nowEpochSecond();
+        long expireAt = creationTime + lifetimeHours * 3600L;
+        UrlDeduplicator dedup = deduplicator;
+        ShortLink shortLink;
+        if (dedup == null) {
+            shortLink = storeNewLink(storedUrl(longUrl), userUuid, limit, creationTime, expireAt, attempts);
+        } else {
+            shortLink = dedup.findOrCreate(userUuid, longUrl, storedUrl(longUrl), this::isLive,
+                    sharedUrl -> storeNewLink(sharedUrl, userUuid, limit, creationTime, expireAt, attempts));
+            if (attempts[0] == 0) {
+                metrics.recordDeduplicated();
+                return ShortCodes.toShortUrl(shortLink.getCode());
+            }
+        }
+        if (measure) {
+            metrics.recordCreate(attempts[0] - 1, System.nanoTime() - start);
+        }
+        return ShortCodes.toShortUrl(shortLink.getCode());
+    }
+
+    // Код занимается атомарно через putIfAbsent, поэтому два потока не получат одну и ту же ссылку.
+    // Для генераторов без коллизий цикл выполняется ровно один раз.
+    private ShortLink storeNewLink(Object storedUrl, UUID userUuid, int limit, long creationTime, long expireAt,
+                                   int[] attempts) {
+        ShortLink shortLink;
         do {
-            shortUrl = generateRandomShortUrl();
-        } while (shortUrlMap.containsKey(shortUrl));
+            attempts[0]++;
+            shortLink = ShortLink.withStoredUrl(storedUrl, codeGenerator.nextCode(), limit, creationTime, expireAt,
+                    userUuid.getMostSignificantBits(), userUuid.getLeastSignificantBits());
+        } while (!store.putIfAbsent(shortLink));
+        return shortLink;
+    }
+
+    // URL в том виде, в каком его будет хранить новая ссылка (см. setCompactUrls)
+    private Object storedUrl(String longUrl) {
+        if (compactUrls) {
+            byte[] encoded = UrlCodec.encode(longUrl);
+            if (encoded != null) {
+                return encoded;
+            }
+        }
+        return longUrl;
+    }
+
+    // Ссылка всё ещё в хранилище (а не другая с тем же кодом), не истекла и не исчерпала лимит.
+    // Хранилище может вернуть снимок записи, поэтому счётчик берётся из свежей копии.
+    private boolean isLive(ShortLink link) {
+        ShortLink current = store.get(link.getCode());
+        return current != null
+                && current.getCreationEpochSecond() == link.getCreationEpochSecond()
+                && !current.isExpired()
+                && !current.isLimitExceeded();
+    }
+
+    // Удалённую из хранилища ссылку нужно убрать и из индекса дедупликации, а её аренды переходов - вернуть
+    private void onRemoved(ShortLink link) {
+        UrlDeduplicator dedup = deduplicator;
+        if (dedup != null) {
+            dedup.forget(link);
+        }
+        StripedClickCounter counter = clickCounter;
+        if (counter != null) {
+            counter.settle(link);
+        }
+    }
+
+    /**
+     * Включает режим дедупликации длинных URL (по умолчанию выключен): повторный запрос владельца на тот же
+     * URL возвращает его действующую ссылку, а если хранилище держит объекты ссылок в куче, все ссылки на один
+     * URL хранят одну общую строку (см. {@link UrlDeduplicator}). Ссылки, уже лежащие в хранилище, попадают
+     * в индекс при включении.
+     */
+    public synchronized void setDeduplicateUrls(boolean deduplicateUrls) {
+        if (!deduplicateUrls) {
+            deduplicator = null;
+        } else if (deduplicator == null) {
+            UrlDeduplicator dedup = new UrlDeduplicator(store.keepsLinkObjects());
+            store.forEach(dedup::register);
+            deduplicator = dedup;
+        }
+    }
+
+    public boolean isDeduplicateUrls() {
+        return deduplicator != null;
+    }
+
+    // Число общих URL режима дедупликации
+    int sharedUrls() {
+        UrlDeduplicator dedup = deduplicator;
+        return dedup == null ? 0 : dedup.sharedUrls();
+    }
+
+    /**
+     * Включает счёт переходов по полосам для вирусных ссылок (по умолчанию выключен): поток расходует аренду
+     * переходов своей полосы, взятую у хранилища заранее, вместо CAS на общем счётчике ссылки (см.
+     * {@link StripedClickCounter}). Лимит по-прежнему не превышается, но сохранённый счётчик может опережать
+     * фактический на неизрасходованные аренды, пока фоновый поток не вернёт их (раз в {@value #CLICK_FLUSH_MILLIS} мс).
+     * При выключении все аренды возвращаются.
+     */
+    public synchronized void setStripedClicks(boolean stripedClicks) {
+        if (!stripedClicks) {
+            StripedClickCounter counter = clickCounter;
+            clickCounter = null;
+            if (counter != null) {
+                counter.close();
+            }
+        } else if (clickCounter == null) {
+            clickCounter = new StripedClickCounter(store, CLICK_FLUSH_MILLIS);
+        }
+    }
+
+    public boolean isStripedClicks() {
+        return clickCounter != null;
+    }
 
-        LocalDateTime creationTime = LocalDateTime.now();
-        LocalDateTime expireAt = creationTime.plusHours(lifetimeHours);
-        ShortLink shortLink = new ShortLink(longUrl, shortUrl, limit, creationTime, expireAt, userUuid);
-        shortUrlMap.put(shortUrl, shortLink);
-        userLinksMap.computeIfAbsent(userUuid, k -> new ArrayList<>()).add(shortLink);
-        return "denzo.com/" + shortUrl;
+    /**
+     * Включает компактное хранение длинных URL (по умолчанию выключено): новые ссылки держат URL массивом байт
+     * {@link UrlCodec} - UTF-8 без общего префикса сайта и с однобайтовыми заменами частых подстрок вместо строки.
+     * URL распаковывается только при чтении ({@link #restoreLongUrl}, {@link ShortLink#getLongUrl()},
+     * {@link ResolveResult#getLongUrl()}). Ссылки, созданные раньше, остаются со строкой. Экономия есть только для
+     * хранилищ, которые держат объекты ссылок в куче ({@link InMemoryLinkStore}).
+     */
+    public void setCompactUrls(boolean compactUrls) {
+        this.compactUrls = compactUrls;
+    }
+
+    public boolean isCompactUrls() {
+        return compactUrls;
+    }
+
+    /**
+     * Включает статистику переходов по времени (по умолчанию выключена): каждый успешный переход записывается
+     * в очередь {@link ClickAnalytics}, а поминутные и почасовые сводки по ссылкам и владельцам доступны через
+     * {@link #getClickAnalytics()}. Запись не блокирует переход. При выключении сводки отбрасываются.
+     */
+    public synchronized void setClickAnalytics(boolean enabled) {
+        if (!enabled) {
+            ClickAnalytics analytics = clickAnalytics;
+            clickAnalytics = null;
+            if (analytics != null) {
+                analytics.close();
+            }
+        } else if (clickAnalytics == null) {
+            clickAnalytics = new ClickAnalytics();
+        }
+    }
+
+    // null, если статистика переходов выключена
+    public ClickAnalytics getClickAnalytics() {
+        return clickAnalytics;
+    }
+
+    /**
+     * Создаёт ссылки пачкой и возвращает короткие URL в порядке запросов.
+     * <p>
+     * Время создания читается один раз на пачку, коды резервируются блоком ({@link CodeGenerator#nextCodes}),
+     * а хранилище сохраняет пачку целиком ({@link LinkStore#putAllIfAbsent}): индексы владельцев заранее
+     * расширяются, а {@link DurableLinkStore} ждёт записи на диск один раз. Пачки от {@value #PARALLEL_THRESHOLD}
+     * ссылок делятся на части и обрабатываются параллельно в общем пуле ForkJoin; в списке ссылок владельца
+     * порядок совпадает с порядком запросов внутри части, но части могут чередоваться.
+     */
+    public List<String> buildShortUrls(List<LinkRequest> requests) {
+        if (deduplicator != null) {
+            // Каждый запрос нужно сверить с обратным индексом, поэтому пачка создаётся по одной ссылке
+            List<String> shortUrls = new ArrayList<>(requests.size());
+            for (LinkRequest request : requests) {
+                shortUrls.add(buildShortUrl(request.getLongUrl(), request.getOwnerUuid(), request.getLimit(),
+                        request.getLifetimeHours()));
+            }
+            return shortUrls;
+        }
+        boolean measure = metricsEnabled;
+        long start = measure ? System.nanoTime() : 0;
+        LinkRequest[] batch = requests.toArray(new LinkRequest[0]);
+        String[] shortUrls = new String[batch.length];
+        long creationTime = CoarseClock.nowEpochSecond();
+        int retries;
+        if (batch.length >= PARALLEL_THRESHOLD) {
+            int chunks = (batch.length + BULK_CHUNK - 1) / BULK_CHUNK;
+            retries = IntStream.range(0, chunks).parallel()
+                    .map(chunk -> buildChunk(batch, chunk * BULK_CHUNK,
+                            Math.min(batch.length, (chunk + 1) * BULK_CHUNK), creationTime, shortUrls))
+                    .sum();
+        } else {
+            retries = buildChunk(batch, 0, batch.length, creationTime, shortUrls);
+        }
+        if (measure) {
+            metrics.recordBulkCreate(batch.length, retries, System.nanoTime() - start);
+        }
+        return Arrays.asList(shortUrls);
+    }
+
+    // Создаёт ссылки batch[from, to) и возвращает число повторных попыток из-за занятых кодов
+    private int buildChunk(LinkRequest[] batch, int from, int to, long creationTime, String[] shortUrls) {
+        int count = to - from;
+        long[] codes = new long[count];
+        codeGenerator.nextCodes(codes, 0, count);
+        List<ShortLink> links = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            links.add(newLink(batch[from + i], codes[i], creationTime));
+        }
+        boolean[] stored = store.putAllIfAbsent(links);
+        int retries = 0;
+        for (int i = 0; i < count; i++) {
+            ShortLink link = links.get(i);
+            // Коллизии возможны только у генераторов без гарантии уникальности; такие ссылки досоздаются по одной
+            if (!stored[i]) {
+                do {
+                    retries++;
+                    link = newLink(batch[from + i], codeGenerator.nextCode(), creationTime);
+                } while (!store.putIfAbsent(link));
+            }
+            shortUrls[from + i] = ShortCodes.toShortUrl(link.getCode());
+        }
+        return retries;
+    }
+
+    private ShortLink newLink(LinkRequest request, long code, long creationTime) {
+        UUID owner = request.getOwnerUuid();
+        return ShortLink.withStoredUrl(storedUrl(request.getLongUrl()), code, request.getLimit(), creationTime,
+                creationTime + request.getLifetimeHours() * 3600L,
+                owner.getMostSignificantBits(), owner.getLeastSignificantBits());
     }
 
     //Восстанавливает длинный URL по короткой ссылке.
 
     public String restoreLongUrl(String shortUrl) {
-        shortUrl = normalizeShortUrl(shortUrl);
-        ShortLink shortLink = shortUrlMap.get(shortUrl);
-        if (shortLink == null) {
+        Resolution resolution = resolve(shortUrl);
+        if (resolution.getStatus() == ResolveStatus.NOT_FOUND) {
             System.out.println("Short URL не существует.");
-            return null;
         }
-        if (shortLink.isExpired()) {
-            shortUrlMap.remove(shortUrl);
-            userLinksMap.get(shortLink.getOwnerUuid()).remove(shortLink);
-            notifier.notify(shortLink.getOwnerUuid(), "Ссылка " + shortUrl + " истекла.");
-            return null;
+        return resolution.getLongUrl();
+    }
+
+    // То же, что restoreLongUrl, но без вывода в консоль и с причиной отказа (для HTTP-сервера).
+    // Уведомления владельцу об истечении и исчерпании лимита отправляются так же.
+    public Resolution resolve(String shortUrl) {
+        return resolve(shortUrl, null);
+    }
+
+    // Переход с источником (заголовок Referer HTTP-запроса, может быть null) для статистики переходов
+    public Resolution resolve(String shortUrl, String referrer) {
+        ResolveResult result = new ResolveResult();
+        return toResolution(resolveMeasured(ShortCodes.packShortUrl(shortUrl), referrer, result), result);
+    }
+
+    /**
+     * Переход без выделения памяти: код разбирается прямо из {@code shortUrl} (с префиксом {@code denzo.com/} или без)
+     * в упакованный long, а статус и длинный URL пишутся в {@code result}, который вызывающий переиспользует.
+     * С {@link InMemoryLinkStore} успешный переход не создаёт ни одного объекта. Метрики и уведомления - как в
+     * {@link #resolve}.
+     */
+    public ResolveStatus resolveInto(CharSequence shortUrl, ResolveResult result) {
+        return resolveMeasured(ShortCodes.packShortUrl(shortUrl), null, result);
+    }
+
+    // То же для кода в байтах ASCII [from, to) буфера, например пути HTTP-запроса без ведущего '/'
+    public ResolveStatus resolveInto(ByteBuffer code, int from, int to, ResolveResult result) {
+        return resolveMeasured(ShortCodes.pack(code, from, to), null, result);
+    }
+
+    // Переход по уже упакованному коду (ShardRouter разбирает код сам, чтобы выбрать узел)
+    ResolveStatus resolveInto(long code, String referrer, ResolveResult result) {
+        return resolveMeasured(code, referrer, result);
+    }
+
+    private ResolveStatus resolveMeasured(long code, String referrer, ResolveResult result) {
+        if (!metricsEnabled) {
+            return resolveCode(code, CoarseClock.nowEpochSecond(), referrer, result);
+        }
+        int sampleRate = latencySampleRate;
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            ResolveStatus status = resolveCode(code, CoarseClock.nowEpochSecond(), referrer, result);
+            metrics.recordResolve(status);
+            return status;
+        }
+        long start = System.nanoTime();
+        ResolveStatus status = resolveCode(code, CoarseClock.nowEpochSecond(), referrer, result);
+        metrics.recordResolve(status);
+        metrics.getResolveLatency().record(System.nanoTime() - start);
+        return status;
+    }
+
+    /**
+     * Пакетный переход: длинные URL в порядке коротких, {@code null} - ссылки нет, она истекла или исчерпан лимит.
+     * Переходы засчитываются и уведомления отправляются так же, как в {@link #resolve}, но в консоль ничего
+     * не выводится, а время читается один раз на пачку. Большие пачки обрабатываются параллельно.
+     */
+    public List<String> restoreLongUrls(Collection<String> shortUrls) {
+        String[] batch = shortUrls.toArray(new String[0]);
+        String[] longUrls = new String[batch.length];
+        long now = CoarseClock.nowEpochSecond();
+        boolean measure = metricsEnabled;
+        if (batch.length >= PARALLEL_THRESHOLD) {
+            int chunks = (batch.length + BULK_CHUNK - 1) / BULK_CHUNK;
+            IntStream.range(0, chunks).parallel().forEach(chunk -> resolveChunk(batch, chunk * BULK_CHUNK,
+                    Math.min(batch.length, (chunk + 1) * BULK_CHUNK), now, measure, longUrls));
+        } else {
+            resolveChunk(batch, 0, batch.length, now, measure, longUrls);
+        }
+        return Arrays.asList(longUrls);
+    }
+
+    private void resolveChunk(String[] batch, int from, int to, long now, boolean measure, String[] longUrls) {
+        for (int i = from; i < to; i++) {
+            Resolution resolution = resolveLink(batch[i], now);
+            if (measure) {
+                metrics.recordResolve(resolution.getStatus());
+            }
+            longUrls[i] = resolution.getLongUrl();
         }
-        if (shortLink.isLimitExceeded()) {
-            notifier.notify(shortLink.getOwnerUuid(), "Ссылка " + shortUrl + " достигла лимита переходов.");
-            return null;
+    }
+
+    private Resolution resolveLink(String shortUrl, long nowEpochSecond) {
+        ResolveResult result = new ResolveResult();
+        return toResolution(resolveCode(ShortCodes.packShortUrl(shortUrl), nowEpochSecond, null, result), result);
+    }
+
+    private static Resolution toResolution(ResolveStatus status, ResolveResult result) {
+        switch (status) {
+            case FOUND:
+                return Resolution.found(result.getLongUrl());
+            case NOT_FOUND:
+                return Resolution.NOT_FOUND;
+            case EXPIRED:
+                return Resolution.EXPIRED;
+            default:
+                return Resolution.LIMIT_EXCEEDED;
         }
-        shortLink.incrementCount();
-        return shortLink.getLongUrl();
+    }
+
+    // Переход по упакованному коду. Успешный переход ничего не выделяет: ссылка ищется по long, время - из
+    // CoarseClock, результат пишется в переданный объект; строки собираются только для уведомлений об отказе.
+    private ResolveStatus resolveCode(long code, long nowEpochSecond, String referrer, ResolveResult result) {
+        ShortLink shortLink = code == ShortCodes.INVALID ? null : store.get(code);
+        if (shortLink == null) {
+            result.set(ResolveStatus.NOT_FOUND, null);
+            return ResolveStatus.NOT_FOUND;
+        }
+        if (shortLink.isExpired(nowEpochSecond)) {
+            // Уведомляет только тот поток, который действительно удалил ссылку
+            if (store.remove(shortLink)) {
+                onRemoved(shortLink);
+                notifier.notify(shortLink.getOwnerUuid(), "Ссылка " + ShortCodes.unpack(code) + " истекла.");
+            }
+            result.set(ResolveStatus.EXPIRED, null);
+            return ResolveStatus.EXPIRED;
+        }
+        StripedClickCounter counter = clickCounter;
+        if (counter == null ? !store.tryIncrement(shortLink) : !counter.tryIncrement(shortLink)) {
+            notifier.notify(shortLink.getOwnerUuid(), "Ссылка " + ShortCodes.unpack(code) + " достигла лимита переходов.");
+            result.set(ResolveStatus.LIMIT_EXCEEDED, null);
+            return ResolveStatus.LIMIT_EXCEEDED;
+        }
+        ClickAnalytics analytics = clickAnalytics;
+        if (analytics != null) {
+            analytics.record(shortLink, nowEpochSecond, referrer);
+        }
+        result.set(ResolveStatus.FOUND, shortLink.getStoredUrl());
+        return ResolveStatus.FOUND;
     }
 
     //Редактирует лимит переходов для ссылки. Изменение допустимо только владельцем ссылки.
     public boolean editLimit(String shortUrl, int newLimit, UUID requesterUuid) {
+        switch (changeLimit(shortUrl, newLimit, requesterUuid)) {
+            case INVALID_LIMIT:
+                System.out.println("Новый лимит должен быть положительным числом.");
+                return false;
+            case NOT_FOUND:
+                System.out.println("Короткая ссылка не найдена.");
+                return false;
+            case FORBIDDEN:
+                System.out.println("Изменять лимит может только владелец ссылки.");
+                return false;
+            default:
+                System.out.println("Лимит для ссылки " + normalizeShortUrl(shortUrl) + " успешно изменён на " + newLimit + ".");
+                return true;
+        }
+    }
+
+    // Меняет лимит без вывода в консоль
+    public LinkUpdateStatus changeLimit(String shortUrl, int newLimit, UUID requesterUuid) {
         if (newLimit <= 0) {
-            System.out.println("Новый лимит должен быть положительным числом.");
-            return false;
+            return LinkUpdateStatus.INVALID_LIMIT;
         }
-        shortUrl = normalizeShortUrl(shortUrl);
-        ShortLink link = shortUrlMap.get(shortUrl);
+        ShortLink link = findLink(normalizeShortUrl(shortUrl));
         if (link == null) {
-            System.out.println("Короткая ссылка не найдена.");
-            return false;
+            return LinkUpdateStatus.NOT_FOUND;
         }
-        if (!link.getOwnerUuid().equals(requesterUuid)) {
-            System.out.println("Изменять лимит может только владелец ссылки.");
-            return false;
+        if (!link.isOwnedBy(requesterUuid)) {
+            return LinkUpdateStatus.FORBIDDEN;
         }
-        link.setLimit(newLimit);
-        System.out.println("Лимит для ссылки " + shortUrl + " успешно изменён на " + newLimit + ".");
-        return true;
+        store.setLimit(link, newLimit);
+        // Аренды выданы под старый лимит: возвращаем, следующие будут рассчитаны от нового
+        StripedClickCounter counter = clickCounter;
+        if (counter != null) {
+            counter.settle(link);
+        }
+        metrics.recordLimitEdit();
+        return LinkUpdateStatus.UPDATED;
     }
 
     // Удаляет ссылку. Удаление доступно только владельцу.
     public boolean deleteLink(String shortUrl, UUID requesterUuid) {
-        shortUrl = normalizeShortUrl(shortUrl);
-        ShortLink link = shortUrlMap.get(shortUrl);
+        switch (removeLink(shortUrl, requesterUuid)) {
+            case NOT_FOUND:
+                System.out.println("Короткая ссылка не найдена.");
+                return false;
+            case FORBIDDEN:
+                System.out.println("Удалять ссылку может только её владелец.");
+                return false;
+            default:
+                System.out.println("Ссылка " + normalizeShortUrl(shortUrl) + " успешно удалена.");
+                return true;
+        }
+    }
+
+    // Удаляет ссылку без вывода в консоль
+    public LinkUpdateStatus removeLink(String shortUrl, UUID requesterUuid) {
+        ShortLink link = findLink(normalizeShortUrl(shortUrl));
         if (link == null) {
-            System.out.println("Короткая ссылка не найдена.");
-            return false;
+            return LinkUpdateStatus.NOT_FOUND;
         }
-        if (!link.getOwnerUuid().equals(requesterUuid)) {
-            System.out.println("Удалять ссылку может только её владелец.");
-            return false;
+        if (!link.isOwnedBy(requesterUuid)) {
+            return LinkUpdateStatus.FORBIDDEN;
         }
-        shortUrlMap.remove(shortUrl);
-        List<ShortLink> userLinks = userLinksMap.get(link.getOwnerUuid());
-        if (userLinks != null) {
-            userLinks.remove(link);
+        if (!store.remove(link)) {
+            return LinkUpdateStatus.NOT_FOUND;
         }
-        System.out.println("Ссылка " + shortUrl + " успешно удалена.");
-        return true;
+        onRemoved(link);
+        metrics.recordDelete();
+        return LinkUpdateStatus.UPDATED;
     }
 
     /**
      * Нормализует короткий URL, удаляя префикс "denzo.com/", если он присутствует.
      */
     private String normalizeShortUrl(String shortUrl) {
-        String prefix = "denzo.com/";
+        String prefix = ShortCodes.PREFIX;
         if (shortUrl.startsWith(prefix)) {
             return shortUrl.substring(prefix.length());
         }
         return shortUrl;
     }
 
-    // Генерирует случайную строку фиксированной длины, которая используется как код короткой ссылки.
-    private String generateRandomShortUrl() {
-        StringBuilder sb = new StringBuilder(SHORT_URL_LENGTH);
-        for (int i = 0; i < SHORT_URL_LENGTH; i++) {
-            int index = random.nextInt(BASE);
-            sb.append(ALPHABET.charAt(index));
+    /**
+     * Выгружает все ссылки хранилища в {@code out} в сжатом двоичном формате {@link LinkTransfer}; блоки сжимаются
+     * в {@code threads} потоках. {@code progress} (может быть null) получает ход выгрузки раз в секунду и в конце.
+     * Ссылки, изменённые во время выгрузки, попадают в неё в одном из состояний.
+     */
+    public TransferReport exportLinks(WritableByteChannel out, int threads, Consumer<TransferReport> progress)
+            throws IOException {
+        return LinkTransfer.export(store, out, threads, progress);
+    }
+
+    /**
+     * Загружает ссылки из выгрузки {@link #exportLinks} с исходными кодами, счётчиками и сроками; блоки
+     * разжимаются и сохраняются пачками в {@code threads} потоках. Ссылка, чей код уже занят, пропускается
+     * ({@link TransferReport#getSkipped()}). В режиме дедупликации загруженные ссылки попадают в индекс,
+     * в режиме компактных URL ({@link #setCompactUrls}) - хранят URL байтами.
+     */
+    public TransferReport importLinks(ReadableByteChannel in, int threads, Consumer<TransferReport> progress)
+            throws IOException {
+        return LinkTransfer.importLinks(in, threads, links -> {
+            if (compactUrls) {
+                for (ShortLink link : links) {
+                    link.setStoredUrl(storedUrl(link.getLongUrl()));
+                }
+            }
+            boolean[] stored = store.putAllIfAbsent(links);
+            UrlDeduplicator dedup = deduplicator;
+            if (dedup != null) {
+                for (int i = 0; i < stored.length; i++) {
+                    if (stored[i]) {
+                        dedup.register(links.get(i));
+                    }
+                }
+            }
+            return stored;
+        }, progress);
+    }
+
+    // Хранилище узла: ShardRouter копирует из него ссылки при переносе разделов
+    LinkStore getStore() {
+        return store;
+    }
+
+    // Убирает ссылку, перенесённую на другой узел: без уведомления владельца и без счётчика удалений
+    boolean evict(ShortLink link) {
+        if (!store.remove(link)) {
+            return false;
         }
-        return sb.toString();
+        onRemoved(link);
+        return true;
     }
 
-    // Очищает просроченные ссылки.
+    // Ищет ссылку по коду без префикса; строки, которые не являются кодом, считаются отсутствующими.
+    private ShortLink findLink(String code) {
+        long packed = ShortCodes.pack(code);
+        return packed == ShortCodes.INVALID ? null : store.get(packed);
+    }
+
+    // Очищает просроченные ссылки. Хранилище просматривает только то, что могло истечь
+    // (InMemoryLinkStore - корзины закончившихся слотов), а уведомления уходят одной пачкой на каждого владельца.
     public void cleanupExpiredLinks() {
-        LocalDateTime now = LocalDateTime.now();
-        Iterator<Map.Entry<String, ShortLink>> iterator = shortUrlMap.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, ShortLink> entry = iterator.next();
-            ShortLink link = entry.getValue();
-            if (link.getExpireAt().isBefore(now)) {
-                notifier.notify(link.getOwnerUuid(), "Ссылка " + link.getShortUrl() + " истекла и была удалена.");
-                iterator.remove();
-                userLinksMap.get(link.getOwnerUuid()).remove(link);
+        Map<UUID, List<String>> expiredByOwner = new LinkedHashMap<>();
+        for (ShortLink link : store.removeExpired(CoarseClock.nowEpochSecond())) {
+            onRemoved(link);
+            expiredByOwner.computeIfAbsent(link.getOwnerUuid(), k -> new ArrayList<>()).add(link.getShortUrl());
+        }
+        for (Map.Entry<UUID, List<String>> entry : expiredByOwner.entrySet()) {
+            List<String> codes = entry.getValue();
+            if (codes.size() == 1) {
+                notifier.notify(entry.getKey(), "Ссылка " + codes.get(0) + " истекла и была удалена.");
+            } else {
+                notifier.notify(entry.getKey(), "Ссылки " + String.join(", ", codes) + " истекли и были удалены.");
+            }
+        }
+    }
+
+    // Запускает фоновую очистку просроченных ссылок (раз в секунду).
+    public synchronized void startExpiryScheduler() {
+        if (expiryExecutor != null) {
+            return;
+        }
+        expiryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "link-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        expiryExecutor.scheduleAtFixedRate(() -> {
+            try {
+                cleanupExpiredLinks();
+            } catch (RuntimeException e) {
+                // Исключение отменило бы все следующие запуски
+                System.out.println("Ошибка фоновой очистки ссылок: " + e.getMessage());
             }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopExpiryScheduler() {
+        if (expiryExecutor != null) {
+            expiryExecutor.shutdownNow();
+            expiryExecutor = null;
         }
     }
 
+    // Счётчики переходов, задержки и размеры хранилища (см. UrlShorterMetrics)
+    public UrlShorterMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public int getLatencySampleRate() {
+        return latencySampleRate;
+    }
+
+    // 1 - измерять время каждого перехода, N - в среднем каждого N-го
+    public void setLatencySampleRate(int latencySampleRate) {
+        if (latencySampleRate < 1) {
+            throw new IllegalArgumentException("Частота выборки должна быть положительной.");
+        }
+        this.latencySampleRate = latencySampleRate;
+    }
+
     // Возвращает объект ShortLink по короткому URL.
     public ShortLink getShortLinkByShortUrl(String shortUrl) {
-        return shortUrlMap.get(normalizeShortUrl(shortUrl));
+        return findLink(normalizeShortUrl(shortUrl));
     }
 
     //Возвращает список коротких ссылок для заданного пользователя.
     public List<ShortLink> getShortLinksByUserUuid(UUID userUuid) {
-        return userLinksMap.getOrDefault(userUuid, Collections.emptyList());
+        return store.findByOwner(userUuid);
+    }
+
+    // Страница ссылок пользователя: не больше limit ссылок в порядке order после курсора (null - первая страница).
+    // Для владельцев с большим числом ссылок не копирует весь список.
+    public LinkPage getShortLinksByUserUuid(UUID userUuid, LinkOrder order, String cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным числом.");
+        }
+        return store.findByOwner(userUuid, order, cursor, limit);
     }
 }
@@ -1,6 +1,46 @@
 package com.denzo;
 
+import javax.management.ObjectName;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public class UrlShorterManualTest {
 
@@ -14,6 +54,29 @@ public class UrlShorterManualTest {
         pass &= testAdminAccess();
         pass &= testRepeatCreation();
         pass &= testSwitchUser();
+        pass &= testConcurrentRedirects();
+        pass &= testFeistelCodesUnique();
+        pass &= testExpiryCleanup();
+        pass &= testMappedStoreReopen();
+        pass &= testMappedStoreChurnAndGrowth();
+        pass &= testDurableStoreRecovery();
+        pass &= testRedirectServer();
+        pass &= testAsyncNotifier();
+        pass &= testMetrics();
+        pass &= testOwnerLinkPagination();
+        pass &= testBulkOperations();
+        pass &= testUrlDeduplication();
+        pass &= testCachingStore();
+        pass &= testStripedClicks();
+        pass &= testClickAnalytics();
+        pass &= testFilteredStore();
+        pass &= testAllocationFreeResolve();
+        pass &= testShardRouter();
+        pass &= testReplication();
+        pass &= testAdmissionControl();
+        pass &= testLinkTransfer();
+        pass &= testCompactUrls();
+        pass &= testAsyncUrlShorter();
 
         if (pass) {
             System.out.println("\nВсе тесты PASSED.");
@@ -163,4 +226,1908 @@ public class UrlShorterManualTest {
         System.out.println("testSwitchUser: " + (passed ? "PASSED" : "FAILED"));
         return passed;
     }
+
+    // Тестирует конкурентные переходы: при одновременных переходах из многих потоков лимит не превышается,
+    // а счётчик совпадает с числом успешных переходов.
+    public static boolean testConcurrentRedirects() {
+        UrlShorter urlShorter = new UrlShorter((userUuid, message) -> { });
+        UUID user = UUID.randomUUID();
+        String longUrl = "https://www.example.com";
+        int limit = 1000;
+        int threads = 8;
+        int attemptsPerThread = 500;
+
+        String shortUrl = urlShorter.buildShortUrl(longUrl, user, limit, 24);
+        AtomicInteger successes = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < attemptsPerThread; i++) {
+                    if (urlShorter.restoreLongUrl(shortUrl) != null) {
+                        successes.incrementAndGet();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        ShortLink link = urlShorter.getShortLinkByShortUrl(shortUrl);
+        boolean passed = successes.get() == limit && link.getCurrentCount() == limit;
+        System.out.println("testConcurrentRedirects: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    // Тестирует генератор на сети Фейстеля: коды из нескольких потоков не повторяются, имеют нужный формат
+    // и идут подряд по номерам, сколько бы потоков их ни брало.
+    public static boolean testFeistelCodesUnique() {
+        CodeGenerator generator = new FeistelCodeGenerator(42, 0);
+        int threads = 4;
+        int codesPerThread = 50_000;
+        Set<String> codes = ConcurrentHashMap.newKeySet();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < codesPerThread; i++) {
+                    codes.add(ShortCodes.unpack(generator.nextCode()));
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        boolean passed = codes.size() == threads * codesPerThread;
+        for (String code : codes) {
+            if (code.length() != ShortCodes.LENGTH) {
+                passed = false;
+                break;
+            }
+        }
+
+        // Блоки номеров принадлежат полосам, а не потокам: поток, создавший один код, не уносит целый блок,
+        // и коды короткоживущих потоков лежат среди первых номеров (плюс не больше блока на полосу)
+        FeistelCodeGenerator shared = new FeistelCodeGenerator(42, 0);
+        Thread[] shortLived = new Thread[200];
+        Set<Long> sharedCodes = ConcurrentHashMap.newKeySet();
+        for (int t = 0; t < shortLived.length; t++) {
+            shortLived[t] = new Thread(() -> sharedCodes.add(shared.nextCode()));
+            shortLived[t].start();
+        }
+        for (Thread thread : shortLived) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        FeistelCodeGenerator sequential = new FeistelCodeGenerator(42, 0);
+        Set<Long> firstCodes = new HashSet<>();
+        int bound = shortLived.length + 64 * 4 * Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < bound; i++) {
+            firstCodes.add(sequential.nextCode());
+        }
+        passed &= sharedCodes.size() == shortLived.length && firstCodes.containsAll(sharedCodes);
+        System.out.println("testFeistelCodesUnique: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    // Тестирует очистку по корзинам истечения: удаляются только истёкшие ссылки,
+    // а владелец получает одно уведомление на все свои истёкшие ссылки. Удалённая владельцем ссылка
+    // сразу уходит из корзины истечения.
+    public static boolean testExpiryCleanup() {
+        List<String> notifications = new CopyOnWriteArrayList<>();
+        UrlShorter urlShorter = new UrlShorter((userUuid, message) -> notifications.add(message));
+        UUID user = UUID.randomUUID();
+        String longUrl = "https://www.example.com";
+
+        for (int i = 0; i < 3; i++) {
+            urlShorter.buildShortUrl(longUrl, user, 5, 0);
+        }
+        String liveUrl = urlShorter.buildShortUrl(longUrl, user, 5, 24);
+        try {
+            Thread.sleep(1100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        urlShorter.cleanupExpiredLinks();
+
+        List<ShortLink> remaining = urlShorter.getShortLinksByUserUuid(user);
+        boolean passed = remaining.size() == 1
+                && (ShortCodes.PREFIX + remaining.get(0).getShortUrl()).equals(liveUrl)
+                && notifications.size() == 1
+                && urlShorter.restoreLongUrl(liveUrl) != null;
+
+        InMemoryLinkStore store = new InMemoryLinkStore();
+        UrlShorter deleting = new UrlShorter(store, (userUuid, message) -> { }, new FeistelCodeGenerator());
+        List<String> created = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            created.add(deleting.buildShortUrl(longUrl + "/" + i, user, 5, 24));
+        }
+        for (int i = 0; i < 60; i++) {
+            passed &= deleting.removeLink(created.get(i), user) == LinkUpdateStatus.UPDATED;
+        }
+        passed &= store.pendingExpiry() == 40 && store.size() == 40;
+        System.out.println("testExpiryCleanup: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    // Тестирует хранилище в отображённых файлах: ссылка, счётчик и лимит переживают повторное открытие.
+    public static boolean testMappedStoreReopen() {
+        Notifier notifier = (userUuid, message) -> { };
+        UUID user = UUID.randomUUID();
+        String longUrl = "https://www.example.com/путь?q=1";
+        try {
+            Path directory = Files.createTempDirectory("shortlinks-mapped");
+            String shortUrl;
+            String deletedUrl;
+            try (MappedLinkStore store = MappedLinkStore.open(directory, 1024)) {
+                UrlShorter urlShorter = new UrlShorter(store, notifier, new FeistelCodeGenerator(7, 0));
+                shortUrl = urlShorter.buildShortUrl(longUrl, user, 1, 24);
+                deletedUrl = urlShorter.buildShortUrl(longUrl, user, 3, 24);
+                urlShorter.restoreLongUrl(shortUrl);
+                if (urlShorter.restoreLongUrl(shortUrl) != null) {
+                    System.out.println("testMappedStoreReopen: FAILED (лимит не соблюдается)");
+                    return false;
+                }
+                urlShorter.editLimit(shortUrl, 2, user);
+                urlShorter.deleteLink(deletedUrl, user);
+            }
+            try (MappedLinkStore store = MappedLinkStore.open(directory, 1024)) {
+                UrlShorter urlShorter = new UrlShorter(store, notifier, new FeistelCodeGenerator(7, 0));
+                ShortLink link = urlShorter.getShortLinkByShortUrl(shortUrl);
+                boolean passed = link != null
+                        && link.getCurrentCount() == 1
+                        && link.getLimit() == 2
+                        && longUrl.equals(urlShorter.restoreLongUrl(shortUrl))
+                        && urlShorter.restoreLongUrl(shortUrl) == null
+                        && urlShorter.getShortLinkByShortUrl(deletedUrl) == null
+                        && urlShorter.getShortLinksByUserUuid(user).size() == 1;
+                // Генератор с тем же seed продолжает выдачу с сохранённой границы, а не с кода первой ссылки
+                String afterReopen = urlShorter.buildShortUrl(longUrl, user, 1, 24);
+                passed &= !afterReopen.equals(shortUrl) && urlShorter.getMetrics().getCodeRetries() == 0;
+                // Метрики владельцев потребовали бы обхода всей таблицы и не собираются
+                passed &= urlShorter.getMetrics().getOwners() == -1
+                        && !urlShorter.getMetrics().toPrometheusText().contains("shortlinks_owners");
+                System.out.println("testMappedStoreReopen: " + (passed ? "PASSED" : "FAILED"));
+                return passed;
+            }
+        } catch (IOException e) {
+            System.out.println("testMappedStoreReopen: FAILED (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    // Проверяет, что MappedLinkStore не забивается удалёнными слотами при создании и удалении ссылок, освобождает
+    // место удалённых URL и растёт сверх начальной ёмкости, не теряя переходов, засчитанных во время пересборки.
+    public static boolean testMappedStoreChurnAndGrowth() {
+        UUID owner = UUID.randomUUID();
+        long now = CoarseClock.nowEpochSecond();
+        String url = "https://www.example.com/churn/0123456789";
+        try {
+            boolean passed;
+            try (MappedLinkStore store = MappedLinkStore.open(Files.createTempDirectory("shortlinks-churn"), 1024)) {
+                // Около 45% живых ссылок, 100 000 созданий и удалений: раньше таблица зависала через ~31 000
+                List<ShortLink> live = new ArrayList<>();
+                for (int i = 0; i < 100_000; i++) {
+                    ShortLink link = new ShortLink(url, i, 10, now, now + 3600, owner.getMostSignificantBits(),
+                            owner.getLeastSignificantBits());
+                    store.putIfAbsent(link);
+                    live.add(link);
+                    if (live.size() > 460) {
+                        store.remove(live.remove(0));
+                    }
+                }
+                passed = store.size() == 460 && store.capacity() == 1024
+                        && store.urlBytes() <= 1024L * url.length()
+                        && store.get(99_999) != null && store.get(0) == null;
+            }
+
+            Path directory = Files.createTempDirectory("shortlinks-grow");
+            int links = 100_000;
+            AtomicInteger clicks = new AtomicInteger();
+            try (MappedLinkStore store = MappedLinkStore.open(directory, 16)) {
+                ShortLink hot = new ShortLink(url, links, Integer.MAX_VALUE, now, now + 3600,
+                        owner.getMostSignificantBits(), owner.getLeastSignificantBits());
+                store.putIfAbsent(hot);
+                AtomicBoolean done = new AtomicBoolean();
+                Thread clicker = new Thread(() -> {
+                    while (!done.get()) {
+                        if (store.tryIncrement(hot)) {
+                            clicks.incrementAndGet();
+                        }
+                    }
+                });
+                clicker.start();
+                for (int i = 0; i < links; i++) {
+                    store.putIfAbsent(new ShortLink(url + i, i, 10, now, now + 3600,
+                            owner.getMostSignificantBits(), owner.getLeastSignificantBits()));
+                }
+                done.set(true);
+                clicker.join();
+                passed &= store.size() == links + 1 && store.capacity() > links
+                        && store.get(links).getCurrentCount() == clicks.get();
+            }
+            try (MappedLinkStore store = MappedLinkStore.open(directory, 16)) {
+                int found = 0;
+                for (int i = 0; i < links; i++) {
+                    ShortLink link = store.get(i);
+                    found += link != null && (url + i).equals(link.getLongUrl()) ? 1 : 0;
+                }
+                passed &= found == links && store.get(links).getCurrentCount() == clicks.get();
+                try (Stream<Path> files = Files.list(directory)) {
+                    // Индекс и одна область URL: файлы прежних поколений удалены
+                    passed &= files.count() == 2;
+                }
+            }
+            System.out.println("testMappedStoreChurnAndGrowth: " + (passed ? "PASSED" : "FAILED"));
+            return passed;
+        } catch (IOException | InterruptedException e) {
+            System.out.println("testMappedStoreChurnAndGrowth: FAILED (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    // Проверяет восстановление DurableLinkStore из снимка и журнала: изменения до и после снимка сохраняются,
+    // а оборванная запись в конце журнала (как при сбое) пропускается.
+    public static boolean testDurableStoreRecovery() {
+        Notifier notifier = (userUuid, message) -> { };
+        UUID user = UUID.randomUUID();
+        String longUrl = "https://www.example.com/журнал";
+        try {
+            Path directory = Files.createTempDirectory("shortlinks-wal");
+            String snapshotUrl;
+            String shortUrl;
+            String deletedUrl;
+            try (DurableLinkStore store = DurableLinkStore.open(directory)) {
+                UrlShorter urlShorter = new UrlShorter(store, notifier, new FeistelCodeGenerator(7, 0));
+                snapshotUrl = urlShorter.buildShortUrl(longUrl, user, 5, 24);
+                urlShorter.restoreLongUrl(snapshotUrl);
+                store.snapshot();
+                urlShorter.restoreLongUrl(snapshotUrl);
+                shortUrl = urlShorter.buildShortUrl(longUrl, user, 1, 24);
+                deletedUrl = urlShorter.buildShortUrl(longUrl, user, 3, 24);
+                urlShorter.restoreLongUrl(shortUrl);
+                urlShorter.editLimit(shortUrl, 2, user);
+                urlShorter.deleteLink(deletedUrl, user);
+            }
+            try (Stream<Path> files = Files.list(directory)) {
+                Path lastSegment = files.filter(file -> file.toString().endsWith(".wal")).sorted()
+                        .reduce((first, second) -> second).orElseThrow();
+                Files.write(lastSegment, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+            }
+            try (DurableLinkStore store = DurableLinkStore.open(directory)) {
+                UrlShorter urlShorter = new UrlShorter(store, notifier, new FeistelCodeGenerator(7, 0));
+                ShortLink snapshotLink = urlShorter.getShortLinkByShortUrl(snapshotUrl);
+                ShortLink link = urlShorter.getShortLinkByShortUrl(shortUrl);
+                boolean passed = snapshotLink != null
+                        && snapshotLink.getCurrentCount() == 2
+                        && link != null
+                        && link.getCurrentCount() == 1
+                        && link.getLimit() == 2
+                        && longUrl.equals(urlShorter.restoreLongUrl(shortUrl))
+                        && urlShorter.restoreLongUrl(shortUrl) == null
+                        && urlShorter.getShortLinkByShortUrl(deletedUrl) == null
+                        && urlShorter.getShortLinksByUserUuid(user).size() == 2;
+                // Состояние генератора восстановлено из снимка: код первой ссылки не выдаётся повторно
+                String afterRecovery = urlShorter.buildShortUrl(longUrl, user, 1, 24);
+                passed &= !afterRecovery.equals(snapshotUrl) && urlShorter.getMetrics().getCodeRetries() == 0;
+                System.out.println("testDurableStoreRecovery: " + (passed ? "PASSED" : "FAILED"));
+                return passed;
+            }
+        } catch (IOException e) {
+            System.out.println("testDurableStoreRecovery: FAILED (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    // Проверяет HTTP-сервер: создание через JSON API, 302 на существующую ссылку, 410 после исчерпания лимита,
+    // 404 на несуществующую, смену лимита и удаление только владельцем.
+    public static boolean testRedirectServer() {
+        UrlShorter urlShorter = new UrlShorter((userUuid, message) -> { });
+        urlShorter.setClickAnalytics(true);
+        UUID owner = UUID.randomUUID();
+        RedirectServer server = null;
+        try {
+            server = new RedirectServer(urlShorter, new InetSocketAddress("127.0.0.1", 0));
+            server.start();
+            String base = "http://127.0.0.1:" + server.getPort();
+            HttpClient client = HttpClient.newHttpClient();
+
+            HttpResponse<String> created = client.send(HttpRequest.newBuilder(URI.create(base + "/api/links"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"longUrl\":\"https://www.example.com/?a=1\","
+                            + "\"owner\":\"" + owner + "\",\"limit\":1,\"lifetimeHours\":24}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            String code = Json.parseObject(created.body()).get("code");
+            HttpRequest redirect = HttpRequest.newBuilder(URI.create(base + "/" + code))
+                    .header("Referer", "https://news.example.com/post/1").build();
+            HttpResponse<String> first = client.send(redirect, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> second = client.send(redirect, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> missing = client.send(HttpRequest.newBuilder(URI.create(base + "/zzzzzz")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> foreignEdit = client.send(HttpRequest.newBuilder(URI.create(base + "/api/links/" + code))
+                    .PUT(HttpRequest.BodyPublishers.ofString("{\"owner\":\"" + UUID.randomUUID() + "\",\"limit\":5}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> edit = client.send(HttpRequest.newBuilder(URI.create(base + "/api/links/" + code))
+                    .PUT(HttpRequest.BodyPublishers.ofString("{\"owner\":\"" + owner + "\",\"limit\":5}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> afterEdit = client.send(redirect, HttpResponse.BodyHandlers.ofString());
+            urlShorter.getClickAnalytics().flush();
+            HttpResponse<String> clicks = client.send(HttpRequest.newBuilder(
+                    URI.create(base + "/api/links/" + code + "/clicks?owner=" + owner)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> list = client.send(HttpRequest.newBuilder(
+                    URI.create(base + "/api/links?owner=" + owner + "&order=expires&limit=10")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> delete = client.send(HttpRequest.newBuilder(
+                    URI.create(base + "/api/links/" + code + "?owner=" + owner)).DELETE().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> afterDelete = client.send(redirect, HttpResponse.BodyHandlers.ofString());
+
+            boolean passed = created.statusCode() == 201
+                    && first.statusCode() == 302
+                    && "https://www.example.com/?a=1".equals(first.headers().firstValue("Location").orElse(null))
+                    && second.statusCode() == 410
+                    && missing.statusCode() == 404
+                    && foreignEdit.statusCode() == 403
+                    && edit.statusCode() == 200
+                    && afterEdit.statusCode() == 302
+                    && clicks.statusCode() == 200
+                    && clicks.body().contains("\"lastDay\":2,")
+                    && clicks.body().contains("\"referrers\":{\"news.example.com\":2}")
+                    && list.statusCode() == 200
+                    && list.body().contains("\"code\":\"" + code + "\"")
+                    && list.body().endsWith("\"nextCursor\":null}")
+                    && delete.statusCode() == 200
+                    && afterDelete.statusCode() == 404;
+            System.out.println("testRedirectServer: " + (passed ? "PASSED" : "FAILED"));
+            return passed;
+        } catch (IOException | InterruptedException e) {
+            System.out.println("testRedirectServer: FAILED (" + e.getMessage() + ")");
+            return false;
+        } finally {
+            if (server != null) {
+                server.stop(0);
+            }
+        }
+    }
+
+    // Проверяет AsyncNotifier: вызов не ждёт медленного получателя, повторы отбрасываются,
+    // а при заполненной очереди в режиме DROP уведомления отбрасываются и учитываются.
+    public static boolean testAsyncNotifier() {
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        Notifier slow = (userUuid, message) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(userUuid + ":" + message);
+        };
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        boolean passed;
+        try (AsyncNotifier notifier = new AsyncNotifier(slow, 64, BackpressureMode.DROP, 1024, 60_000)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 1000; i++) {
+                notifier.notify(first, "Ссылка abc достигла лимита переходов.");
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            release.countDown();
+            notifier.flush();
+            long droppedWhileBlocked = notifier.getDroppedCount();
+
+            notifier.notify(second, "Ссылка a истекла.");
+            notifier.notify(second, "Ссылка b истекла.");
+            notifier.notify(first, "Ссылка abc достигла лимита переходов.");
+            notifier.flush();
+
+            passed = elapsedMillis < 1000
+                    && droppedWhileBlocked > 0
+                    && notifier.getQueuedCount() + notifier.getDroppedCount() == 1003
+                    && received.contains(first + ":Ссылка abc достигла лимита переходов.")
+                    && received.stream().filter(m -> m.startsWith(first.toString())).count() == 1
+                    && received.stream().anyMatch(m -> m.startsWith(second.toString()) && m.contains("a истекла"))
+                    && received.stream().anyMatch(m -> m.startsWith(second.toString()) && m.contains("b истекла"))
+                    && notifier.getDeduplicatedCount() > 0;
+        }
+        System.out.println("testAsyncNotifier: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    // Проверяет метрики: счётчики по результатам перехода, гистограмму задержек, текст для Prometheus и JMX.
+    public static boolean testMetrics() {
+        UrlShorter urlShorter = new UrlShorter((userUuid, message) -> { });
+        urlShorter.setLatencySampleRate(1);
+        UUID user = UUID.randomUUID();
+        String shortUrl = urlShorter.buildShortUrl("https://www.example.com", user, 2, 24);
+        String expiredUrl = urlShorter.buildShortUrl("https://www.example.com", user, 2, -1);
+        urlShorter.buildShortUrl("https://www.example.com", UUID.randomUUID(), 2, 24);
+        urlShorter.resolve(shortUrl);
+        urlShorter.resolve(shortUrl);
+        urlShorter.resolve(shortUrl);
+        urlShorter.resolve("zzzzzz");
+        urlShorter.resolve(expiredUrl);
+
+        UrlShorterMetrics metrics = urlShorter.getMetrics();
+        LatencyHistogram.Snapshot latency = metrics.getResolveLatency().snapshot();
+        String text = metrics.toPrometheusText();
+        boolean passed = metrics.getResolveHits() == 2
+                && metrics.getResolveLimitExceeded() == 1
+                && metrics.getResolveMisses() == 1
+                && metrics.getResolveExpired() == 1
+                && metrics.getLinksCreated() == 3
+                && metrics.getLiveLinks() == 2
+                && metrics.getOwners() == 2
+                && metrics.getMaxLinksPerOwner() == 1
+                && latency.getTotalCount() == 5
+                && latency.getValueAtPercentile(50) <= latency.getMax()
+                && text.contains("shortlinks_resolve_total{outcome=\"hit\"} 2")
+                && text.contains("shortlinks_resolve_latency_seconds{quantile=\"0.5\"}")
+                && !text.contains("shortlinks_resolve_latency_seconds_count")
+                && text.contains("shortlinks_create_latency_seconds_count 3");
+
+        String name = "manual-test-" + UUID.randomUUID();
+        try {
+            metrics.register(name);
+            Object hits = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    new ObjectName("com.denzo:type=UrlShorter,name=" + ObjectName.quote(name)),
+                    "ResolveHits");
+            passed &= Long.valueOf(2).equals(hits);
+            metrics.unregister(name);
+        } catch (Exception e) {
+            passed = false;
+        }
+
+        // Граница корзины гистограммы отличается от значения не больше чем на 1/64
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_000);
+        long recorded = histogram.snapshot().getMax();
+        passed &= recorded >= 1_000_000 && recorded <= 1_000_000 + 1_000_000 / 64;
+
+        System.out.println("testMetrics: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    public static boolean testOwnerLinkPagination() {
+        UrlShorter urlShorter = new UrlShorter((userUuid, message) -> { });
+        UUID user = UUID.randomUUID();
+        List<String> created = new ArrayList<>();
+        // Чем позже создана ссылка, тем раньше она истекает: порядки CREATED и EXPIRES противоположны
+        for (int i = 0; i < 250; i++) {
+            created.add(urlShorter.buildShortUrl("https://www.example.com/" + i, user, 5, 1000 - i));
+        }
+        urlShorter.buildShortUrl("https://www.example.com", UUID.randomUUID(), 5, 24);
+
+        boolean passed = true;
+        for (LinkOrder order : LinkOrder.values()) {
+            List<String> expected = new ArrayList<>(created);
+            if (order == LinkOrder.EXPIRES) {
+                Collections.reverse(expected);
+            }
+            Set<String> deleted = new HashSet<>();
+            List<String> seen = new ArrayList<>();
+            String cursor = null;
+            int pages = 0;
+            do {
+                LinkPage page = urlShorter.getShortLinksByUserUuid(user, order, cursor, 40);
+                for (ShortLink link : page.getLinks()) {
+                    seen.add(ShortCodes.PREFIX + link.getShortUrl());
+                }
+                cursor = page.getNextCursor();
+                pages++;
+                // Между страницами удаляем последнюю выданную ссылку (на неё указывает курсор) и ещё не выданную
+                if (cursor != null) {
+                    String last = seen.get(seen.size() - 1);
+                    String ahead = expected.get(Math.min(expected.size() - 1, seen.size() + 5));
+                    passed &= urlShorter.deleteLink(last, user);
+                    deleted.add(last);
+                    if (!deleted.contains(ahead) && !seen.contains(ahead)) {
+                        passed &= urlShorter.deleteLink(ahead, user);
+                        deleted.add(ahead);
+                    }
+                }
+            } while (cursor != null && pages < 100);
+
+            List<String> expectedSeen = new ArrayList<>();
+            for (String shortUrl : expected) {
+                if (!deleted.contains(shortUrl) || seen.contains(shortUrl)) {
+                    expectedSeen.add(shortUrl);
+                }
+            }
+            passed &= seen.equals(expectedSeen) && new HashSet<>(seen).size() == seen.size();
+
+            // Удалённые ссылки в проверке следующего порядка уже не участвуют
+            created.removeAll(deleted);
+        }
+
+        List<ShortLink> all = urlShorter.getShortLinksByUserUuid(user);
+        passed &= all.size() == created.size();
+        for (int i = 0; i < all.size() && passed; i++) {
+            passed = (ShortCodes.PREFIX + all.get(i).getShortUrl()).equals(created.get(i));
+        }
+        passed &= urlShorter.getMetrics().getMaxLinksPerOwner() == created.size();
+
+        try {
+            urlShorter.getShortLinksByUserUuid(user, LinkOrder.CREATED, "мусор", 10);
+            passed = false;
+        } catch (IllegalArgumentException e) {
+            // ожидаемо
+        }
+
+        // Старый курсор не пропускает ссылки, созданные после того, как индекс владельца удалили и создали заново
+        UUID returning = UUID.randomUUID();
+        List<String> before = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            before.add(urlShorter.buildShortUrl("https://www.example.com/before/" + i, returning, 5, 24));
+        }
+        String staleCursor = urlShorter.getShortLinksByUserUuid(returning, LinkOrder.CREATED, null, 2).getNextCursor();
+        for (String shortUrl : before) {
+            passed &= urlShorter.deleteLink(shortUrl, returning);
+        }
+        for (int i = 0; i < 3; i++) {
+            urlShorter.buildShortUrl("https://www.example.com/after/" + i, returning, 5, 24);
+        }
+        LinkPage afterRecreate = urlShorter.getShortLinksByUserUuid(returning, LinkOrder.CREATED, staleCursor, 10);
+        passed &= staleCursor != null && afterRecreate.getLinks().size() == 3;
+
+        // Индекс владельца уходит из карты вместе с последней ссылкой, а одновременно добавленная ссылка
+        // в удалённый индекс не теряется
+        InMemoryLinkStore store = new InMemoryLinkStore();
+        UrlShorter churn = new UrlShorter(store, (userUuid, message) -> { }, new FeistelCodeGenerator());
+        UUID shared = UUID.randomUUID();
+        List<String> kept = new CopyOnWriteArrayList<>();
+        Thread keeper = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                kept.add(churn.buildShortUrl("https://www.example.com/kept/" + i, shared, 5, 24));
+            }
+        });
+        keeper.start();
+        for (int i = 0; i < 2000; i++) {
+            String temporary = churn.buildShortUrl("https://www.example.com/temporary/" + i, shared, 5, 24);
+            passed &= churn.removeLink(temporary, shared) == LinkUpdateStatus.UPDATED;
+            UUID single = UUID.randomUUID();
+            passed &= churn.removeLink(churn.buildShortUrl("https://www.example.com/single/" + i, single, 5, 24),
+                    single) == LinkUpdateStatus.UPDATED;
+        }
+        try {
+            keeper.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        passed &= churn.getShortLinksByUserUuid(shared).size() == kept.size() && store.ownerIndexCount() == 1;
+        for (String shortUrl : kept) {
+            passed &= churn.removeLink(shortUrl, shared) == LinkUpdateStatus.UPDATED;
+        }
+        passed &= store.ownerIndexCount() == 0;
+
+        // Хранилище вне кучи листает одним просмотром таблицы на страницу в порядке (ключ, код)
+        try (MappedLinkStore mapped = MappedLinkStore.open(Files.createTempDirectory("shortlinks-pages"), 1024)) {
+            UrlShorter mappedShorter = new UrlShorter(mapped, (userUuid, message) -> { }, new FeistelCodeGenerator());
+            UUID owner = UUID.randomUUID();
+            for (int i = 0; i < 120; i++) {
+                mappedShorter.buildShortUrl("https://www.example.com/mapped/" + i, owner, 5, 1 + i % 7);
+                mappedShorter.buildShortUrl("https://www.example.com/other/" + i, UUID.randomUUID(), 5, 24);
+            }
+            for (LinkOrder order : LinkOrder.values()) {
+                List<ShortLink> expected = new ArrayList<>(mapped.findByOwner(owner));
+                expected.sort(Comparator.comparingLong((ShortLink link) -> order == LinkOrder.CREATED
+                        ? link.getCreationEpochSecond() : link.getExpireAtEpochSecond())
+                        .thenComparingLong(ShortLink::getCode));
+                Set<Long> deleted = new HashSet<>();
+                List<Long> seen = new ArrayList<>();
+                String cursor = null;
+                int pages = 0;
+                do {
+                    LinkPage page = mapped.findByOwner(owner, order, cursor, 25);
+                    for (ShortLink link : page.getLinks()) {
+                        seen.add(link.getCode());
+                    }
+                    cursor = page.getNextCursor();
+                    pages++;
+                    // Удаление ссылки под курсором не сбивает следующую страницу
+                    if (cursor != null) {
+                        long last = seen.get(seen.size() - 1);
+                        passed &= mapped.remove(mapped.get(last));
+                        deleted.add(last);
+                    }
+                } while (cursor != null && pages < 100);
+                List<Long> expectedSeen = new ArrayList<>();
+                for (ShortLink link : expected) {
+                    expectedSeen.add(link.getCode());
+                }
+                passed &= seen.equals(expectedSeen) && pages == 5
+                        && mapped.findByOwner(owner).size() == expected.size() - deleted.size();
+            }
+        } catch (IOException e) {
+            passed = false;
+        }
+
+        System.out.println("testOwnerLinkPagination: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    // Проверяет пакетное создание и переход: большая пачка (параллельная обработка) в памяти
+    // и малая пачка в DurableLinkStore, которая должна пережить перезапуск.
+    public static boolean testBulkOperations() {
+        Notifier notifier = (userUuid, message) -> { };
+        UrlShorter urlShorter = new UrlShorter(notifier);
+        UUID[] owners = {UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()};
+        List<LinkRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            requests.add(new LinkRequest("https://www.example.com/" + i, owners[i / 7000], 1, 24));
+        }
+        List<String> shortUrls = urlShorter.buildShortUrls(requests);
+
+        List<String> toResolve = new ArrayList<>(shortUrls);
+        toResolve.add("zzzzzz");
+        toResolve.add(shortUrls.get(0));
+        List<String> longUrls = urlShorter.restoreLongUrls(toResolve);
+
+        // Первая ссылка запрошена дважды, а лимит у неё 1. Части большой пачки обрабатываются параллельно,
+        // поэтому переход засчитывается одному из двух запросов, но не обоим.
+        String first = requests.get(0).getLongUrl();
+        boolean firstOnce = first.equals(longUrls.get(0)) != first.equals(longUrls.get(longUrls.size() - 1));
+        longUrls.set(0, first);
+        boolean passed = shortUrls.size() == requests.size()
+                && new HashSet<>(shortUrls).size() == shortUrls.size()
+                && longUrls.size() == toResolve.size()
+                && longUrls.get(longUrls.size() - 2) == null
+                && firstOnce
+                && urlShorter.getShortLinksByUserUuid(owners[0]).size() == 7000
+                && urlShorter.getShortLinksByUserUuid(owners[2]).size() == 6000
+                && urlShorter.getMetrics().getLinksCreated() == requests.size();
+        for (int i = 0; i < shortUrls.size() && passed; i++) {
+            passed = shortUrls.get(i).startsWith(ShortCodes.PREFIX)
+                    && requests.get(i).getLongUrl().equals(longUrls.get(i))
+                    && urlShorter.getShortLinkByShortUrl(shortUrls.get(i)).isOwnedBy(requests.get(i).getOwnerUuid());
+        }
+        // Части большой пачки добавляются параллельно, поэтому порядок внутри владельца не проверяется -
+        // только то, что страницы покрывают все его ссылки без повторов
+        Set<String> paged = new HashSet<>();
+        String cursor = null;
+        do {
+            LinkPage page = urlShorter.getShortLinksByUserUuid(owners[1], LinkOrder.CREATED, cursor, 1000);
+            for (ShortLink link : page.getLinks()) {
+                passed &= paged.add(ShortCodes.PREFIX + link.getShortUrl());
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        passed &= paged.equals(new HashSet<>(shortUrls.subList(7000, 14_000)));
+
+        try {
+            Path directory = Files.createTempDirectory("shortlinks-bulk");
+            LogConfig config = new LogConfig();
+            config.setMutationDurability(Durability.SYNC);
+            List<String> durableUrls;
+            try (DurableLinkStore store = DurableLinkStore.open(directory, config)) {
+                durableUrls = new UrlShorter(store, notifier, new FeistelCodeGenerator()).buildShortUrls(
+                        requests.subList(0, 500));
+            }
+            try (DurableLinkStore store = DurableLinkStore.open(directory, config)) {
+                UrlShorter reopened = new UrlShorter(store, notifier, new FeistelCodeGenerator());
+                List<String> restored = reopened.restoreLongUrls(durableUrls);
+                passed &= store.size() == 500;
+                for (int i = 0; i < restored.size() && passed; i++) {
+                    passed = requests.get(i).getLongUrl().equals(restored.get(i));
+                }
+            }
+        } catch (IOException e) {
+            passed = false;
+        }
+
+        System.out.println("testBulkOperations: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    // Создаёт и удаляет по 100 ссылок двух владельцев на 100 URL: после удаления не остаётся общих URL
+    private static boolean releasesSharedUrls(UrlShorter urlShorter) {
+        UUID user = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        List<String> links = new ArrayList<>();
+        links.add(urlShorter.buildShortUrl("https://www.example.com/shared/before", user, 5, 24));
+        urlShorter.setDeduplicateUrls(true);
+        for (int i = 0; i < 100; i++) {
+            links.add(urlShorter.buildShortUrl("https://www.example.com/shared/" + i, user, 5, 24));
+            links.add(urlShorter.buildShortUrl("https://www.example.com/shared/" + i, other, 5, 24));
+        }
+        links.add(urlShorter.buildShortUrl("https://www.example.com/shared/before", other, 5, 24));
+        boolean shared = urlShorter.sharedUrls() == (urlShorter.getStore().keepsLinkObjects() ? 101 : 0);
+        for (String link : links) {
+            urlShorter.removeLink(link, urlShorter.getShortLinkByShortUrl(link).getOwnerUuid());
+        }
+        return shared && urlShorter.sharedUrls() == 0;
+    }
+
+    // Проверяет режим дедупликации: повтор возвращает действующую ссылку владельца, другие владельцы
+    // получают свои ссылки с общей строкой URL, а удалённая или исчерпанная ссылка заменяется новой.
+    public static boolean testUrlDeduplication() {
+        UrlShorter urlShorter = new UrlShorter((userUuid, message) -> { });
+        UUID user = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        // Ссылка, созданная до включения режима, тоже находится по URL
+        String before = urlShorter.buildShortUrl("https://www.example.com/before", user, 5, 24);
+        urlShorter.setDeduplicateUrls(true);
+
+        String first = urlShorter.buildShortUrl("https://www.example.com/a?x=1", user, 5, 24);
+        String repeat = urlShorter.buildShortUrl("HTTPS://WWW.Example.com:443/a?x=1", user, 5, 24);
+        String otherOwner = urlShorter.buildShortUrl("https://www.example.com/a?x=1", other, 5, 24);
+        String differentQuery = urlShorter.buildShortUrl("https://www.example.com/a?x=2", user, 5, 24);
+        String beforeRepeat = urlShorter.buildShortUrl("https://www.example.com/before", user, 5, 24);
+
+        boolean passed = first.equals(repeat)
+                && !first.equals(otherOwner)
+                && !first.equals(differentQuery)
+                && before.equals(beforeRepeat)
+                && urlShorter.getShortLinkByShortUrl(first).getLongUrl()
+                == urlShorter.getShortLinkByShortUrl(otherOwner).getLongUrl()
+                && urlShorter.getMetrics().getLinksDeduplicated() == 2;
+
+        // Исчерпанный лимит: повтор создаёт новую ссылку
+        String limited = urlShorter.buildShortUrl("https://www.example.com/limited", user, 1, 24);
+        urlShorter.resolve(limited);
+        passed &= !limited.equals(urlShorter.buildShortUrl("https://www.example.com/limited", user, 1, 24));
+
+        // Удалённая ссылка больше не возвращается
+        urlShorter.deleteLink(first, user);
+        String recreated = urlShorter.buildShortUrl("https://www.example.com/a?x=1", user, 5, 24);
+        passed &= !recreated.equals(first)
+                && "https://www.example.com/a?x=1".equals(urlShorter.resolve(recreated).getLongUrl());
+
+        // Без режима дедупликации повтор снова создаёт новую ссылку
+        urlShorter.setDeduplicateUrls(false);
+        passed &= !recreated.equals(urlShorter.buildShortUrl("https://www.example.com/a?x=1", user, 5, 24));
+
+        // Общие URL отпускаются вместе с последней ссылкой, в том числе учтённой при включении режима, а хранилище
+        // с копиями ссылок (MappedLinkStore) общих URL не держит
+        passed &= releasesSharedUrls(new UrlShorter(new InMemoryLinkStore(), (userUuid, message) -> { },
+                new FeistelCodeGenerator()));
+        try (MappedLinkStore store = MappedLinkStore.open(Files.createTempDirectory("shortlinks-dedup"), 1024)) {
+            passed &= releasesSharedUrls(new UrlShorter(store, (userUuid, message) -> { }, new FeistelCodeGenerator()));
+        } catch (IOException e) {
+            passed = false;
+        }
+
+        passed &= UrlDeduplicator.normalize("HTTP://Example.COM:80").equals("http://example.com/")
+                && UrlDeduplicator.normalize("https://user@Host.com/Path?Q=1").equals("https://user@host.com/Path?Q=1");
+
+        System.out.println("testUrlDeduplication: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    // Проверяет CachingLinkStore перед MappedLinkStore: горячие ссылки переживают однократный проход по всем ссылкам,
+    // лимит переходов соблюдается при чтении из кэша, а смена лимита, удаление и истечение видны сразу.
+    public static boolean testCachingStore() {
+        Notifier notifier = (userUuid, message) -> { };
+        UUID user = UUID.randomUUID();
+        try (CachingLinkStore store = new CachingLinkStore(
+                MappedLinkStore.open(Files.createTempDirectory("shortlinks-cache"), 4096), 64)) {
+            UrlShorter urlShorter = new UrlShorter(store, notifier, new FeistelCodeGenerator());
+            List<String> shortUrls = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                shortUrls.add(urlShorter.buildShortUrl("https://www.example.com/" + i, user, Integer.MAX_VALUE, 24));
+            }
+            List<String> hot = shortUrls.subList(0, 5);
+            for (int round = 0; round < 20; round++) {
+                hot.forEach(urlShorter::resolve);
+            }
+            // Однократный проход по всем ссылкам не должен вытеснить горячие
+            shortUrls.forEach(urlShorter::resolve);
+            long hitsBefore = store.getHitCount();
+            hot.forEach(urlShorter::resolve);
+            boolean passed = store.getHitCount() - hitsBefore == hot.size()
+                    && store.getCachedCount() <= 64
+                    && store.getHitRatio() > 0
+                    && urlShorter.getMetrics().getCacheHits() == store.getHitCount()
+                    && urlShorter.getMetrics().toPrometheusText().contains("shortlinks_cache_requests_total{result=\"hit\"}");
+
+            String limited = urlShorter.buildShortUrl("https://www.example.com/limited", user, 3, 24);
+            int found = 0;
+            for (int i = 0; i < 5; i++) {
+                if (urlShorter.resolve(limited).getStatus() == ResolveStatus.FOUND) {
+                    found++;
+                }
+            }
+            passed &= found == 3;
+            urlShorter.editLimit(limited, 4, user);
+            passed &= urlShorter.getShortLinkByShortUrl(limited).getLimit() == 4
+                    && urlShorter.resolve(limited).getStatus() == ResolveStatus.FOUND
+                    && urlShorter.resolve(limited).getStatus() == ResolveStatus.LIMIT_EXCEEDED;
+
+            urlShorter.deleteLink(hot.get(0), user);
+            passed &= urlShorter.resolve(hot.get(0)).getStatus() == ResolveStatus.NOT_FOUND;
+
+            String expired = urlShorter.buildShortUrl("https://www.example.com/expired", user, 5, -1);
+            passed &= urlShorter.resolve(expired).getStatus() == ResolveStatus.EXPIRED
+                    && urlShorter.resolve(expired).getStatus() == ResolveStatus.NOT_FOUND;
+
+            // Попадания без блокировки: удаление, завершившееся во время чтений, видно всем читателям сразу
+            long removedCode = urlShorter.getShortLinkByShortUrl(hot.get(1)).getCode();
+            AtomicBoolean deleted = new AtomicBoolean();
+            AtomicBoolean stale = new AtomicBoolean();
+            Thread[] readers = new Thread[4];
+            for (int t = 0; t < readers.length; t++) {
+                readers[t] = new Thread(() -> {
+                    for (int i = 0; i < 20_000; i++) {
+                        boolean after = deleted.get();
+                        if (store.get(removedCode) != null && after) {
+                            stale.set(true);
+                        }
+                        store.get(ShortCodes.packShortUrl(shortUrls.get(i % 200)));
+                    }
+                });
+                readers[t].start();
+            }
+            Thread.sleep(5);
+            urlShorter.deleteLink(hot.get(1), user);
+            deleted.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            passed &= !stale.get() && store.getCachedCount() <= 64;
+
+            System.out.println("testCachingStore: " + (passed ? "PASSED" : "FAILED"));
+            return passed;
+        } catch (IOException | InterruptedException e) {
+            System.out.println("testCachingStore: FAILED (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    // Проверяет счёт переходов по полосам: лимит не превышается при конкурентных переходах, а после возврата аренд
+    // счётчик ссылки без лимита совпадает с числом переходов
+    public static boolean testStripedClicks() {
+        Notifier notifier = (userUuid, message) -> { };
+        UUID user = UUID.randomUUID();
+        UrlShorter urlShorter = new UrlShorter(notifier);
+        urlShorter.setStripedClicks(true);
+        String limited = urlShorter.buildShortUrl("https://www.example.com/viral", user, 10_000, 24);
+        String unlimited = urlShorter.buildShortUrl("https://www.example.com/unlimited", user, Integer.MAX_VALUE, 24);
+
+        int threads = 8;
+        AtomicInteger found = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 2000; i++) {
+                    if (urlShorter.resolve(limited).getStatus() == ResolveStatus.FOUND) {
+                        found.incrementAndGet();
+                    }
+                    urlShorter.resolve(unlimited);
+                    urlShorter.resolve(unlimited);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        ShortLink unlimitedLink = urlShorter.getShortLinkByShortUrl(unlimited);
+        // Пока аренды не возвращены, счётчик может опережать число переходов, но не отставать от него
+        boolean passed = found.get() == 10_000
+                && urlShorter.resolve(limited).getStatus() == ResolveStatus.LIMIT_EXCEEDED
+                && unlimitedLink.getCurrentCount() >= 2 * threads * 2000;
+
+        // Смена лимита возвращает аренды и действует сразу
+        urlShorter.editLimit(limited, 10_001, user);
+        passed &= urlShorter.resolve(limited).getStatus() == ResolveStatus.FOUND
+                && urlShorter.resolve(limited).getStatus() == ResolveStatus.LIMIT_EXCEEDED;
+
+        urlShorter.setStripedClicks(false);
+        passed &= !urlShorter.isStripedClicks()
+                && unlimitedLink.getCurrentCount() == 2 * threads * 2000
+                && urlShorter.getShortLinkByShortUrl(limited).getCurrentCount() == 10_001;
+
+        System.out.println("testStripedClicks: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    // Проверяет статистику переходов: сводки по ссылке и владельцу за час и сутки, источники, учёт только
+    // успешных переходов и задержавшихся событий
+    public static boolean testClickAnalytics() {
+        UrlShorter urlShorter = new UrlShorter((userUuid, message) -> { });
+        urlShorter.setClickAnalytics(true);
+        ClickAnalytics analytics = urlShorter.getClickAnalytics();
+        UUID owner = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        String popular = urlShorter.buildShortUrl("https://www.example.com/popular", owner, Integer.MAX_VALUE, 24);
+        String quiet = urlShorter.buildShortUrl("https://www.example.com/quiet", owner, 5, 24);
+        String foreign = urlShorter.buildShortUrl("https://www.example.com/foreign", other, Integer.MAX_VALUE, 24);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    urlShorter.resolve(popular, "https://News.Example.com/post?id=" + i);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        // Лимит 5: неуспешные переходы не учитываются
+        for (int i = 0; i < 10; i++) {
+            urlShorter.resolve(quiet);
+        }
+        for (int i = 0; i < 100; i++) {
+            urlShorter.resolve(foreign);
+        }
+        analytics.flush();
+
+        long perMinute = 0;
+        for (long clicks : analytics.getLinkClicksPerMinute(popular)) {
+            perMinute += clicks;
+        }
+        boolean passed = analytics.getLinkClicks(popular, 60) == 2000
+                && analytics.getLinkClicksLastDay(popular) == 2000
+                && perMinute == 2000
+                && analytics.getLinkClicksLastDay(quiet) == 5
+                && analytics.getOwnerClicks(owner, 24 * 60) == 2005
+                && analytics.getOwnerClicks(other, 60) == 100
+                && analytics.getTopReferrers(popular, 3).equals(Map.of("news.example.com", 2000L))
+                && analytics.getTopReferrers(quiet, 3).isEmpty()
+                && analytics.getRecordedCount() == 2105
+                && analytics.getDroppedCount() == 0;
+
+        // Событие двухчасовой давности попадает в сутки, но не в последний час; событие старше почасового окна -
+        // только в общий итог
+        ShortLink link = urlShorter.getShortLinkByShortUrl(quiet);
+        long now = CoarseClock.nowEpochSecond();
+        analytics.record(link, now - 2 * 3600, null);
+        analytics.record(link, now - 72 * 3600, null);
+        analytics.flush();
+        passed &= analytics.getLinkClicks(quiet, 60) == 5
+                && analytics.getLinkClicksLastDay(quiet) == 6
+                && analytics.getLinkClicksPerHour(quiet)[ClickRollup.HOURS - 3] == 1;
+
+        try {
+            analytics.getLinkClicks(popular, 0);
+            passed = false;
+        } catch (IllegalArgumentException expected) {
+            // окно должно быть положительным
+        }
+        urlShorter.setClickAnalytics(false);
+        passed &= urlShorter.getClickAnalytics() == null;
+
+        System.out.println("testClickAnalytics: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    // Проверяет фильтр несуществующих кодов: живые ссылки не отсеиваются (в том числе после пересоздания
+    // переполненного фильтра и повторного открытия хранилища), удалённые и истёкшие убираются из фильтра,
+    // а большинство случайных кодов отсеивается без обращения к хранилищу
+    public static boolean testFilteredStore() {
+        Notifier notifier = (userUuid, message) -> { };
+        UUID user = UUID.randomUUID();
+        try {
+            Path directory = Files.createTempDirectory("shortlinks-filter");
+            List<String> shortUrls = new ArrayList<>();
+            boolean passed;
+            try (FilteredLinkStore store = new FilteredLinkStore(MappedLinkStore.open(directory, 4096), 64, 0.01)) {
+                UrlShorter urlShorter = new UrlShorter(store, notifier, new FeistelCodeGenerator());
+                for (int i = 0; i < 1000; i++) {
+                    shortUrls.add(urlShorter.buildShortUrl("https://www.example.com/" + i, user, Integer.MAX_VALUE, 24));
+                }
+                passed = store.getRebuildCount() > 0 && store.getFilteredCount() == 1000;
+                for (String shortUrl : shortUrls) {
+                    passed &= urlShorter.resolve(shortUrl).getStatus() == ResolveStatus.FOUND;
+                }
+
+                Set<String> known = new HashSet<>();
+                for (String shortUrl : shortUrls) {
+                    known.add(shortUrl.substring(ShortCodes.PREFIX.length()));
+                }
+                Random random = new Random(17);
+                int unknown = 0;
+                for (int i = 0; i < 20_000; i++) {
+                    String code = ShortCodes.unpack(ShortCodes.fromIndex(Math.floorMod(random.nextLong(), ShortCodes.CODE_SPACE)));
+                    if (!known.contains(code)) {
+                        unknown++;
+                        passed &= urlShorter.resolve(code).getStatus() == ResolveStatus.NOT_FOUND;
+                    }
+                }
+                passed &= store.getRejectedCount() + store.getFalsePositiveCount() == unknown
+                        && store.getFalsePositiveRatio() < 0.03
+                        && urlShorter.getMetrics().getFilterRejections() == store.getRejectedCount()
+                        && urlShorter.getMetrics().toPrometheusText().contains("shortlinks_filter_lookups_total{result=\"rejected\"}");
+
+                for (String shortUrl : shortUrls.subList(0, 100)) {
+                    urlShorter.deleteLink(shortUrl, user);
+                }
+                String expired = urlShorter.buildShortUrl("https://www.example.com/expired", user, 5, -1);
+                urlShorter.cleanupExpiredLinks();
+                passed &= store.getFilteredCount() == 900
+                        && urlShorter.resolve(shortUrls.get(0)).getStatus() == ResolveStatus.NOT_FOUND
+                        && urlShorter.resolve(expired).getStatus() == ResolveStatus.NOT_FOUND;
+            }
+            // При открытии фильтр заполняется кодами уже сохранённых ссылок
+            try (FilteredLinkStore store = new FilteredLinkStore(MappedLinkStore.open(directory, 4096), 64, 0.01)) {
+                UrlShorter reopened = new UrlShorter(store, notifier, new FeistelCodeGenerator());
+                passed &= store.getFilteredCount() == 900;
+                for (String shortUrl : shortUrls.subList(100, shortUrls.size())) {
+                    passed &= reopened.resolve(shortUrl).getStatus() == ResolveStatus.FOUND;
+                }
+            }
+            System.out.println("testFilteredStore: " + (passed ? "PASSED" : "FAILED"));
+            return passed;
+        } catch (IOException e) {
+            System.out.println("testFilteredStore: FAILED (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    public static boolean testAllocationFreeResolve() {
+        UrlShorter urlShorter = new UrlShorter((userUuid, message) -> { });
+        UUID user = UUID.randomUUID();
+        String shortUrl = urlShorter.buildShortUrl("https://www.example.com/free", user, 2, 24);
+        String code = shortUrl.substring(ShortCodes.PREFIX.length());
+        ResolveResult result = new ResolveResult();
+
+        boolean passed = urlShorter.resolveInto(shortUrl, result) == ResolveStatus.FOUND
+                && "https://www.example.com/free".equals(result.getLongUrl());
+        // Код из буфера запроса: " GET /abcdef " - разбирается по границам, без создания строки
+        ByteBuffer request = ByteBuffer.wrap(("GET /" + code + " HTTP/1.1").getBytes(StandardCharsets.US_ASCII));
+        passed &= urlShorter.resolveInto(request, 5, 5 + ShortCodes.LENGTH, result) == ResolveStatus.FOUND
+                && "https://www.example.com/free".equals(result.getLongUrl());
+        passed &= urlShorter.resolveInto(new StringBuilder(code), result) == ResolveStatus.LIMIT_EXCEEDED
+                && result.getLongUrl() == null;
+        passed &= urlShorter.resolveInto("denzo.com/!!!!!!", result) == ResolveStatus.NOT_FOUND
+                && urlShorter.resolveInto("other.com/" + code, result) == ResolveStatus.NOT_FOUND
+                && urlShorter.resolveInto(ByteBuffer.wrap(new byte[]{(byte) 0xC3, (byte) 0xA9, 'a', 'b', 'c', 'd'}),
+                        0, ShortCodes.LENGTH, result) == ResolveStatus.NOT_FOUND;
+        String expired = urlShorter.buildShortUrl("https://www.example.com/expired", user, 5, -1);
+        passed &= urlShorter.resolveInto(expired, result) == ResolveStatus.EXPIRED;
+
+        // Карта кодов: рост, удаление и повторное добавление тех же кодов
+        LongLinkMap map = new LongLinkMap();
+        List<ShortLink> links = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            ShortLink link = new ShortLink("https://www.example.com/" + i, ShortCodes.fromIndex(i), 0, 0, 10, 0, 0);
+            links.add(link);
+            passed &= map.putIfAbsent(link.getCode(), link) == null;
+        }
+        for (int i = 0; i < links.size(); i += 2) {
+            passed &= map.remove(links.get(i).getCode(), links.get(i))
+                    && !map.remove(links.get(i).getCode(), links.get(i));
+        }
+        for (int i = 0; i < links.size(); i += 4) {
+            passed &= map.putIfAbsent(links.get(i).getCode(), links.get(i)) == null;
+        }
+        int[] visited = new int[1];
+        map.forEach(link -> visited[0]++);
+        passed &= map.size() == 15_000 && visited[0] == 15_000;
+        for (int i = 0; i < links.size(); i++) {
+            ShortLink expected = i % 2 == 1 || i % 4 == 0 ? links.get(i) : null;
+            passed &= map.get(links.get(i).getCode()) == expected;
+        }
+
+        // Успешный переход после прогрева не выделяет память (замер по счётчику выделений потока HotSpot)
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            String hot = urlShorter.buildShortUrl("https://www.example.com/hot", user, Integer.MAX_VALUE, 24);
+            urlShorter.setMetricsEnabled(false);
+            for (int i = 0; i < 200_000; i++) {
+                urlShorter.resolveInto(hot, result);
+            }
+            long threadId = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 100_000; i++) {
+                urlShorter.resolveInto(hot, result);
+            }
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+            // Несколько сотен байт допускаются на служебные выделения JVM (компиляция, замер)
+            if (allocated > 4096) {
+                System.out.println("testAllocationFreeResolve: FAILED (выделено " + allocated + " байт на 100000 переходов)");
+                passed = false;
+            }
+        }
+        System.out.println("testAllocationFreeResolve: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    public static boolean testShardRouter() {
+        ShardRouter router = new ShardRouter((userUuid, message) -> { });
+        router.addNode("a", new InMemoryLinkStore());
+        router.addNode("b", new InMemoryLinkStore());
+        UUID[] owners = new UUID[5];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = UUID.randomUUID();
+        }
+        List<String> shortUrls = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            shortUrls.add(router.buildShortUrl("https://www.example.com/" + i, owners[i % owners.length], Integer.MAX_VALUE, 24));
+        }
+        List<LinkRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            requests.add(new LinkRequest("https://www.example.com/bulk/" + i, owners[i % owners.length], Integer.MAX_VALUE, 24));
+        }
+        shortUrls.addAll(router.buildShortUrls(requests));
+
+        boolean passed = router.getPartitionCount("a") + router.getPartitionCount("b") == ShardRouter.PARTITIONS
+                && new HashSet<>(shortUrls).size() == 4000;
+        long onA = 0;
+        for (String shortUrl : shortUrls) {
+            // Узел определяется по коду, и ссылка лежит именно на нём
+            String node = router.getNodeName(shortUrl);
+            passed &= router.getNode(node).getShortLinkByShortUrl(shortUrl) != null
+                    && router.resolve(shortUrl).getStatus() == ResolveStatus.FOUND;
+            onA += "a".equals(node) ? 1 : 0;
+        }
+        passed &= onA > 1000 && onA < 3000;
+
+        // Страницы ссылок владельца собираются со всех узлов без пропусков и повторов
+        Set<String> paged = new HashSet<>();
+        int pagedCount = 0;
+        String cursor = null;
+        do {
+            LinkPage page = router.getShortLinksByUserUuid(owners[0], LinkOrder.CREATED, cursor, 37);
+            for (ShortLink link : page.getLinks()) {
+                paged.add(link.getShortUrl());
+                pagedCount++;
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        passed &= pagedCount == 800 && paged.size() == 800 && router.getShortLinksByUserUuid(owners[0]).size() == 800;
+
+        // Перенос разделов на новый узел во время переходов
+        // Один переход уже был при проверке выше, ещё два - до переноса
+        String limited = shortUrls.get(0);
+        router.changeLimit(limited, 4, owners[0]);
+        router.resolve(limited);
+        router.resolve(limited);
+        AtomicInteger misses = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(2);
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            int offset = t;
+            Thread reader = new Thread(() -> {
+                started.countDown();
+                for (int i = offset; !stop.get() || i < shortUrls.size(); i += 2) {
+                    String shortUrl = shortUrls.get(1 + i % (shortUrls.size() - 1));
+                    if (router.resolve(shortUrl).getStatus() != ResolveStatus.FOUND) {
+                        misses.incrementAndGet();
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        try {
+            started.await();
+            router.addNode("c", new InMemoryLinkStore());
+            stop.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        long onC = router.getNode("c").getStore().size();
+        passed &= misses.get() == 0 && onC > 4000 / 6 && onC < 4000 / 2
+                && router.getNode("a").getStore().size() + router.getNode("b").getStore().size() + onC == 4000;
+        for (String shortUrl : shortUrls) {
+            passed &= router.getNode(router.getNodeName(shortUrl)).getShortLinkByShortUrl(shortUrl) != null;
+        }
+        // Счётчик переходов переносится вместе со ссылкой
+        passed &= router.resolve(limited).getStatus() == ResolveStatus.FOUND
+                && router.resolve(limited).getStatus() == ResolveStatus.LIMIT_EXCEEDED
+                && router.removeLink(limited, owners[1]) == LinkUpdateStatus.FORBIDDEN
+                && router.removeLink(limited, owners[0]) == LinkUpdateStatus.UPDATED
+                && router.resolve(limited).getStatus() == ResolveStatus.NOT_FOUND
+                && router.getShortLinksByUserUuid(owners[0]).size() == 799;
+
+        // Удаление и смена лимита во время переноса: удалённые ссылки не возвращаются копией, новый лимит
+        // не остаётся только на прежнем узле
+        List<String> removed = shortUrls.subList(2000, 2600);
+        List<String> edited = shortUrls.subList(2600, 3200);
+        Map<String, UUID> linkOwners = new ConcurrentHashMap<>();
+        for (String shortUrl : shortUrls.subList(2000, 3200)) {
+            linkOwners.put(shortUrl, router.getShortLinkByShortUrl(shortUrl).getOwnerUuid());
+        }
+        Thread mutator = new Thread(() -> {
+            for (int i = 0; i < removed.size(); i++) {
+                router.removeLink(removed.get(i), linkOwners.get(removed.get(i)));
+                router.changeLimit(edited.get(i), 1000 + i, linkOwners.get(edited.get(i)));
+            }
+        });
+        mutator.start();
+        router.addNode("d", new InMemoryLinkStore());
+        try {
+            mutator.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        long total = 0;
+        for (String node : router.getNodeNames()) {
+            total += router.getNode(node).getStore().size();
+            for (String shortUrl : removed) {
+                passed &= router.getNode(node).getShortLinkByShortUrl(shortUrl) == null;
+            }
+        }
+        for (int i = 0; i < edited.size(); i++) {
+            passed &= router.getShortLinkByShortUrl(edited.get(i)).getLimit() == 1000 + i;
+        }
+        passed &= total == 3999 - removed.size() && router.getPartitionCount("d") > 0;
+
+        // Новый узел уже держит копии тех же ссылок (перенос прервался): перенос их принимает. Если код на новом
+        // узле занят другой ссылкой, addNode сообщает о конфликте, а ссылка остаётся доступной на прежнем узле
+        for (boolean clash : new boolean[]{false, true}) {
+            ShardRouter resumed = new ShardRouter((userUuid, message) -> { });
+            resumed.addNode("a", new InMemoryLinkStore());
+            Map<String, String> urls = new HashMap<>();
+            for (int i = 0; i < 300; i++) {
+                String longUrl = "https://www.example.com/resumed/" + i;
+                urls.put(resumed.buildShortUrl(longUrl, owners[0], Integer.MAX_VALUE, 24), longUrl);
+            }
+            InMemoryLinkStore prefilled = new InMemoryLinkStore();
+            resumed.getNode("a").getStore().forEach(link -> prefilled.putIfAbsent(new ShortLink(
+                    clash ? "https://www.example.com/other" : link.getLongUrl(), link.getCode(), link.getLimit(),
+                    link.getCreationEpochSecond() + (clash ? 1 : 0), link.getExpireAtEpochSecond(),
+                    link.getOwnerMostSigBits(), link.getOwnerLeastSigBits())));
+            try {
+                resumed.addNode("e", prefilled);
+                // Перенесённые ссылки ушли с прежнего узла
+                passed &= !clash && resumed.getNode("a").getStore().size() < 300
+                        && resumed.getPartitionCount("e") > 0;
+            } catch (IllegalStateException e) {
+                passed &= clash;
+            }
+            for (Map.Entry<String, String> entry : urls.entrySet()) {
+                Resolution resolution = resumed.resolve(entry.getKey());
+                passed &= resolution.getStatus() == ResolveStatus.FOUND
+                        && resolution.getLongUrl().equals(entry.getValue());
+            }
+            if (clash) {
+                try {
+                    resumed.addNode("f", new InMemoryLinkStore());
+                    passed = false;
+                } catch (IllegalStateException e) {
+                    // Конфликт прошлого переноса не разрешён
+                }
+            }
+        }
+
+        // Общий генератор роутера сохраняет состояние в хранилище первого узла и продолжает его после перезапуска
+        try {
+            Path directory = Files.createTempDirectory("shortlinks-router");
+            CodeState saved;
+            try (MappedLinkStore store = MappedLinkStore.open(directory, 1024)) {
+                ShardRouter first = new ShardRouter((userUuid, message) -> { });
+                first.addNode("a", store);
+                first.buildShortUrl("https://www.example.com/first", owners[0], 5, 24);
+                saved = store.loadCodeState();
+            }
+            try (MappedLinkStore store = MappedLinkStore.open(directory, 1024)) {
+                ShardRouter second = new ShardRouter((userUuid, message) -> { });
+                second.addNode("a", store);
+                second.buildShortUrl("https://www.example.com/second", owners[0], 5, 24);
+                CodeState reopened = store.loadCodeState();
+                passed &= saved != null && reopened.getSeed() == saved.getSeed()
+                        && reopened.getReservedUntil() > saved.getReservedUntil();
+            }
+        } catch (IOException e) {
+            passed = false;
+        }
+        System.out.println("testShardRouter: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    public static boolean testReplication() {
+        Notifier notifier = (userUuid, message) -> { };
+        UUID user = UUID.randomUUID();
+        Process child = null;
+        try (LeaderLinkStore leaderStore = new LeaderLinkStore(new InMemoryLinkStore(), 0)) {
+            UrlShorter leader = new UrlShorter(leaderStore, notifier, new FeistelCodeGenerator());
+            List<String> shortUrls = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                shortUrls.add(leader.buildShortUrl("https://www.example.com/" + i, user, Integer.MAX_VALUE, 24));
+            }
+            leader.resolve(shortUrls.get(0));
+            InetSocketAddress address = new InetSocketAddress("127.0.0.1", leaderStore.getPort());
+            try (FollowerLinkStore first = new FollowerLinkStore(address);
+                 FollowerLinkStore second = new FollowerLinkStore(address)) {
+                UrlShorter firstReplica = new UrlShorter(first, notifier, new FeistelCodeGenerator());
+                UrlShorter secondReplica = new UrlShorter(second, notifier, new FeistelCodeGenerator());
+                boolean passed = first.awaitSnapshot(5, TimeUnit.SECONDS) && second.awaitSnapshot(5, TimeUnit.SECONDS)
+                        && first.size() == 100
+                        && firstReplica.getShortLinkByShortUrl(shortUrls.get(0)).getCurrentCount() == 1;
+                for (String shortUrl : shortUrls) {
+                    passed &= firstReplica.resolve(shortUrl).getStatus() == ResolveStatus.FOUND;
+                }
+
+                // Изменения на ведущем узле доходят до ведомых по порядку
+                String limited = leader.buildShortUrl("https://www.example.com/limited", user, 100, 24);
+                leader.changeLimit(shortUrls.get(1), 1, user);
+                leader.removeLink(shortUrls.get(2), user);
+                String expired = leader.buildShortUrl("https://www.example.com/expired", user, 5, -1);
+                leader.cleanupExpiredLinks();
+                passed &= awaitReplicated(leaderStore, first) && awaitReplicated(leaderStore, second);
+                passed &= firstReplica.resolve(limited).getStatus() == ResolveStatus.FOUND
+                        && firstReplica.resolve(shortUrls.get(2)).getStatus() == ResolveStatus.NOT_FOUND
+                        && firstReplica.resolve(expired).getStatus() == ResolveStatus.NOT_FOUND
+                        && firstReplica.getShortLinkByShortUrl(shortUrls.get(1)).getLimit() == 1
+                        && first.getLagMillis() >= 0 && first.getLagMillis() < 5000
+                        && firstReplica.getMetrics().getReplicationLagMillis() >= 0
+                        && leader.getMetrics().toPrometheusText().contains("shortlinks_replication_followers 2");
+                // Смена лимита, застрявшая между хранилищем и потоком, не даёт следующей смене обогнать её в потоке
+                CountDownLatch applied = new CountDownLatch(1);
+                CountDownLatch resume = new CountDownLatch(1);
+                InMemoryLinkStore pausing = new InMemoryLinkStore() {
+                    @Override
+                    public void setLimit(ShortLink link, int limit) {
+                        super.setLimit(link, limit);
+                        if (limit == 1) {
+                            applied.countDown();
+                            try {
+                                resume.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    }
+                };
+                try (LeaderLinkStore pausedLeader = new LeaderLinkStore(pausing, 0);
+                     FollowerLinkStore pausedFollower = new FollowerLinkStore(
+                             new InetSocketAddress("127.0.0.1", pausedLeader.getPort()))) {
+                    UrlShorter paused = new UrlShorter(pausedLeader, notifier, new FeistelCodeGenerator());
+                    ShortLink edited = paused.getShortLinkByShortUrl(
+                            paused.buildShortUrl("https://www.example.com/edited", user, 100, 24));
+                    passed &= pausedFollower.awaitSnapshot(5, TimeUnit.SECONDS);
+                    Thread firstEdit = new Thread(() -> pausedLeader.setLimit(edited, 1));
+                    firstEdit.start();
+                    applied.await();
+                    Thread secondEdit = new Thread(() -> pausedLeader.setLimit(edited, 2));
+                    secondEdit.start();
+                    // Вторая смена либо уже прошла, либо ждёт блокировку полосы кода
+                    long editDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                    while (secondEdit.isAlive() && secondEdit.getState() != Thread.State.WAITING
+                            && System.nanoTime() < editDeadline) {
+                        Thread.sleep(1);
+                    }
+                    resume.countDown();
+                    firstEdit.join();
+                    secondEdit.join();
+                    passed &= awaitReplicated(pausedLeader, pausedFollower) && edited.getLimit() == 2
+                            && pausedFollower.get(edited.getCode()).getLimit() == 2;
+                }
+                try {
+                    firstReplica.buildShortUrl("https://www.example.com/replica", user, 10, 24);
+                    passed = false;
+                } catch (UnsupportedOperationException e) {
+                    // Ведомый узел только для чтения
+                }
+
+                // Переходы на ведомых узлах возвращаются ведущему; превышение лимита ограничено и учитывается
+                // Один переход по limited уже был при проверке изменений выше
+                int found = 1;
+                for (int i = 0; i < 70; i++) {
+                    found += firstReplica.resolve(limited).getStatus() == ResolveStatus.FOUND ? 1 : 0;
+                    found += secondReplica.resolve(limited).getStatus() == ResolveStatus.FOUND ? 1 : 0;
+                }
+                ShortLink leaderLink = leader.getShortLinkByShortUrl(limited);
+                ShortLink firstLink = firstReplica.getShortLinkByShortUrl(limited);
+                ShortLink secondLink = secondReplica.getShortLinkByShortUrl(limited);
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while ((leaderLink.getCurrentCount() + leaderStore.getOvershootClicks() < found
+                        || firstLink.getCurrentCount() < 100 || secondLink.getCurrentCount() < 100)
+                        && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                passed &= found >= 100 && found <= 141
+                        && leaderLink.getCurrentCount() == 100
+                        && leaderStore.getOvershootClicks() == found - 100
+                        && firstReplica.resolve(limited).getStatus() == ResolveStatus.LIMIT_EXCEEDED
+                        && secondReplica.resolve(limited).getStatus() == ResolveStatus.LIMIT_EXCEEDED
+                        && leader.resolve(limited).getStatus() == ResolveStatus.LIMIT_EXCEEDED;
+
+                // Аренды переходов на ведомом узле: неиспользованный остаток не уходит ведущему отрицательной пачкой,
+                // а гасится следующими переходами, поэтому счётчики сходятся к числу сделанных переходов
+                long overshoot = leaderStore.getOvershootClicks();
+                String striped = leader.buildShortUrl("https://www.example.com/striped", user, 1_000_000, 24);
+                passed &= awaitReplicated(leaderStore, first);
+                firstReplica.setStripedClicks(true);
+                Thread[] clickers = new Thread[2];
+                for (int t = 0; t < clickers.length; t++) {
+                    clickers[t] = new Thread(() -> {
+                        for (int i = 0; i < 1500; i++) {
+                            firstReplica.resolve(striped);
+                        }
+                    });
+                    clickers[t].start();
+                }
+                for (Thread clicker : clickers) {
+                    clicker.join();
+                }
+                // Аренды успевают уйти ведущему узлу до возврата остатков
+                Thread.sleep(50);
+                firstReplica.setStripedClicks(false);
+                ShortLink stripedLeader = leader.getShortLinkByShortUrl(striped);
+                ShortLink stripedFirst = firstReplica.getShortLinkByShortUrl(striped);
+                deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (stripedLeader.getCurrentCount() < 3000 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                Thread.sleep(100);
+                // Ведущий узел считает занятой не больше одной возвращённой аренды на каждый из двух потоков
+                int debt = stripedLeader.getCurrentCount() - 3000;
+                passed &= stripedFirst.getCurrentCount() == 3000 && debt >= 0
+                        && debt <= 2L * StripedClickCounter.MAX_LEASE;
+                for (int i = 0; i < 3000; i++) {
+                    firstReplica.resolve(striped);
+                }
+                deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (stripedLeader.getCurrentCount() < 6000 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                Thread.sleep(100);
+                passed &= stripedLeader.getCurrentCount() == 6000 && stripedFirst.getCurrentCount() == 6000
+                        && leaderStore.getOvershootClicks() == overshoot;
+
+                // Ведомый узел в отдельной JVM: RedirectServer с -Dshortlinks.replication.leader
+                child = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-cp", System.getProperty("java.class.path"),
+                        "-Dshortlinks.replication.leader=127.0.0.1:" + leaderStore.getPort(),
+                        "com.denzo.RedirectServer", "0").redirectErrorStream(true).start();
+                // Порт сервера - число в конце строки "Сервер переходов запущен на порту N."
+                int port = -1;
+                BufferedReader output = new BufferedReader(new InputStreamReader(child.getInputStream()));
+                String line;
+                while (port < 0 && (line = output.readLine()) != null) {
+                    Matcher matcher = Pattern.compile("(\\d+)\\.\\s*$").matcher(line);
+                    if (matcher.find()) {
+                        port = Integer.parseInt(matcher.group(1));
+                    }
+                }
+                HttpClient client = HttpClient.newHttpClient();
+                HttpRequest redirect = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/"
+                        + shortUrls.get(3).substring(ShortCodes.PREFIX.length()))).build();
+                int status = 0;
+                deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (port > 0 && status != 302 && System.nanoTime() < deadline) {
+                    status = client.send(redirect, HttpResponse.BodyHandlers.ofString()).statusCode();
+                    if (status != 302) {
+                        Thread.sleep(20);
+                    }
+                }
+                passed &= status == 302;
+                System.out.println("testReplication: " + (passed ? "PASSED" : "FAILED"));
+                return passed;
+            }
+        } catch (IOException e) {
+            System.out.println("testReplication: FAILED (" + e.getMessage() + ")");
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (child != null) {
+                child.destroy();
+            }
+        }
+    }
+
+    // Ждёт, пока ведомый узел применит все изменения ведущего
+    private static boolean awaitReplicated(LeaderLinkStore leader, FollowerLinkStore follower) throws InterruptedException {
+        long target = leader.getSequence();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (follower.getAppliedSequence() < target) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    // Корзина токенов и сброс нагрузки по шагам на управляемых часах: хранилище «отвечает» за заданное время,
+    // а одновременные операции удерживаются потоками, ждущими в хранилище
+    public static boolean testAdmissionControl() {
+        Notifier notifier = (userUuid, message) -> { };
+        AtomicLong clock = new AtomicLong();
+        // Корзина токенов: у владельца запас 5 созданий, пополнение - одно в секунду
+        AdmissionController buckets = new AdmissionController(new UrlShorter(notifier), 1, 5, 1000, clock::get);
+        UUID greedy = UUID.randomUUID();
+        int created = 0;
+        for (int i = 0; i < 6; i++) {
+            try {
+                buckets.buildShortUrl("https://www.example.com/" + i, greedy, 10, 24);
+                created++;
+            } catch (RejectedExecutionException e) {
+                // Шестое создание подряд отклоняется
+            }
+        }
+        String other = buckets.buildShortUrl("https://www.example.com/other", UUID.randomUUID(), 10, 24);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        // Через секунду у владельца снова есть токен
+        buckets.buildShortUrl("https://www.example.com/refilled", greedy, 10, 24);
+        boolean passed = created == 5 && buckets.getRateLimitedCreates() == 1
+                && buckets.resolve(other, null).getStatus() == ResolveStatus.FOUND
+                && buckets.getUrlShorter().getMetrics().toPrometheusText()
+                .contains("shortlinks_admission_rate_limited_total 1");
+
+        // Хранилище сдвигает часы на storeLatency при каждом чтении, а чтение кодов из held ждёт release
+        AtomicLong storeLatency = new AtomicLong(TimeUnit.MILLISECONDS.toNanos(1));
+        Set<Long> held = ConcurrentHashMap.newKeySet();
+        CountDownLatch release = new CountDownLatch(1);
+        InMemoryLinkStore slowStore = new InMemoryLinkStore() {
+            @Override
+            public ShortLink get(long code) {
+                if (held.contains(code)) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                clock.addAndGet(storeLatency.get());
+                return super.get(code);
+            }
+        };
+        UrlShorter urlShorter = new UrlShorter(slowStore, notifier, new FeistelCodeGenerator());
+        List<String> live = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            live.add(urlShorter.buildShortUrl("https://www.example.com/live/" + i, greedy, Integer.MAX_VALUE, 24));
+        }
+        AdmissionController admission = new AdmissionController(urlShorter, 1000, 1000, 1000, clock::get);
+        // Задержка равна минимальной: предел не сжимается
+        for (int i = 0; i < 200; i++) {
+            passed &= admission.resolve(live.get(i % live.size()), null).getStatus() == ResolveStatus.FOUND;
+        }
+        passed &= admission.getConcurrencyLimit() == 20;
+        // Задержка выросла вдесятеро (операции ждут в очереди): предел сжимается к sqrt-добавке, около 4
+        storeLatency.set(TimeUnit.MILLISECONDS.toNanos(10));
+        for (int i = 0; i < 400; i++) {
+            admission.resolve(live.get(i % live.size()), null);
+        }
+        int limit = admission.getConcurrencyLimit();
+        passed &= limit >= 2 && limit < 8;
+
+        // Половина предела занята: переход по неизвестному коду отклоняется, по живой ссылке - допускается
+        int occupied = limit / 2;
+        List<Thread> holders = new ArrayList<>();
+        for (int i = 0; i < occupied; i++) {
+            String shortUrl = live.get(i);
+            held.add(ShortCodes.packShortUrl(shortUrl));
+            Thread holder = new Thread(() -> admission.resolve(shortUrl, null));
+            holder.start();
+            holders.add(holder);
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (admission.getInFlight() < occupied && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            passed &= admission.getInFlight() == occupied
+                    && admission.resolve("zzzzzz", null).getStatus() == ResolveStatus.REJECTED
+                    && admission.resolve(live.get(occupied), null).getStatus() == ResolveStatus.FOUND
+                    && admission.getRejectedResolves() == 1 && admission.getRejectedUnknownResolves() == 1;
+            release.countDown();
+            for (Thread holder : holders) {
+                holder.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        passed &= admission.getInFlight() == 0;
+        System.out.println("testAdmissionControl: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    // Выгрузка и загрузка сохраняют коды, счётчики, лимиты, сроки и владельцев; повреждённая выгрузка не загружается
+    public static boolean testLinkTransfer() {
+        Notifier notifier = (userUuid, message) -> { };
+        UrlShorter source = new UrlShorter(notifier);
+        UUID[] owners = new UUID[10];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = UUID.randomUUID();
+        }
+        List<LinkRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            String longUrl = i % 1000 == 0 ? "https://www.example.com/путь/" + "x".repeat(300) + i
+                    : "https://www.example.com/" + i;
+            requests.add(new LinkRequest(longUrl, owners[i % owners.length], 5 + i % 7, 1 + i % 48));
+        }
+        List<String> shortUrls = source.buildShortUrls(requests);
+        for (int i = 0; i < shortUrls.size(); i += 3) {
+            source.resolve(shortUrls.get(i));
+        }
+        source.changeLimit(shortUrls.get(1), 100, owners[1]);
+        try {
+            Path file = Files.createTempFile("shortlinks-export", ".bin");
+            List<TransferReport> reports = new ArrayList<>();
+            TransferReport exported;
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                exported = source.exportLinks(out, 2, reports::add);
+            }
+            UrlShorter target = new UrlShorter(notifier);
+            TransferReport imported;
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                imported = target.importLinks(in, 4, reports::add);
+            }
+            boolean passed = exported.getRecords() == 20000 && imported.getRecords() == 20000
+                    && imported.getSkipped() == 0 && exported.getBytes() == Files.size(file)
+                    && imported.getBytes() == Files.size(file) && reports.size() >= 2
+                    && target.getShortLinksByUserUuid(owners[3]).size() == 2000;
+            for (String shortUrl : shortUrls) {
+                ShortLink original = source.getShortLinkByShortUrl(shortUrl);
+                ShortLink copy = target.getShortLinkByShortUrl(shortUrl);
+                passed &= copy != null && copy.getLongUrl().equals(original.getLongUrl())
+                        && copy.getLimit() == original.getLimit()
+                        && copy.getCurrentCount() == original.getCurrentCount()
+                        && copy.getCreationEpochSecond() == original.getCreationEpochSecond()
+                        && copy.getExpireAtEpochSecond() == original.getExpireAtEpochSecond()
+                        && copy.getOwnerUuid().equals(original.getOwnerUuid());
+            }
+            passed &= target.resolve(shortUrls.get(1)).getStatus() == ResolveStatus.FOUND;
+
+            // Повторная загрузка пропускает занятые коды
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                TransferReport repeated = target.importLinks(in, 2, null);
+                passed &= repeated.getRecords() == 0 && repeated.getSkipped() == 20000;
+            }
+
+            // Испорченный байт в сжатых данных и оборванный файл
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[bytes.length / 2] ^= 0x55;
+            Path corrupted = Files.createTempFile("shortlinks-corrupted", ".bin");
+            Files.write(corrupted, bytes);
+            Path truncated = Files.createTempFile("shortlinks-truncated", ".bin");
+            Files.write(truncated, java.util.Arrays.copyOf(Files.readAllBytes(file), bytes.length - 5));
+            for (Path broken : List.of(corrupted, truncated)) {
+                try (FileChannel in = FileChannel.open(broken, StandardOpenOption.READ)) {
+                    new UrlShorter(notifier).importLinks(in, 2, null);
+                    passed = false;
+                } catch (IOException e) {
+                    // Ожидаемо: выгрузка повреждена
+                }
+            }
+            System.out.println("testLinkTransfer: " + (passed ? "PASSED" : "FAILED"));
+            return passed;
+        } catch (IOException e) {
+            System.out.println("testLinkTransfer: FAILED (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    // Компактные URL: байты UrlCodec распаковываются в исходную строку, переход их не распаковывает
+    public static boolean testCompactUrls() {
+        String[] urls = {
+                "https://www.example.com/campaign/landing?utm_source=mail&utm_medium=email&utm_campaign=spring&id=7",
+                "https://www.example.com/index.html",
+                "http://example.ru/каталог/товар?цвет=синий",
+                "https://emoji.example.com/\uD83D\uDE00/page.php",
+                "https://example.com",
+                "https://example.com?q=1",
+                "ftp://files.example.com/a.txt",
+                "https://пример.рф/путь",
+                ""
+        };
+        boolean passed = true;
+        for (String url : urls) {
+            byte[] encoded = UrlCodec.encode(url);
+            passed &= encoded != null && url.equals(UrlCodec.decode(encoded));
+        }
+        byte[] campaign = UrlCodec.encode(urls[0]);
+        // Хост уходит в словарь, utm-ключи - в однобайтовые замены
+        passed &= campaign.length < urls[0].length() - 40;
+        // Одиночный суррогат UTF-8 не сохранит: такой URL остаётся строкой
+        passed &= UrlCodec.encode("https://example.com/\uD83D") == null;
+        // После заполнения словаря новые хосты сжимаются только по схеме
+        for (int i = 0; i < 17_000; i++) {
+            String url = "https://host" + i + ".example.org/p";
+            passed &= url.equals(UrlCodec.decode(UrlCodec.encode(url)));
+        }
+        passed &= UrlCodec.learnedPrefixes() < 1 << 14;
+
+        UrlShorter urlShorter = new UrlShorter((userUuid, message) -> { });
+        UUID user = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        String plain = urlShorter.buildShortUrl(urls[1], user, 5, 24);
+        urlShorter.setCompactUrls(true);
+        String compact = urlShorter.buildShortUrl(urls[0], user, 5, 24);
+        List<String> bulk = urlShorter.buildShortUrls(List.of(new LinkRequest(urls[2], user, 5, 24),
+                new LinkRequest(urls[3], other, 5, 24)));
+        passed &= urlShorter.getShortLinkByShortUrl(plain).getStoredUrl() instanceof String
+                && urlShorter.getShortLinkByShortUrl(compact).getStoredUrl() instanceof byte[]
+                && urls[0].equals(urlShorter.getShortLinkByShortUrl(compact).getLongUrl())
+                && urls[0].equals(urlShorter.restoreLongUrl(compact))
+                && urls[1].equals(urlShorter.restoreLongUrl(plain))
+                && urls[2].equals(urlShorter.restoreLongUrl(bulk.get(0)))
+                && urls[3].equals(urlShorter.resolve(bulk.get(1)).getLongUrl());
+        ResolveResult result = new ResolveResult();
+        passed &= urlShorter.resolveInto(compact, result) == ResolveStatus.FOUND
+                && urls[0].equals(result.getLongUrl()) && result.getLongUrl() == result.getLongUrl();
+
+        // С дедупликацией ссылки на один URL держат одни и те же байты, и они освобождаются с последней ссылкой
+        urlShorter.setDeduplicateUrls(true);
+        String shared = "https://www.example.com/shared";
+        String first = urlShorter.buildShortUrl(shared, user, 5, 24);
+        String second = urlShorter.buildShortUrl(shared, other, 5, 24);
+        passed &= urlShorter.getShortLinkByShortUrl(first).getStoredUrl()
+                == urlShorter.getShortLinkByShortUrl(second).getStoredUrl()
+                && urlShorter.getShortLinkByShortUrl(first).getStoredUrl() instanceof byte[];
+        urlShorter.deleteLink(first, user);
+        urlShorter.deleteLink(second, other);
+        String third = urlShorter.buildShortUrl(shared, user, 5, 24);
+        passed &= urlShorter.getShortLinkByShortUrl(third).getStoredUrl() instanceof byte[]
+                && shared.equals(urlShorter.restoreLongUrl(third));
+
+        // Переход по ссылке со сжатым URL без чтения URL ничего не выделяет
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            String hot = urlShorter.buildShortUrl("https://www.example.com/hot-compact", user, Integer.MAX_VALUE, 24);
+            urlShorter.setMetricsEnabled(false);
+            for (int i = 0; i < 200_000; i++) {
+                urlShorter.resolveInto(hot, result);
+            }
+            long threadId = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 100_000; i++) {
+                urlShorter.resolveInto(hot, result);
+            }
+            passed &= threads.getThreadAllocatedBytes(threadId) - before <= 4096;
+        }
+
+        System.out.println("testCompactUrls: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    // Асинхронный интерфейс: типизированные результаты, поток вызывающего не ждёт хранилище, конвейер сохраняет порядок
+    public static boolean testAsyncUrlShorter() {
+        CountDownLatch storeOpen = new CountDownLatch(1);
+        InMemoryLinkStore slowStore = new InMemoryLinkStore() {
+            @Override
+            public ShortLink get(long code) {
+                try {
+                    storeOpen.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.get(code);
+            }
+        };
+        UrlShorter urlShorter = new UrlShorter(slowStore, (userUuid, message) -> { }, new FeistelCodeGenerator());
+        UUID owner = UUID.randomUUID();
+        UUID stranger = UUID.randomUUID();
+        try (AsyncUrlShorterAdapter async = new AsyncUrlShorterAdapter(urlShorter)) {
+            String link = async.buildShortUrl("https://www.example.com/async", owner, 2, 24)
+                    .toCompletableFuture().join();
+            // Хранилище «висит»: вызов всё равно сразу возвращает незавершённую стадию
+            long start = System.nanoTime();
+            CompletableFuture<Resolution> pending = async.restoreLongUrl(link).toCompletableFuture();
+            boolean passed = System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50) && !pending.isDone();
+            storeOpen.countDown();
+            Resolution hit = pending.join();
+            passed &= hit.getStatus() == ResolveStatus.FOUND && "https://www.example.com/async".equals(hit.getLongUrl());
+            passed &= async.restoreLongUrl(link).toCompletableFuture().join().getStatus() == ResolveStatus.FOUND
+                    && async.restoreLongUrl(link).toCompletableFuture().join().getStatus()
+                    == ResolveStatus.LIMIT_EXCEEDED
+                    && async.restoreLongUrl("denzo.com/zzzzzz").toCompletableFuture().join().getStatus()
+                    == ResolveStatus.NOT_FOUND;
+            String expired = async.buildShortUrl("https://www.example.com/old", owner, 5, -1)
+                    .toCompletableFuture().join();
+            passed &= async.restoreLongUrl(expired).toCompletableFuture().join().getStatus() == ResolveStatus.EXPIRED;
+
+            passed &= async.editLimit(link, 10, stranger).toCompletableFuture().join() == LinkUpdateStatus.FORBIDDEN
+                    && async.editLimit(link, 10, owner).toCompletableFuture().join() == LinkUpdateStatus.UPDATED
+                    && async.getShortLinksByUserUuid(owner).toCompletableFuture().join().size() == 1
+                    && async.getShortLinksByUserUuid(owner, LinkOrder.CREATED, null, 10)
+                    .toCompletableFuture().join().getLinks().size() == 1
+                    && async.deleteLink(link, owner).toCompletableFuture().join() == LinkUpdateStatus.UPDATED
+                    && async.deleteLink(link, owner).toCompletableFuture().join() == LinkUpdateStatus.NOT_FOUND;
+
+            // Ошибка движка завершает стадию исключением, а не уходит в поток вызывающего
+            CompletableFuture<LinkPage> invalidPage =
+                    async.getShortLinksByUserUuid(owner, LinkOrder.CREATED, null, 0).toCompletableFuture();
+            try {
+                invalidPage.join();
+                passed = false;
+            } catch (CompletionException e) {
+                passed &= e.getCause() instanceof IllegalArgumentException;
+            }
+
+            // Конвейер: 20 000 переходов без ожидания, ответы приходят в порядке отправки
+            List<LinkRequest> requests = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                requests.add(new LinkRequest("https://www.example.com/p" + i, owner, Integer.MAX_VALUE, 24));
+            }
+            List<String> links = urlShorter.buildShortUrls(requests);
+            AsyncUrlShorter.Pipeline pipeline = async.pipeline(1 << 15);
+            List<Integer> completionOrder = Collections.synchronizedList(new ArrayList<>());
+            List<CompletableFuture<Resolution>> futures = new ArrayList<>();
+            List<CompletableFuture<Void>> callbacks = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) {
+                int index = i;
+                CompletableFuture<Resolution> future = pipeline.restoreLongUrl(links.get(i % links.size()))
+                        .toCompletableFuture();
+                callbacks.add(future.thenRun(() -> completionOrder.add(index)));
+                futures.add(future);
+            }
+            CompletableFuture.allOf(callbacks.toArray(new CompletableFuture<?>[0])).join();
+            for (int i = 0; i < futures.size(); i++) {
+                Resolution resolution = futures.get(i).join();
+                passed &= resolution.getStatus() == ResolveStatus.FOUND
+                        && ("https://www.example.com/p" + i % links.size()).equals(resolution.getLongUrl());
+            }
+            for (int i = 0; i < completionOrder.size(); i++) {
+                passed &= completionOrder.get(i) == i;
+            }
+            passed &= completionOrder.size() == 20_000 && pipeline.getOutstanding() == 0;
+
+            // Переполненный конвейер отказывает сразу
+            ExecutorService paused = Executors.newSingleThreadExecutor();
+            CountDownLatch release = new CountDownLatch(1);
+            paused.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            AsyncUrlShorter.Pipeline small = new AsyncUrlShorterAdapter(urlShorter, paused).pipeline(64);
+            List<CompletableFuture<Resolution>> queued = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                queued.add(small.restoreLongUrl(links.get(i)).toCompletableFuture());
+            }
+            CompletableFuture<Resolution> overflow = small.restoreLongUrl(links.get(0)).toCompletableFuture();
+            passed &= overflow.isCompletedExceptionally() && small.getOutstanding() == 64;
+            release.countDown();
+            for (CompletableFuture<Resolution> future : queued) {
+                passed &= future.join().getStatus() == ResolveStatus.FOUND;
+            }
+            paused.shutdown();
+
+            System.out.println("testAsyncUrlShorter: " + (passed ? "PASSED" : "FAILED"));
+            return passed;
+        }
+    }
 }
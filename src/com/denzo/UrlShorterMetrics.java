@@ -0,0 +1,418 @@
+package com.denzo;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счётчики и гистограммы задержек UrlShorter.
+ * <p>
+ * Счётчики - {@link LongAdder} (у каждого потока своя ячейка, запись без конкуренции), задержки -
+ * {@link LatencyHistogram} (время перехода - выборочно, см. {@link UrlShorter#setLatencySampleRate}).
+ * Размер хранилища, число ссылок по владельцам и показатели {@link CachingLinkStore} и {@link FilteredLinkStore}
+ * считаются в момент чтения.
+ * Доступны через JMX ({@link #register}) и в текстовом формате Prometheus ({@link #toPrometheusText}).
+ */
+public class UrlShorterMetrics implements UrlShorterMetricsMXBean {
+    private final LinkStore store;
+
+    private final LongAdder resolveHits = new LongAdder();
+    private final LongAdder resolveMisses = new LongAdder();
+    private final LongAdder resolveExpired = new LongAdder();
+    private final LongAdder resolveLimitExceeded = new LongAdder();
+    private final LongAdder linksCreated = new LongAdder();
+    private final LongAdder codeRetries = new LongAdder();
+    private final LongAdder linksDeleted = new LongAdder();
+    private final LongAdder linksDeduplicated = new LongAdder();
+    private final LongAdder limitEdits = new LongAdder();
+    private final LatencyHistogram resolveLatency = new LatencyHistogram();
+    private final LatencyHistogram createLatency = new LatencyHistogram();
+    // null - UrlShorter работает без AdmissionController
+    private volatile AdmissionController admission;
+
+    UrlShorterMetrics(LinkStore store) {
+        this.store = store;
+    }
+
+    void recordResolve(ResolveStatus status) {
+        switch (status) {
+            case FOUND:
+                resolveHits.increment();
+                break;
+            case NOT_FOUND:
+                resolveMisses.increment();
+                break;
+            case EXPIRED:
+                resolveExpired.increment();
+                break;
+            default:
+                resolveLimitExceeded.increment();
+        }
+    }
+
+    void recordCreate(int retries, long nanos) {
+        linksCreated.increment();
+        if (retries > 0) {
+            codeRetries.add(retries);
+        }
+        createLatency.record(nanos);
+    }
+
+    // Пакет из count ссылок: в гистограмму создания попадает среднее время на ссылку в пакете
+    void recordBulkCreate(int count, int retries, long nanos) {
+        if (count == 0) {
+            return;
+        }
+        linksCreated.add(count);
+        if (retries > 0) {
+            codeRetries.add(retries);
+        }
+        createLatency.record(nanos / count);
+    }
+
+    // Повторный запрос вернул существующую ссылку (режим дедупликации)
+    void recordDeduplicated() {
+        linksDeduplicated.increment();
+    }
+
+    void recordDelete() {
+        linksDeleted.increment();
+    }
+
+    void recordLimitEdit() {
+        limitEdits.increment();
+    }
+
+    void setAdmission(AdmissionController admission) {
+        this.admission = admission;
+    }
+
+    // Регистрирует метрики в платформенном MBeanServer как com.denzo:type=UrlShorter,name=<name>
+    public void register(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName(name));
+        } catch (JMException e) {
+            throw new IllegalStateException("Не удалось зарегистрировать метрики в JMX: " + e.getMessage(), e);
+        }
+    }
+
+    public void unregister(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+        } catch (JMException e) {
+            throw new IllegalStateException("Не удалось снять метрики с регистрации в JMX: " + e.getMessage(), e);
+        }
+    }
+
+    public LatencyHistogram getResolveLatency() {
+        return resolveLatency;
+    }
+
+    public LatencyHistogram getCreateLatency() {
+        return createLatency;
+    }
+
+    @Override
+    public long getResolveHits() {
+        return resolveHits.sum();
+    }
+
+    @Override
+    public long getResolveMisses() {
+        return resolveMisses.sum();
+    }
+
+    @Override
+    public long getResolveExpired() {
+        return resolveExpired.sum();
+    }
+
+    @Override
+    public long getResolveLimitExceeded() {
+        return resolveLimitExceeded.sum();
+    }
+
+    @Override
+    public long getLinksCreated() {
+        return linksCreated.sum();
+    }
+
+    @Override
+    public long getCodeRetries() {
+        return codeRetries.sum();
+    }
+
+    @Override
+    public long getLinksDeduplicated() {
+        return linksDeduplicated.sum();
+    }
+
+    @Override
+    public long getLinksDeleted() {
+        return linksDeleted.sum();
+    }
+
+    @Override
+    public long getLimitEdits() {
+        return limitEdits.sum();
+    }
+
+    @Override
+    public long getLiveLinks() {
+        return store.size();
+    }
+
+    // Без CachingLinkStore показатели кэша равны нулю
+    @Override
+    public long getCacheHits() {
+        CachingLinkStore cache = layer(CachingLinkStore.class);
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        CachingLinkStore cache = layer(CachingLinkStore.class);
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        CachingLinkStore cache = layer(CachingLinkStore.class);
+        return cache == null ? 0 : cache.getHitRatio();
+    }
+
+    // Без FilteredLinkStore показатели фильтра равны нулю
+    @Override
+    public long getFilterRejections() {
+        FilteredLinkStore filter = layer(FilteredLinkStore.class);
+        return filter == null ? 0 : filter.getRejectedCount();
+    }
+
+    @Override
+    public long getFilterFalsePositives() {
+        FilteredLinkStore filter = layer(FilteredLinkStore.class);
+        return filter == null ? 0 : filter.getFalsePositiveCount();
+    }
+
+    // Отставание ведомого узла от ведущего (FollowerLinkStore); -1 - узел не ведомый или снимка ещё не было
+    @Override
+    public long getReplicationLagMillis() {
+        FollowerLinkStore follower = layer(FollowerLinkStore.class);
+        return follower == null ? -1 : follower.getLagMillis();
+    }
+
+    // Без AdmissionController предел равен нулю, а отклонённых запросов нет
+    @Override
+    public int getAdmissionLimit() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getConcurrencyLimit();
+    }
+
+    @Override
+    public long getAdmissionRejectedResolves() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getRejectedResolves();
+    }
+
+    @Override
+    public long getAdmissionRejectedCreates() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getRateLimitedCreates() + current.getShedCreates();
+    }
+
+    @Override
+    public int getOwners() {
+        return ownerStats()[0];
+    }
+
+    @Override
+    public int getMaxLinksPerOwner() {
+        return ownerStats()[1];
+    }
+
+    @Override
+    public long getResolveLatencyP50() {
+        return resolveLatency.snapshot().getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getResolveLatencyP99() {
+        return resolveLatency.snapshot().getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getResolveLatencyP999() {
+        return resolveLatency.snapshot().getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getResolveLatencyMax() {
+        return resolveLatency.snapshot().getMax();
+    }
+
+    @Override
+    public long getCreateLatencyP50() {
+        return createLatency.snapshot().getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getCreateLatencyP99() {
+        return createLatency.snapshot().getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getCreateLatencyMax() {
+        return createLatency.snapshot().getMax();
+    }
+
+    // Метрики в текстовом формате Prometheus (для GET /metrics)
+    public String toPrometheusText() {
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("# HELP shortlinks_resolve_total Переходы по коротким ссылкам по результату.\n");
+        sb.append("# TYPE shortlinks_resolve_total counter\n");
+        sample(sb, "shortlinks_resolve_total{outcome=\"hit\"}", getResolveHits());
+        sample(sb, "shortlinks_resolve_total{outcome=\"miss\"}", getResolveMisses());
+        sample(sb, "shortlinks_resolve_total{outcome=\"expired\"}", getResolveExpired());
+        sample(sb, "shortlinks_resolve_total{outcome=\"limit_exceeded\"}", getResolveLimitExceeded());
+        counter(sb, "shortlinks_created_total", "Созданные ссылки.", getLinksCreated());
+        counter(sb, "shortlinks_code_retries_total", "Повторные попытки из-за занятого кода.", getCodeRetries());
+        counter(sb, "shortlinks_deduplicated_total", "Повторные запросы, вернувшие существующую ссылку.",
+                getLinksDeduplicated());
+        counter(sb, "shortlinks_deleted_total", "Ссылки, удалённые владельцем.", getLinksDeleted());
+        counter(sb, "shortlinks_limit_edits_total", "Изменения лимита переходов.", getLimitEdits());
+        gauge(sb, "shortlinks_live_links", "Ссылки в хранилище.", getLiveLinks());
+        if (store.indexesOwners()) {
+            int[] owners = ownerStats();
+            gauge(sb, "shortlinks_owners", "Владельцы хотя бы одной ссылки.", owners[0]);
+            gauge(sb, "shortlinks_max_links_per_owner", "Наибольшее число ссылок у одного владельца.", owners[1]);
+        }
+        CachingLinkStore cache = layer(CachingLinkStore.class);
+        if (cache != null) {
+            sb.append("# HELP shortlinks_cache_requests_total Обращения к кэшу горячих ссылок.\n");
+            sb.append("# TYPE shortlinks_cache_requests_total counter\n");
+            sample(sb, "shortlinks_cache_requests_total{result=\"hit\"}", cache.getHitCount());
+            sample(sb, "shortlinks_cache_requests_total{result=\"miss\"}", cache.getMissCount());
+            counter(sb, "shortlinks_cache_evictions_total", "Ссылки, вытесненные из кэша.", cache.getEvictionCount());
+            gauge(sb, "shortlinks_cache_size", "Ссылки в кэше.", cache.getCachedCount());
+        }
+        FilteredLinkStore filter = layer(FilteredLinkStore.class);
+        if (filter != null) {
+            sb.append("# HELP shortlinks_filter_lookups_total Проверки кода фильтром несуществующих кодов.\n");
+            sb.append("# TYPE shortlinks_filter_lookups_total counter\n");
+            sample(sb, "shortlinks_filter_lookups_total{result=\"rejected\"}", filter.getRejectedCount());
+            sample(sb, "shortlinks_filter_lookups_total{result=\"passed\"}", filter.getPassedCount());
+            counter(sb, "shortlinks_filter_false_positives_total", "Пропущенные фильтром коды, которых нет в хранилище.",
+                    filter.getFalsePositiveCount());
+            gauge(sb, "shortlinks_filter_size", "Коды в фильтре.", filter.getFilteredCount());
+        }
+        LeaderLinkStore leader = layer(LeaderLinkStore.class);
+        if (leader != null) {
+            gauge(sb, "shortlinks_replication_followers", "Подключённые ведомые узлы.", leader.getFollowerCount());
+            counter(sb, "shortlinks_replication_received_clicks_total", "Переходы, присланные ведомыми узлами.",
+                    leader.getReceivedClicks());
+            counter(sb, "shortlinks_replication_overshoot_clicks_total",
+                    "Переходы ведомых узлов сверх лимита ссылки.", leader.getOvershootClicks());
+        }
+        FollowerLinkStore follower = layer(FollowerLinkStore.class);
+        if (follower != null) {
+            gauge(sb, "shortlinks_replication_lag_milliseconds", "Отставание от ведущего узла.", follower.getLagMillis());
+            gauge(sb, "shortlinks_replication_applied_sequence", "Номер последнего применённого изменения.",
+                    follower.getAppliedSequence());
+            counter(sb, "shortlinks_replication_snapshots_total", "Снимки, полученные от ведущего узла.",
+                    follower.getSnapshotCount());
+        }
+        AdmissionController current = admission;
+        if (current != null) {
+            gauge(sb, "shortlinks_admission_limit", "Предел одновременных операций.", current.getConcurrencyLimit());
+            gauge(sb, "shortlinks_admission_in_flight", "Выполняемые операции.", current.getInFlight());
+            sb.append("# HELP shortlinks_admission_rejected_total Запросы, отклонённые при перегрузке.\n");
+            sb.append("# TYPE shortlinks_admission_rejected_total counter\n");
+            sample(sb, "shortlinks_admission_rejected_total{request=\"resolve_known\"}",
+                    current.getRejectedResolves() - current.getRejectedUnknownResolves());
+            sample(sb, "shortlinks_admission_rejected_total{request=\"resolve_unknown\"}",
+                    current.getRejectedUnknownResolves());
+            sample(sb, "shortlinks_admission_rejected_total{request=\"create\"}", current.getShedCreates());
+            counter(sb, "shortlinks_admission_rate_limited_total", "Создания сверх корзины токенов владельца.",
+                    current.getRateLimitedCreates());
+        }
+        // Время перехода замеряется выборочно, поэтому _count и _sum по гистограмме занижали бы число переходов:
+        // число переходов даёт shortlinks_resolve_total
+        summary(sb, "shortlinks_resolve_latency_seconds", "Время перехода (выборка).", resolveLatency.snapshot(), false);
+        summary(sb, "shortlinks_create_latency_seconds", "Время создания ссылки.", createLatency.snapshot(), true);
+        return sb.toString();
+    }
+
+    // Слой хранилища нужного типа: кэш и фильтр могут стоять друг перед другом, ведущий узел репликации - перед ними
+    private <T extends LinkStore> T layer(Class<T> type) {
+        LinkStore current = store;
+        while (current != null) {
+            if (type.isInstance(current)) {
+                return type.cast(current);
+            }
+            if (current instanceof CachingLinkStore) {
+                current = ((CachingLinkStore) current).getBackend();
+            } else if (current instanceof FilteredLinkStore) {
+                current = ((FilteredLinkStore) current).getBackend();
+            } else if (current instanceof LeaderLinkStore) {
+                current = ((LeaderLinkStore) current).getBackend();
+            } else {
+                current = null;
+            }
+        }
+        return null;
+    }
+
+    // [число владельцев, наибольший список]; {-1, -1}, если хранилище не ведёт индекс владельцев и подсчёт
+    // потребовал бы обойти все ссылки
+    private int[] ownerStats() {
+        if (!store.indexesOwners()) {
+            return new int[]{-1, -1};
+        }
+        int[] stats = new int[2];
+        store.forEachOwner((owner, count) -> {
+            stats[0]++;
+            stats[1] = Math.max(stats[1], count);
+        });
+        return stats;
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sample(sb, name, value);
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sample(sb, name, value);
+    }
+
+    private static void summary(StringBuilder sb, String name, String help, LatencyHistogram.Snapshot snapshot,
+                                boolean totals) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            sb.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(snapshot.getValueAtPercentile(quantile * 100))).append('\n');
+        }
+        if (totals) {
+            sb.append(name).append("_sum ").append(seconds(snapshot.getMean() * snapshot.getTotalCount())).append('\n');
+            sample(sb, name + "_count", snapshot.getTotalCount());
+        }
+    }
+
+    private static void sample(StringBuilder sb, String name, long value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(double nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static ObjectName objectName(String name) throws JMException {
+        return new ObjectName("com.denzo:type=UrlShorter,name=" + ObjectName.quote(name));
+    }
+}
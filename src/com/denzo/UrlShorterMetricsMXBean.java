@@ -0,0 +1,61 @@
+package com.denzo;
+
+// Метрики UrlShorter в JMX (jconsole, VisualVM). Задержки - в наносекундах.
+public interface UrlShorterMetricsMXBean {
+    long getResolveHits();
+
+    long getResolveMisses();
+
+    long getResolveExpired();
+
+    long getResolveLimitExceeded();
+
+    long getLinksCreated();
+
+    long getCodeRetries();
+
+    long getLinksDeduplicated();
+
+    long getLinksDeleted();
+
+    long getLimitEdits();
+
+    long getLiveLinks();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getCacheHitRatio();
+
+    long getFilterRejections();
+
+    long getFilterFalsePositives();
+
+    long getReplicationLagMillis();
+
+    int getAdmissionLimit();
+
+    long getAdmissionRejectedResolves();
+
+    long getAdmissionRejectedCreates();
+
+    // -1, если хранилище не ведёт индекс владельцев (см. LinkStore.indexesOwners)
+    int getOwners();
+
+    int getMaxLinksPerOwner();
+
+    long getResolveLatencyP50();
+
+    long getResolveLatencyP99();
+
+    long getResolveLatencyP999();
+
+    long getResolveLatencyMax();
+
+    long getCreateLatencyP50();
+
+    long getCreateLatencyP99();
+
+    long getCreateLatencyMax();
+}